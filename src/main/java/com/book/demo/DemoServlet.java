@@ -1,5 +1,7 @@
 package com.book.demo;
 
+import com.book.demo.trace.DeserializationFilter;
+import com.book.demo.trace.DeserializationMetrics;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -101,13 +103,7 @@ public class DemoServlet extends HttpServlet {
     
     private Object deserializeFromBase64(String base64Data) throws IOException, ClassNotFoundException {
         byte[] serializedData = Base64.getDecoder().decode(base64Data);
-        ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
-        ObjectInputStream ois = new ObjectInputStream(bais);
-        
-        Object result = ois.readObject();
-        ois.close();
-        
-        return result;
+        return DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_SERVLET).deserialize(serializedData);
     }
     
     private String escapeJson(String str) {
@@ -2,6 +2,7 @@ package com.book.demo;
 
 import com.book.demo.framework.spring.SpringDeserializationDemo;
 import com.book.demo.jvm.JVMExecutionVisualizer;
+import com.book.demo.trace.DeserializationMetrics;
 import com.book.demo.trace.TraceableObjectInputStream;
 import com.book.demo.components.ServletDeserializationTracer;
 import com.book.demo.components.FilterDeserializationTracer;
@@ -466,6 +467,7 @@ public class DeserializationDemoResource {
         byte[] serializedData = baos.toByteArray();
         ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
         TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true, true); // 启用教育模式
+        tois.setCallSite(DeserializationMetrics.CALL_SITE_DEMO);
         
         DemoObject deserializedObj = (DemoObject) tois.readObjectWithEducationalTrace();
         tois.close();
@@ -509,6 +511,7 @@ public class DeserializationDemoResource {
         byte[] serializedData = baos.toByteArray();
         ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
         TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true, true); // 启用教育模式
+        tois.setCallSite(DeserializationMetrics.CALL_SITE_DEMO);
         
         VulnerableDemo deserializedObj = (VulnerableDemo) tois.readObjectWithEducationalTrace();
         tois.close();
@@ -558,6 +561,7 @@ public class DeserializationDemoResource {
         byte[] serializedData = baos.toByteArray();
         ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
         TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true, true); // 启用教育模式
+        tois.setCallSite(DeserializationMetrics.CALL_SITE_DEMO);
         
         GadgetChainDemo deserializedObj = (GadgetChainDemo) tois.readObjectWithEducationalTrace();
         tois.close();
@@ -608,6 +612,7 @@ public class DeserializationDemoResource {
         byte[] serializedData = baos.toByteArray();
         ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
         TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true, true); // 启用教育模式
+        tois.setCallSite(DeserializationMetrics.CALL_SITE_DEMO);
         
         long startTime = System.currentTimeMillis();
         DemoObject deserializedObj = (DemoObject) tois.readObjectWithEducationalTrace();
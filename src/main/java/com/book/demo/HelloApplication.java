@@ -15,6 +15,8 @@ public class HelloApplication extends Application {
         // 显式注册资源类
         classes.add(HelloResource.class);
         classes.add(DeserializationDemoResource.class);
+        classes.add(MetricsResource.class);
+        classes.add(TraceStoreResource.class);
         
         return classes;
     }
@@ -0,0 +1,18 @@
+package com.book.demo;
+
+import com.book.demo.trace.DeserializationMetrics;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+
+/**
+ * 进程级反序列化指标，Prometheus文本格式
+ */
+@Path("/metrics")
+public class MetricsResource {
+    @GET
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public String metrics() {
+        return DeserializationMetrics.toPrometheusText();
+    }
+}
@@ -0,0 +1,90 @@
+package com.book.demo;
+
+import com.book.demo.trace.StoredTrace;
+import com.book.demo.trace.TraceStore;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.List;
+
+/**
+ * 查询进程内追踪存储，例如 /api/traces?class=LazyMap&amp;stepType=RESOLVE_CLASS&amp;sinceMinutes=60
+ * 追踪流默认不写入存储，通过 -Dcom.book.demo.trace.store.autoPublish=true 开启
+ */
+@Path("/traces")
+public class TraceStoreResource {
+
+    private static final int MAX_LIMIT = 1000;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response query(@QueryParam("class") String className,
+                          @QueryParam("stepType") String stepType,
+                          @QueryParam("sinceMinutes") @DefaultValue("0") long sinceMinutes,
+                          @QueryParam("from") @DefaultValue("0") long fromMillis,
+                          @QueryParam("to") @DefaultValue("0") long toMillis,
+                          @QueryParam("limit") @DefaultValue("50") int limit) {
+        if (limit <= 0 || limit > MAX_LIMIT || sinceMinutes < 0) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity("{\"error\":\"limit必须在1到" + MAX_LIMIT + "之间，sinceMinutes不能为负数\"}").build();
+        }
+        long now = System.currentTimeMillis();
+        // 超过纪元以来的分钟数时窗口没有意义，且sinceMinutes * 60_000可能溢出
+        if (sinceMinutes > now / 60_000) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity("{\"error\":\"sinceMinutes不能超过" + now / 60_000 + "\"}").build();
+        }
+        if (sinceMinutes > 0) {
+            fromMillis = Math.max(fromMillis, now - sinceMinutes * 60_000);
+        }
+        if (fromMillis < 0 || toMillis < 0 || (toMillis > 0 && fromMillis > toMillis)) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity("{\"error\":\"from和to不能为负数，且from不能晚于to\"}").build();
+        }
+        long start = System.nanoTime();
+        List<StoredTrace> traces = TraceStore.getDefault().query(blankToNull(className), blankToNull(stepType),
+                                                                 fromMillis, toMillis, limit);
+        long tookMicros = (System.nanoTime() - start) / 1_000;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"count\":").append(traces.size()).append(",");
+        json.append("\"tookMicros\":").append(tookMicros).append(",");
+        json.append("\"traces\":[");
+        for (int i = 0; i < traces.size(); i++) {
+            if (i > 0) json.append(",");
+            json.append(traces.get(i).toJsonString(false));
+        }
+        json.append("]}");
+        return Response.ok(json.toString()).build();
+    }
+
+    @GET
+    @Path("/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String stats() {
+        return TraceStore.getDefault().toJsonString();
+    }
+
+    @GET
+    @Path("/{id: [0-9]+}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@PathParam("id") long id) {
+        StoredTrace trace = TraceStore.getDefault().get(id);
+        if (trace == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity("{\"error\":\"trace " + id + " not found\"}").build();
+        }
+        return Response.ok(trace.toJsonString(true)).build();
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+}
@@ -1,5 +1,11 @@
 package com.book.demo.components;
 
+import com.book.demo.trace.CapturedStack;
+import com.book.demo.trace.ObjectRetention;
+import com.book.demo.trace.RetainedObject;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 public class ComponentExecutionStep implements Serializable {
@@ -9,35 +15,44 @@ public class ComponentExecutionStep implements Serializable {
     private final long timestamp;
     private final String stepType;
     private final String message;
-    private final Object relatedObject;
-    private final String relatedObjectInfo;
-    private final StackTraceElement[] stackTrace;
+    private final RetainedObject relatedObject;
+    // 首次读取时才渲染，避免在记录路径上调用用户的toString()
+    private volatile String relatedObjectInfo;
+    private final CapturedStack stackTrace;
     
     public ComponentExecutionStep(int stepNumber, long timestamp, String stepType, 
                                 String message, Object relatedObject, StackTraceElement[] stackTrace) {
+        this(stepNumber, timestamp, stepType, message, relatedObject, CapturedStack.of(stackTrace));
+    }
+    
+    public ComponentExecutionStep(int stepNumber, long timestamp, String stepType, 
+                                String message, Object relatedObject, CapturedStack stackTrace) {
+        this(stepNumber, timestamp, stepType, message, relatedObject, stackTrace, ObjectRetention.getDefault());
+    }
+    
+    public ComponentExecutionStep(int stepNumber, long timestamp, String stepType, 
+                                String message, Object relatedObject, CapturedStack stackTrace,
+                                ObjectRetention retention) {
         this.stepNumber = stepNumber;
         this.timestamp = timestamp;
         this.stepType = stepType;
         this.message = message;
-        this.relatedObject = relatedObject;
-        this.relatedObjectInfo = buildObjectInfo(relatedObject);
+        this.relatedObject = RetainedObject.of(relatedObject, retention);
         this.stackTrace = stackTrace;
     }
     
-    private String buildObjectInfo(Object obj) {
-        if (obj == null) return "null";
+    private String buildObjectInfo() {
+        if (relatedObject == null) return "null";
         
         StringBuilder info = new StringBuilder();
-        info.append("Class: ").append(obj.getClass().getSimpleName());
-        info.append(", Hash: ").append(System.identityHashCode(obj));
+        info.append("Class: ").append(relatedObject.getSimpleClassName());
+        info.append(", Hash: ").append(relatedObject.getIdentityHash());
+        if (relatedObject.getRetention() == ObjectRetention.IDENTITY) {
+            return info.toString();
+        }
         
         try {
-            String toString = obj.toString();
-            if (toString.length() > 80) {
-                info.append(", ToString: ").append(toString.substring(0, 80)).append("...");
-            } else {
-                info.append(", ToString: ").append(toString);
-            }
+            info.append(", ToString: ").append(relatedObject.describe(80));
         } catch (Exception e) {
             info.append(", ToString: <error>");
         }
@@ -45,6 +60,12 @@ public class ComponentExecutionStep implements Serializable {
         return info.toString();
     }
     
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // 对象本身不随步骤序列化，写出前先渲染对象信息
+        getRelatedObjectInfo();
+        out.defaultWriteObject();
+    }
+    
     public String getDescription() {
         return String.format("[%d] %s: %s", stepNumber, stepType, message);
     }
@@ -67,7 +88,19 @@ public class ComponentExecutionStep implements Serializable {
     public long getTimestamp() { return timestamp; }
     public String getStepType() { return stepType; }
     public String getMessage() { return message; }
-    public Object getRelatedObject() { return relatedObject; }
-    public String getRelatedObjectInfo() { return relatedObjectInfo; }
-    public StackTraceElement[] getStackTrace() { return stackTrace; }
+    /**
+     * 按保留策略返回相关对象，IDENTITY策略或弱引用已被回收时返回null
+     */
+    public Object getRelatedObject() { return relatedObject != null ? relatedObject.get() : null; }
+    public RetainedObject getRetainedObject() { return relatedObject; }
+    public String getRelatedObjectInfo() {
+        String info = relatedObjectInfo;
+        if (info == null) {
+            info = buildObjectInfo();
+            relatedObjectInfo = info;
+        }
+        return info;
+    }
+    public StackTraceElement[] getStackTrace() { return stackTrace != null ? stackTrace.toStackTraceElements() : null; }
+    public CapturedStack getCapturedStack() { return stackTrace; }
 }
\ No newline at end of file
@@ -1,5 +1,9 @@
 package com.book.demo.components;
 
+import com.book.demo.trace.DeserializationMetrics;
+import com.book.demo.trace.CapturedStack;
+import com.book.demo.trace.StackCapturePolicy;
+import com.book.demo.trace.TraceOutput;
 import com.book.demo.trace.TraceableObjectInputStream;
 import com.book.demo.trace.DeserializationStatistics;
 
@@ -68,6 +72,7 @@ public class FilterDeserializationTracer {
             byte[] serializedData = baos.toByteArray();
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_FILTER);
             
             recordStep("开始请求头反序列化追踪", "HEADER_DESERIALIZE_START");
             FilterRequestHeader deserializedHeader = (FilterRequestHeader) tois.readObjectWithTrace();
@@ -113,6 +118,7 @@ public class FilterDeserializationTracer {
             byte[] serializedData = baos.toByteArray();
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_FILTER);
             
             recordStep("开始Filter链反序列化追踪", "CHAIN_DESERIALIZE_START");
             FilterChainData deserializedChain = (FilterChainData) tois.readObjectWithTrace();
@@ -161,6 +167,7 @@ public class FilterDeserializationTracer {
             byte[] serializedData = baos.toByteArray();
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_FILTER);
             
             recordStep("开始Filter配置反序列化追踪", "CONFIG_DESERIALIZE_START");
             FilterConfigData deserializedConfig = (FilterConfigData) tois.readObjectWithTrace();
@@ -342,11 +349,11 @@ public class FilterDeserializationTracer {
             stepType,
             message,
             relatedObject,
-            Thread.currentThread().getStackTrace()
+            CapturedStack.capture(StackCapturePolicy.getDefault(), FilterDeserializationTracer.class)
         );
         
         executionSteps.add(step);
-        System.out.println("[FILTER-TRACE] " + message);
+        TraceOutput.println("[FILTER-TRACE] " + message);
     }
     
     // 获取追踪结果
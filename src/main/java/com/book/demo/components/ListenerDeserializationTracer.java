@@ -1,5 +1,9 @@
 package com.book.demo.components;
 
+import com.book.demo.trace.DeserializationMetrics;
+import com.book.demo.trace.CapturedStack;
+import com.book.demo.trace.StackCapturePolicy;
+import com.book.demo.trace.TraceOutput;
 import com.book.demo.trace.TraceableObjectInputStream;
 import com.book.demo.trace.DeserializationStatistics;
 
@@ -72,6 +76,7 @@ public class ListenerDeserializationTracer {
             // 使用TraceableObjectInputStream反序列化
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_LISTENER);
             
             recordStep("开始事件数据反序列化追踪", "EVENT_DESERIALIZE_START");
             ListenerEventData deserializedEvent = (ListenerEventData) tois.readObjectWithTrace();
@@ -124,6 +129,7 @@ public class ListenerDeserializationTracer {
             byte[] serializedData = baos.toByteArray();
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_LISTENER);
             
             recordStep("开始上下文数据反序列化追踪", "CONTEXT_DESERIALIZE_START");
             ListenerContextData deserializedContext = (ListenerContextData) tois.readObjectWithTrace();
@@ -177,6 +183,7 @@ public class ListenerDeserializationTracer {
             byte[] serializedData = baos.toByteArray();
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_LISTENER);
             
             recordStep("开始Listener配置反序列化追踪", "CONFIG_DESERIALIZE_START");
             ListenerConfigData deserializedConfig = (ListenerConfigData) tois.readObjectWithTrace();
@@ -422,11 +429,11 @@ public class ListenerDeserializationTracer {
             stepType,
             message,
             relatedObject,
-            Thread.currentThread().getStackTrace()
+            CapturedStack.capture(StackCapturePolicy.getDefault(), ListenerDeserializationTracer.class)
         );
         
         executionSteps.add(step);
-        System.out.println("[LISTENER-TRACE] " + message);
+        TraceOutput.println("[LISTENER-TRACE] " + message);
     }
     
     // 获取追踪结果
@@ -1,5 +1,9 @@
 package com.book.demo.components;
 
+import com.book.demo.trace.DeserializationMetrics;
+import com.book.demo.trace.CapturedStack;
+import com.book.demo.trace.StackCapturePolicy;
+import com.book.demo.trace.TraceOutput;
 import com.book.demo.trace.TraceableObjectInputStream;
 import com.book.demo.trace.DeserializationStep;
 import com.book.demo.trace.DeserializationStatistics;
@@ -74,6 +78,7 @@ public class ServletDeserializationTracer {
             // 使用TraceableObjectInputStream反序列化
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_SERVLET);
             
             recordStep("开始请求数据反序列化追踪", "REQUEST_DESERIALIZE_START");
             ServletRequestData deserializedData = (ServletRequestData) tois.readObjectWithTrace();
@@ -115,6 +120,7 @@ public class ServletDeserializationTracer {
             byte[] serializedData = baos.toByteArray();
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_SERVLET);
             
             recordStep("开始Session反序列化追踪", "SESSION_DESERIALIZE_START");
             SessionData deserializedSession = (SessionData) tois.readObjectWithTrace();
@@ -159,6 +165,7 @@ public class ServletDeserializationTracer {
             byte[] serializedData = baos.toByteArray();
             ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
             TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_SERVLET);
             
             recordStep("开始参数反序列化安全追踪", "PARAM_SECURITY_TRACE_START");
             SuspiciousParameterData deserializedParam = (SuspiciousParameterData) tois.readObjectWithTrace();
@@ -322,11 +329,11 @@ public class ServletDeserializationTracer {
             stepType,
             message,
             relatedObject,
-            Thread.currentThread().getStackTrace()
+            CapturedStack.capture(StackCapturePolicy.getDefault(), ServletDeserializationTracer.class)
         );
         
         executionSteps.add(step);
-        System.out.println("[SERVLET-TRACE] " + message);
+        TraceOutput.println("[SERVLET-TRACE] " + message);
     }
     
     // 获取追踪结果
@@ -1,5 +1,8 @@
 package com.book.demo.framework.spring;
 
+import com.book.demo.trace.DeserializationMetrics;
+import com.book.demo.trace.CapturedStack;
+import com.book.demo.trace.StackCapturePolicy;
 import com.book.demo.trace.TraceableObjectInputStream;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
@@ -75,9 +78,10 @@ public class SpringDeserializationDemo {
                 // 使用TraceableObjectInputStream反序列化
                 ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
                 TraceableObjectInputStream tois = new TraceableObjectInputStream(bais);
+                tois.setCallSite(DeserializationMetrics.CALL_SITE_SPRING);
                 
                 recordStep("开始Bean反序列化", "BEAN_DESERIALIZATION_START");
-                Object deserializedBean = tois.readObject();
+                Object deserializedBean = tois.readObjectWithTrace();
                 recordStep("Bean反序列化完成", "BEAN_DESERIALIZED", deserializedBean);
                 
                 // 分析反序列化过程
@@ -136,8 +140,9 @@ public class SpringDeserializationDemo {
                 byte[] serializedData = baos.toByteArray();
                 ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
                 TraceableObjectInputStream tois = new TraceableObjectInputStream(bais);
+                tois.setCallSite(DeserializationMetrics.CALL_SITE_SPRING);
                 
-                Object deserializedProxy = tois.readObject();
+                Object deserializedProxy = tois.readObjectWithTrace();
                 recordStep("代理对象反序列化完成", "PROXY_DESERIALIZE_SUCCESS", deserializedProxy);
                 
                 tois.close();
@@ -200,9 +205,10 @@ public class SpringDeserializationDemo {
                 byte[] serializedData = baos.toByteArray();
                 ByteArrayInputStream bais = new ByteArrayInputStream(serializedData);
                 TraceableObjectInputStream tois = new TraceableObjectInputStream(bais, true);
+                tois.setCallSite(DeserializationMetrics.CALL_SITE_SPRING);
                 
                 recordStep("开始自定义反序列化追踪", "CUSTOM_DESERIALIZE_TRACE_START");
-                CustomSerializableBean deserializedBean = (CustomSerializableBean) tois.readObject();
+                CustomSerializableBean deserializedBean = (CustomSerializableBean) tois.readObjectWithTrace();
                 recordStep("自定义反序列化完成", "CUSTOM_DESERIALIZE_COMPLETE", deserializedBean);
                 
                 // 显示自定义反序列化的效果
@@ -245,7 +251,7 @@ public class SpringDeserializationDemo {
         private void recordStep(String description, String stepType, Object relatedObject) {
             SpringExecutionStep step = new SpringExecutionStep(
                 System.nanoTime(),
-                Thread.currentThread().getStackTrace(),
+                CapturedStack.capture(StackCapturePolicy.getDefault(), SpringExecutionTracer.class),
                 description,
                 stepType,
                 relatedObject
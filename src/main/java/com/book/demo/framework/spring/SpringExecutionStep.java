@@ -1,18 +1,25 @@
 package com.book.demo.framework.spring;
 
+import com.book.demo.trace.CapturedStack;
+
 import java.util.List;
 import java.util.Map;
 
 public class SpringExecutionStep {
     
     private final long timestamp;
-    private final StackTraceElement[] stackTrace;
+    private final CapturedStack stackTrace;
     private final String description;
     private final String stepType;
     private final Object relatedObject;
     
     public SpringExecutionStep(long timestamp, StackTraceElement[] stackTrace,
                              String description, String stepType, Object relatedObject) {
+        this(timestamp, CapturedStack.of(stackTrace), description, stepType, relatedObject);
+    }
+    
+    public SpringExecutionStep(long timestamp, CapturedStack stackTrace,
+                             String description, String stepType, Object relatedObject) {
         this.timestamp = timestamp;
         this.stackTrace = stackTrace;
         this.description = description;
@@ -27,7 +34,8 @@ public class SpringExecutionStep {
     
     // Getters
     public long getTimestamp() { return timestamp; }
-    public StackTraceElement[] getStackTrace() { return stackTrace; }
+    public StackTraceElement[] getStackTrace() { return stackTrace != null ? stackTrace.toStackTraceElements() : null; }
+    public CapturedStack getCapturedStack() { return stackTrace; }
     public String getDescription() { return description; }
     public String getStepType() { return stepType; }
     public Object getRelatedObject() { return relatedObject; }
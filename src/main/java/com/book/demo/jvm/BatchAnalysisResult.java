@@ -0,0 +1,251 @@
+package com.book.demo.jvm;
+
+import com.book.demo.trace.DeserializationStatistics;
+import com.book.demo.trace.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批量反序列化分析结果
+ * 各个载荷的分析任务并发写入，判定、拒绝规则和统计在写入时合并
+ */
+public class BatchAnalysisResult {
+
+    /**
+     * 单个载荷的判定
+     */
+    public enum Verdict {
+        /** 通过扫描和过滤器，正常反序列化 */
+        SAFE,
+        /** 被字节级扫描器或反序列化过滤器拒绝 */
+        REJECTED,
+        /** 载荷损坏、无法读取或反序列化异常 */
+        ERROR
+    }
+
+    /**
+     * 单个载荷的分析结果
+     */
+    public static class PayloadVerdict {
+        private final long index;
+        private final String id;
+        private final Verdict verdict;
+        private final String rule;
+        private final String rootClass;
+        private final long bytes;
+        private final long durationNanos;
+        private final String message;
+        private final List<String> dangerousClasses;
+
+        public PayloadVerdict(long index, String id, Verdict verdict, String rule, String rootClass,
+                              long bytes, long durationNanos, String message, List<String> dangerousClasses) {
+            this.index = index;
+            this.id = id;
+            this.verdict = verdict;
+            this.rule = rule;
+            this.rootClass = rootClass;
+            this.bytes = bytes;
+            this.durationNanos = durationNanos;
+            this.message = message;
+            this.dangerousClasses = dangerousClasses != null ? dangerousClasses : Collections.emptyList();
+        }
+
+        // Getters
+        public long getIndex() { return index; }
+        public String getId() { return id; }
+        public Verdict getVerdict() { return verdict; }
+        public String getRule() { return rule; }
+        public String getRootClass() { return rootClass; }
+        public long getBytes() { return bytes; }
+        public long getDurationNanos() { return durationNanos; }
+        public String getMessage() { return message; }
+        public List<String> getDangerousClasses() { return dangerousClasses; }
+
+        @Override
+        public String toString() {
+            return String.format("[%d] %s: %s%s (%d bytes, %.3f ms)%s", index, id, verdict,
+                                 rule != null ? "/" + rule : "", bytes, durationNanos / 1_000_000.0,
+                                 rootClass != null ? " " + rootClass : "");
+        }
+
+        public String toJsonString() {
+            StringBuilder json = new StringBuilder();
+            json.append("{");
+            json.append("\"index\":").append(index).append(",");
+            json.append("\"id\":\"").append(escape(id)).append("\",");
+            json.append("\"verdict\":\"").append(verdict).append("\",");
+            json.append("\"rule\":\"").append(escape(rule)).append("\",");
+            json.append("\"rootClass\":\"").append(escape(rootClass)).append("\",");
+            json.append("\"bytes\":").append(bytes).append(",");
+            json.append("\"durationNanos\":").append(durationNanos).append(",");
+            json.append("\"message\":\"").append(escape(message)).append("\",");
+            json.append("\"dangerousClasses\":[");
+            for (int i = 0; i < dangerousClasses.size(); i++) {
+                if (i > 0) json.append(",");
+                json.append("\"").append(escape(dangerousClasses.get(i))).append("\"");
+            }
+            json.append("]}");
+            return json.toString();
+        }
+    }
+
+    private final ConcurrentLinkedQueue<PayloadVerdict> verdicts = new ConcurrentLinkedQueue<>();
+    private final Map<Verdict, LongAdder> verdictCounts = new EnumMap<>(Verdict.class);
+    private final Map<String, LongAdder> rejectRules = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> rootClasses = new ConcurrentHashMap<>();
+    private final DeserializationStatistics statistics = new DeserializationStatistics();
+    private final LatencyHistogram analysisLatency = new LatencyHistogram();
+    private final LongAdder totalBytes = new LongAdder();
+    private volatile long wallClockNanos;
+
+    public BatchAnalysisResult() {
+        for (Verdict verdict : Verdict.values()) {
+            verdictCounts.put(verdict, new LongAdder());
+        }
+    }
+
+    /**
+     * 记录一个载荷的判定，streamStatistics为该载荷追踪流的统计，可为null
+     */
+    void add(PayloadVerdict verdict, DeserializationStatistics streamStatistics) {
+        verdicts.add(verdict);
+        verdictCounts.get(verdict.getVerdict()).increment();
+        if (verdict.getRule() != null) {
+            rejectRules.computeIfAbsent(verdict.getRule(), r -> new LongAdder()).increment();
+        }
+        if (verdict.getRootClass() != null) {
+            rootClasses.computeIfAbsent(verdict.getRootClass(), c -> new LongAdder()).increment();
+        }
+        analysisLatency.record(verdict.getDurationNanos());
+        totalBytes.add(verdict.getBytes());
+        if (streamStatistics != null) {
+            statistics.merge(streamStatistics);
+        }
+    }
+
+    void setWallClockNanos(long wallClockNanos) {
+        this.wallClockNanos = wallClockNanos;
+    }
+
+    /**
+     * 按输入顺序返回所有载荷的判定
+     */
+    public List<PayloadVerdict> getVerdicts() {
+        List<PayloadVerdict> list = new ArrayList<>(verdicts);
+        list.sort(Comparator.comparingLong(PayloadVerdict::getIndex));
+        return list;
+    }
+
+    public List<PayloadVerdict> getVerdicts(Verdict verdict) {
+        List<PayloadVerdict> list = getVerdicts();
+        list.removeIf(v -> v.getVerdict() != verdict);
+        return list;
+    }
+
+    public long getCount(Verdict verdict) {
+        return verdictCounts.get(verdict).sum();
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (LongAdder counter : verdictCounts.values()) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    public Map<String, Long> getRejectRules() {
+        return snapshot(rejectRules);
+    }
+
+    public Map<String, Long> getRootClasses() {
+        return snapshot(rootClasses);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 所有载荷追踪流合并后的统计
+     */
+    public DeserializationStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * 单个载荷分析耗时的直方图
+     */
+    public LatencyHistogram getAnalysisLatency() {
+        return analysisLatency;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.sum();
+    }
+
+    public long getWallClockNanos() {
+        return wallClockNanos;
+    }
+
+    public void printSummary() {
+        System.out.println("=== 批量反序列化分析 ===");
+        System.out.println("载荷数: " + getTotalCount() + ", 总字节数: " + getTotalBytes());
+        System.out.println("总耗时: " + (wallClockNanos / 1_000_000.0) + " ms");
+        System.out.println("单个载荷耗时: " + analysisLatency);
+        for (Verdict verdict : Verdict.values()) {
+            System.out.println("  " + verdict + ": " + getCount(verdict));
+        }
+        if (!rejectRules.isEmpty()) {
+            System.out.println("拒绝规则: " + getRejectRules());
+        }
+        if (!statistics.getDangerousClasses().isEmpty()) {
+            System.out.println("危险类: " + statistics.getDangerousClasses());
+        }
+    }
+
+    public String toJsonString() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"total\":").append(getTotalCount()).append(",");
+        json.append("\"totalBytes\":").append(getTotalBytes()).append(",");
+        json.append("\"wallClockNanos\":").append(wallClockNanos).append(",");
+        json.append("\"verdicts\":{");
+        boolean first = true;
+        for (Verdict verdict : Verdict.values()) {
+            if (!first) json.append(",");
+            json.append("\"").append(verdict).append("\":").append(getCount(verdict));
+            first = false;
+        }
+        json.append("},");
+        json.append("\"rejectRules\":{");
+        first = true;
+        for (Map.Entry<String, Long> entry : getRejectRules().entrySet()) {
+            if (!first) json.append(",");
+            json.append("\"").append(escape(entry.getKey())).append("\":").append(entry.getValue());
+            first = false;
+        }
+        json.append("},");
+        json.append("\"statistics\":").append(statistics.toJsonSummary());
+        json.append("}");
+        return json.toString();
+    }
+
+    private static String escape(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
@@ -0,0 +1,317 @@
+package com.book.demo.jvm;
+
+import com.book.demo.trace.DeserializationFilter;
+import com.book.demo.trace.DeserializationLimits;
+import com.book.demo.trace.DeserializationMetrics;
+import com.book.demo.trace.DeserializationStatistics;
+import com.book.demo.trace.PayloadFingerprint;
+import com.book.demo.trace.PayloadRejectedException;
+import com.book.demo.trace.PayloadVerdictCache;
+import com.book.demo.trace.ScanResult;
+import com.book.demo.trace.SerializationStreamScanner;
+import com.book.demo.trace.TraceLevel;
+import com.book.demo.trace.TraceableObjectInputStream;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InvalidClassException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 批量反序列化分析引擎
+ * 每个载荷先经过字节级扫描，通过后在挂载过滤器的独立追踪流中反序列化；
+ * 载荷在虚拟线程或有界ForkJoinPool中并发分析，同时在途的任务数受并发上限约束，
+ * 读取目录或NDJSON时不会一次性把所有载荷载入内存
+ */
+public class BatchDeserializationAnalyzer {
+
+    /**
+     * 执行方式
+     */
+    public enum Mode {
+        /** 每个载荷一个虚拟线程 */
+        VIRTUAL_THREADS,
+        /** 并行度等于并发上限的ForkJoinPool */
+        FORK_JOIN
+    }
+
+    // NDJSON每行的字段名：载荷为Base64编码
+    public static final String NDJSON_ID_FIELD = "id";
+    public static final String NDJSON_PAYLOAD_FIELD = "payload";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private Mode mode = Mode.VIRTUAL_THREADS;
+    private int concurrency = Runtime.getRuntime().availableProcessors() * 2;
+    private TraceLevel traceLevel = TraceLevel.SUMMARY;
+    private DeserializationLimits limits = DeserializationLimits.defaults();
+    private boolean deserialize = true;
+    private PayloadVerdictCache verdictCache;
+
+    /**
+     * 一个待分析的载荷，数据在分析任务中才读取
+     */
+    private static final class PayloadSource {
+        final String id;
+        final Callable<byte[]> data;
+
+        PayloadSource(String id, Callable<byte[]> data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    public BatchAnalysisResult analyze(List<byte[]> payloads) {
+        List<PayloadSource> sources = new ArrayList<>(payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            byte[] payload = payloads.get(i);
+            sources.add(new PayloadSource("payload-" + i, () -> payload));
+        }
+        return run(sources.stream());
+    }
+
+    /**
+     * 分析目录中的每个普通文件，一个文件一个载荷
+     */
+    public BatchAnalysisResult analyzeDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return run(files.filter(Files::isRegularFile).sorted()
+                            .map(file -> new PayloadSource(file.getFileName().toString(),
+                                                           () -> Files.readAllBytes(file))));
+        }
+    }
+
+    /**
+     * 分析NDJSON流，每行一个JSON对象，payload字段为Base64编码的序列化数据，id字段可选
+     */
+    public BatchAnalysisResult analyzeNdjson(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        long[] lineNumber = {0};
+        try {
+            return run(reader.lines().map(line -> {
+                String defaultId = "line-" + (++lineNumber[0]);
+                if (line.isBlank()) {
+                    return null;
+                }
+                JsonNode node;
+                try {
+                    node = MAPPER.readTree(line);
+                } catch (IOException e) {
+                    return new PayloadSource(defaultId, () -> { throw e; });
+                }
+                JsonNode id = node.get(NDJSON_ID_FIELD);
+                return new PayloadSource(id != null && !id.isNull() ? id.asText() : defaultId,
+                                         () -> decodeNdjsonPayload(node));
+            }).filter(source -> source != null));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static byte[] decodeNdjsonPayload(JsonNode node) throws IOException {
+        JsonNode payload = node.get(NDJSON_PAYLOAD_FIELD);
+        if (payload == null || !payload.isTextual()) {
+            throw new IOException("missing \"" + NDJSON_PAYLOAD_FIELD + "\" field");
+        }
+        try {
+            return Base64.getDecoder().decode(payload.asText());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid base64 payload", e);
+        }
+    }
+
+    private BatchAnalysisResult run(Stream<PayloadSource> sources) {
+        BatchAnalysisResult result = new BatchAnalysisResult();
+        Semaphore inFlight = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        ExecutorService executor = mode == Mode.VIRTUAL_THREADS
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : new ForkJoinPool(concurrency);
+        try {
+            long[] index = {0};
+            sources.forEachOrdered(source -> {
+                long current = index[0]++;
+                inFlight.acquireUninterruptibly();
+                executor.execute(() -> {
+                    try {
+                        analyzeOne(current, source, result);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            });
+        } finally {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // 等待在途任务完成
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        result.setWallClockNanos(System.nanoTime() - start);
+        return result;
+    }
+
+    private void analyzeOne(long index, PayloadSource source, BatchAnalysisResult result) {
+        long start = System.nanoTime();
+        String id = source.id;
+        byte[] data;
+        try {
+            data = source.data.call();
+        } catch (Exception e) {
+            result.add(new BatchAnalysisResult.PayloadVerdict(index, id, BatchAnalysisResult.Verdict.ERROR,
+                null, null, 0, System.nanoTime() - start, "无法读取载荷: " + e.getMessage(), null), null);
+            return;
+        }
+
+        PayloadVerdictCache cache = verdictCache;
+        if (cache != null) {
+            PayloadVerdictCache.CachedVerdict cached = cachedVerdict(cache, data);
+            if (cached != null) {
+                ScanResult scan = cached.getScanResult();
+                boolean accepted = cached.isAccepted();
+                result.add(new BatchAnalysisResult.PayloadVerdict(index, id,
+                    accepted ? BatchAnalysisResult.Verdict.SAFE : BatchAnalysisResult.Verdict.REJECTED,
+                    accepted ? null : scan.getRejectRule(), cached.getRootClass(), data.length,
+                    System.nanoTime() - start, "cached", cached.getDangerousClasses()), null);
+                return;
+            }
+        }
+
+        SerializationStreamScanner scanner = new SerializationStreamScanner(limits);
+        if (!deserialize) {
+            ScanResult scan = scanner.scan(data);
+            BatchAnalysisResult.Verdict verdict = scan.isAccepted()
+                ? BatchAnalysisResult.Verdict.SAFE : BatchAnalysisResult.Verdict.REJECTED;
+            result.add(new BatchAnalysisResult.PayloadVerdict(index, id, verdict, scan.getRejectRule(), null,
+                data.length, System.nanoTime() - start, scan.getRejectReason(), scan.getDangerousClasses()), null);
+            return;
+        }
+
+        TraceableObjectInputStream tois = null;
+        try {
+            tois = TraceableObjectInputStream.openScanned(data, scanner, traceLevel, cache);
+            tois.setCallSite(DeserializationMetrics.CALL_SITE_BATCH);
+            tois.applyFilter(DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_BATCH));
+            Object root = tois.readObjectWithTrace();
+            DeserializationStatistics statistics = tois.getStatistics();
+            result.add(new BatchAnalysisResult.PayloadVerdict(index, id, BatchAnalysisResult.Verdict.SAFE, null,
+                root != null ? root.getClass().getName() : null, data.length, System.nanoTime() - start,
+                null, statistics.getDangerousClasses()), statistics);
+        } catch (PayloadRejectedException e) {
+            result.add(new BatchAnalysisResult.PayloadVerdict(index, id, BatchAnalysisResult.Verdict.REJECTED,
+                e.getRejectRule(), null, data.length, System.nanoTime() - start, e.getMessage(),
+                e.getScanResult().getDangerousClasses()), null);
+        } catch (InvalidClassException e) {
+            // 过滤器拒绝时ObjectInputStream抛出InvalidClassException
+            result.add(new BatchAnalysisResult.PayloadVerdict(index, id, BatchAnalysisResult.Verdict.REJECTED,
+                "filter", null, data.length, System.nanoTime() - start, e.getMessage(), null),
+                tois != null ? tois.getStatistics() : null);
+        } catch (Exception | StackOverflowError e) {
+            result.add(new BatchAnalysisResult.PayloadVerdict(index, id, BatchAnalysisResult.Verdict.ERROR,
+                null, null, data.length, System.nanoTime() - start, e.getClass().getSimpleName() + ": " +
+                e.getMessage(), null), tois != null ? tois.getStatistics() : null);
+        } finally {
+            if (tois != null) {
+                try {
+                    tois.close();
+                } catch (IOException ignored) {
+                    // 字节数组流关闭不会失败
+                }
+            }
+        }
+    }
+
+    /**
+     * 判定已足够时使用缓存：被拒绝的载荷、已追踪过的载荷，以及只扫描模式下扫描过的载荷
+     */
+    private PayloadVerdictCache.CachedVerdict cachedVerdict(PayloadVerdictCache cache, byte[] data) {
+        PayloadFingerprint fingerprint = PayloadFingerprint.keyed(data);
+        PayloadVerdictCache.CachedVerdict cached = cache.peek(fingerprint);
+        if (cached == null || (cached.isAccepted() && deserialize && !cached.isTraced())) {
+            return null;
+        }
+        // 计入命中并刷新LRU顺序
+        return cache.get(fingerprint);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode != null ? mode : Mode.VIRTUAL_THREADS;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * 同时在途的载荷数上限，FORK_JOIN模式下同时也是线程池并行度
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency必须大于0: " + concurrency);
+        }
+        this.concurrency = concurrency;
+    }
+
+    public TraceLevel getTraceLevel() {
+        return traceLevel;
+    }
+
+    public void setTraceLevel(TraceLevel traceLevel) {
+        this.traceLevel = traceLevel != null ? traceLevel : TraceLevel.SUMMARY;
+    }
+
+    public DeserializationLimits getLimits() {
+        return limits;
+    }
+
+    public void setLimits(DeserializationLimits limits) {
+        this.limits = limits != null ? limits : DeserializationLimits.defaults();
+    }
+
+    public PayloadVerdictCache getVerdictCache() {
+        return verdictCache;
+    }
+
+    /**
+     * 设置载荷判定缓存，重复的载荷直接使用缓存的判定，传入null关闭缓存
+     */
+    public void setVerdictCache(PayloadVerdictCache verdictCache) {
+        this.verdictCache = verdictCache;
+    }
+
+    public boolean isDeserialize() {
+        return deserialize;
+    }
+
+    /**
+     * 设为false时只做字节级扫描，不实例化任何对象
+     */
+    public void setDeserialize(boolean deserialize) {
+        this.deserialize = deserialize;
+    }
+}
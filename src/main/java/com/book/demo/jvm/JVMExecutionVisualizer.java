@@ -1,5 +1,8 @@
 package com.book.demo.jvm;
 
+import com.book.demo.trace.BinaryTraceReader;
+import com.book.demo.trace.CapturedStack;
+import com.book.demo.trace.StackCapturePolicy;
 import com.book.demo.trace.TraceableObjectInputStream;
 import javassist.*;
 
@@ -69,6 +72,35 @@ public class JVMExecutionVisualizer {
         }
     }
     
+    /**
+     * 从二进制追踪日志离线回放单个流的反序列化过程
+     */
+    public DeserializationVisualization visualizeTraceLog(java.nio.file.Path traceLog, int streamId)
+            throws IOException {
+        try (BinaryTraceReader reader = BinaryTraceReader.open(traceLog)) {
+            return new DeserializationVisualization(reader.readSteps(streamId), new ArrayList<>(),
+                                                    reader.replayStatistics(streamId));
+        }
+    }
+    
+    /**
+     * 并发分析一批载荷，每个载荷使用独立的追踪流，判定和统计合并到同一个结果中
+     */
+    public BatchAnalysisResult visualizeDeserializationBatch(List<byte[]> payloads) {
+        return new BatchDeserializationAnalyzer().analyze(payloads);
+    }
+    
+    public BatchAnalysisResult visualizeDeserializationBatch(java.nio.file.Path directory) throws IOException {
+        return new BatchDeserializationAnalyzer().analyzeDirectory(directory);
+    }
+    
+    /**
+     * 分析NDJSON格式的载荷流，每行形如{"id":"...","payload":"<Base64>"}
+     */
+    public BatchAnalysisResult visualizeDeserializationBatch(InputStream ndjson) throws IOException {
+        return new BatchDeserializationAnalyzer().analyzeNdjson(ndjson);
+    }
+    
     public MethodCallVisualization traceMethodCalls(Runnable code) {
         List<MethodCallFrame> methodCalls = new ArrayList<>();
         
@@ -127,7 +159,7 @@ public class JVMExecutionVisualizer {
     private void recordFrame(String description, String type, Object relatedObject) {
         ExecutionFrame frame = new ExecutionFrame(
             System.nanoTime(),
-            Thread.currentThread().getStackTrace(),
+            CapturedStack.capture(StackCapturePolicy.getDefault(), JVMExecutionVisualizer.class),
             description,
             type,
             relatedObject
@@ -138,13 +170,18 @@ public class JVMExecutionVisualizer {
     // 内部类：执行帧
     public static class ExecutionFrame {
         private final long timestamp;
-        private final StackTraceElement[] stackTrace;
+        private final CapturedStack stackTrace;
         private final String description;
         private final String type;
         private final Object relatedObject;
         
         public ExecutionFrame(long timestamp, StackTraceElement[] stackTrace, 
                             String description, String type, Object relatedObject) {
+            this(timestamp, CapturedStack.of(stackTrace), description, type, relatedObject);
+        }
+        
+        public ExecutionFrame(long timestamp, CapturedStack stackTrace, 
+                            String description, String type, Object relatedObject) {
             this.timestamp = timestamp;
             this.stackTrace = stackTrace;
             this.description = description;
@@ -166,21 +203,16 @@ public class JVMExecutionVisualizer {
         }
         
         private String getRelevantStackFrame() {
-            if (stackTrace == null || stackTrace.length < 3) return "未知";
+            if (stackTrace == null || stackTrace.depth() == 0) return "未知";
             
-            for (int i = 2; i < Math.min(stackTrace.length, 6); i++) {
-                StackTraceElement frame = stackTrace[i];
-                if (!frame.getClassName().contains("JVMExecutionVisualizer")) {
-                    return frame.getClassName() + "." + frame.getMethodName() + 
-                           ":" + frame.getLineNumber();
-                }
-            }
-            return "内部调用";
+            String frame = stackTrace.findFrame("java.lang.Thread", "JVMExecutionVisualizer");
+            return frame != null ? frame : "内部调用";
         }
         
         // Getters
         public long getTimestamp() { return timestamp; }
-        public StackTraceElement[] getStackTrace() { return stackTrace; }
+        public StackTraceElement[] getStackTrace() { return stackTrace != null ? stackTrace.toStackTraceElements() : null; }
+        public CapturedStack getCapturedStack() { return stackTrace; }
         public String getDescription() { return description; }
         public String getType() { return type; }
         public Object getRelatedObject() { return relatedObject; }
@@ -0,0 +1,378 @@
+package com.book.demo.memshell;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Loader;
+import org.apache.catalina.core.ApplicationFilterConfig;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.Servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 组件基线
+ * 在启动完成后（web.xml、注解和ServletContainerInitializer注册的组件都已就绪，业务代码运行之前）记录
+ * Context中的Servlet、Filter、FilterMap和Listener及其类名，每个组件保存一个描述串的SHA-256和定义类的类加载器；
+ * 扫描时只需比较哈希和类加载器，启动后新增或被修改的组件（包括换成其他类加载器中的同名类）才交给分析器
+ */
+public final class ComponentBaseline {
+
+    /**
+     * 组件相对基线的状态
+     */
+    public enum Status {
+        UNCHANGED, ADDED, MUTATED, REMOVED
+    }
+
+    /**
+     * 基线中的一个组件
+     */
+    public static final class Entry {
+        private final String hash;
+        private final String className;
+        // 类加载器类型和代码来源，可以持久化；组件只有声明的类名时为null
+        private final String loader;
+        // 进程内按标识比较类加载器，弱引用不阻止Web应用卸载；从文件加载的基线中为null
+        private final WeakReference<ClassLoader> loaderRef;
+        // 组件的类加载器是否为Context的Web应用类加载器或其上级
+        private final boolean contextLoader;
+
+        Entry(String hash, String className) {
+            this(hash, className, null, null, true);
+        }
+
+        Entry(String hash, String className, String loader, ClassLoader loaderRef, boolean contextLoader) {
+            this.hash = hash;
+            this.className = className;
+            this.loader = loader;
+            this.loaderRef = loader != null && loaderRef != null ? new WeakReference<>(loaderRef) : null;
+            this.contextLoader = contextLoader;
+        }
+
+        /**
+         * 当前组件的类加载器是否与基线一致：同一个类加载器，或者（Web应用重新加载、基线来自文件时）
+         * 类加载器类型和代码来源相同且属于Context；基线只有声明的类名时只要求当前类加载器属于Context
+         */
+        boolean sameLoader(Entry current) {
+            if (current.loader == null) {
+                return true;
+            }
+            if (loader == null) {
+                return current.contextLoader;
+            }
+            if (loaderRef != null && current.loaderRef != null && loaderRef.get() == current.loaderRef.get()) {
+                return true;
+            }
+            return loader.equals(current.loader) && current.contextLoader;
+        }
+
+        // Getters
+        public String getHash() { return hash; }
+        public String getClassName() { return className; }
+        public String getLoader() { return loader; }
+    }
+
+    private static final String CONTEXT_KEY = "context";
+    private static final String CAPTURED_AT_KEY = "capturedAt";
+    private static final String ENTRY_PREFIX = "entry.";
+
+    private final String contextKey;
+    private final long capturedAt;
+    private final Map<String, Entry> entries;
+
+    ComponentBaseline(String contextKey, long capturedAt, Map<String, Entry> entries) {
+        this.contextKey = contextKey;
+        this.capturedAt = capturedAt;
+        this.entries = Collections.unmodifiableMap(new LinkedHashMap<>(entries));
+    }
+
+    /**
+     * 以Context当前的组件作为基线
+     */
+    public static ComponentBaseline capture(StandardContext context) {
+        return new ComponentBaseline(MemoryShellDetector.contextKey(context), System.currentTimeMillis(),
+                                     snapshot(context));
+    }
+
+    /**
+     * Context当前所有组件的描述哈希
+     */
+    static Map<String, Entry> snapshot(StandardContext context) {
+        Map<String, Entry> snapshot = new LinkedHashMap<>();
+        for (Container child : context.findChildren()) {
+            if (child instanceof StandardWrapper) {
+                StandardWrapper wrapper = (StandardWrapper) child;
+                snapshot.put(servletKey(wrapper.getName()), describeServlet(context, wrapper, wrapper.getServlet()));
+            }
+        }
+
+        Map<String, List<FilterMap>> filterMaps = filterMaps(context);
+        Map<String, ApplicationFilterConfig> filterConfigs = TomcatInternals.filterConfigs(context);
+        Set<String> filterNames = new LinkedHashSet<>();
+        for (FilterDef filterDef : context.findFilterDefs()) {
+            filterNames.add(filterDef.getFilterName());
+        }
+        filterNames.addAll(filterConfigs.keySet());
+        for (String filterName : filterNames) {
+            Filter filter = null;
+            ApplicationFilterConfig filterConfig = filterConfigs.get(filterName);
+            try {
+                filter = filterConfig != null ? TomcatInternals.filter(filterConfig) : null;
+            } catch (Exception e) {
+                // 按FilterDef中的类名记录
+            }
+            snapshot.put(filterKey(filterName), describeFilter(context, filterName, filter,
+                                                               filterMaps.getOrDefault(filterName, List.of())));
+        }
+
+        Object[] eventListeners = context.getApplicationEventListeners();
+        for (int i = 0; i < eventListeners.length; i++) {
+            if (eventListeners[i] != null) {
+                snapshot.put(listenerKey("EventListener_", eventListeners, i),
+                             describeListener(context, eventListeners[i]));
+            }
+        }
+        Object[] lifecycleListeners = context.getApplicationLifecycleListeners();
+        for (int i = 0; i < lifecycleListeners.length; i++) {
+            if (lifecycleListeners[i] != null) {
+                snapshot.put(listenerKey("LifecycleListener_", lifecycleListeners, i),
+                             describeListener(context, lifecycleListeners[i]));
+            }
+        }
+        return snapshot;
+    }
+
+    static String servletKey(String servletName) {
+        return "servlet|" + servletName;
+    }
+
+    static String filterKey(String filterName) {
+        return "filter|" + filterName;
+    }
+
+    static String listenerKey(String prefix, Object[] listeners, int index) {
+        return "listener|" + listenerName(prefix, listeners, index);
+    }
+
+    /**
+     * 监听器没有名称，按类名和同类监听器中的序号标识，其他监听器的增删不影响它的名称
+     */
+    static String listenerName(String prefix, Object[] listeners, int index) {
+        String className = listeners[index].getClass().getName();
+        int occurrence = 0;
+        for (int i = 0; i < index; i++) {
+            if (listeners[i] != null && listeners[i].getClass().getName().equals(className)) {
+                occurrence++;
+            }
+        }
+        return prefix + className + "#" + occurrence;
+    }
+
+    /**
+     * Servlet实例未加载时使用声明的类名，加载后类名相同则哈希不变
+     */
+    static Entry describeServlet(StandardContext context, StandardWrapper wrapper, Servlet servlet) {
+        String className = servlet != null ? servlet.getClass().getName() : wrapper.getServletClass();
+        String[] mappings = wrapper.findMappings();
+        Arrays.sort(mappings);
+        return entry(context, servlet, className, "servlet", wrapper.getName(), className, String.join(",", mappings));
+    }
+
+    static Entry describeFilter(StandardContext context, String filterName, Filter filter, List<FilterMap> maps) {
+        FilterDef filterDef = context.findFilterDef(filterName);
+        Filter instance = filter != null ? filter : filterDef != null ? filterDef.getFilter() : null;
+        String className = instance != null ? instance.getClass().getName()
+            : filterDef != null ? filterDef.getFilterClass() : null;
+        List<String> mappings = new ArrayList<>();
+        for (FilterMap map : maps) {
+            mappings.add(String.join(",", map.getURLPatterns()) + ";" + String.join(",", map.getServletNames()) +
+                         ";" + map.getDispatcherMapping());
+        }
+        Collections.sort(mappings);
+        return entry(context, instance, className, "filter", filterName, className, String.join("|", mappings));
+    }
+
+    static Entry describeListener(StandardContext context, Object listener) {
+        String className = listener.getClass().getName();
+        return entry(context, listener, className, "listener", className);
+    }
+
+    /**
+     * @param instance 组件实例，只有声明的类名时为null，此时不记录类加载器
+     */
+    private static Entry entry(StandardContext context, Object instance, String className, String... parts) {
+        String description = String.join("\n", Arrays.stream(parts).map(String::valueOf).toArray(String[]::new));
+        String hash = sha256Hex(description);
+        if (instance == null) {
+            return new Entry(hash, className);
+        }
+        Class<?> type = instance.getClass();
+        ClassLoader loader = type.getClassLoader();
+        return new Entry(hash, className, describeLoader(type), loader, isContextLoader(context, loader));
+    }
+
+    /**
+     * 哈希相同即跳过分析，必须抗碰撞：非加密哈希可以被构造出与基线相同的描述串
+     */
+    private static String sha256Hex(String description) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(description.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // 每个Java平台都必须提供SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 类加载器类型加上类的代码来源，跨进程保持不变
+     */
+    static String describeLoader(Class<?> type) {
+        ClassLoader loader = type.getClassLoader();
+        if (loader == null) {
+            return "bootstrap";
+        }
+        CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+        URL location = codeSource != null ? codeSource.getLocation() : null;
+        return loader.getClass().getName() + " " + (location != null ? location.toExternalForm() : "-");
+    }
+
+    /**
+     * 类加载器是否为Context的Web应用类加载器或其上级，Context尚未创建Loader时从上级类加载器开始
+     */
+    static boolean isContextLoader(StandardContext context, ClassLoader loader) {
+        if (loader == null) {
+            return true;
+        }
+        Loader contextLoader = context.getLoader();
+        ClassLoader current = contextLoader != null && contextLoader.getClassLoader() != null
+            ? contextLoader.getClassLoader() : context.getParentClassLoader();
+        for (; current != null; current = current.getParent()) {
+            if (current == loader) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按Filter名称分组的FilterMap
+     */
+    static Map<String, List<FilterMap>> filterMaps(StandardContext context) {
+        Map<String, List<FilterMap>> maps = new HashMap<>();
+        for (FilterMap map : context.findFilterMaps()) {
+            maps.computeIfAbsent(map.getFilterName(), n -> new ArrayList<>()).add(map);
+        }
+        return maps;
+    }
+
+    public Status status(String key, Entry current) {
+        Entry baseline = entries.get(key);
+        if (baseline == null) {
+            return Status.ADDED;
+        }
+        return baseline.hash.equals(current.hash) && baseline.sameLoader(current) ? Status.UNCHANGED : Status.MUTATED;
+    }
+
+    /**
+     * 与Context当前组件比较，返回状态不是UNCHANGED的组件
+     */
+    public Map<String, Status> diff(StandardContext context) {
+        Map<String, Entry> current = snapshot(context);
+        Map<String, Status> diff = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : current.entrySet()) {
+            Status status = status(entry.getKey(), entry.getValue());
+            if (status != Status.UNCHANGED) {
+                diff.put(entry.getKey(), status);
+            }
+        }
+        for (String key : entries.keySet()) {
+            if (!current.containsKey(key)) {
+                diff.put(key, Status.REMOVED);
+            }
+        }
+        return diff;
+    }
+
+    public void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(CONTEXT_KEY, contextKey);
+        properties.setProperty(CAPTURED_AT_KEY, Long.toString(capturedAt));
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            properties.setProperty(ENTRY_PREFIX + entry.getKey(), value.hash + " " + value.className +
+                                   (value.loader != null ? " " + value.loader : ""));
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Component baseline of " + contextKey);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static ComponentBaseline load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        String contextKey = properties.getProperty(CONTEXT_KEY);
+        if (contextKey == null) {
+            throw new IOException("不是组件基线文件: " + file);
+        }
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(ENTRY_PREFIX)) {
+                // 哈希、类名、类加载器描述（可选，本身含空格）
+                String[] parts = properties.getProperty(name).split(" ", 3);
+                entries.put(name.substring(ENTRY_PREFIX.length()), new Entry(parts[0],
+                    parts.length > 1 && !"null".equals(parts[1]) ? parts[1] : null,
+                    parts.length > 2 ? parts[2] : null, null, true));
+            }
+        }
+        return new ComponentBaseline(contextKey, Long.parseLong(properties.getProperty(CAPTURED_AT_KEY, "0")), entries);
+    }
+
+    // Getters
+    public String getContextKey() { return contextKey; }
+    public long getCapturedAt() { return capturedAt; }
+    public Map<String, Entry> getEntries() { return entries; }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ComponentBaseline[" + contextKey + ", " + entries.size() + " components]";
+    }
+}
@@ -0,0 +1,248 @@
+package com.book.demo.memshell;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.ContainerEvent;
+import org.apache.catalina.ContainerListener;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于容器事件的增量检测
+ * 在StandardContext上注册ContainerListener，Servlet、Filter定义或映射变化时只分析发生变化的组件；
+ * Tomcat的addApplicationEventListener/addApplicationLifecycleListener不触发容器事件，
+ * Listener通过定期比较监听器数组发现变化，数组未变时每次检查只做引用比较
+ */
+final class ContainerChangeMonitor implements ContainerListener {
+
+    // 注入代码通常在addFilterMap事件之后才写入filterConfigs，延迟一小段时间再分析
+    static final long SETTLE_MILLIS = 100;
+    static final long LISTENER_CHECK_MILLIS = 1000;
+    // 组件已声明但实例尚未创建时的重试次数，每次延迟加倍，之后由完整扫描兜底
+    static final int MAX_RETRIES = 5;
+
+    private static final String ADD_SERVLET_MAPPING_EVENT = "addServletMapping";
+    private static final String ADD_FILTER_DEF_EVENT = "addFilterDef";
+    private static final String ADD_FILTER_MAP_EVENT = "addFilterMap";
+    private static final String REMOVE_FILTER_DEF_EVENT = "removeFilterDef";
+    private static final String ADD_APPLICATION_LISTENER_EVENT = "addApplicationListener";
+
+    private final StandardContext context;
+    private final ScheduledExecutorService scheduler;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final LongAdder eventCount = new LongAdder();
+    private final LongAdder analysisCount = new LongAdder();
+    private volatile Object[] eventListeners;
+    private volatile Object[] lifecycleListeners;
+    private volatile long lastChangeTime;
+    private ScheduledFuture<?> listenerCheck;
+
+    ContainerChangeMonitor(StandardContext context, ScheduledExecutorService scheduler) {
+        this.context = context;
+        this.scheduler = scheduler;
+    }
+
+    void start() {
+        eventListeners = context.getApplicationEventListeners();
+        lifecycleListeners = context.getApplicationLifecycleListeners();
+        context.addContainerListener(this);
+        listenerCheck = scheduler.scheduleWithFixedDelay(this::checkListeners, LISTENER_CHECK_MILLIS,
+                                                         LISTENER_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        context.removeContainerListener(this);
+        if (listenerCheck != null) {
+            listenerCheck.cancel(false);
+        }
+    }
+
+    /**
+     * 在触发事件的线程上调用，这里只登记需要分析的组件，分析在检测线程上执行
+     */
+    @Override
+    public void containerEvent(ContainerEvent event) {
+        Object data = event.getData();
+        switch (event.getType()) {
+            case Container.ADD_CHILD_EVENT:
+                if (data instanceof Wrapper) {
+                    schedule(MemoryShell.Type.SERVLET, ((Wrapper) data).getName());
+                }
+                break;
+            case ADD_SERVLET_MAPPING_EVENT:
+                if (data instanceof String) {
+                    String servletName = context.findServletMapping((String) data);
+                    if (servletName != null) {
+                        schedule(MemoryShell.Type.SERVLET, servletName);
+                    }
+                }
+                break;
+            case Container.REMOVE_CHILD_EVENT:
+                if (data instanceof Wrapper) {
+                    eventCount.increment();
+                    MemoryShellDetector.forget(context, MemoryShell.Type.SERVLET, ((Wrapper) data).getName());
+                }
+                break;
+            case ADD_FILTER_DEF_EVENT:
+                if (data instanceof FilterDef) {
+                    schedule(MemoryShell.Type.FILTER, ((FilterDef) data).getFilterName());
+                }
+                break;
+            case ADD_FILTER_MAP_EVENT:
+                if (data instanceof FilterMap) {
+                    schedule(MemoryShell.Type.FILTER, ((FilterMap) data).getFilterName());
+                }
+                break;
+            case REMOVE_FILTER_DEF_EVENT:
+                if (data instanceof FilterDef) {
+                    eventCount.increment();
+                    MemoryShellDetector.forget(context, MemoryShell.Type.FILTER, ((FilterDef) data).getFilterName());
+                }
+                break;
+            case ADD_APPLICATION_LISTENER_EVENT:
+                // 按类名注册的监听器在启动时才实例化，这里只提前做一次数组比较
+                eventCount.increment();
+                submit(this::checkListeners);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 同一组件在延迟时间内的多次事件合并为一次分析
+     */
+    private void schedule(MemoryShell.Type type, String name) {
+        if (name == null) {
+            return;
+        }
+        eventCount.increment();
+        String key = type.name() + ':' + name;
+        if (pending.add(key)) {
+            scheduleAnalysis(type, name, key, 0);
+        }
+    }
+
+    /**
+     * 组件已声明但还没有实例时（如FilterDef只有类名、FilterConfig尚未创建）延迟重试
+     */
+    private void scheduleAnalysis(MemoryShell.Type type, String name, String key, int attempt) {
+        try {
+            scheduler.schedule(() -> {
+                pending.remove(key);
+                if (!analyze(type, name) && attempt < MAX_RETRIES && isDeclared(type, name) && pending.add(key)) {
+                    scheduleAnalysis(type, name, key, attempt + 1);
+                }
+            }, SETTLE_MILLIS << attempt, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+        }
+    }
+
+    private boolean isDeclared(MemoryShell.Type type, String name) {
+        return type == MemoryShell.Type.SERVLET
+            ? context.findChild(name) != null
+            : context.findFilterDef(name) != null || context.findFilterConfig(name) != null;
+    }
+
+    private void submit(Runnable task) {
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 检测已停止
+        }
+    }
+
+    /**
+     * 组件还没有实例可分析时返回false
+     */
+    private boolean analyze(MemoryShell.Type type, String name) {
+        try {
+            MemoryShellDetector.DetectionResult result = type == MemoryShell.Type.SERVLET
+                ? MemoryShellDetector.analyzeServletChange(context, name)
+                : MemoryShellDetector.analyzeFilterChange(context, name);
+            if (result == null) {
+                return false;
+            }
+            analysisCount.increment();
+            lastChangeTime = System.currentTimeMillis();
+        } catch (Exception e) {
+            System.err.println("[DETECTOR] 增量分析失败: " + name + " - " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * 比较监听器数组，只分析新出现的监听器
+     */
+    void checkListeners() {
+        try {
+            Object[] events = context.getApplicationEventListeners();
+            Object[] previousEvents = eventListeners;
+            if (!sameElements(events, previousEvents)) {
+                eventListeners = events;
+                analyzeNewListeners(events, previousEvents, "EventListener_");
+            }
+            Object[] lifecycles = context.getApplicationLifecycleListeners();
+            Object[] previousLifecycles = lifecycleListeners;
+            if (lifecycles != previousLifecycles && !sameElements(lifecycles, previousLifecycles)) {
+                lifecycleListeners = lifecycles;
+                analyzeNewListeners(lifecycles, previousLifecycles, "LifecycleListener_");
+            }
+        } catch (Exception e) {
+            System.err.println("[DETECTOR] Listener变化检查失败: " + e.getMessage());
+        }
+    }
+
+    private void analyzeNewListeners(Object[] current, Object[] previous, String prefix) {
+        for (int i = 0; i < current.length; i++) {
+            Object listener = current[i];
+            if (listener != null && !containsIdentity(previous, listener)) {
+                MemoryShellDetector.analyzeListenerChange(context, prefix, current, i);
+                analysisCount.increment();
+                lastChangeTime = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private static boolean sameElements(Object[] a, Object[] b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIdentity(Object[] array, Object value) {
+        if (array != null) {
+            for (Object element : array) {
+                if (element == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Getters
+    StandardContext getContext() { return context; }
+    long getEventCount() { return eventCount.sum(); }
+    long getAnalysisCount() { return analysisCount.sum(); }
+    long getLastChangeTime() { return lastChangeTime; }
+}
@@ -0,0 +1,114 @@
+package com.book.demo.memshell;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Engine;
+import org.apache.catalina.Host;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.Server;
+import org.apache.catalina.Service;
+import org.apache.catalina.core.StandardContext;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 整个Tomcat的Context发现
+ * 从任一已知的Context向上找到Engine，再经Server找到其他Service的Engine；
+ * 扫描时按 Server → Service → Engine → Host → Context 遍历，检测线程不需要Web应用类加载器
+ */
+final class EngineScanner {
+
+    // 系统属性：并行扫描的线程数，默认为CPU核数
+    static final String PARALLELISM_PROPERTY = "com.book.demo.memshell.scanParallelism";
+
+    private static final Set<Engine> engines = ConcurrentHashMap.newKeySet();
+    private static volatile ForkJoinPool pool;
+
+    private EngineScanner() {
+    }
+
+    /**
+     * 记录容器所属的Engine以及同一Server中的其他Engine
+     */
+    static void register(Container container) {
+        Container c = container;
+        while (c != null && !(c instanceof Engine)) {
+            c = c.getParent();
+        }
+        if (c == null) {
+            return;
+        }
+        Engine engine = (Engine) c;
+        Service service = engine.getService();
+        Server server = service != null ? service.getServer() : null;
+        if (server == null) {
+            engines.add(engine);
+            return;
+        }
+        for (Service s : server.findServices()) {
+            if (s.getContainer() != null) {
+                engines.add(s.getContainer());
+            }
+        }
+    }
+
+    /**
+     * 已知Engine下的所有Context，已销毁的Engine和Context被跳过
+     */
+    static Set<StandardContext> discoverContexts() {
+        Set<StandardContext> contexts = new LinkedHashSet<>();
+        for (Engine engine : engines) {
+            if (engine.getState() == LifecycleState.DESTROYED) {
+                engines.remove(engine);
+                continue;
+            }
+            for (Container host : engine.findChildren()) {
+                if (!(host instanceof Host)) {
+                    continue;
+                }
+                for (Container child : host.findChildren()) {
+                    if (child instanceof StandardContext && child.getState() != LifecycleState.DESTROYED) {
+                        contexts.add((StandardContext) child);
+                    }
+                }
+            }
+        }
+        return contexts;
+    }
+
+    static int getEngineCount() {
+        return engines.size();
+    }
+
+    static boolean isPoolActive() {
+        return pool != null;
+    }
+
+    static ForkJoinPool pool() {
+        ForkJoinPool p = pool;
+        if (p == null) {
+            synchronized (EngineScanner.class) {
+                p = pool;
+                if (p == null) {
+                    int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors());
+                    p = new ForkJoinPool(Math.max(parallelism, 1));
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * 实时检测停止时关闭并行扫描线程池，之后的扫描会重新创建
+     */
+    static synchronized void shutdownPool() {
+        ForkJoinPool p = pool;
+        if (p != null) {
+            pool = null;
+            p.shutdownNow();
+        }
+    }
+}
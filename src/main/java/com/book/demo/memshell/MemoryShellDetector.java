@@ -1,5 +1,8 @@
 package com.book.demo.memshell;
 
+import com.book.demo.rules.CompiledRuleSet;
+import com.book.demo.rules.SecurityRuleEngine;
+
 import org.apache.catalina.Container;
 import org.apache.catalina.Context;
 import org.apache.catalina.core.ApplicationFilterConfig;
@@ -11,28 +14,60 @@ import org.apache.tomcat.util.descriptor.web.FilterMap;
 import jakarta.servlet.Filter;
 import jakarta.servlet.Servlet;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * 内存马实时检测器
- * 用于检测和监控系统中的内存马
+ * 用于检测和监控系统中的内存马；能取得StandardContext时通过容器事件增量分析变化的组件，
+ * 完整扫描降为低频的一致性检查
  */
 public class MemoryShellDetector {
     
+    // 系统属性：增量检测开启时一致性检查（完整扫描）的间隔分钟数
+    public static final String CONSISTENCY_CHECK_PROPERTY = "com.book.demo.memshell.consistencyCheckMinutes";
+    public static final int DEFAULT_CONSISTENCY_CHECK_MINUTES = 10;
+    // 系统属性：完整扫描中单个Context的时间预算（毫秒），超出后该Context本次扫描提前结束
+    public static final String CONTEXT_BUDGET_PROPERTY = "com.book.demo.memshell.contextScanBudgetMillis";
+    public static final long DEFAULT_CONTEXT_BUDGET_MILLIS = 5_000;
+    // 系统属性：组件基线的保存目录，设置后基线写入该目录并在重启后读取，未设置时只保存在内存中
+    public static final String BASELINE_DIR_PROPERTY = "com.book.demo.memshell.baselineDir";
+    // 无法注册容器监听器时退回到定期完整扫描
+    private static final int FULL_SCAN_SECONDS = 30;
+    
     private static final Map<String, DetectionResult> detectionCache = new ConcurrentHashMap<>();
     private static final List<DetectionRecord> detectionHistory = Collections.synchronizedList(new ArrayList<>());
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private static final Map<StandardContext, ContainerChangeMonitor> monitors = new ConcurrentHashMap<>();
+    private static final Map<String, ComponentBaseline> baselines = new ConcurrentHashMap<>();
+    private static final Set<String> baselineLookups = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService scheduler;
+    
+    private static final LongAdder analyzedCount = new LongAdder();
+    private static final LongAdder unchangedCount = new LongAdder();
+    private static final LongAdder baselineMatchedCount = new LongAdder();
     
     private static boolean realTimeDetectionEnabled = false;
-    private static long lastScanTime = 0;
+    private static volatile long lastScanTime = 0;
     
     /**
      * 检测结果
+     * 扫描得到的结果以组件标识（Context、组件类型、组件名）为键保存在检测缓存中，
+     * 组件指纹不变时复用上一次的结果，变化时版本号加一
      */
     public static class DetectionResult {
         private final String id;
@@ -44,6 +79,15 @@ public class MemoryShellDetector {
         private final List<String> suspiciousFeatures;
         private final long detectionTime;
         private final Map<String, Object> metadata;
+        private String contextName;
+        private String fingerprint;
+        private int version = 1;
+        private long firstSeenTime;
+        private long lastChangedTime;
+        private volatile long lastSeenTime;
+        // 分析时使用的规则集，规则重新加载后需要重新分析
+        private CompiledRuleSet classRules;
+        private CompiledRuleSet mappingRules;
         
         public DetectionResult(String id, MemoryShell.Type type, String componentName, String className,
                              boolean suspicious, int riskLevel, List<String> suspiciousFeatures) {
@@ -56,6 +100,33 @@ public class MemoryShellDetector {
             this.suspiciousFeatures = new ArrayList<>(suspiciousFeatures);
             this.detectionTime = System.currentTimeMillis();
             this.metadata = new HashMap<>();
+            this.firstSeenTime = detectionTime;
+            this.lastChangedTime = detectionTime;
+            this.lastSeenTime = detectionTime;
+        }
+        
+        /**
+         * 记录组件指纹，previous为同一组件之前的结果
+         */
+        void track(String contextName, String fingerprint, DetectionResult previous) {
+            this.contextName = contextName;
+            this.fingerprint = fingerprint;
+            this.classRules = currentRules(SecurityRuleEngine.MEMSHELL_CLASS);
+            this.mappingRules = currentRules(SecurityRuleEngine.MEMSHELL_MAPPING);
+            if (previous != null) {
+                this.version = previous.version + 1;
+                this.firstSeenTime = previous.firstSeenTime;
+            }
+        }
+        
+        boolean isCurrent(String fingerprint) {
+            return fingerprint.equals(this.fingerprint) &&
+                   classRules == currentRules(SecurityRuleEngine.MEMSHELL_CLASS) &&
+                   mappingRules == currentRules(SecurityRuleEngine.MEMSHELL_MAPPING);
+        }
+        
+        void markSeen(long time) {
+            this.lastSeenTime = time;
         }
         
         // Getters
@@ -68,6 +139,12 @@ public class MemoryShellDetector {
         public List<String> getSuspiciousFeatures() { return suspiciousFeatures; }
         public long getDetectionTime() { return detectionTime; }
         public Map<String, Object> getMetadata() { return metadata; }
+        public String getContextName() { return contextName; }
+        public String getFingerprint() { return fingerprint; }
+        public int getVersion() { return version; }
+        public long getFirstSeenTime() { return firstSeenTime; }
+        public long getLastChangedTime() { return lastChangedTime; }
+        public long getLastSeenTime() { return lastSeenTime; }
         
         public void addMetadata(String key, Object value) {
             this.metadata.put(key, value);
@@ -82,13 +159,27 @@ public class MemoryShellDetector {
         private final int totalComponents;
         private final int suspiciousComponents;
         private final List<DetectionResult> suspiciousResults;
+        private final int contextCount;
+        private final List<String> incompleteContexts;
         
         public DetectionRecord(long scanTime, int totalComponents, int suspiciousComponents, 
                              List<DetectionResult> suspiciousResults) {
+            this(scanTime, totalComponents, suspiciousComponents, suspiciousResults, 1, Collections.emptyList());
+        }
+        
+        /**
+         * @param contextCount 本次扫描覆盖的Context数量
+         * @param incompleteContexts 超出时间预算、未扫描完整的Context
+         */
+        public DetectionRecord(long scanTime, int totalComponents, int suspiciousComponents,
+                             List<DetectionResult> suspiciousResults, int contextCount,
+                             List<String> incompleteContexts) {
             this.scanTime = scanTime;
             this.totalComponents = totalComponents;
             this.suspiciousComponents = suspiciousComponents;
             this.suspiciousResults = new ArrayList<>(suspiciousResults);
+            this.contextCount = contextCount;
+            this.incompleteContexts = new ArrayList<>(incompleteContexts);
         }
         
         // Getters
@@ -96,27 +187,72 @@ public class MemoryShellDetector {
         public int getTotalComponents() { return totalComponents; }
         public int getSuspiciousComponents() { return suspiciousComponents; }
         public List<DetectionResult> getSuspiciousResults() { return suspiciousResults; }
+        public int getContextCount() { return contextCount; }
+        public List<String> getIncompleteContexts() { return incompleteContexts; }
+    }
+    
+    /**
+     * 单个Context的一次完整扫描
+     */
+    private static class ContextScan {
+        private final StandardContext context;
+        private final long deadlineNanos;
+        private final List<DetectionResult> results = new ArrayList<>();
+        private boolean complete = true;
+        // 等待超时后由发起扫描的线程设置，被取消的扫描尽快结束且不再写入缓存
+        private volatile boolean cancelled;
+        
+        ContextScan(StandardContext context, long budgetNanos) {
+            this.context = context;
+            this.deadlineNanos = System.nanoTime() + budgetNanos;
+        }
+        
+        /**
+         * 超出时间预算时标记为未完成，未完成的扫描不清理缓存中未出现的组件
+         */
+        boolean expired() {
+            if (complete && (cancelled || System.nanoTime() - deadlineNanos > 0)) {
+                complete = false;
+            }
+            return !complete;
+        }
+        
+        void cancel() {
+            cancelled = true;
+        }
     }
     
     /**
      * 启动实时检测
      */
-    public static void startRealTimeDetection() {
+    public static synchronized void startRealTimeDetection() {
         if (realTimeDetectionEnabled) {
             System.out.println("[DETECTOR] 实时检测已在运行中");
             return;
         }
         
         realTimeDetectionEnabled = true;
+        ScheduledExecutorService scheduler = scheduler();
         
-        // 每30秒执行一次完整扫描
+        StandardContext context = null;
+        try {
+            context = getCurrentStandardContext();
+        } catch (Exception e) {
+            // 退回到定期完整扫描
+        }
+        boolean incremental = watchContext(context);
+        
+        // 增量模式下完整扫描只做一致性检查，否则每30秒执行一次
+        long period = incremental
+            ? TimeUnit.MINUTES.toSeconds(Integer.getInteger(CONSISTENCY_CHECK_PROPERTY, DEFAULT_CONSISTENCY_CHECK_MINUTES))
+            : FULL_SCAN_SECONDS;
         scheduler.scheduleAtFixedRate(() -> {
             try {
                 performFullScan();
             } catch (Exception e) {
                 System.err.println("[DETECTOR] 实时检测异常: " + e.getMessage());
             }
-        }, 0, 30, TimeUnit.SECONDS);
+        }, 0, Math.max(period, 1), TimeUnit.SECONDS);
         
         // 每5秒执行一次快速检测
         scheduler.scheduleAtFixedRate(() -> {
@@ -127,18 +263,63 @@ public class MemoryShellDetector {
             }
         }, 5, 5, TimeUnit.SECONDS);
         
-        System.out.println("[DETECTOR] 内存马实时检测已启动");
+        System.out.println("[DETECTOR] 内存马实时检测已启动" + (incremental ? "（容器事件增量模式）" : ""));
     }
     
     /**
      * 停止实时检测
      */
-    public static void stopRealTimeDetection() {
+    public static synchronized void stopRealTimeDetection() {
         realTimeDetectionEnabled = false;
-        scheduler.shutdown();
+        for (StandardContext context : new ArrayList<>(monitors.keySet())) {
+            unwatchContext(context);
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        EngineScanner.shutdownPool();
         System.out.println("[DETECTOR] 内存马实时检测已停止");
     }
     
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            scheduler = Executors.newScheduledThreadPool(2, r -> {
+                Thread thread = new Thread(r, "memshell-detector-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+    
+    /**
+     * 在Context上注册容器监听器，此后新增或修改的组件在变化时立即分析
+     *
+     * @return 已在监听时返回true，context为null时返回false
+     */
+    public static synchronized boolean watchContext(StandardContext context) {
+        if (context == null) {
+            return false;
+        }
+        if (!monitors.containsKey(context)) {
+            ContainerChangeMonitor monitor = new ContainerChangeMonitor(context, scheduler());
+            monitor.start();
+            monitors.put(context, monitor);
+            EngineScanner.register(context);
+            System.out.println("[DETECTOR] 已监听容器变化: " + contextKey(context));
+        }
+        return true;
+    }
+    
+    public static synchronized void unwatchContext(StandardContext context) {
+        ContainerChangeMonitor monitor = monitors.remove(context);
+        if (monitor != null) {
+            monitor.stop();
+        }
+    }
+    
     /**
      * 执行完整扫描
      */
@@ -149,21 +330,37 @@ public class MemoryShellDetector {
         List<DetectionResult> suspiciousResults = new ArrayList<>();
         
         try {
-            // 扫描Servlet
-            allResults.addAll(scanServlets());
-            
-            // 扫描Filter
-            allResults.addAll(scanFilters());
+            // 当前线程和已监听的Context用于发现所属的Engine，之后扫描Engine下的所有Context
+            StandardContext current = getCurrentStandardContext();
+            if (current != null) {
+                EngineScanner.register(current);
+            }
+            Set<StandardContext> contexts = new LinkedHashSet<>();
+            if (current != null) {
+                contexts.add(current);
+            }
+            contexts.addAll(monitors.keySet());
+            contexts.addAll(EngineScanner.discoverContexts());
             
-            // 扫描Listener
-            allResults.addAll(scanListeners());
+            List<ContextScan> scans = scanContexts(contexts);
+            List<String> incompleteContexts = new ArrayList<>();
+            Set<String> scannedContexts = new HashSet<>();
+            for (ContextScan scan : scans) {
+                allResults.addAll(scan.results);
+                scannedContexts.add(contextKey(scan.context));
+                if (!scan.complete) {
+                    incompleteContexts.add(contextKey(scan.context));
+                }
+            }
+            // 已卸载的Context不再保留检测结果
+            detectionCache.values().removeIf(r -> r.getContextName() != null &&
+                                                  !scannedContexts.contains(r.getContextName()));
             
             // 筛选可疑结果
             for (DetectionResult result : allResults) {
                 if (result.isSuspicious()) {
                     suspiciousResults.add(result);
                 }
-                detectionCache.put(result.getId(), result);
             }
             
             // 记录扫描结果
@@ -171,19 +368,17 @@ public class MemoryShellDetector {
                 System.currentTimeMillis(),
                 allResults.size(),
                 suspiciousResults.size(),
-                suspiciousResults
+                suspiciousResults,
+                contexts.size(),
+                incompleteContexts
             );
             
-            detectionHistory.add(record);
+            addHistory(record);
             lastScanTime = System.currentTimeMillis();
             
-            // 限制历史记录大小
-            if (detectionHistory.size() > 50) {
-                detectionHistory.remove(0);
-            }
-            
-            System.out.println("[DETECTOR] 扫描完成: 总组件 " + allResults.size() + 
-                             ", 可疑组件 " + suspiciousResults.size());
+            System.out.println("[DETECTOR] 扫描完成: Context " + contexts.size() + ", 总组件 " + allResults.size() + 
+                             ", 可疑组件 " + suspiciousResults.size() +
+                             (incompleteContexts.isEmpty() ? "" : ", 超出时间预算 " + incompleteContexts));
             
             return suspiciousResults;
             
@@ -193,6 +388,72 @@ public class MemoryShellDetector {
         }
     }
     
+    /**
+     * 在ForkJoinPool上并行扫描各个Context，只有一个Context时在当前线程扫描
+     */
+    private static List<ContextScan> scanContexts(Collection<StandardContext> contexts) {
+        long budgetMillis = Long.getLong(CONTEXT_BUDGET_PROPERTY, DEFAULT_CONTEXT_BUDGET_MILLIS);
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        List<ContextScan> scans = new ArrayList<>();
+        if (contexts.size() <= 1) {
+            for (StandardContext context : contexts) {
+                scans.add(scanContext(new ContextScan(context, budgetNanos)));
+            }
+            return scans;
+        }
+        
+        ForkJoinPool pool = EngineScanner.pool();
+        Map<ContextScan, ForkJoinTask<ContextScan>> tasks = new LinkedHashMap<>();
+        for (StandardContext context : contexts) {
+            ContextScan scan = new ContextScan(context, budgetNanos);
+            try {
+                tasks.put(scan, pool.submit(() -> scanContext(scan)));
+            } catch (RejectedExecutionException e) {
+                // 实时检测停止时线程池已关闭，在当前线程扫描
+                tasks.put(scan, null);
+            }
+        }
+        for (Map.Entry<ContextScan, ForkJoinTask<ContextScan>> entry : tasks.entrySet()) {
+            ContextScan scan = entry.getKey();
+            ForkJoinTask<ContextScan> task = entry.getValue();
+            if (task == null) {
+                scans.add(scanContext(scan));
+                continue;
+            }
+            try {
+                // 预算检查在组件之间进行，单个组件卡住时由这里的超时兜底
+                scans.add(task.get(budgetMillis * 2 + 1_000, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                scan.cancel();
+                task.cancel(true);
+                scans.add(incomplete(scan.context));
+                System.err.println("[DETECTOR] Context扫描超时: " + contextKey(scan.context));
+            } catch (Exception e) {
+                scans.add(incomplete(scan.context));
+                System.err.println("[DETECTOR] Context扫描失败: " + contextKey(scan.context) + " - " + e.getMessage());
+            }
+        }
+        return scans;
+    }
+    
+    private static ContextScan incomplete(StandardContext context) {
+        ContextScan scan = new ContextScan(context, 0);
+        scan.complete = false;
+        return scan;
+    }
+    
+    private static ContextScan scanContext(ContextScan scan) {
+        // 扫描Servlet
+        scanServlets(scan);
+        
+        // 扫描Filter
+        scanFilters(scan);
+        
+        // 扫描Listener
+        scanListeners(scan);
+        return scan;
+    }
+    
     /**
      * 执行快速扫描（仅检查已知的活跃内存马）
      */
@@ -229,25 +490,26 @@ public class MemoryShellDetector {
     /**
      * 扫描Servlet
      */
-    private static List<DetectionResult> scanServlets() {
-        List<DetectionResult> results = new ArrayList<>();
+    private static void scanServlets(ContextScan scan) {
+        StandardContext context = scan.context;
+        List<DetectionResult> results = scan.results;
         
         try {
-            StandardContext context = getCurrentStandardContext();
-            if (context == null) {
-                return results;
-            }
+            long scanStart = System.currentTimeMillis();
             
             // 获取所有Servlet
             Container[] children = context.findChildren();
             for (Container child : children) {
+                if (scan.expired()) {
+                    break;
+                }
                 if (child instanceof StandardWrapper) {
                     StandardWrapper wrapper = (StandardWrapper) child;
                     
                     try {
                         Servlet servlet = wrapper.getServlet();
                         if (servlet != null) {
-                            DetectionResult result = analyzeServlet(wrapper, servlet);
+                            DetectionResult result = evaluateServlet(context, wrapper, servlet, scan, null);
                             if (result != null) {
                                 results.add(result);
                             }
@@ -257,44 +519,39 @@ public class MemoryShellDetector {
                     }
                 }
             }
+            if (!scan.expired()) {
+                evictStale(context, MemoryShell.Type.SERVLET, scanStart);
+            }
             
         } catch (Exception e) {
             System.err.println("[DETECTOR] Servlet扫描失败: " + e.getMessage());
         }
-        
-        return results;
     }
     
     /**
      * 扫描Filter
      */
-    private static List<DetectionResult> scanFilters() {
-        List<DetectionResult> results = new ArrayList<>();
+    private static void scanFilters(ContextScan scan) {
+        StandardContext context = scan.context;
+        List<DetectionResult> results = scan.results;
         
         try {
-            StandardContext context = getCurrentStandardContext();
-            if (context == null) {
-                return results;
-            }
-            
             // 获取FilterConfigs
-            Field filterConfigsField = StandardContext.class.getDeclaredField("filterConfigs");
-            filterConfigsField.setAccessible(true);
-            @SuppressWarnings("unchecked")
-            HashMap<String, ApplicationFilterConfig> filterConfigs = 
-                (HashMap<String, ApplicationFilterConfig>) filterConfigsField.get(context);
+            Map<String, ApplicationFilterConfig> filterConfigs = TomcatInternals.filterConfigs(context);
+            Map<String, List<FilterMap>> filterMaps = ComponentBaseline.filterMaps(context);
+            long scanStart = System.currentTimeMillis();
             
             for (Map.Entry<String, ApplicationFilterConfig> entry : filterConfigs.entrySet()) {
+                if (scan.expired()) {
+                    break;
+                }
                 try {
                     ApplicationFilterConfig filterConfig = entry.getValue();
-                    
-                    // Use reflection to access getFilter()
-                    java.lang.reflect.Method getFilterMethod = ApplicationFilterConfig.class.getDeclaredMethod("getFilter");
-                    getFilterMethod.setAccessible(true);
-                    Filter filter = (Filter) getFilterMethod.invoke(filterConfig);
+                    Filter filter = TomcatInternals.filter(filterConfig);
                     
                     if (filter != null) {
-                        DetectionResult result = analyzeFilter(entry.getKey(), filter, filterConfig);
+                        DetectionResult result = evaluateFilter(context, entry.getKey(), filter, filterConfig,
+                                                                 filterMaps.getOrDefault(entry.getKey(), List.of()), scan, null);
                         if (result != null) {
                             results.add(result);
                         }
@@ -303,36 +560,33 @@ public class MemoryShellDetector {
                     // 忽略单个Filter的分析错误
                 }
             }
+            if (!scan.expired()) {
+                evictStale(context, MemoryShell.Type.FILTER, scanStart);
+            }
             
         } catch (Exception e) {
             System.err.println("[DETECTOR] Filter扫描失败: " + e.getMessage());
         }
-        
-        return results;
     }
     
     /**
      * 扫描Listener
      */
-    private static List<DetectionResult> scanListeners() {
-        List<DetectionResult> results = new ArrayList<>();
+    private static void scanListeners(ContextScan scan) {
+        StandardContext context = scan.context;
+        List<DetectionResult> results = scan.results;
         
         try {
-            StandardContext context = getCurrentStandardContext();
-            if (context == null) {
-                return results;
-            }
+            long scanStart = System.currentTimeMillis();
             
-            // 获取ApplicationEventListeners
-            Field eventListenersField = StandardContext.class.getDeclaredField("applicationEventListenersObjects");
-            eventListenersField.setAccessible(true);
-            Object[] eventListeners = (Object[]) eventListenersField.get(context);
+            // 获取ApplicationEventListeners，各版本字段不同（Tomcat 10.1为applicationEventListenersList），使用公开方法
+            Object[] eventListeners = context.getApplicationEventListeners();
             
             if (eventListeners != null) {
-                for (int i = 0; i < eventListeners.length; i++) {
+                for (int i = 0; i < eventListeners.length && !scan.expired(); i++) {
                     Object listener = eventListeners[i];
                     if (listener != null) {
-                        DetectionResult result = analyzeListener("EventListener_" + i, listener);
+                        DetectionResult result = evaluateListener(context, "EventListener_", eventListeners, i, scan, null);
                         if (result != null) {
                             results.add(result);
                         }
@@ -341,33 +595,312 @@ public class MemoryShellDetector {
             }
             
             // 获取ApplicationLifecycleListeners
-            Field lifecycleListenersField = StandardContext.class.getDeclaredField("applicationLifecycleListenersObjects");
-            lifecycleListenersField.setAccessible(true);
-            Object[] lifecycleListeners = (Object[]) lifecycleListenersField.get(context);
+            Object[] lifecycleListeners = context.getApplicationLifecycleListeners();
             
             if (lifecycleListeners != null) {
-                for (int i = 0; i < lifecycleListeners.length; i++) {
+                for (int i = 0; i < lifecycleListeners.length && !scan.expired(); i++) {
                     Object listener = lifecycleListeners[i];
                     if (listener != null) {
-                        DetectionResult result = analyzeListener("LifecycleListener_" + i, listener);
+                        DetectionResult result = evaluateListener(context, "LifecycleListener_", lifecycleListeners, i, scan, null);
                         if (result != null) {
                             results.add(result);
                         }
                     }
                 }
             }
+            if (!scan.expired()) {
+                evictStale(context, MemoryShell.Type.LISTENER, scanStart);
+            }
             
         } catch (Exception e) {
             System.err.println("[DETECTOR] Listener扫描失败: " + e.getMessage());
         }
-        
-        return results;
+    }
+    
+    /**
+     * 增量分析单个Servlet，Wrapper尚未持有实例时返回null
+     */
+    static DetectionResult analyzeServletChange(StandardContext context, String servletName) {
+        Container child = context.findChild(servletName);
+        if (!(child instanceof StandardWrapper)) {
+            return null;
+        }
+        StandardWrapper wrapper = (StandardWrapper) child;
+        Servlet servlet = wrapper.getServlet();
+        return servlet != null ? evaluateServlet(context, wrapper, servlet, null, MemoryShellDetector::recordChange) : null;
+    }
+    
+    /**
+     * 增量分析单个Filter，FilterConfig尚未创建时使用FilterDef中的实例，都没有实例时返回null，由调用方稍后重试
+     */
+    static DetectionResult analyzeFilterChange(StandardContext context, String filterName) throws Exception {
+        ApplicationFilterConfig filterConfig = (ApplicationFilterConfig) context.findFilterConfig(filterName);
+        Filter filter = filterConfig != null ? TomcatInternals.filter(filterConfig) : null;
+        if (filter == null) {
+            FilterDef filterDef = context.findFilterDef(filterName);
+            filter = filterDef != null ? filterDef.getFilter() : null;
+        }
+        return filter != null
+            ? evaluateFilter(context, filterName, filter, filterConfig,
+                             ComponentBaseline.filterMaps(context).getOrDefault(filterName, List.of()),
+                             null, MemoryShellDetector::recordChange)
+            : null;
+    }
+    
+    static DetectionResult analyzeListenerChange(StandardContext context, String prefix, Object[] listeners, int index) {
+        return evaluateListener(context, prefix, listeners, index, null, MemoryShellDetector::recordChange);
+    }
+    
+    /**
+     * 增量分析发现变化时调用，可疑组件写入检测历史
+     */
+    private static void recordChange(DetectionResult result) {
+        result.addMetadata("source", "ContainerEvent");
+        if (result.isSuspicious()) {
+            addHistory(new DetectionRecord(System.currentTimeMillis(), 1, 1, Collections.singletonList(result)));
+            System.out.println("[DETECTOR] 增量检测发现可疑组件: " + result.getComponentName() +
+                             " (" + result.getClassName() + ")");
+        }
+    }
+    
+    /**
+     * 移除组件的缓存结果
+     */
+    static void forget(StandardContext context, MemoryShell.Type type, String componentName) {
+        detectionCache.remove(componentId(contextKey(context), type, componentName));
+    }
+    
+    /**
+     * Context标识：Host名加Context名，不同Host下可以有同名的Context
+     */
+    public static String contextKey(StandardContext context) {
+        Container host = context.getParent();
+        return host != null ? host.getName() + context.getName() : context.getName();
+    }
+    
+    /**
+     * 组件标识：同一Context中同类型、同名的组件对应同一个缓存条目
+     */
+    public static String componentId(String contextName, MemoryShell.Type type, String componentName) {
+        return type.name().toLowerCase() + "_" + contextName + "_" + componentName;
+    }
+    
+    /**
+     * 组件指纹：类（按对象标识区分不同类加载器加载的同名类）、类加载器、组件实例以及影响分析的配置；
+     * 只保存标识哈希，缓存不持有类和类加载器的引用
+     */
+    static String fingerprint(Object component, String configuration) {
+        Class<?> type = component.getClass();
+        ClassLoader loader = type.getClassLoader();
+        StringBuilder sb = new StringBuilder(type.getName());
+        sb.append('@').append(Integer.toHexString(System.identityHashCode(type)));
+        sb.append('/').append(loader != null
+            ? loader.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(loader))
+            : "bootstrap");
+        sb.append('#').append(Integer.toHexString(System.identityHashCode(component)));
+        if (configuration != null) {
+            sb.append('|').append(configuration);
+        }
+        return sb.toString();
+    }
+    
+    private static CompiledRuleSet currentRules(String name) {
+        return SecurityRuleEngine.getDefault().getRuleSets().get(name);
+    }
+    
+    private static DetectionResult evaluateServlet(StandardContext context, StandardWrapper wrapper, Servlet servlet,
+                                                   ContextScan scan, Consumer<DetectionResult> onChange) {
+        String servletName = wrapper.getName();
+        String id = componentId(contextKey(context), MemoryShell.Type.SERVLET, servletName);
+        ComponentBaseline.Status status = baselineStatus(context, ComponentBaseline.servletKey(servletName),
+                                                         ComponentBaseline.describeServlet(context, wrapper, servlet));
+        return evaluate(context, id, fingerprint(servlet, String.join(",", wrapper.findMappings()) + "|" + status),
+                        status == ComponentBaseline.Status.UNCHANGED
+                            ? () -> baselineResult(id, MemoryShell.Type.SERVLET, servletName, servlet)
+                            : () -> analyzeServlet(id, wrapper, servlet, status),
+                        scan, onChange);
+    }
+    
+    private static DetectionResult evaluateFilter(StandardContext context, String filterName, Filter filter,
+                                                  ApplicationFilterConfig filterConfig, List<FilterMap> filterMaps,
+                                                  ContextScan scan, Consumer<DetectionResult> onChange) {
+        String id = componentId(contextKey(context), MemoryShell.Type.FILTER, filterName);
+        ComponentBaseline.Status status = baselineStatus(context, ComponentBaseline.filterKey(filterName),
+                                                         ComponentBaseline.describeFilter(context, filterName, filter, filterMaps));
+        return evaluate(context, id, fingerprint(filter, String.valueOf(status)),
+                        status == ComponentBaseline.Status.UNCHANGED
+                            ? () -> baselineResult(id, MemoryShell.Type.FILTER, filterName, filter)
+                            : () -> analyzeFilter(id, filterName, filter, filterConfig, status),
+                        scan, onChange);
+    }
+    
+    private static DetectionResult evaluateListener(StandardContext context, String prefix, Object[] listeners, int index,
+                                                    ContextScan scan, Consumer<DetectionResult> onChange) {
+        String listenerName = ComponentBaseline.listenerName(prefix, listeners, index);
+        Object listener = listeners[index];
+        String id = componentId(contextKey(context), MemoryShell.Type.LISTENER, listenerName);
+        ComponentBaseline.Status status = baselineStatus(context, ComponentBaseline.listenerKey(prefix, listeners, index),
+                                                         ComponentBaseline.describeListener(context, listener));
+        return evaluate(context, id, fingerprint(listener, String.valueOf(status)),
+                        status == ComponentBaseline.Status.UNCHANGED
+                            ? () -> baselineResult(id, MemoryShell.Type.LISTENER, listenerName, listener)
+                            : () -> analyzeListener(id, listenerName, listener, status),
+                        scan, onChange);
+    }
+    
+    /**
+     * 与基线一致的组件不经过分析器，只记录一个不可疑的结果
+     */
+    private static DetectionResult baselineResult(String id, MemoryShell.Type type, String componentName,
+                                                  Object component) {
+        DetectionResult result = new DetectionResult(id, type, componentName, component.getClass().getName(),
+                                                     false, 1, Collections.emptyList());
+        result.addMetadata("baseline", ComponentBaseline.Status.UNCHANGED.name());
+        baselineMatchedCount.increment();
+        return result;
+    }
+    
+    /**
+     * 组件相对基线的状态，Context没有基线时返回null
+     */
+    private static ComponentBaseline.Status baselineStatus(StandardContext context, String key,
+                                                          ComponentBaseline.Entry entry) {
+        ComponentBaseline baseline = getBaseline(context);
+        return baseline != null ? baseline.status(key, entry) : null;
+    }
+    
+    /**
+     * 以当前线程所属Context的组件作为基线，应在启动完成、业务代码运行之前调用
+     *
+     * @return 无法取得StandardContext时返回null
+     */
+    public static ComponentBaseline captureBaseline() {
+        try {
+            return captureBaseline(getCurrentStandardContext());
+        } catch (Exception e) {
+            System.err.println("[DETECTOR] 记录组件基线失败: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 以Context当前的组件作为基线，替换之前的基线；设置了保存目录时同时写入文件
+     */
+    public static ComponentBaseline captureBaseline(StandardContext context) {
+        if (context == null) {
+            return null;
+        }
+        ComponentBaseline baseline = ComponentBaseline.capture(context);
+        baselines.put(baseline.getContextKey(), baseline);
+        // 基线变化后缓存中的结果需要按新基线重新判断
+        detectionCache.values().removeIf(r -> baseline.getContextKey().equals(r.getContextName()));
+        Path file = baselineFile(baseline.getContextKey());
+        if (file != null) {
+            try {
+                baseline.save(file);
+            } catch (IOException e) {
+                System.err.println("[DETECTOR] 保存组件基线失败: " + file + " - " + e.getMessage());
+            }
+        }
+        System.out.println("[DETECTOR] 已记录组件基线: " + baseline.getContextKey() + ", 组件 " + baseline.size());
+        return baseline;
+    }
+    
+    /**
+     * Context的基线，内存中没有时从保存目录读取一次
+     */
+    public static ComponentBaseline getBaseline(StandardContext context) {
+        String key = contextKey(context);
+        ComponentBaseline baseline = baselines.get(key);
+        if (baseline != null || !baselineLookups.add(key)) {
+            return baseline;
+        }
+        Path file = baselineFile(key);
+        if (file != null && Files.isRegularFile(file)) {
+            try {
+                baseline = ComponentBaseline.load(file);
+                ComponentBaseline existing = baselines.putIfAbsent(key, baseline);
+                return existing != null ? existing : baseline;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[DETECTOR] 读取组件基线失败: " + file + " - " + e.getMessage());
+            }
+        }
+        return baselines.get(key);
+    }
+    
+    /**
+     * 丢弃内存中的基线，已保存的文件保留
+     */
+    public static void discardBaseline(StandardContext context) {
+        String key = contextKey(context);
+        baselines.remove(key);
+        baselineLookups.remove(key);
+        detectionCache.values().removeIf(r -> key.equals(r.getContextName()));
+    }
+    
+    private static Path baselineFile(String contextKey) {
+        String dir = System.getProperty(BASELINE_DIR_PROPERTY);
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        return Paths.get(dir, contextKey.replaceAll("[^A-Za-z0-9._-]", "_") + ".baseline");
+    }
+    
+    /**
+     * 指纹和规则集都未变时复用缓存中的结果，否则重新分析并替换缓存条目
+     *
+     * @param scan 所属的完整扫描，增量分析时为null；扫描已被取消时结果不写入缓存
+     */
+    private static DetectionResult evaluate(StandardContext context, String id, String fingerprint,
+                                            Supplier<DetectionResult> analyzer, ContextScan scan,
+                                            Consumer<DetectionResult> onChange) {
+        long now = System.currentTimeMillis();
+        DetectionResult previous = detectionCache.get(id);
+        if (previous != null && previous.isCurrent(fingerprint)) {
+            previous.markSeen(now);
+            unchangedCount.increment();
+            return previous;
+        }
+        DetectionResult result = analyzer.get();
+        if (scan != null && scan.cancelled) {
+            return result;
+        }
+        result.track(contextKey(context), fingerprint, previous);
+        if (previous != null) {
+            result.addMetadata("previousClassName", previous.getClassName());
+        }
+        detectionCache.put(id, result);
+        analyzedCount.increment();
+        if (onChange != null) {
+            onChange.accept(result);
+        }
+        return result;
+    }
+    
+    /**
+     * 完整扫描结束后移除本次未出现的组件，缓存大小与组件数量一致
+     */
+    private static void evictStale(StandardContext context, MemoryShell.Type type, long scanStart) {
+        String contextName = contextKey(context);
+        detectionCache.values().removeIf(r -> r.getType() == type && contextName.equals(r.getContextName()) &&
+                                              r.getLastSeenTime() < scanStart);
+    }
+    
+    private static void addHistory(DetectionRecord record) {
+        synchronized (detectionHistory) {
+            detectionHistory.add(record);
+            // 限制历史记录大小
+            if (detectionHistory.size() > 50) {
+                detectionHistory.remove(0);
+            }
+        }
     }
     
     /**
      * 分析Servlet
      */
-    private static DetectionResult analyzeServlet(StandardWrapper wrapper, Servlet servlet) {
+    private static DetectionResult analyzeServlet(String id, StandardWrapper wrapper, Servlet servlet,
+                                                  ComponentBaseline.Status status) {
         String servletName = wrapper.getName();
         String className = servlet.getClass().getName();
         List<String> suspiciousFeatures = new ArrayList<>();
@@ -405,18 +938,20 @@ public class MemoryShellDetector {
         }
         
         // 检查运行时添加的特征
-        if (isRuntimeAdded(servlet)) {
-            suspiciousFeatures.add("运行时动态添加");
+        if (isRuntimeAdded(servlet, status)) {
+            suspiciousFeatures.add(status == ComponentBaseline.Status.MUTATED ? "启动后被修改" : "运行时动态添加");
             suspicious = true;
             riskLevel += 4;
         }
         
-        String id = "servlet_" + servletName + "_" + System.currentTimeMillis();
         DetectionResult result = new DetectionResult(id, MemoryShell.Type.SERVLET, servletName, 
                                                    className, suspicious, Math.min(riskLevel, 10), 
                                                    suspiciousFeatures);
         
         result.addMetadata("servletName", servletName);
+        if (status != null) {
+            result.addMetadata("baseline", status.name());
+        }
         result.addMetadata("loadOnStartup", wrapper.getLoadOnStartup());
         
         return result;
@@ -425,8 +960,8 @@ public class MemoryShellDetector {
     /**
      * 分析Filter
      */
-    private static DetectionResult analyzeFilter(String filterName, Filter filter, 
-                                               ApplicationFilterConfig filterConfig) {
+    private static DetectionResult analyzeFilter(String id, String filterName, Filter filter, 
+                                               ApplicationFilterConfig filterConfig, ComponentBaseline.Status status) {
         String className = filter.getClass().getName();
         List<String> suspiciousFeatures = new ArrayList<>();
         boolean suspicious = false;
@@ -447,29 +982,24 @@ public class MemoryShellDetector {
         }
         
         // 检查URL模式
-        try {
-            // Use reflection to access getFilterDef()
-            java.lang.reflect.Method getFilterDefMethod = ApplicationFilterConfig.class.getDeclaredMethod("getFilterDef");
-            getFilterDefMethod.setAccessible(true);
-            FilterDef filterDef = (FilterDef) getFilterDefMethod.invoke(filterConfig);
-            // 这里可以进一步检查FilterMap的配置
-        } catch (Exception e) {
-            // 忽略错误
-        }
+        FilterDef filterDef = filterConfig != null ? TomcatInternals.filterDef(filterConfig) : null;
+        // 这里可以进一步检查FilterMap的配置
         
         // 检查运行时添加的特征
-        if (isRuntimeAdded(filter)) {
-            suspiciousFeatures.add("运行时动态添加");
+        if (isRuntimeAdded(filter, status)) {
+            suspiciousFeatures.add(status == ComponentBaseline.Status.MUTATED ? "启动后被修改" : "运行时动态添加");
             suspicious = true;
             riskLevel += 4;
         }
         
-        String id = "filter_" + filterName + "_" + System.currentTimeMillis();
         DetectionResult result = new DetectionResult(id, MemoryShell.Type.FILTER, filterName, 
                                                    className, suspicious, Math.min(riskLevel, 10), 
                                                    suspiciousFeatures);
         
         result.addMetadata("filterName", filterName);
+        if (status != null) {
+            result.addMetadata("baseline", status.name());
+        }
         
         return result;
     }
@@ -477,7 +1007,8 @@ public class MemoryShellDetector {
     /**
      * 分析Listener
      */
-    private static DetectionResult analyzeListener(String listenerName, Object listener) {
+    private static DetectionResult analyzeListener(String id, String listenerName, Object listener,
+                                                   ComponentBaseline.Status status) {
         String className = listener.getClass().getName();
         List<String> suspiciousFeatures = new ArrayList<>();
         boolean suspicious = false;
@@ -498,8 +1029,8 @@ public class MemoryShellDetector {
         }
         
         // 检查运行时添加的特征
-        if (isRuntimeAdded(listener)) {
-            suspiciousFeatures.add("运行时动态添加");
+        if (isRuntimeAdded(listener, status)) {
+            suspiciousFeatures.add(status == ComponentBaseline.Status.MUTATED ? "启动后被修改" : "运行时动态添加");
             suspicious = true;
             riskLevel += 4;
         }
@@ -519,12 +1050,14 @@ public class MemoryShellDetector {
             riskLevel += 2;
         }
         
-        String id = "listener_" + listenerName + "_" + System.currentTimeMillis();
         DetectionResult result = new DetectionResult(id, MemoryShell.Type.LISTENER, listenerName, 
                                                    className, suspicious, Math.min(riskLevel, 10), 
                                                    suspiciousFeatures);
         
         result.addMetadata("listenerName", listenerName);
+        if (status != null) {
+            result.addMetadata("baseline", status.name());
+        }
         result.addMetadata("interfaceCount", listenerInterfaceCount);
         
         return result;
@@ -534,44 +1067,25 @@ public class MemoryShellDetector {
      * 检查是否是可疑的类名
      */
     private static boolean isSuspiciousClassName(String className) {
-        String[] suspiciousPatterns = {
-            "Shell", "Command", "Exec", "Runtime", "Memory", "Inject", 
-            "Backdoor", "Webshell", "Evil", "Malicious", "Attack", "Exploit"
-        };
-        
-        String lowerClassName = className.toLowerCase();
-        for (String pattern : suspiciousPatterns) {
-            if (lowerClassName.contains(pattern.toLowerCase())) {
-                return true;
-            }
-        }
-        
-        return false;
+        return SecurityRuleEngine.getDefault().matches(SecurityRuleEngine.MEMSHELL_CLASS, className);
     }
     
     /**
      * 检查是否是可疑的URL映射
      */
     private static boolean isSuspiciousMapping(String mapping) {
-        String[] suspiciousMappings = {
-            "/shell", "/cmd", "/exec", "/backdoor", "/webshell", "/hack"
-        };
-        
-        String lowerMapping = mapping.toLowerCase();
-        for (String suspicious : suspiciousMappings) {
-            if (lowerMapping.contains(suspicious)) {
-                return true;
-            }
-        }
-        
-        return false;
+        return SecurityRuleEngine.getDefault().matches(SecurityRuleEngine.MEMSHELL_MAPPING, mapping);
     }
     
     /**
      * 检查是否是运行时添加的组件
+     * Context有基线时按基线判断：不在基线中或与基线不一致的组件是启动后添加或修改的
      */
-    private static boolean isRuntimeAdded(Object component) {
-        // 简单的启发式检查
+    private static boolean isRuntimeAdded(Object component, ComponentBaseline.Status status) {
+        if (status != null) {
+            return status == ComponentBaseline.Status.ADDED || status == ComponentBaseline.Status.MUTATED;
+        }
+        // 没有基线时使用简单的启发式检查
         // 在实际实现中，可以通过检查类加载器、创建时间等来判断
         try {
             // 检查是否在我们的包中（这通常表示是动态创建的）
@@ -602,15 +1116,8 @@ public class MemoryShellDetector {
             Thread currentThread = Thread.currentThread();
             ClassLoader classLoader = currentThread.getContextClassLoader();
             
-            if (classLoader.getClass().getName().contains("WebappClassLoader")) {
-                Field contextField = classLoader.getClass().getDeclaredField("context");
-                contextField.setAccessible(true);
-                Object context = contextField.get(classLoader);
-                
-                if (context instanceof StandardContext) {
-                    return (StandardContext) context;
-                }
-            }
+            // 取得Context的方式按类加载器的类解析一次后缓存
+            return TomcatInternals.contextOf(classLoader);
             
         } catch (Exception e) {
             System.err.println("[DETECTOR] 获取StandardContext失败: " + e.getMessage());
@@ -641,8 +1148,19 @@ public class MemoryShellDetector {
         
         stats.put("realTimeDetectionEnabled", realTimeDetectionEnabled);
         stats.put("lastScanTime", lastScanTime);
+        stats.put("knownEngines", EngineScanner.getEngineCount());
+        stats.put("scanPoolActive", EngineScanner.isPoolActive());
         stats.put("totalDetections", detectionCache.size());
         stats.put("detectionHistory", detectionHistory.size());
+        stats.put("watchedContexts", monitors.size());
+        stats.put("containerEvents", monitors.values().stream().mapToLong(ContainerChangeMonitor::getEventCount).sum());
+        stats.put("incrementalAnalyses", monitors.values().stream().mapToLong(ContainerChangeMonitor::getAnalysisCount).sum());
+        stats.put("tomcatAccess", TomcatInternals.describe());
+        stats.put("analyzedComponents", analyzedCount.sum());
+        stats.put("unchangedSkipped", unchangedCount.sum());
+        stats.put("baselineContexts", baselines.size());
+        stats.put("baselineMatched", baselineMatchedCount.sum());
+        stats.put("lastIncrementalTime", monitors.values().stream().mapToLong(ContainerChangeMonitor::getLastChangeTime).max().orElse(0));
         
         // 统计可疑组件
         long suspiciousCount = detectionCache.values().stream()
@@ -0,0 +1,192 @@
+package com.book.demo.memshell;
+
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.core.ApplicationFilterConfig;
+import org.apache.catalina.core.StandardContext;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterConfig;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Tomcat内部结构的访问器
+ * 字段和方法句柄在类加载时解析一次，之后每次访问不再做反射查找；
+ * 每项访问按Tomcat版本准备了备选方式，句柄都不可用时退回到公开API
+ */
+final class TomcatInternals {
+
+    private static final VarHandle FILTER_CONFIGS = findField(StandardContext.class, "filterConfigs");
+    // 直接读取字段，避免getFilter()在Filter尚未创建时实例化它
+    private static final VarHandle FILTER_INSTANCE = findField(ApplicationFilterConfig.class, "filter");
+    private static final MethodHandle GET_FILTER = findMethod(ApplicationFilterConfig.class, "getFilter",
+                                                              MethodType.methodType(Filter.class));
+    private static final MethodHandle GET_FILTER_DEF = findMethod(ApplicationFilterConfig.class, "getFilterDef",
+                                                                  MethodType.methodType(FilterDef.class));
+
+    // 按类加载器的类缓存从类加载器取得StandardContext的方式
+    private static final ClassValue<Optional<MethodHandle>> CONTEXT_OF_LOADER = new ClassValue<>() {
+        @Override
+        protected Optional<MethodHandle> computeValue(Class<?> type) {
+            return Optional.ofNullable(contextAccessor(type));
+        }
+    };
+
+    private TomcatInternals() {
+    }
+
+    /**
+     * 当前的FilterConfig，返回副本
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, ApplicationFilterConfig> filterConfigs(StandardContext context) {
+        if (FILTER_CONFIGS != null) {
+            Map<String, ApplicationFilterConfig> configs = (Map<String, ApplicationFilterConfig>) FILTER_CONFIGS.get(context);
+            if (configs != null) {
+                // Tomcat在修改filterConfigs时同步该对象
+                synchronized (configs) {
+                    return new LinkedHashMap<>(configs);
+                }
+            }
+        }
+        Map<String, ApplicationFilterConfig> configs = new LinkedHashMap<>();
+        for (FilterDef filterDef : context.findFilterDefs()) {
+            FilterConfig config = context.findFilterConfig(filterDef.getFilterName());
+            if (config instanceof ApplicationFilterConfig) {
+                configs.put(filterDef.getFilterName(), (ApplicationFilterConfig) config);
+            }
+        }
+        return configs;
+    }
+
+    static Filter filter(ApplicationFilterConfig filterConfig) throws Exception {
+        if (FILTER_INSTANCE != null) {
+            // 字段为null表示过滤器尚未实例化，不能回退到getFilter，否则扫描本身会创建并初始化过滤器
+            return (Filter) FILTER_INSTANCE.get(filterConfig);
+        }
+        if (GET_FILTER != null) {
+            try {
+                return (Filter) GET_FILTER.invoke(filterConfig);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+        FilterDef filterDef = filterDef(filterConfig);
+        return filterDef != null ? filterDef.getFilter() : null;
+    }
+
+    static FilterDef filterDef(ApplicationFilterConfig filterConfig) {
+        if (GET_FILTER_DEF == null) {
+            return null;
+        }
+        try {
+            return (FilterDef) GET_FILTER_DEF.invoke(filterConfig);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * 通过Web应用类加载器取得StandardContext，不是Web应用类加载器时返回null
+     */
+    static StandardContext contextOf(ClassLoader loader) {
+        if (loader == null) {
+            return null;
+        }
+        Optional<MethodHandle> accessor = CONTEXT_OF_LOADER.get(loader.getClass());
+        if (accessor.isEmpty()) {
+            return null;
+        }
+        try {
+            Object context = accessor.get().invoke(loader);
+            return context instanceof StandardContext ? (StandardContext) context : null;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Tomcat 8及以后通过resources字段（WebResourceRoot）取得Context，更早的版本直接保存context字段
+     */
+    private static MethodHandle contextAccessor(Class<?> loaderType) {
+        try {
+            Field resources = findDeclaredField(loaderType, "resources");
+            if (resources != null && WebResourceRoot.class.isAssignableFrom(resources.getType())) {
+                MethodHandle getter = privateLookup(resources.getDeclaringClass()).unreflectGetter(resources);
+                MethodHandle getContext = MethodHandles.publicLookup().findVirtual(
+                    WebResourceRoot.class, "getContext", MethodType.methodType(org.apache.catalina.Context.class));
+                return MethodHandles.filterReturnValue(
+                        getter.asType(MethodType.methodType(WebResourceRoot.class, resources.getDeclaringClass())),
+                        getContext)
+                    .asType(MethodType.methodType(Object.class, ClassLoader.class));
+            }
+            for (String name : new String[] {"context", "standardContext"}) {
+                Field field = findDeclaredField(loaderType, name);
+                if (field != null) {
+                    return privateLookup(field.getDeclaringClass()).unreflectGetter(field)
+                        .asType(MethodType.methodType(Object.class, ClassLoader.class));
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[DETECTOR] 无法解析类加载器 " + loaderType.getName() + " 的Context字段: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static Field findDeclaredField(Class<?> type, String name) {
+        for (Class<?> c = type; c != null && c != ClassLoader.class; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                // 继续查找父类
+            }
+        }
+        return null;
+    }
+
+    private static MethodHandles.Lookup privateLookup(Class<?> type) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+
+    private static VarHandle findField(Class<?> owner, String name) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            return privateLookup(owner).unreflectVarHandle(field);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[DETECTOR] 无法访问 " + owner.getSimpleName() + "." + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static MethodHandle findMethod(Class<?> owner, String name, MethodType type) {
+        try {
+            return privateLookup(owner).findVirtual(owner, name, type);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[DETECTOR] 无法访问 " + owner.getSimpleName() + "." + name + "(): " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 各项访问当前使用的方式，用于诊断
+     */
+    static Map<String, String> describe() {
+        Map<String, String> access = new LinkedHashMap<>();
+        access.put("filterConfigs", FILTER_CONFIGS != null ? "VarHandle" : "public API");
+        access.put("filterInstance", FILTER_INSTANCE != null ? "VarHandle"
+            : GET_FILTER != null ? "MethodHandle" : "FilterDef");
+        access.put("filterDef", GET_FILTER_DEF != null ? "MethodHandle" : "unavailable");
+        access.put("listeners", "public API");
+        return access;
+    }
+}
@@ -0,0 +1,98 @@
+package com.book.demo.rules;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Aho-Corasick多模式子串匹配
+ * 预先计算完整的状态转移表（含失败转移），匹配时每个字符一次查表
+ */
+final class AhoCorasickMatcher {
+
+    private final CharAlphabet alphabet;
+    private final int width;
+    private final int[] delta;
+    private final String[] outputs;
+    private final boolean ignoreCase;
+
+    AhoCorasickMatcher(List<String> patterns, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.alphabet = new CharAlphabet(patterns);
+        this.width = alphabet.size();
+
+        // 构建goto树
+        List<int[]> nodes = new ArrayList<>();
+        List<String> out = new ArrayList<>();
+        nodes.add(new int[width]);
+        out.add(null);
+        for (String pattern : patterns) {
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int c = alphabet.indexOf(pattern.charAt(i));
+                if (nodes.get(state)[c] == 0) {
+                    nodes.get(state)[c] = nodes.size();
+                    nodes.add(new int[width]);
+                    out.add(null);
+                }
+                state = nodes.get(state)[c];
+            }
+            if (out.get(state) == null) {
+                out.set(state, pattern);
+            }
+        }
+
+        // 按BFS顺序补全失败转移，使每个状态对每个字符都有确定的下一个状态
+        int stateCount = nodes.size();
+        this.delta = new int[stateCount * width];
+        int[] fail = new int[stateCount];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < width; c++) {
+            int next = nodes.get(0)[c];
+            delta[c] = next;
+            if (next != 0) {
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            if (out.get(state) == null && out.get(fail[state]) != null) {
+                out.set(state, out.get(fail[state]));
+            }
+            for (int c = 0; c < width; c++) {
+                int next = nodes.get(state)[c];
+                if (next != 0) {
+                    fail[next] = delta[fail[state] * width + c];
+                    delta[state * width + c] = next;
+                    queue.add(next);
+                } else {
+                    delta[state * width + c] = delta[fail[state] * width + c];
+                }
+            }
+        }
+        this.outputs = out.toArray(new String[0]);
+    }
+
+    /**
+     * 返回输入中最先结束的命中规则，未命中返回null
+     */
+    String match(CharSequence input) {
+        int state = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            state = delta[state * width + alphabet.indexOf(ignoreCase ? Character.toLowerCase(c) : c)];
+            if (outputs[state] != null) {
+                return outputs[state];
+            }
+        }
+        return null;
+    }
+
+    int stateCount() {
+        return outputs.length;
+    }
+}
@@ -0,0 +1,48 @@
+package com.book.demo.rules;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 规则中出现过的字符到紧凑下标的映射，下标0表示未出现过的字符
+ * ASCII字符直接查表，其余字符二分查找，匹配时不分配对象
+ */
+final class CharAlphabet {
+
+    private final int[] asciiIndex = new int[128];
+    private final char[] chars;
+
+    CharAlphabet(Iterable<String> patterns) {
+        Set<Character> distinct = new TreeSet<>();
+        for (String pattern : patterns) {
+            for (int i = 0; i < pattern.length(); i++) {
+                distinct.add(pattern.charAt(i));
+            }
+        }
+        this.chars = new char[distinct.size()];
+        int i = 0;
+        for (char c : distinct) {
+            chars[i] = c;
+            if (c < 128) {
+                asciiIndex[c] = i + 1;
+            }
+            i++;
+        }
+    }
+
+    int indexOf(char c) {
+        if (c < 128) {
+            return asciiIndex[c];
+        }
+        int index = Arrays.binarySearch(chars, c);
+        return index >= 0 ? index + 1 : 0;
+    }
+
+    /**
+     * 包含"未出现字符"在内的字母表大小
+     */
+    int size() {
+        return chars.length + 1;
+    }
+}
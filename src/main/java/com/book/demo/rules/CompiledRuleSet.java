@@ -0,0 +1,138 @@
+package com.book.demo.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 编译后的一组匹配规则
+ * 精确类名放入哈希表，包名前缀编译为前缀树，子串编译为Aho-Corasick自动机，
+ * 匹配耗时只与输入长度相关，与规则数量无关，匹配过程不分配对象
+ */
+public final class CompiledRuleSet {
+
+    private final String name;
+    private final boolean ignoreCase;
+    private final Set<String> exactNames;
+    private final PrefixTrie prefixTrie;
+    private final AhoCorasickMatcher substringMatcher;
+    private final int exactCount;
+    private final int prefixCount;
+    private final int substringCount;
+
+    private CompiledRuleSet(String name, boolean ignoreCase, List<String> exacts,
+                            List<String> prefixes, List<String> substrings) {
+        this.name = name;
+        this.ignoreCase = ignoreCase;
+        this.exactCount = exacts.size();
+        this.prefixCount = prefixes.size();
+        this.substringCount = substrings.size();
+
+        // 忽略大小写时精确规则也走前缀树，避免匹配时创建小写副本
+        this.exactNames = ignoreCase || exacts.isEmpty() ? Collections.emptySet() : new HashSet<>(exacts);
+        List<String> trieExacts = ignoreCase ? exacts : Collections.emptyList();
+        this.prefixTrie = prefixes.isEmpty() && trieExacts.isEmpty()
+            ? null : new PrefixTrie(prefixes, trieExacts, ignoreCase);
+        this.substringMatcher = substrings.isEmpty() ? null : new AhoCorasickMatcher(substrings, ignoreCase);
+    }
+
+    public static CompiledRuleSet empty(String name) {
+        return new Builder(name).build();
+    }
+
+    /**
+     * 返回命中的规则文本，未命中返回null
+     */
+    public String firstMatch(String input) {
+        if (input == null) {
+            return null;
+        }
+        if (exactNames.contains(input)) {
+            return input;
+        }
+        if (prefixTrie != null) {
+            String rule = prefixTrie.match(input);
+            if (rule != null) {
+                return rule;
+            }
+        }
+        return substringMatcher != null ? substringMatcher.match(input) : null;
+    }
+
+    public boolean matches(String input) {
+        return firstMatch(input) != null;
+    }
+
+    public int size() {
+        return exactCount + prefixCount + substringCount;
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public boolean isIgnoreCase() { return ignoreCase; }
+    public int getExactCount() { return exactCount; }
+    public int getPrefixCount() { return prefixCount; }
+    public int getSubstringCount() { return substringCount; }
+
+    @Override
+    public String toString() {
+        return name + " (exact=" + exactCount + ", prefix=" + prefixCount +
+               ", contains=" + substringCount + (ignoreCase ? ", ignore-case" : "") + ")";
+    }
+
+    /**
+     * 规则集构建器，仅用于解析配置时逐条收集规则
+     */
+    public static final class Builder {
+        private final String name;
+        private boolean ignoreCase;
+        private final List<String> exacts = new ArrayList<>();
+        private final List<String> prefixes = new ArrayList<>();
+        private final List<String> substrings = new ArrayList<>();
+
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder ignoreCase(boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            return this;
+        }
+
+        public Builder exact(String rule) {
+            exacts.add(rule);
+            return this;
+        }
+
+        public Builder prefix(String rule) {
+            prefixes.add(rule);
+            return this;
+        }
+
+        public Builder contains(String rule) {
+            substrings.add(rule);
+            return this;
+        }
+
+        public CompiledRuleSet build() {
+            return new CompiledRuleSet(name, ignoreCase, fold(exacts), fold(prefixes), fold(substrings));
+        }
+
+        private List<String> fold(List<String> rules) {
+            if (!ignoreCase) {
+                return new ArrayList<>(rules);
+            }
+            List<String> folded = new ArrayList<>(rules.size());
+            for (String rule : rules) {
+                StringBuilder sb = new StringBuilder(rule.length());
+                for (int i = 0; i < rule.length(); i++) {
+                    sb.append(Character.toLowerCase(rule.charAt(i)));
+                }
+                folded.add(sb.toString());
+            }
+            return folded;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.book.demo.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 前缀字典树，同时支持整串匹配
+ * 构建后转换为扁平的转移表，匹配耗时只与输入长度相关
+ */
+final class PrefixTrie {
+
+    private final CharAlphabet alphabet;
+    private final int width;
+    private final int[] transitions;
+    private final String[] prefixTerminals;
+    private final String[] exactTerminals;
+    private final boolean ignoreCase;
+
+    PrefixTrie(List<String> prefixes, List<String> exacts, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        List<String> all = new ArrayList<>(prefixes);
+        all.addAll(exacts);
+        this.alphabet = new CharAlphabet(all);
+        this.width = alphabet.size();
+
+        List<int[]> nodes = new ArrayList<>();
+        nodes.add(new int[width]);
+        List<String> prefixOut = new ArrayList<>();
+        List<String> exactOut = new ArrayList<>();
+        prefixOut.add(null);
+        exactOut.add(null);
+
+        for (int p = 0; p < all.size(); p++) {
+            String pattern = all.get(p);
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int c = alphabet.indexOf(pattern.charAt(i));
+                if (nodes.get(state)[c] == 0) {
+                    nodes.get(state)[c] = nodes.size();
+                    nodes.add(new int[width]);
+                    prefixOut.add(null);
+                    exactOut.add(null);
+                }
+                state = nodes.get(state)[c];
+            }
+            if (p < prefixes.size()) {
+                if (prefixOut.get(state) == null) {
+                    prefixOut.set(state, pattern);
+                }
+            } else if (exactOut.get(state) == null) {
+                exactOut.set(state, pattern);
+            }
+        }
+
+        this.transitions = new int[nodes.size() * width];
+        for (int s = 0; s < nodes.size(); s++) {
+            System.arraycopy(nodes.get(s), 0, transitions, s * width, width);
+        }
+        this.prefixTerminals = prefixOut.toArray(new String[0]);
+        this.exactTerminals = exactOut.toArray(new String[0]);
+    }
+
+    /**
+     * 返回命中的规则，依次检查最短前缀和整串，未命中返回null
+     */
+    String match(CharSequence input) {
+        int state = 0;
+        if (prefixTerminals[0] != null) {
+            return prefixTerminals[0];
+        }
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            int next = transitions[state * width + alphabet.indexOf(ignoreCase ? Character.toLowerCase(c) : c)];
+            if (next == 0) {
+                return null;
+            }
+            state = next;
+            if (prefixTerminals[state] != null) {
+                return prefixTerminals[state];
+            }
+        }
+        return exactTerminals[state];
+    }
+
+    int nodeCount() {
+        return prefixTerminals.length;
+    }
+}
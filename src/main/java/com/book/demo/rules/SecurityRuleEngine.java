@@ -0,0 +1,263 @@
+package com.book.demo.rules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享的安全规则引擎
+ * 从配置文件加载多个命名规则集并编译，支持按文件修改时间热加载；
+ * 规则集整体替换，匹配线程无需加锁
+ *
+ * 配置格式：
+ * <pre>
+ * # 注释
+ * [deserialization]
+ * exact = java.lang.Runtime
+ * prefix = org.apache.commons.collections.functors.
+ * contains = InvokerTransformer
+ * ignore-case = true
+ * </pre>
+ */
+public class SecurityRuleEngine {
+
+    public static final String DESERIALIZATION = "deserialization";
+    public static final String MEMSHELL_CLASS = "memshell.class";
+    public static final String MEMSHELL_MAPPING = "memshell.mapping";
+
+    // 指定外部规则文件的系统属性，未设置时使用类路径中的默认规则
+    public static final String SYSTEM_PROPERTY = "com.book.demo.rules.file";
+    public static final String DEFAULT_RESOURCE = "/security-rules.conf";
+
+    private static volatile SecurityRuleEngine defaultEngine;
+
+    private final Path ruleFile;
+    private volatile Map<String, CompiledRuleSet> ruleSets = Collections.emptyMap();
+    private volatile long lastModified = -1;
+    private volatile long lastLoadTime;
+    private volatile String lastError;
+    private volatile long reloadCount;
+    private ScheduledExecutorService reloadExecutor;
+    private ScheduledFuture<?> reloadTask;
+
+    /**
+     * 从类路径默认规则创建，不支持热加载
+     */
+    public SecurityRuleEngine() {
+        this.ruleFile = null;
+        try (InputStream in = SecurityRuleEngine.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("找不到默认规则文件: " + DEFAULT_RESOURCE);
+            }
+            install(parse(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new IllegalStateException("加载默认规则失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从外部文件创建，可通过reloadIfModified或startAutoReload热加载
+     */
+    public SecurityRuleEngine(Path ruleFile) throws IOException {
+        this.ruleFile = ruleFile;
+        reload();
+    }
+
+    public static SecurityRuleEngine getDefault() {
+        SecurityRuleEngine engine = defaultEngine;
+        if (engine == null) {
+            synchronized (SecurityRuleEngine.class) {
+                engine = defaultEngine;
+                if (engine == null) {
+                    engine = createDefault();
+                    defaultEngine = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * 替换全局规则引擎，传入null恢复默认
+     */
+    public static void setDefault(SecurityRuleEngine engine) {
+        defaultEngine = engine;
+    }
+
+    private static SecurityRuleEngine createDefault() {
+        String file = System.getProperty(SYSTEM_PROPERTY);
+        if (file != null && !file.isEmpty()) {
+            try {
+                SecurityRuleEngine engine = new SecurityRuleEngine(Paths.get(file));
+                engine.startAutoReload(5000);
+                return engine;
+            } catch (IOException e) {
+                System.err.println("[RULES] 加载规则文件失败，使用默认规则: " + e.getMessage());
+            }
+        }
+        return new SecurityRuleEngine();
+    }
+
+    /**
+     * 返回命名规则集，不存在时返回空规则集
+     */
+    public CompiledRuleSet getRuleSet(String name) {
+        CompiledRuleSet ruleSet = ruleSets.get(name);
+        return ruleSet != null ? ruleSet : CompiledRuleSet.empty(name);
+    }
+
+    public boolean matches(String ruleSetName, String input) {
+        CompiledRuleSet ruleSet = ruleSets.get(ruleSetName);
+        return ruleSet != null && ruleSet.matches(input);
+    }
+
+    public String firstMatch(String ruleSetName, String input) {
+        CompiledRuleSet ruleSet = ruleSets.get(ruleSetName);
+        return ruleSet != null ? ruleSet.firstMatch(input) : null;
+    }
+
+    /**
+     * 重新读取规则文件，解析失败时保留当前规则并抛出异常
+     */
+    public synchronized void reload() throws IOException {
+        if (ruleFile == null) {
+            return;
+        }
+        long modified = Files.getLastModifiedTime(ruleFile).toMillis();
+        try (Reader reader = Files.newBufferedReader(ruleFile, StandardCharsets.UTF_8)) {
+            install(parse(reader));
+            lastModified = modified;
+            lastError = null;
+        } catch (IOException | IllegalArgumentException e) {
+            lastError = e.getMessage();
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 文件修改时间变化时重新加载，返回是否发生了加载
+     */
+    public boolean reloadIfModified() {
+        if (ruleFile == null) {
+            return false;
+        }
+        try {
+            if (Files.getLastModifiedTime(ruleFile).toMillis() == lastModified) {
+                return false;
+            }
+            reload();
+            return true;
+        } catch (IOException e) {
+            System.err.println("[RULES] 热加载规则失败，继续使用旧规则: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public synchronized void startAutoReload(long intervalMillis) {
+        if (ruleFile == null || reloadTask != null) {
+            return;
+        }
+        reloadExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "security-rule-reloader");
+            t.setDaemon(true);
+            return t;
+        });
+        reloadTask = reloadExecutor.scheduleWithFixedDelay(this::reloadIfModified,
+            intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopAutoReload() {
+        if (reloadTask != null) {
+            reloadTask.cancel(false);
+            reloadExecutor.shutdownNow();
+            reloadTask = null;
+            reloadExecutor = null;
+        }
+    }
+
+    private void install(Map<String, CompiledRuleSet> compiled) {
+        this.ruleSets = Collections.unmodifiableMap(compiled);
+        this.lastLoadTime = System.currentTimeMillis();
+        this.reloadCount++;
+    }
+
+    /**
+     * 解析规则文本并编译
+     */
+    public static Map<String, CompiledRuleSet> parse(String text) {
+        try {
+            return parse(new StringReader(text));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    static Map<String, CompiledRuleSet> parse(Reader source) throws IOException {
+        Map<String, CompiledRuleSet.Builder> builders = new LinkedHashMap<>();
+        CompiledRuleSet.Builder current = null;
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("[") && line.endsWith("]")) {
+                String name = line.substring(1, line.length() - 1).trim();
+                current = builders.computeIfAbsent(name, CompiledRuleSet.Builder::new);
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (current == null || eq <= 0) {
+                throw new IllegalArgumentException("规则格式错误，第" + lineNumber + "行: " + line);
+            }
+            String key = line.substring(0, eq).trim();
+            String value = line.substring(eq + 1).trim();
+            switch (key) {
+                case "exact":
+                    current.exact(value);
+                    break;
+                case "prefix":
+                    current.prefix(value);
+                    break;
+                case "contains":
+                    current.contains(value);
+                    break;
+                case "ignore-case":
+                    current.ignoreCase(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知规则类型，第" + lineNumber + "行: " + key);
+            }
+        }
+
+        Map<String, CompiledRuleSet> compiled = new LinkedHashMap<>();
+        for (Map.Entry<String, CompiledRuleSet.Builder> entry : builders.entrySet()) {
+            compiled.put(entry.getKey(), entry.getValue().build());
+        }
+        return compiled;
+    }
+
+    // Getters
+    public Path getRuleFile() { return ruleFile; }
+    public Map<String, CompiledRuleSet> getRuleSets() { return ruleSets; }
+    public long getLastLoadTime() { return lastLoadTime; }
+    public long getReloadCount() { return reloadCount; }
+    public String getLastError() { return lastError; }
+}
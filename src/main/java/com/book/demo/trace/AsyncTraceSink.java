@@ -0,0 +1,230 @@
+package com.book.demo.trace;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步批量追踪输出
+ * 请求线程只把记录放入无锁队列，由后台写线程成批交给BatchWriter；队列满时丢弃并计数
+ */
+public class AsyncTraceSink implements TraceSink {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * 批量写出目标，只会在后台写线程中被调用
+     */
+    @FunctionalInterface
+    public interface BatchWriter {
+        void write(List<String> batch) throws IOException;
+
+        default void close() throws IOException {
+        }
+    }
+
+    private final MpscRingQueue<String> queue;
+    private final BatchWriter writer;
+    private final int batchSize;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    // 以下计数只由写线程更新
+    private volatile long processedCount;
+    private volatile long batchCount;
+    private volatile long writeErrorCount;
+
+    public AsyncTraceSink(BatchWriter writer) {
+        this(writer, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, "trace-sink-writer");
+    }
+
+    public AsyncTraceSink(BatchWriter writer, int queueCapacity, int batchSize, String threadName) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize必须大于0: " + batchSize);
+        }
+        this.queue = new MpscRingQueue<>(queueCapacity);
+        this.writer = writer;
+        this.batchSize = batchSize;
+        this.writerThread = new Thread(this::drainLoop, threadName);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 输出到控制台，每批只获取一次System.out的锁
+     */
+    public static AsyncTraceSink console() {
+        return new AsyncTraceSink(new ConsoleWriter());
+    }
+
+    /**
+     * 追加写入文件
+     */
+    public static AsyncTraceSink file(Path path) throws IOException {
+        return new AsyncTraceSink(new AppendFileWriter(path));
+    }
+
+    /**
+     * 保存在内存中，最多保留maxRecords条
+     */
+    public static AsyncTraceSink inMemory(int maxRecords) {
+        return new AsyncTraceSink(new InMemoryWriter(maxRecords));
+    }
+
+    @Override
+    public boolean publish(String record) {
+        if (record == null) {
+            return true;
+        }
+        if (!running || !queue.offer(record)) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        publishedCount.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        long target = publishedCount.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (processedCount < target && writerThread.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(IDLE_PARK_NANOS / 10);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.NANOSECONDS.toMillis(FLUSH_TIMEOUT_NANOS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            writeErrorCount++;
+        }
+    }
+
+    private void drainLoop() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            String record;
+            while (batch.size() < batchSize && (record = queue.poll()) != null) {
+                batch.add(record);
+            }
+
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+
+            try {
+                writer.write(batch);
+            } catch (Exception e) {
+                writeErrorCount++;
+            }
+            batchCount++;
+            processedCount += batch.size();
+            batch.clear();
+        }
+    }
+
+    public BatchWriter getWriter() { return writer; }
+    public long getPublishedCount() { return publishedCount.get(); }
+    public long getDroppedCount() { return droppedCount.get(); }
+    public long getProcessedCount() { return processedCount; }
+    public long getBatchCount() { return batchCount; }
+    public long getWriteErrorCount() { return writeErrorCount; }
+    public int getPendingCount() { return queue.size(); }
+    public int getQueueCapacity() { return queue.capacity(); }
+
+    /**
+     * 控制台输出
+     */
+    public static class ConsoleWriter implements BatchWriter {
+        @Override
+        public void write(List<String> batch) {
+            StringBuilder sb = new StringBuilder();
+            for (String record : batch) {
+                sb.append(record).append(System.lineSeparator());
+            }
+            System.out.print(sb);
+        }
+    }
+
+    /**
+     * 文件输出
+     */
+    public static class AppendFileWriter implements BatchWriter {
+        private final BufferedWriter out;
+
+        public AppendFileWriter(Path path) throws IOException {
+            this.out = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                                               StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public void write(List<String> batch) throws IOException {
+            for (String record : batch) {
+                out.write(record);
+                out.newLine();
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * 内存输出，超出上限时丢弃最旧的记录
+     */
+    public static class InMemoryWriter implements BatchWriter {
+        private final int maxRecords;
+        private final Deque<String> records = new ArrayDeque<>();
+
+        public InMemoryWriter(int maxRecords) {
+            this.maxRecords = maxRecords;
+        }
+
+        @Override
+        public synchronized void write(List<String> batch) {
+            for (String record : batch) {
+                if (records.size() >= maxRecords) {
+                    records.pollFirst();
+                }
+                records.addLast(record);
+            }
+        }
+
+        public synchronized List<String> getRecords() {
+            return new ArrayList<>(records);
+        }
+    }
+}
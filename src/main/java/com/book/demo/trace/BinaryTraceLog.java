@@ -0,0 +1,255 @@
+package com.book.demo.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存映射的二进制追踪日志
+ * 文件由固定长度的步骤记录和字符串定义记录组成，类名、步骤类型和消息只在首次出现时写出一次，
+ * 之后以编号引用；多个流可以并发追加，写入位置用CAS预留，记录写完后最后写入类型字节作为提交标记。
+ * 文件容量在打开时固定，写满后丢弃并计数；由BinaryTraceReader离线回放
+ */
+public class BinaryTraceLog implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_STRINGS = 65_536;
+    // 超过该长度的消息截断后再写入字符串表
+    public static final int MAX_MESSAGE_LENGTH = 256;
+
+    // 文件格式
+    static final int MAGIC = 0x44545243; // "DTRC"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final byte KIND_END = 0;
+    static final byte KIND_STEP = 1;
+    static final byte KIND_STRING = 2;
+    static final int STEP_RECORD_SIZE = 48;
+    static final int STRING_HEADER_SIZE = 8;
+    static final byte FLAG_WARNING = 1;
+    static final byte FLAG_ERROR = 2;
+    static final int NO_STRING = -1;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int maxStrings;
+    private final AtomicLong position;
+    private final Map<String, Integer> stringIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStringId;
+    private final AtomicInteger nextStreamId;
+    private volatile boolean closed;
+
+    private final LongAdder appendedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    public BinaryTraceLog(Path path) throws IOException {
+        this(path, DEFAULT_CAPACITY, DEFAULT_MAX_STRINGS);
+    }
+
+    /**
+     * 打开或创建日志文件；已有日志时接着原有记录追加，字符串表和流编号从文件中恢复
+     *
+     * @param capacity 文件容量（字节），写满后新记录被丢弃
+     * @param maxStrings 字符串表的最大条目数，超出后消息不再写入，类名和步骤类型仍优先占用
+     */
+    public BinaryTraceLog(Path path, int capacity, int maxStrings) throws IOException {
+        if (capacity < HEADER_SIZE + STEP_RECORD_SIZE) {
+            throw new IllegalArgumentException("capacity过小: " + capacity);
+        }
+        this.path = path;
+        this.maxStrings = maxStrings;
+        boolean existing = Files.exists(path) && Files.size(path) > 0;
+        long end = HEADER_SIZE;
+        int stringCount = 0;
+        int streamCount = 0;
+        if (existing) {
+            try (BinaryTraceReader reader = BinaryTraceReader.open(path)) {
+                end = reader.getEndOffset();
+                Map<Integer, String> strings = reader.getStrings();
+                for (Map.Entry<Integer, String> entry : strings.entrySet()) {
+                    stringIds.put(entry.getValue(), entry.getKey());
+                    stringCount = Math.max(stringCount, entry.getKey() + 1);
+                }
+                streamCount = reader.getStreamIds().stream().mapToInt(id -> id + 1).max().orElse(0);
+            }
+        }
+        this.capacity = (int) Math.max(capacity, end);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        if (!existing) {
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, VERSION);
+            buffer.putShort(6, (short) STEP_RECORD_SIZE);
+            buffer.putLong(8, System.currentTimeMillis());
+        }
+        this.position = new AtomicLong(end);
+        this.nextStringId = new AtomicInteger(stringCount);
+        this.nextStreamId = new AtomicInteger(streamCount);
+    }
+
+    /**
+     * 分配一个流编号，同一个日志中每个追踪流使用不同的编号
+     */
+    public int newStreamId() {
+        return nextStreamId.getAndIncrement();
+    }
+
+    /**
+     * 追加一个步骤
+     *
+     * @param className 相关类名，可为null
+     * @return 日志已写满或已关闭时返回false
+     */
+    public boolean append(int streamId, DeserializationStep step, String className) {
+        if (closed) {
+            droppedCount.increment();
+            return false;
+        }
+        int typeId = intern(step.getStepType(), true);
+        int classId = className != null ? intern(className, true) : NO_STRING;
+        String message = step.getMessage();
+        if (message != null && message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        int messageId = message != null ? intern(message, false) : NO_STRING;
+        if (typeId == NO_STRING || (className != null && classId == NO_STRING)) {
+            droppedCount.increment();
+            return false;
+        }
+        // 预留成功后一定写完整条记录，避免留下空洞截断回放
+        long offset = reserve(STEP_RECORD_SIZE);
+        if (offset < 0) {
+            droppedCount.increment();
+            return false;
+        }
+        int at = (int) offset;
+        byte flags = (byte) ((step.isWarning() ? FLAG_WARNING : 0) | (step.isError() ? FLAG_ERROR : 0));
+        buffer.put(at + 1, flags);
+        buffer.putInt(at + 4, streamId);
+        buffer.putInt(at + 8, step.getStepNumber());
+        buffer.putInt(at + 12, typeId);
+        buffer.putInt(at + 16, classId);
+        buffer.putInt(at + 20, messageId);
+        buffer.putLong(at + 24, step.getTimestamp());
+        buffer.putLong(at + 32, step.getExecutionDuration());
+        buffer.putLong(at + 40, step.getStreamOffset());
+        buffer.put(at, KIND_STEP);
+        appendedCount.increment();
+        return true;
+    }
+
+    /**
+     * 返回字符串编号，首次出现时写出定义记录；字符串表已满或文件已满时返回NO_STRING
+     */
+    private int intern(String value, boolean required) {
+        Integer id = stringIds.get(value);
+        if (id != null) {
+            return id;
+        }
+        // 为类名和步骤类型预留十分之一的表空间
+        if (!required && stringIds.size() >= maxStrings - maxStrings / 10) {
+            return NO_STRING;
+        }
+        if (stringIds.size() >= maxStrings) {
+            return NO_STRING;
+        }
+        // 定义记录在computeIfAbsent内写出，保证它位于所有引用它的步骤之前
+        id = stringIds.computeIfAbsent(value, this::writeString);
+        return id != null ? id : NO_STRING;
+    }
+
+    private Integer writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, Short.MAX_VALUE);
+        long offset = reserve(align(STRING_HEADER_SIZE + length));
+        if (offset < 0) {
+            return null;
+        }
+        int id = nextStringId.getAndIncrement();
+        int at = (int) offset;
+        buffer.putShort(at + 2, (short) length);
+        buffer.putInt(at + 4, id);
+        buffer.put(at + STRING_HEADER_SIZE, bytes, 0, length);
+        buffer.put(at, KIND_STRING);
+        return id;
+    }
+
+    private long reserve(int size) {
+        while (true) {
+            long current = position.get();
+            if (current + size > capacity) {
+                return -1;
+            }
+            if (position.compareAndSet(current, current + size)) {
+                return current;
+            }
+        }
+    }
+
+    static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * 把已写入的记录刷到磁盘
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        channel.close();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 已使用的字节数，包括文件头
+     */
+    public long getUsedBytes() {
+        return Math.min(position.get(), capacity);
+    }
+
+    public int getStringCount() {
+        return stringIds.size();
+    }
+
+    public long getAppendedCount() {
+        return appendedCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BinaryTraceLog[" + path + ", " + getUsedBytes() + "/" + capacity + " bytes] appended=" +
+               getAppendedCount() + ", dropped=" + getDroppedCount();
+    }
+}
@@ -0,0 +1,250 @@
+package com.book.demo.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * BinaryTraceLog的离线读取工具
+ * 按写入顺序回放步骤记录，重建步骤列表和统计，并支持按流、类名、步骤类型查询；
+ * 遇到未提交的记录（类型字节为0）即视为日志结尾
+ */
+public class BinaryTraceReader implements Closeable {
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long createdMillis;
+    private final Map<Integer, String> strings = new HashMap<>();
+    private final Set<Integer> streamIds = new TreeSet<>();
+    private long endOffset;
+    private int stepCount;
+
+    /**
+     * 一条回放出的步骤记录
+     */
+    public static final class Entry {
+        private final int streamId;
+        private final DeserializationStep step;
+        private final String className;
+        private final boolean warning;
+        private final boolean error;
+
+        Entry(int streamId, DeserializationStep step, String className, boolean warning, boolean error) {
+            this.streamId = streamId;
+            this.step = step;
+            this.className = className;
+            this.warning = warning;
+            this.error = error;
+        }
+
+        // Getters
+        public int getStreamId() { return streamId; }
+        public DeserializationStep getStep() { return step; }
+        public String getClassName() { return className; }
+        public boolean isWarning() { return warning; }
+        public boolean isError() { return error; }
+    }
+
+    private BinaryTraceReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.capacity() < BinaryTraceLog.HEADER_SIZE || buffer.getInt(0) != BinaryTraceLog.MAGIC) {
+            channel.close();
+            throw new IOException("不是二进制追踪日志: " + path);
+        }
+        if (buffer.getShort(4) != BinaryTraceLog.VERSION ||
+            buffer.getShort(6) != BinaryTraceLog.STEP_RECORD_SIZE) {
+            channel.close();
+            throw new IOException("不支持的追踪日志版本: " + buffer.getShort(4));
+        }
+        this.createdMillis = buffer.getLong(8);
+        scan(null);
+    }
+
+    public static BinaryTraceReader open(Path path) throws IOException {
+        return new BinaryTraceReader(path);
+    }
+
+    /**
+     * 顺序扫描所有已提交的记录，consumer为null时只建立字符串表和流编号
+     */
+    private void scan(Consumer<Entry> consumer) throws IOException {
+        int at = BinaryTraceLog.HEADER_SIZE;
+        int limit = buffer.capacity();
+        int steps = 0;
+        while (at < limit) {
+            byte kind = buffer.get(at);
+            if (kind == BinaryTraceLog.KIND_STRING) {
+                int length = buffer.getShort(at + 2);
+                int id = buffer.getInt(at + 4);
+                int size = BinaryTraceLog.align(BinaryTraceLog.STRING_HEADER_SIZE + length);
+                if (at + size > limit) {
+                    break;
+                }
+                if (consumer == null) {
+                    byte[] bytes = new byte[length];
+                    buffer.get(at + BinaryTraceLog.STRING_HEADER_SIZE, bytes);
+                    strings.put(id, new String(bytes, StandardCharsets.UTF_8));
+                }
+                at += size;
+            } else if (kind == BinaryTraceLog.KIND_STEP) {
+                if (at + BinaryTraceLog.STEP_RECORD_SIZE > limit) {
+                    break;
+                }
+                steps++;
+                if (consumer == null) {
+                    streamIds.add(buffer.getInt(at + 4));
+                } else {
+                    consumer.accept(readStep(at));
+                }
+                at += BinaryTraceLog.STEP_RECORD_SIZE;
+            } else if (kind == BinaryTraceLog.KIND_END) {
+                break;
+            } else {
+                throw new IOException("追踪日志在偏移" + at + "处损坏: 未知记录类型" + kind);
+            }
+        }
+        if (consumer == null) {
+            endOffset = at;
+            stepCount = steps;
+        }
+    }
+
+    private Entry readStep(int at) {
+        byte flags = buffer.get(at + 1);
+        int streamId = buffer.getInt(at + 4);
+        int stepNumber = buffer.getInt(at + 8);
+        String stepType = string(buffer.getInt(at + 12));
+        String className = string(buffer.getInt(at + 16));
+        String message = string(buffer.getInt(at + 20));
+        long timestamp = buffer.getLong(at + 24);
+        long duration = buffer.getLong(at + 32);
+        long streamOffset = buffer.getLong(at + 40);
+        if (message == null) {
+            // 字符串表已满时消息未写出
+            message = className != null ? stepType + ": " + className : stepType;
+        }
+        DeserializationStep step = new DeserializationStep(stepNumber, timestamp, stepType, message,
+            RetainedObject.named(className), duration, streamOffset);
+        return new Entry(streamId, step, className, (flags & BinaryTraceLog.FLAG_WARNING) != 0,
+                         (flags & BinaryTraceLog.FLAG_ERROR) != 0);
+    }
+
+    private String string(int id) {
+        return id == BinaryTraceLog.NO_STRING ? null : strings.get(id);
+    }
+
+    /**
+     * 按写入顺序逐条回放
+     */
+    public void forEach(Consumer<Entry> consumer) throws IOException {
+        scan(consumer);
+    }
+
+    public List<Entry> query(Predicate<Entry> predicate) throws IOException {
+        List<Entry> result = new ArrayList<>();
+        scan(entry -> {
+            if (predicate.test(entry)) {
+                result.add(entry);
+            }
+        });
+        return result;
+    }
+
+    public List<DeserializationStep> readSteps() throws IOException {
+        return toSteps(query(entry -> true));
+    }
+
+    /**
+     * 读取单个流的步骤
+     */
+    public List<DeserializationStep> readSteps(int streamId) throws IOException {
+        return toSteps(query(entry -> entry.getStreamId() == streamId));
+    }
+
+    private static List<DeserializationStep> toSteps(List<Entry> entries) {
+        List<DeserializationStep> steps = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            steps.add(entry.getStep());
+        }
+        return steps;
+    }
+
+    /**
+     * 把整个日志回放为一份统计，不在堆上保留步骤
+     */
+    public DeserializationStatistics replayStatistics() throws IOException {
+        return replayStatistics(entry -> true);
+    }
+
+    public DeserializationStatistics replayStatistics(int streamId) throws IOException {
+        return replayStatistics(entry -> entry.getStreamId() == streamId);
+    }
+
+    public DeserializationStatistics replayStatistics(Predicate<Entry> predicate) throws IOException {
+        DeserializationStatistics statistics = new DeserializationStatistics();
+        scan(entry -> {
+            if (predicate.test(entry)) {
+                DeserializationStep step = entry.getStep();
+                statistics.record(step.getStepType(), entry.getClassName(), step.getExecutionDuration(),
+                                  entry.isWarning(), entry.isError(), step.getMessage());
+            }
+        });
+        return statistics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Getters
+    public Path getPath() { return path; }
+    public long getCreatedMillis() { return createdMillis; }
+    /**
+     * 最后一条已提交记录之后的偏移
+     */
+    public long getEndOffset() { return endOffset; }
+    public int getStepCount() { return stepCount; }
+    public Set<Integer> getStreamIds() { return streamIds; }
+    public Map<Integer, String> getStrings() { return strings; }
+
+    /**
+     * 离线查看追踪日志：java BinaryTraceReader &lt;file&gt; [streamId]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("用法: BinaryTraceReader <trace-file> [streamId]");
+            System.exit(1);
+        }
+        try (BinaryTraceReader reader = open(Paths.get(args[0]))) {
+            System.out.println("=== 追踪日志 " + reader.getPath() + " ===");
+            System.out.println("步骤数: " + reader.getStepCount() + ", 流数: " + reader.getStreamIds().size() +
+                               ", 字符串: " + reader.getStrings().size() + ", 字节数: " + reader.getEndOffset());
+            if (args.length > 1) {
+                int streamId = Integer.parseInt(args[1]);
+                for (DeserializationStep step : reader.readSteps(streamId)) {
+                    System.out.println(step);
+                }
+                reader.replayStatistics(streamId).printSummary();
+            } else {
+                reader.replayStatistics().printSummary();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.book.demo.trace;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.stream.Stream;
+
+/**
+ * 紧凑的调用栈快照
+ * 采集时只保存StackWalker的栈帧，真正需要StackTraceElement[]时才展开
+ */
+public final class CapturedStack implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private transient StackWalker.StackFrame[] frames;
+    private StackTraceElement[] elements;
+
+    private CapturedStack(StackWalker.StackFrame[] frames, StackTraceElement[] elements) {
+        this.frames = frames;
+        this.elements = elements;
+    }
+
+    /**
+     * 按策略采集当前线程的调用栈，跳过internalClass及其内部类的栈帧
+     *
+     * @return 策略为NONE时返回null
+     */
+    public static CapturedStack capture(StackCapturePolicy policy, Class<?> internalClass) {
+        if (policy == null || !policy.isEnabled()) {
+            return null;
+        }
+
+        String internalName = internalClass != null ? internalClass.getName() : CapturedStack.class.getName();
+        int maxDepth = policy.getMode() == StackCapturePolicy.Mode.TOP_FRAMES ? policy.getMaxDepth() : 0;
+
+        StackWalker.StackFrame[] frames = WALKER.walk(stream -> {
+            Stream<StackWalker.StackFrame> relevant = stream.dropWhile(frame -> {
+                String className = frame.getClassName();
+                return className.startsWith(internalName) || className.equals(CapturedStack.class.getName());
+            });
+            if (maxDepth > 0) {
+                relevant = relevant.limit(maxDepth);
+            }
+            return relevant.toArray(StackWalker.StackFrame[]::new);
+        });
+
+        return new CapturedStack(frames, null);
+    }
+
+    /**
+     * 包装已有的StackTraceElement[]（兼容旧接口）
+     */
+    public static CapturedStack of(StackTraceElement[] stackTrace) {
+        return stackTrace != null ? new CapturedStack(null, stackTrace.clone()) : null;
+    }
+
+    public int depth() {
+        return frames != null ? frames.length : elements.length;
+    }
+
+    /**
+     * 读取类名不需要展开栈帧
+     */
+    public String getClassName(int index) {
+        return frames != null ? frames[index].getClassName() : elements[index].getClassName();
+    }
+
+    public String getMethodName(int index) {
+        return frames != null ? frames[index].getMethodName() : elements[index].getMethodName();
+    }
+
+    /**
+     * 只展开单个栈帧
+     */
+    public StackTraceElement getFrame(int index) {
+        return elements != null ? elements[index] : frames[index].toStackTraceElement();
+    }
+
+    /**
+     * 展开为完整的StackTraceElement[]，结果会被缓存
+     */
+    public StackTraceElement[] toStackTraceElements() {
+        return materialize().clone();
+    }
+
+    /**
+     * 查找第一个类名不包含任何跳过片段的栈帧，格式为 类名.方法名:行号
+     *
+     * @return 找不到时返回null
+     */
+    public String findFrame(String... skippedClassFragments) {
+        int depth = depth();
+        for (int i = 0; i < depth; i++) {
+            String className = getClassName(i);
+            if (!containsAny(className, skippedClassFragments)) {
+                StackTraceElement frame = getFrame(i);
+                return frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+            }
+        }
+        return null;
+    }
+
+    private static boolean containsAny(String className, String[] fragments) {
+        for (String fragment : fragments) {
+            if (className.contains(fragment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private StackTraceElement[] materialize() {
+        if (elements == null) {
+            StackTraceElement[] expanded = new StackTraceElement[frames.length];
+            for (int i = 0; i < frames.length; i++) {
+                expanded[i] = frames[i].toStackTraceElement();
+            }
+            elements = expanded;
+        }
+        return elements;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // StackFrame不可序列化，写出前先展开
+        materialize();
+        out.defaultWriteObject();
+    }
+}
@@ -0,0 +1,49 @@
+package com.book.demo.trace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 统计已写出字节数的输出流，可选地保留写出内容的副本
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+    private final ByteArrayOutputStream copy;
+
+    CountingOutputStream(OutputStream out, boolean keepCopy) {
+        super(out);
+        this.copy = keepCopy ? new ByteArrayOutputStream() : null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+        if (copy != null) {
+            copy.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+        if (copy != null) {
+            copy.write(b, off, len);
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * 未保留副本时返回null
+     */
+    byte[] getCopy() {
+        return copy != null ? copy.toByteArray() : null;
+    }
+}
@@ -0,0 +1,324 @@
+package com.book.demo.trace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 反序列化调用树计时
+ * 由ObjectInputFilter回调提供对象开始边界和嵌套深度，resolveObject提供对象结束边界，
+ * 按类和嵌套路径汇总包含时间与自身时间以及消耗的流字节数，用于定位对象图中拖慢反序列化或撑大载荷的类型；
+ * 引用、类对象等没有结束回调的内容在同层下一个事件到来时关闭，耗时计入父对象的自身时间
+ */
+public class DeserializationCallTree {
+
+    // 最多记录的嵌套路径数量，超出部分合并计入OTHER_PATH
+    public static final int MAX_PATHS = 1024;
+    public static final String OTHER_PATH = "<other>";
+
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private final Map<String, Timing> classTimings = new LinkedHashMap<>();
+    private final Map<String, Timing> pathTimings = new LinkedHashMap<>();
+    private long rootCount;
+
+    /**
+     * 调用树中尚未结束的节点
+     */
+    private static final class Frame {
+        final int depth;
+        final long start;
+        final long startBytes;
+        final Frame parent;
+        Class<?> type;
+        String className;
+        String path;
+        long childNanos;
+        long childBytes;
+        int childCount;
+        boolean arrayChecked;
+        boolean superDescriptorPending;
+
+        Frame(int depth, long start, long startBytes, Frame parent, Class<?> type) {
+            this.depth = depth;
+            this.start = start;
+            this.startBytes = startBytes;
+            this.parent = parent;
+            setType(type);
+        }
+
+        void setType(Class<?> type) {
+            this.type = type;
+            this.className = type != null ? type.getName() : null;
+        }
+    }
+
+    /**
+     * 按类或路径汇总的耗时
+     */
+    public static class Timing {
+        private final String name;
+        private long count;
+        private long inclusiveNanos;
+        private long selfNanos;
+        private long maxInclusiveNanos;
+        private long inclusiveBytes;
+        private long selfBytes;
+
+        Timing(String name) {
+            this.name = name;
+        }
+
+        void add(long inclusive, long self, long bytes, long ownBytes, boolean countInclusive) {
+            count++;
+            if (countInclusive) {
+                inclusiveNanos += inclusive;
+                inclusiveBytes += bytes;
+            }
+            selfNanos += self;
+            selfBytes += ownBytes;
+            maxInclusiveNanos = Math.max(maxInclusiveNanos, inclusive);
+        }
+
+        // Getters
+        public String getName() { return name; }
+        public long getCount() { return count; }
+        public long getInclusiveNanos() { return inclusiveNanos; }
+        public long getSelfNanos() { return selfNanos; }
+        public long getMaxInclusiveNanos() { return maxInclusiveNanos; }
+        public long getInclusiveBytes() { return inclusiveBytes; }
+        public long getSelfBytes() { return selfBytes; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d次, 包含 %.3f ms, 自身 %.3f ms, 自身 %d 字节", name, count,
+                                 inclusiveNanos / 1_000_000.0, selfNanos / 1_000_000.0, selfBytes);
+        }
+    }
+
+    /**
+     * 过滤器回调：depth为ObjectInputStream当前的嵌套深度，serialClass可能为null（引用）；
+     * bytes为此刻已从底层流读取的字节数
+     */
+    void onFilterCheck(long depth, Class<?> serialClass, long arrayLength, long now, long bytes) {
+        int d = (int) depth;
+        // 更深层没有结束回调的节点在此之前已经结束
+        while (!stack.isEmpty() && stack.peek().depth > d) {
+            close(stack.pop(), now, bytes);
+        }
+
+        Frame top = stack.peek();
+        if (top != null && top.depth == d) {
+            // 数组先检查类描述符再检查长度，是同一个节点
+            if (arrayLength >= 0 && !top.arrayChecked && top.childCount == 0
+                    && (top.type == null || top.type == serialClass)) {
+                top.arrayChecked = true;
+                top.setType(serialClass);
+                return;
+            }
+            close(stack.pop(), now, bytes);
+            top = stack.peek();
+        }
+
+        // 新类描述符之后紧跟父类描述符（深度加一），属于同一个对象；父类描述符是引用时整条父类链已读过
+        if (top != null && top.depth == d - 1 && top.childCount == 0 && arrayLength < 0) {
+            if (serialClass == null && top.superDescriptorPending) {
+                top.superDescriptorPending = false;
+                return;
+            }
+            if (serialClass != null && top.type != null && serialClass.isAssignableFrom(top.type)) {
+                top.superDescriptorPending = hasSerializableSuperclass(serialClass);
+                return;
+            }
+        }
+
+        Frame frame = new Frame(d, now, bytes, top, serialClass);
+        frame.superDescriptorPending = serialClass != null && arrayLength < 0 && hasSerializableSuperclass(serialClass);
+        if (top != null) {
+            top.childCount++;
+        }
+        stack.push(frame);
+    }
+
+    private static boolean hasSerializableSuperclass(Class<?> type) {
+        Class<?> superclass = type.getSuperclass();
+        return superclass != null && java.io.Serializable.class.isAssignableFrom(superclass);
+    }
+
+    /**
+     * resolveObject回调：obj已完整读取（含自定义readObject和readResolve）
+     */
+    void onResolve(Object obj, long now, long bytes) {
+        if (obj == null || obj instanceof String) {
+            return;
+        }
+        // 类描述符是引用的对象只有一个无类名的开始节点，与同样无类名的引用节点无法区分：
+        // 有子节点的无名节点一定是对象，否则优先匹配同类名的节点
+        String className = obj.getClass().getName();
+        Frame unnamed = null;
+        Frame target = null;
+        boolean named = false;
+        for (Frame frame : stack) {
+            if (frame.className == null) {
+                unnamed = frame;
+                continue;
+            }
+            named = true;
+            if (frame.className.equals(className)) {
+                target = unnamed != null && unnamed.childCount > 0 ? unnamed : frame;
+            } else {
+                target = unnamed;
+            }
+            break;
+        }
+        if (!named) {
+            target = unnamed;
+        }
+        if (target == null) {
+            return;
+        }
+        if (target.className == null) {
+            target.setType(obj.getClass());
+        }
+        while (!stack.isEmpty()) {
+            Frame frame = stack.pop();
+            close(frame, now, bytes);
+            if (frame == target) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 顶层readObject返回时关闭所有节点
+     */
+    void finish(long now, long bytes) {
+        while (!stack.isEmpty()) {
+            close(stack.pop(), now, bytes);
+        }
+    }
+
+    private void close(Frame frame, long now, long bytes) {
+        long inclusive = now - frame.start;
+        long inclusiveBytes = bytes - frame.startBytes;
+        if (frame.className == null) {
+            // 未识别的节点（引用、父类描述符引用）不单独统计，耗时留在父节点的自身时间中
+            return;
+        }
+        long self = Math.max(0, inclusive - frame.childNanos);
+        long selfBytes = Math.max(0, inclusiveBytes - frame.childBytes);
+        if (frame.parent != null) {
+            frame.parent.childNanos += inclusive;
+            frame.parent.childBytes += inclusiveBytes;
+        } else {
+            rootCount++;
+        }
+
+        // 递归嵌套的同一类型只在最外层累计包含时间
+        boolean outermost = true;
+        for (Frame open : stack) {
+            if (frame.className.equals(open.className)) {
+                outermost = false;
+                break;
+            }
+        }
+        timing(classTimings, frame.className, false).add(inclusive, self, inclusiveBytes, selfBytes, outermost);
+        timing(pathTimings, pathOf(frame), true).add(inclusive, self, inclusiveBytes, selfBytes, true);
+    }
+
+    private String pathOf(Frame frame) {
+        if (frame.path == null) {
+            String name = simpleName(frame.type);
+            String parentPath = null;
+            for (Frame p = frame.parent; p != null && parentPath == null; p = p.parent) {
+                if (p.className != null) {
+                    parentPath = pathOf(p);
+                }
+            }
+            frame.path = parentPath != null ? parentPath + " > " + name : name;
+        }
+        return frame.path;
+    }
+
+    private static String simpleName(Class<?> type) {
+        if (type.isArray()) {
+            return simpleName(type.getComponentType()) + "[]";
+        }
+        String className = type.getName();
+        int dot = className.lastIndexOf('.');
+        return dot >= 0 ? className.substring(dot + 1) : className;
+    }
+
+    private static Timing timing(Map<String, Timing> timings, String name, boolean bounded) {
+        Timing timing = timings.get(name);
+        if (timing == null) {
+            String key = bounded && timings.size() >= MAX_PATHS ? OTHER_PATH : name;
+            timing = timings.computeIfAbsent(key, Timing::new);
+        }
+        return timing;
+    }
+
+    /**
+     * 按自身时间从高到低排序的类耗时
+     */
+    public List<Timing> getClassTimings() {
+        List<Timing> timings = new ArrayList<>(classTimings.values());
+        timings.sort(Comparator.comparingLong(Timing::getSelfNanos).reversed());
+        return timings;
+    }
+
+    /**
+     * 按包含时间从高到低排序的嵌套路径耗时
+     */
+    public List<Timing> getPathTimings() {
+        List<Timing> timings = new ArrayList<>(pathTimings.values());
+        timings.sort(Comparator.comparingLong(Timing::getInclusiveNanos).reversed());
+        return timings;
+    }
+
+    public Timing getClassTiming(String className) {
+        return classTimings.get(className);
+    }
+
+    public long getRootCount() {
+        return rootCount;
+    }
+
+    public void printReport(TraceSink sink, int limit) {
+        sink.publish("=== Deserialization Call Tree (self time) ===");
+        getClassTimings().stream().limit(limit).forEach(t -> sink.publish("  " + t));
+        sink.publish("=== Nesting Paths (inclusive time) ===");
+        getPathTimings().stream().limit(limit).forEach(t -> sink.publish("  " + t));
+    }
+
+    public String toJsonString() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"roots\":").append(rootCount).append(",");
+        json.append("\"classes\":");
+        appendTimings(json, getClassTimings());
+        json.append(",\"paths\":");
+        appendTimings(json, getPathTimings());
+        json.append("}");
+        return json.toString();
+    }
+
+    private static void appendTimings(StringBuilder json, List<Timing> timings) {
+        json.append("[");
+        boolean first = true;
+        for (Timing t : timings) {
+            if (!first) json.append(",");
+            json.append("{\"name\":\"").append(t.getName().replace("\"", "\\\"")).append("\",")
+                .append("\"count\":").append(t.getCount()).append(",")
+                .append("\"inclusiveNanos\":").append(t.getInclusiveNanos()).append(",")
+                .append("\"selfNanos\":").append(t.getSelfNanos()).append(",")
+                .append("\"inclusiveBytes\":").append(t.getInclusiveBytes()).append(",")
+                .append("\"selfBytes\":").append(t.getSelfBytes()).append("}");
+            first = false;
+        }
+        json.append("]");
+    }
+}
@@ -0,0 +1,327 @@
+package com.book.demo.trace;
+
+import com.book.demo.rules.CompiledRuleSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * 基于JEP 290的反序列化过滤器
+ * 在ObjectInputStream解析每个类描述符、数组和引用时检查深度、引用数、数组长度、字节数和类规则，
+ * 超限时立即拒绝，恶意流在消耗CPU和堆之前就被截断；按规则记录拒绝次数
+ */
+public class DeserializationFilter implements ObjectInputFilter {
+
+    // 开启JVM级过滤器工厂的系统属性
+    public static final String GLOBAL_PROPERTY = "com.book.demo.trace.filter.global";
+    // 由JVM级工厂合并的其他过滤器（如jdk.serialFilter）拒绝时使用的规则名
+    public static final String RULE_EXTERNAL = "external";
+
+    /**
+     * 拒绝回调，在读取对象的线程上注册；同一次拒绝可能经过多层过滤器，回调应可重复调用
+     */
+    @FunctionalInterface
+    public interface RejectionListener {
+        void onRejected(String rule, Class<?> serialClass);
+    }
+
+    private static final ThreadLocal<RejectionListener> rejectionListener = new ThreadLocal<>();
+
+    private static volatile DeserializationFilter defaultFilter;
+    private static final Map<String, DeserializationFilter> callSiteFilters = new ConcurrentHashMap<>();
+
+    private final DeserializationLimits limits;
+    private final Predicate<String> classRejector;
+    private volatile CompiledRuleSet allowRules;
+    private volatile String callSite = DeserializationMetrics.CALL_SITE_DIRECT;
+
+    private final LongAdder checkCount = new LongAdder();
+    private final LongAdder allowedCount = new LongAdder();
+    private final Map<String, LongAdder> rejectCounts = new ConcurrentHashMap<>();
+
+    public DeserializationFilter() {
+        this(DeserializationLimits.defaults());
+    }
+
+    public DeserializationFilter(DeserializationLimits limits) {
+        this(limits, TraceableObjectInputStream::isDangerousClassName);
+    }
+
+    /**
+     * @param classRejector 返回true的类名会被拒绝，传入null表示不做类检查
+     */
+    public DeserializationFilter(DeserializationLimits limits, Predicate<String> classRejector) {
+        this.limits = limits != null ? limits : DeserializationLimits.unlimited();
+        this.classRejector = classRejector;
+    }
+
+    /**
+     * 演示组件共享的过滤器，拒绝计数在所有使用者之间累计
+     */
+    public static DeserializationFilter getDefault() {
+        DeserializationFilter filter = defaultFilter;
+        if (filter == null) {
+            synchronized (DeserializationFilter.class) {
+                filter = defaultFilter;
+                if (filter == null) {
+                    filter = new DeserializationFilter();
+                    defaultFilter = filter;
+                }
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * 按调用位置共享的默认限制过滤器，拒绝次数以该调用位置计入全局指标；
+     * 未知调用位置共用CALL_SITE_OTHER的过滤器
+     */
+    public static DeserializationFilter forCallSite(String callSite) {
+        return callSiteFilters.computeIfAbsent(DeserializationMetrics.normalizeCallSite(callSite), site -> {
+            DeserializationFilter filter = new DeserializationFilter();
+            filter.setCallSite(site);
+            return filter;
+        });
+    }
+
+    /**
+     * 为流设置过滤器，必须在读取任何对象之前调用；
+     * 未安装JVM级工厂时与流上已有的过滤器（jdk.serialFilter）合并，避免覆盖静态过滤器
+     */
+    public <T extends ObjectInputStream> T attach(T in) {
+        in.setObjectInputFilter(mergeWith(in.getObjectInputFilter()));
+        return in;
+    }
+
+    /**
+     * 在过滤器保护下反序列化一段字节，超出深度/引用/数组/字节限制或命中危险类时在读取过程中直接拒绝；
+     * 成功读取的对象数、字节数和耗时以该过滤器的调用位置计入全局指标
+     */
+    public Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        long startTime = System.nanoTime();
+        Object result;
+        try (ObjectInputStream in = attach(new ObjectInputStream(new ByteArrayInputStream(data)))) {
+            result = in.readObject();
+        }
+        DeserializationMetrics.record(callSite, result != null ? result.getClass().getName() : null,
+            data.length, System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * 与流上已有的过滤器合并；已安装JVM级工厂时由工厂负责合并，直接返回自身
+     */
+    ObjectInputFilter mergeWith(ObjectInputFilter current) {
+        if (current == null || current == this
+                || ObjectInputFilter.Config.getSerialFilterFactory() instanceof Factory) {
+            return this;
+        }
+        return ObjectInputFilter.merge(this, notifying(current));
+    }
+
+    @Override
+    public Status checkInput(FilterInfo info) {
+        checkCount.increment();
+
+        if (limits.exceedsDepth(info.depth())) {
+            return reject(ScanResult.RULE_MAX_DEPTH, info.serialClass());
+        }
+        if (limits.exceedsReferences(info.references())) {
+            return reject(ScanResult.RULE_MAX_REFS, info.serialClass());
+        }
+        if (limits.exceedsBytes(info.streamBytes())) {
+            return reject(ScanResult.RULE_MAX_BYTES, info.serialClass());
+        }
+        if (info.arrayLength() >= 0 && limits.exceedsArrayLength(info.arrayLength())) {
+            return reject(ScanResult.RULE_MAX_ARRAY, info.serialClass());
+        }
+
+        Class<?> serialClass = info.serialClass();
+        if (serialClass != null) {
+            Class<?> element = serialClass;
+            while (element.isArray()) {
+                element = element.getComponentType();
+            }
+            if (!element.isPrimitive()) {
+                String className = element.getName();
+                if (classRejector != null && classRejector.test(className)) {
+                    return reject(ScanResult.RULE_CLASS, info.serialClass());
+                }
+                CompiledRuleSet allow = allowRules;
+                if (allow != null) {
+                    if (!allow.matches(className)) {
+                        return reject(ScanResult.RULE_CLASS, info.serialClass());
+                    }
+                    allowedCount.increment();
+                    return Status.ALLOWED;
+                }
+            }
+        }
+
+        // 未命中任何规则时交给其他过滤器决定
+        return Status.UNDECIDED;
+    }
+
+    private Status reject(String rule, Class<?> serialClass) {
+        rejectCounts.computeIfAbsent(rule, r -> new LongAdder()).increment();
+        DeserializationMetrics.recordRejection(callSite, serialClass != null ? serialClass.getName() : null, rule);
+        fireRejected(rule, serialClass);
+        return Status.REJECTED;
+    }
+
+    /**
+     * 为当前线程注册拒绝回调，返回之前注册的回调，读取结束后应恢复
+     */
+    static RejectionListener setRejectionListener(RejectionListener listener) {
+        RejectionListener previous = rejectionListener.get();
+        if (listener != null) {
+            rejectionListener.set(listener);
+        } else {
+            rejectionListener.remove();
+        }
+        return previous;
+    }
+
+    private static void fireRejected(String rule, Class<?> serialClass) {
+        RejectionListener listener = rejectionListener.get();
+        if (listener != null) {
+            listener.onRejected(rule, serialClass);
+        }
+    }
+
+    /**
+     * 包装其他过滤器，拒绝时同样调用当前线程的拒绝回调
+     */
+    private static ObjectInputFilter notifying(ObjectInputFilter filter) {
+        if (filter == null || filter instanceof DeserializationFilter) {
+            return filter;
+        }
+        return info -> {
+            Status status = filter.checkInput(info);
+            if (status == Status.REJECTED) {
+                fireRejected(RULE_EXTERNAL, info.serialClass());
+            }
+            return status;
+        };
+    }
+
+    /**
+     * 设置类白名单，非空时只有命中白名单的类被允许，传入null关闭白名单
+     */
+    public void setAllowRules(CompiledRuleSet allowRules) {
+        this.allowRules = allowRules;
+    }
+
+    public CompiledRuleSet getAllowRules() {
+        return allowRules;
+    }
+
+    public String getCallSite() {
+        return callSite;
+    }
+
+    /**
+     * 设置全局指标中的调用位置标签
+     */
+    public void setCallSite(String callSite) {
+        this.callSite = callSite != null ? callSite : DeserializationMetrics.CALL_SITE_DIRECT;
+    }
+
+    public DeserializationLimits getLimits() {
+        return limits;
+    }
+
+    public long getCheckCount() {
+        return checkCount.sum();
+    }
+
+    public long getAllowedCount() {
+        return allowedCount.sum();
+    }
+
+    public long getRejectCount(String rule) {
+        LongAdder counter = rejectCounts.get(rule);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    public long getTotalRejectCount() {
+        long total = 0;
+        for (LongAdder counter : rejectCounts.values()) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * 按规则名返回拒绝次数的快照
+     */
+    public Map<String, Long> getRejectCounts() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : rejectCounts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    public void resetCounters() {
+        checkCount.reset();
+        allowedCount.reset();
+        rejectCounts.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "DeserializationFilter[" + limits + "] rejects=" + getRejectCounts();
+    }
+
+    /**
+     * 安装JVM级过滤器工厂，之后创建的所有ObjectInputStream都会经过该过滤器，
+     * 与jdk.serialFilter及流上单独设置的过滤器合并；
+     * 工厂只能设置一次，JVM已创建过ObjectInputStream或已被设置时返回false
+     */
+    public static boolean installFactory(DeserializationFilter filter) {
+        try {
+            ObjectInputFilter.Config.setSerialFilterFactory(new Factory(filter));
+            return true;
+        } catch (IllegalStateException e) {
+            System.err.println("[FILTER] 无法安装反序列化过滤器工厂: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * JVM级过滤器工厂
+     */
+    public static final class Factory implements BinaryOperator<ObjectInputFilter> {
+        private final DeserializationFilter filter;
+
+        public Factory(DeserializationFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public ObjectInputFilter apply(ObjectInputFilter current, ObjectInputFilter requested) {
+            if (current == null) {
+                // 创建流时：requested为jdk.serialFilter配置的静态过滤器
+                return requested != null ? ObjectInputFilter.merge(filter, notifying(requested)) : filter;
+            }
+            // setObjectInputFilter时：保留全局限制，同时应用流上的过滤器
+            if (requested == null || requested == filter) {
+                return current;
+            }
+            return ObjectInputFilter.merge(notifying(requested), current);
+        }
+
+        public DeserializationFilter getFilter() {
+            return filter;
+        }
+    }
+}
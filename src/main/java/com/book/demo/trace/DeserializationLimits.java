@@ -0,0 +1,72 @@
+package com.book.demo.trace;
+
+/**
+ * 反序列化资源限制
+ * 取值小于等于0表示不限制
+ */
+public class DeserializationLimits {
+
+    public static final int DEFAULT_MAX_DEPTH = 100;
+    public static final long DEFAULT_MAX_REFERENCES = 100_000;
+    public static final long DEFAULT_MAX_ARRAY_LENGTH = 1_000_000;
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+
+    private int maxDepth;
+    private long maxReferences;
+    private long maxArrayLength;
+    private long maxBytes;
+
+    public DeserializationLimits() {
+        this(DEFAULT_MAX_DEPTH, DEFAULT_MAX_REFERENCES, DEFAULT_MAX_ARRAY_LENGTH, DEFAULT_MAX_BYTES);
+    }
+
+    public DeserializationLimits(int maxDepth, long maxReferences, long maxArrayLength, long maxBytes) {
+        this.maxDepth = maxDepth;
+        this.maxReferences = maxReferences;
+        this.maxArrayLength = maxArrayLength;
+        this.maxBytes = maxBytes;
+    }
+
+    public static DeserializationLimits defaults() {
+        return new DeserializationLimits();
+    }
+
+    public static DeserializationLimits unlimited() {
+        return new DeserializationLimits(0, 0, 0, 0);
+    }
+
+    public boolean exceedsDepth(long depth) {
+        return maxDepth > 0 && depth > maxDepth;
+    }
+
+    public boolean exceedsReferences(long references) {
+        return maxReferences > 0 && references > maxReferences;
+    }
+
+    public boolean exceedsArrayLength(long length) {
+        return maxArrayLength > 0 && length > maxArrayLength;
+    }
+
+    public boolean exceedsBytes(long bytes) {
+        return maxBytes > 0 && bytes > maxBytes;
+    }
+
+    // Getters and Setters
+    public int getMaxDepth() { return maxDepth; }
+    public void setMaxDepth(int maxDepth) { this.maxDepth = maxDepth; }
+
+    public long getMaxReferences() { return maxReferences; }
+    public void setMaxReferences(long maxReferences) { this.maxReferences = maxReferences; }
+
+    public long getMaxArrayLength() { return maxArrayLength; }
+    public void setMaxArrayLength(long maxArrayLength) { this.maxArrayLength = maxArrayLength; }
+
+    public long getMaxBytes() { return maxBytes; }
+    public void setMaxBytes(long maxBytes) { this.maxBytes = maxBytes; }
+
+    @Override
+    public String toString() {
+        return "maxdepth=" + maxDepth + ";maxrefs=" + maxReferences +
+               ";maxarray=" + maxArrayLength + ";maxbytes=" + maxBytes;
+    }
+}
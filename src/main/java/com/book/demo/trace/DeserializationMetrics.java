@@ -0,0 +1,211 @@
+package com.book.demo.trace;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程级反序列化指标注册表
+ * 按调用位置和类名聚合所有流的对象数、字节数、耗时和拒绝次数，计数器使用分段的LongAdder；
+ * 序列数量有上限，超出后合并计入OTHER_CLASS，避免类名基数失控；
+ * 调用位置只接受预定义的CALL_SITE_*常量，其他值计入CALL_SITE_OTHER
+ */
+public class DeserializationMetrics {
+
+    public static final String CALL_SITE_SERVLET = "servlet";
+    public static final String CALL_SITE_FILTER = "filter";
+    public static final String CALL_SITE_LISTENER = "listener";
+    public static final String CALL_SITE_SPRING = "spring";
+    public static final String CALL_SITE_DEMO = "demo";
+    public static final String CALL_SITE_BATCH = "batch";
+    public static final String CALL_SITE_DIRECT = "direct";
+    public static final String CALL_SITE_OTHER = "other";
+
+    private static final Set<String> KNOWN_CALL_SITES = Set.of(CALL_SITE_SERVLET, CALL_SITE_FILTER,
+        CALL_SITE_LISTENER, CALL_SITE_SPRING, CALL_SITE_DEMO, CALL_SITE_BATCH, CALL_SITE_DIRECT, CALL_SITE_OTHER);
+
+    public static final String OTHER_CLASS = "<other>";
+
+    // 最大序列数，可通过系统属性 com.book.demo.metrics.maxSeries 调整
+    private static final int MAX_SERIES = Integer.getInteger("com.book.demo.metrics.maxSeries", 512);
+
+    private static final Map<String, Series> series = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> callSiteLatency = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> rejections = new ConcurrentHashMap<>();
+    private static final LongAdder overflowCount = new LongAdder();
+
+    /**
+     * 单个（调用位置, 类名）序列的计数器
+     */
+    public static class Series {
+        private final String callSite;
+        private final String className;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder durationNanos = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        Series(String callSite, String className) {
+            this.callSite = callSite;
+            this.className = className;
+        }
+
+        // Getters
+        public String getCallSite() { return callSite; }
+        public String getClassName() { return className; }
+        public long getCount() { return count.sum(); }
+        public long getBytes() { return bytes.sum(); }
+        public long getDurationNanos() { return durationNanos.sum(); }
+        public long getRejected() { return rejected.sum(); }
+    }
+
+    private DeserializationMetrics() {
+    }
+
+    /**
+     * 记录一次完成的反序列化
+     */
+    public static void record(String callSite, String className, long bytes, long durationNanos) {
+        String site = normalizeCallSite(callSite);
+        Series s = series(site, className != null ? className : "null");
+        s.count.increment();
+        s.bytes.add(Math.max(0, bytes));
+        s.durationNanos.add(durationNanos);
+        callSiteLatency.computeIfAbsent(site, k -> new LatencyHistogram()).record(durationNanos);
+    }
+
+    /**
+     * 记录一次拒绝，className未知时传入null
+     */
+    public static void recordRejection(String callSite, String className, String rule) {
+        String site = normalizeCallSite(callSite);
+        rejections.computeIfAbsent(site + '\u0000' + rule, k -> new LongAdder()).increment();
+        if (className != null) {
+            series(site, className).rejected.increment();
+        }
+    }
+
+    /**
+     * 将调用位置归一化为预定义常量，null视为CALL_SITE_DIRECT，未知值视为CALL_SITE_OTHER
+     */
+    public static String normalizeCallSite(String callSite) {
+        if (callSite == null) {
+            return CALL_SITE_DIRECT;
+        }
+        return KNOWN_CALL_SITES.contains(callSite) ? callSite : CALL_SITE_OTHER;
+    }
+
+    private static Series series(String callSite, String className) {
+        String key = callSite + '\u0000' + className;
+        Series s = series.get(key);
+        if (s != null) {
+            return s;
+        }
+        if (series.size() >= MAX_SERIES) {
+            overflowCount.increment();
+            return series.computeIfAbsent(callSite + '\u0000' + OTHER_CLASS, k -> new Series(callSite, OTHER_CLASS));
+        }
+        return series.computeIfAbsent(key, k -> new Series(callSite, className));
+    }
+
+    public static Series getSeries(String callSite, String className) {
+        return series.get(callSite + '\u0000' + className);
+    }
+
+    public static long getRejectionCount(String callSite, String rule) {
+        LongAdder counter = rejections.get(callSite + '\u0000' + rule);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    public static int getSeriesCount() {
+        return series.size();
+    }
+
+    public static long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    public static void reset() {
+        series.clear();
+        callSiteLatency.clear();
+        rejections.clear();
+        overflowCount.reset();
+    }
+
+    /**
+     * 以Prometheus文本格式导出
+     */
+    public static String toPrometheusText() {
+        Map<String, Series> sorted = new TreeMap<>(series);
+        StringBuilder out = new StringBuilder();
+
+        header(out, "deserialization_objects_total", "counter", "反序列化完成的对象数");
+        for (Series s : sorted.values()) {
+            sample(out, "deserialization_objects_total", s, s.getCount());
+        }
+        header(out, "deserialization_bytes_total", "counter", "反序列化读取的字节数");
+        for (Series s : sorted.values()) {
+            sample(out, "deserialization_bytes_total", s, s.getBytes());
+        }
+        header(out, "deserialization_duration_seconds_total", "counter", "反序列化累计耗时");
+        for (Series s : sorted.values()) {
+            out.append("deserialization_duration_seconds_total").append(labels(s))
+               .append(' ').append(s.getDurationNanos() / 1e9).append('\n');
+        }
+        header(out, "deserialization_class_rejections_total", "counter", "按类统计的拒绝次数");
+        for (Series s : sorted.values()) {
+            if (s.getRejected() > 0) {
+                sample(out, "deserialization_class_rejections_total", s, s.getRejected());
+            }
+        }
+
+        header(out, "deserialization_rejections_total", "counter", "按规则统计的拒绝次数");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(rejections).entrySet()) {
+            String[] parts = entry.getKey().split("\u0000", 2);
+            out.append("deserialization_rejections_total{site=\"").append(escape(parts[0]))
+               .append("\",rule=\"").append(escape(parts[1])).append("\"} ")
+               .append(entry.getValue().sum()).append('\n');
+        }
+
+        header(out, "deserialization_duration_seconds", "summary", "按调用位置统计的单次反序列化耗时");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(callSiteLatency).entrySet()) {
+            String site = escape(entry.getKey());
+            LatencyHistogram histogram = entry.getValue();
+            quantile(out, site, "0.5", histogram.getP50());
+            quantile(out, site, "0.99", histogram.getP99());
+            quantile(out, site, "0.999", histogram.getP999());
+            out.append("deserialization_duration_seconds_sum{site=\"").append(site).append("\"} ")
+               .append(histogram.getSum() / 1e9).append('\n');
+            out.append("deserialization_duration_seconds_count{site=\"").append(site).append("\"} ")
+               .append(histogram.getCount()).append('\n');
+        }
+
+        header(out, "deserialization_series_overflow_total", "counter", "因序列数达到上限而合并计入<other>的记录数");
+        out.append("deserialization_series_overflow_total ").append(getOverflowCount()).append('\n');
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, Series s, long value) {
+        out.append(name).append(labels(s)).append(' ').append(value).append('\n');
+    }
+
+    private static void quantile(StringBuilder out, String site, String quantile, long nanos) {
+        out.append("deserialization_duration_seconds{site=\"").append(site).append("\",quantile=\"")
+           .append(quantile).append("\"} ").append(nanos / 1e9).append('\n');
+    }
+
+    private static String labels(Series s) {
+        return "{site=\"" + escape(s.getCallSite()) + "\",class=\"" + escape(s.getClassName()) + "\"}";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,191 @@
+package com.book.demo.trace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生产环境的反序列化追踪采样器
+ * 头部采样：每N个流有一个以完整级别追踪，其余只累加计数器；
+ * 尾部采样：未采中的流把最近的步骤写入小容量预缓冲，命中危险类或过滤器拒绝时追溯提升为完整追踪；
+ * 采样率和预缓冲容量可以在运行时调整，对之后创建的流生效
+ */
+public class DeserializationSampler {
+
+    // 系统属性：采样率N（每N个流完整追踪一个）和预缓冲容量
+    public static final String RATE_PROPERTY = "com.book.demo.trace.sample.rate";
+    public static final String PRE_BUFFER_PROPERTY = "com.book.demo.trace.sample.preBuffer";
+
+    public static final int DEFAULT_RATE = 100;
+    public static final int DEFAULT_PRE_BUFFER = 32;
+
+    private static volatile DeserializationSampler defaultSampler;
+
+    private volatile int sampleRate;
+    private volatile int preBufferCapacity;
+    private volatile TraceLevel sampledLevel = TraceLevel.FULL;
+    private volatile TraceLevel unsampledLevel = TraceLevel.COUNTERS;
+
+    private final AtomicLong streamCounter = new AtomicLong();
+    private final LongAdder sampledCount = new LongAdder();
+    private final LongAdder unsampledCount = new LongAdder();
+    private final Map<String, LongAdder> promotionCounts = new ConcurrentHashMap<>();
+
+    public DeserializationSampler() {
+        this(Integer.getInteger(RATE_PROPERTY, DEFAULT_RATE),
+             Integer.getInteger(PRE_BUFFER_PROPERTY, DEFAULT_PRE_BUFFER));
+    }
+
+    /**
+     * @param sampleRate 每sampleRate个流完整追踪一个，1表示全部追踪，0表示只做尾部采样
+     * @param preBufferCapacity 未采中流的预缓冲步骤数，0表示不做尾部采样
+     */
+    public DeserializationSampler(int sampleRate, int preBufferCapacity) {
+        setSampleRate(sampleRate);
+        setPreBufferCapacity(preBufferCapacity);
+    }
+
+    public static DeserializationSampler getDefault() {
+        DeserializationSampler sampler = defaultSampler;
+        if (sampler == null) {
+            synchronized (DeserializationSampler.class) {
+                sampler = defaultSampler;
+                if (sampler == null) {
+                    sampler = new DeserializationSampler();
+                    defaultSampler = sampler;
+                }
+            }
+        }
+        return sampler;
+    }
+
+    /**
+     * 创建按采样决策配置好的追踪流
+     */
+    public TraceableObjectInputStream open(InputStream in) throws IOException {
+        boolean sampled = shouldSample();
+        TraceableObjectInputStream tois = new TraceableObjectInputStream(in, sampled ? sampledLevel : unsampledLevel);
+        return configure(tois, sampled);
+    }
+
+    /**
+     * 对已创建的流做采样决策，必须在读取对象之前调用
+     */
+    public <T extends TraceableObjectInputStream> T apply(T tois) {
+        return configure(tois, shouldSample());
+    }
+
+    private <T extends TraceableObjectInputStream> T configure(T tois, boolean sampled) {
+        if (sampled) {
+            sampledCount.increment();
+            tois.setTraceLevel(sampledLevel);
+            return tois;
+        }
+        unsampledCount.increment();
+        tois.setTraceLevel(unsampledLevel);
+        int capacity = preBufferCapacity;
+        if (capacity > 0 && !unsampledLevel.recordsSteps() && unsampledLevel.countsEvents()) {
+            tois.startTailCapture(this, capacity);
+        }
+        return tois;
+    }
+
+    private boolean shouldSample() {
+        int rate = sampleRate;
+        long n = streamCounter.getAndIncrement();
+        return rate > 0 && n % rate == 0;
+    }
+
+    void onPromoted(String reason) {
+        promotionCounts.computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 0) {
+            throw new IllegalArgumentException("sampleRate不能为负数: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    public int getPreBufferCapacity() {
+        return preBufferCapacity;
+    }
+
+    public void setPreBufferCapacity(int preBufferCapacity) {
+        if (preBufferCapacity < 0) {
+            throw new IllegalArgumentException("preBufferCapacity不能为负数: " + preBufferCapacity);
+        }
+        this.preBufferCapacity = preBufferCapacity;
+    }
+
+    public TraceLevel getSampledLevel() {
+        return sampledLevel;
+    }
+
+    public void setSampledLevel(TraceLevel sampledLevel) {
+        this.sampledLevel = sampledLevel != null ? sampledLevel : TraceLevel.FULL;
+    }
+
+    public TraceLevel getUnsampledLevel() {
+        return unsampledLevel;
+    }
+
+    public void setUnsampledLevel(TraceLevel unsampledLevel) {
+        this.unsampledLevel = unsampledLevel != null ? unsampledLevel : TraceLevel.COUNTERS;
+    }
+
+    /**
+     * 尾部采样提升后使用的级别，与头部采样级别一致
+     */
+    TraceLevel getPromotedLevel() {
+        return sampledLevel;
+    }
+
+    public long getSampledCount() {
+        return sampledCount.sum();
+    }
+
+    public long getUnsampledCount() {
+        return unsampledCount.sum();
+    }
+
+    public long getPromotedCount() {
+        long total = 0;
+        for (LongAdder counter : promotionCounts.values()) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * 按原因返回提升次数的快照
+     */
+    public Map<String, Long> getPromotionCounts() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : promotionCounts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    public void resetCounters() {
+        sampledCount.reset();
+        unsampledCount.reset();
+        promotionCounts.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "DeserializationSampler[1/" + sampleRate + ", preBuffer=" + preBufferCapacity +
+               "] sampled=" + getSampledCount() + ", unsampled=" + getUnsampledCount() +
+               ", promoted=" + getPromotionCounts();
+    }
+}
@@ -1,145 +1,349 @@
 package com.book.demo.trace;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
+/**
+ * 反序列化统计
+ * 步骤记录时增量累加，不保留步骤本身；总体和按步骤类型维护对数分桶的耗时直方图，
+ * 长时间运行的流在任意时刻都能以常数开销取得汇总和p50/p99/p999；
+ * 按类名只累计次数、总耗时和最大值，类数量较多时不为每个类分配直方图
+ */
 public class DeserializationStatistics {
-    
+
+    // 按类名统计的最大类数量，超出部分合并计入OTHER_CLASSES
+    public static final int MAX_TRACKED_CLASSES = 256;
+    public static final String OTHER_CLASSES = "<other>";
+
+    // 保留的最近警告/错误消息条数
+    private static final int MESSAGE_CAPACITY = 64;
+
+    private final LongAdder totalSteps = new LongAdder();
+    private final LongAdder totalDuration = new LongAdder();
+    private final LongAdder warningCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LatencyHistogram overallLatency = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> stepTypeLatency = new ConcurrentHashMap<>();
+    private final Map<String, ClassLatency> classLatency = new ConcurrentHashMap<>();
+    private final Set<String> dangerousClasses = Collections.synchronizedSet(new LinkedHashSet<>());
+    private final Set<String> customReadObjectClasses = Collections.synchronizedSet(new LinkedHashSet<>());
+    private final Deque<String> recentWarnings = new ArrayDeque<>();
+    private final Deque<String> recentErrors = new ArrayDeque<>();
+
+    /**
+     * 单个类的耗时汇总
+     */
+    public static final class ClassLatency {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            long v = Math.max(0, value);
+            count.increment();
+            sum.add(v);
+            updateMax(v);
+        }
+
+        void add(ClassLatency other) {
+            count.add(other.count.sum());
+            sum.add(other.sum.sum());
+            updateMax(other.max.get());
+        }
+
+        private void updateMax(long v) {
+            long currentMax = max.get();
+            while (v > currentMax && !max.compareAndSet(currentMax, v)) {
+                currentMax = max.get();
+            }
+        }
+
+        public long getCount() { return count.sum(); }
+        public long getSum() { return sum.sum(); }
+        public long getMax() { return max.get(); }
+
+        public double getMean() {
+            long n = count.sum();
+            return n > 0 ? (double) sum.sum() / n : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", mean=" + String.format("%.1f", getMean()) + ", max=" + getMax();
+        }
+    }
+
+    // 仅在由步骤列表构建时保留，兼容按步骤查询的旧接口
     private final List<DeserializationStep> steps;
-    private final Map<String, Integer> stepTypeCount;
-    private final Map<String, Long> stepTypeDuration;
-    private final long totalDuration;
-    private final int totalSteps;
-    private final int warningCount;
-    private final int errorCount;
-    
+
+    public DeserializationStatistics() {
+        this.steps = null;
+    }
+
+    /**
+     * 从已有步骤列表一次性构建统计
+     */
     public DeserializationStatistics(List<DeserializationStep> steps) {
         this.steps = steps;
-        this.stepTypeCount = new HashMap<>();
-        this.stepTypeDuration = new HashMap<>();
-        this.totalSteps = steps.size();
-        
-        long duration = 0;
-        int warnings = 0;
-        int errors = 0;
-        
         for (DeserializationStep step : steps) {
-            String type = step.getStepType();
-            
-            // 统计步骤类型数量
-            stepTypeCount.put(type, stepTypeCount.getOrDefault(type, 0) + 1);
-            
-            // 统计步骤类型执行时间
-            stepTypeDuration.put(type, stepTypeDuration.getOrDefault(type, 0L) + step.getExecutionDuration());
-            
-            duration += step.getExecutionDuration();
-            
-            if (step.isWarning()) warnings++;
-            if (step.isError()) errors++;
-        }
-        
-        this.totalDuration = duration;
-        this.warningCount = warnings;
-        this.errorCount = errors;
-    }
-    
+            record(step);
+        }
+    }
+
+    public void record(DeserializationStep step) {
+        record(step.getStepType(), step.getSubjectClassName(), step.getExecutionDuration(),
+               step.isWarning(), step.isError(), step.getMessage());
+    }
+
+    /**
+     * 记录一个步骤
+     * @param className 相关类名，可为null
+     * @param durationNanos 步骤耗时（纳秒）
+     */
+    public void record(String stepType, String className, long durationNanos,
+                       boolean warning, boolean error, String message) {
+        totalSteps.increment();
+        totalDuration.add(durationNanos);
+        overallLatency.record(durationNanos);
+        stepTypeLatency.computeIfAbsent(stepType, t -> new LatencyHistogram()).record(durationNanos);
+
+        if (className != null) {
+            classHistogram(className).record(durationNanos);
+            if ("DANGEROUS_CLASS".equals(stepType) || warning) {
+                dangerousClasses.add(className);
+            }
+            if ("CUSTOM_READ_OBJECT".equals(stepType)) {
+                customReadObjectClasses.add(className);
+            }
+        }
+        if (warning) {
+            warningCount.increment();
+            remember(recentWarnings, message);
+        }
+        if (error) {
+            errorCount.increment();
+            remember(recentErrors, message);
+        }
+    }
+
+    /**
+     * 合并另一份统计，用于汇总批量分析中各个流的结果；不合并步骤列表
+     */
+    public void merge(DeserializationStatistics other) {
+        totalSteps.add(other.totalSteps.sum());
+        totalDuration.add(other.totalDuration.sum());
+        warningCount.add(other.warningCount.sum());
+        errorCount.add(other.errorCount.sum());
+        overallLatency.add(other.overallLatency);
+        for (Map.Entry<String, LatencyHistogram> entry : other.stepTypeLatency.entrySet()) {
+            stepTypeLatency.computeIfAbsent(entry.getKey(), t -> new LatencyHistogram()).add(entry.getValue());
+        }
+        for (Map.Entry<String, ClassLatency> entry : other.classLatency.entrySet()) {
+            classHistogram(entry.getKey()).add(entry.getValue());
+        }
+        dangerousClasses.addAll(other.getDangerousClasses());
+        customReadObjectClasses.addAll(other.getCustomReadObjectClasses());
+        other.getRecentWarnings().forEach(message -> remember(recentWarnings, message));
+        other.getRecentErrors().forEach(message -> remember(recentErrors, message));
+    }
+
+    private ClassLatency classHistogram(String className) {
+        ClassLatency latency = classLatency.get(className);
+        if (latency != null) {
+            return latency;
+        }
+        if (classLatency.size() >= MAX_TRACKED_CLASSES) {
+            return classLatency.computeIfAbsent(OTHER_CLASSES, c -> new ClassLatency());
+        }
+        return classLatency.computeIfAbsent(className, c -> new ClassLatency());
+    }
+
+    private static void remember(Deque<String> messages, String message) {
+        synchronized (messages) {
+            if (messages.size() >= MESSAGE_CAPACITY) {
+                messages.pollFirst();
+            }
+            messages.addLast(message);
+        }
+    }
+
     public void printSummary() {
         System.out.println("=== Deserialization Statistics ===");
-        System.out.println("Total Steps: " + totalSteps);
-        System.out.println("Total Duration: " + (totalDuration / 1_000_000.0) + " ms");
-        System.out.println("Average Step Duration: " + (totalSteps > 0 ? (totalDuration / totalSteps / 1_000_000.0) : 0) + " ms");
-        System.out.println("Warnings: " + warningCount);
-        System.out.println("Errors: " + errorCount);
+        System.out.println("Total Steps: " + getTotalSteps());
+        System.out.println("Total Duration: " + (getTotalDuration() / 1_000_000.0) + " ms");
+        System.out.println("Average Step Duration: " + (overallLatency.getMean() / 1_000_000.0) + " ms");
+        System.out.println("Latency p50/p99/p999: " + formatMillis(overallLatency.getP50()) + " / " +
+                           formatMillis(overallLatency.getP99()) + " / " + formatMillis(overallLatency.getP999()) + " ms");
+        System.out.println("Warnings: " + getWarningCount());
+        System.out.println("Errors: " + getErrorCount());
         System.out.println();
-        
+
         System.out.println("Step Type Distribution:");
-        for (Map.Entry<String, Integer> entry : stepTypeCount.entrySet()) {
-            String type = entry.getKey();
-            int count = entry.getValue();
-            long duration = stepTypeDuration.getOrDefault(type, 0L);
-            double avgDuration = count > 0 ? (duration / count / 1_000_000.0) : 0;
-            
-            System.out.printf("  %-20s: %3d steps, %8.3f ms total, %8.3f ms avg%n", 
-                            type, count, duration / 1_000_000.0, avgDuration);
-        }
-        
-        if (warningCount > 0) {
+        for (Map.Entry<String, LatencyHistogram> entry : stepTypeLatency.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            System.out.printf("  %-20s: %3d steps, %8.3f ms total, %8.3f ms avg, %8.3f ms p99%n",
+                            entry.getKey(), histogram.getCount(), histogram.getSum() / 1_000_000.0,
+                            histogram.getMean() / 1_000_000.0, histogram.getP99() / 1_000_000.0);
+        }
+
+        List<String> warnings = getRecentWarnings();
+        if (!warnings.isEmpty()) {
             System.out.println("\nWarnings:");
-            steps.stream()
-                 .filter(DeserializationStep::isWarning)
-                 .forEach(step -> System.out.println("  - " + step.getMessage()));
+            warnings.forEach(message -> System.out.println("  - " + message));
         }
-        
-        if (errorCount > 0) {
+
+        List<String> errors = getRecentErrors();
+        if (!errors.isEmpty()) {
             System.out.println("\nErrors:");
-            steps.stream()
-                 .filter(DeserializationStep::isError)
-                 .forEach(step -> System.out.println("  - " + step.getMessage()));
+            errors.forEach(message -> System.out.println("  - " + message));
         }
     }
-    
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * 仅在由步骤列表构建时可用，增量统计返回空列表
+     */
     public List<DeserializationStep> getDangerousSteps() {
+        if (steps == null) {
+            return new ArrayList<>();
+        }
         return steps.stream()
-                   .filter(step -> step.getStepType().equals("DANGEROUS_CLASS") || 
+                   .filter(step -> step.getStepType().equals("DANGEROUS_CLASS") ||
                                  step.getMessage().contains("WARNING"))
                    .collect(Collectors.toList());
     }
-    
+
+    /**
+     * 仅在由步骤列表构建时可用，增量统计返回空列表
+     */
     public List<DeserializationStep> getCustomReadObjectSteps() {
+        if (steps == null) {
+            return new ArrayList<>();
+        }
         return steps.stream()
                    .filter(step -> step.getStepType().equals("CUSTOM_READ_OBJECT"))
                    .collect(Collectors.toList());
     }
-    
+
     public List<String> getInvolvedClasses() {
-        return steps.stream()
-                   .filter(step -> step.getRelatedObject() != null)
-                   .map(step -> step.getRelatedObject().getClass().getName())
-                   .distinct()
-                   .collect(Collectors.toList());
+        List<String> classes = new ArrayList<>(classLatency.keySet());
+        classes.remove(OTHER_CLASSES);
+        return classes;
     }
-    
+
     public String toJsonSummary() {
         StringBuilder json = new StringBuilder();
         json.append("{");
-        json.append("\"totalSteps\":").append(totalSteps).append(",");
-        json.append("\"totalDuration\":").append(totalDuration).append(",");
-        json.append("\"warningCount\":").append(warningCount).append(",");
-        json.append("\"errorCount\":").append(errorCount).append(",");
-        
+        json.append("\"totalSteps\":").append(getTotalSteps()).append(",");
+        json.append("\"totalDuration\":").append(getTotalDuration()).append(",");
+        json.append("\"warningCount\":").append(getWarningCount()).append(",");
+        json.append("\"errorCount\":").append(getErrorCount()).append(",");
+        json.append("\"latency\":").append(histogramJson(overallLatency)).append(",");
+
         json.append("\"stepTypeCount\":{");
         boolean first = true;
-        for (Map.Entry<String, Integer> entry : stepTypeCount.entrySet()) {
+        for (Map.Entry<String, LatencyHistogram> entry : stepTypeLatency.entrySet()) {
             if (!first) json.append(",");
-            json.append("\"").append(entry.getKey()).append("\":").append(entry.getValue());
+            json.append("\"").append(entry.getKey()).append("\":").append(entry.getValue().getCount());
             first = false;
         }
         json.append("},");
-        
+
+        json.append("\"stepTypeLatency\":{");
+        first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : stepTypeLatency.entrySet()) {
+            if (!first) json.append(",");
+            json.append("\"").append(entry.getKey()).append("\":").append(histogramJson(entry.getValue()));
+            first = false;
+        }
+        json.append("},");
+
         json.append("\"dangerousClasses\":[");
-        List<String> dangerousClasses = getDangerousSteps().stream()
-                                                          .map(DeserializationStep::getRelatedObjectInfo)
-                                                          .distinct()
-                                                          .collect(Collectors.toList());
         first = true;
-        for (String className : dangerousClasses) {
+        for (String className : getDangerousClasses()) {
             if (!first) json.append(",");
             json.append("\"").append(className).append("\"");
             first = false;
         }
         json.append("]");
-        
+
         json.append("}");
         return json.toString();
     }
-    
+
+    private static String histogramJson(LatencyHistogram histogram) {
+        return "{\"count\":" + histogram.getCount() + ",\"mean\":" + String.format("%.1f", histogram.getMean()) +
+               ",\"p50\":" + histogram.getP50() + ",\"p99\":" + histogram.getP99() +
+               ",\"p999\":" + histogram.getP999() + ",\"max\":" + histogram.getMax() + "}";
+    }
+
+    /**
+     * 指定步骤类型的耗时直方图，未出现过的类型返回null
+     */
+    public LatencyHistogram getStepTypeLatency(String stepType) {
+        return stepTypeLatency.get(stepType);
+    }
+
+    /**
+     * 指定类的耗时汇总，未出现过的类返回null
+     */
+    public ClassLatency getClassLatency(String className) {
+        return classLatency.get(className);
+    }
+
+    public List<String> getDangerousClasses() {
+        synchronized (dangerousClasses) {
+            return new ArrayList<>(dangerousClasses);
+        }
+    }
+
+    public List<String> getCustomReadObjectClasses() {
+        synchronized (customReadObjectClasses) {
+            return new ArrayList<>(customReadObjectClasses);
+        }
+    }
+
+    public List<String> getRecentWarnings() {
+        synchronized (recentWarnings) {
+            return new ArrayList<>(recentWarnings);
+        }
+    }
+
+    public List<String> getRecentErrors() {
+        synchronized (recentErrors) {
+            return new ArrayList<>(recentErrors);
+        }
+    }
+
     // Getters
-    public int getTotalSteps() { return totalSteps; }
-    public long getTotalDuration() { return totalDuration; }
-    public int getWarningCount() { return warningCount; }
-    public int getErrorCount() { return errorCount; }
-    public Map<String, Integer> getStepTypeCount() { return new HashMap<>(stepTypeCount); }
-    public List<DeserializationStep> getSteps() { return steps; }
-}
\ No newline at end of file
+    public int getTotalSteps() { return (int) totalSteps.sum(); }
+    public long getTotalDuration() { return totalDuration.sum(); }
+    public int getWarningCount() { return (int) warningCount.sum(); }
+    public int getErrorCount() { return (int) errorCount.sum(); }
+    public LatencyHistogram getOverallLatency() { return overallLatency; }
+    public Map<String, Integer> getStepTypeCount() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : stepTypeLatency.entrySet()) {
+            counts.put(entry.getKey(), (int) entry.getValue().getCount());
+        }
+        return counts;
+    }
+    /**
+     * 仅在由步骤列表构建时返回步骤，增量统计返回空列表
+     */
+    public List<DeserializationStep> getSteps() { return steps != null ? steps : new ArrayList<>(); }
+}
@@ -1,7 +1,9 @@
 package com.book.demo.trace;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serializable;
-import java.util.Arrays;
 
 public class DeserializationStep implements Serializable {
     
@@ -9,39 +11,101 @@ public class DeserializationStep implements Serializable {
     private final long timestamp;
     private final String stepType;
     private final String message;
-    private final Object relatedObject;
-    private final String relatedObjectInfo;
-    private final StackTraceElement[] stackTrace;
+    private final RetainedObject relatedObject;
+    // 步骤涉及的类：类描述符和Class对象取其描述的类，其余取相关对象的类型
+    private final String subjectClassName;
+    // 首次读取时才渲染，避免在记录路径上调用用户的toString()
+    private volatile String relatedObjectInfo;
+    private final CapturedStack stackTrace;
     private final long executionDuration;
+    // 记录步骤时已从底层流读取的字节数，未知时为-1
+    private final long streamOffset;
     
     public DeserializationStep(int stepNumber, long timestamp, String stepType, String message,
                              Object relatedObject, StackTraceElement[] stackTrace, long executionDuration) {
+        this(stepNumber, timestamp, stepType, message, relatedObject, CapturedStack.of(stackTrace), executionDuration);
+    }
+    
+    public DeserializationStep(int stepNumber, long timestamp, String stepType, String message,
+                             Object relatedObject, CapturedStack stackTrace, long executionDuration) {
+        this(stepNumber, timestamp, stepType, message, relatedObject, stackTrace, executionDuration,
+             ObjectRetention.getDefault());
+    }
+    
+    public DeserializationStep(int stepNumber, long timestamp, String stepType, String message,
+                             Object relatedObject, CapturedStack stackTrace, long executionDuration,
+                             ObjectRetention retention) {
+        this(stepNumber, timestamp, stepType, message, relatedObject, stackTrace, executionDuration, retention, -1L);
+    }
+    
+    public DeserializationStep(int stepNumber, long timestamp, String stepType, String message,
+                             Object relatedObject, CapturedStack stackTrace, long executionDuration,
+                             ObjectRetention retention, long streamOffset) {
+        this.stepNumber = stepNumber;
+        this.timestamp = timestamp;
+        this.stepType = stepType;
+        this.message = message;
+        this.relatedObject = RetainedObject.of(relatedObject, retention);
+        this.subjectClassName = subjectClassName(relatedObject);
+        this.stackTrace = stackTrace;
+        this.executionDuration = executionDuration;
+        this.streamOffset = streamOffset;
+    }
+    
+    /**
+     * 从持久化记录重建步骤，相关对象只保留类名
+     */
+    DeserializationStep(int stepNumber, long timestamp, String stepType, String message,
+                        RetainedObject relatedObject, long executionDuration, long streamOffset) {
         this.stepNumber = stepNumber;
         this.timestamp = timestamp;
         this.stepType = stepType;
         this.message = message;
         this.relatedObject = relatedObject;
-        this.relatedObjectInfo = buildObjectInfo(relatedObject);
-        this.stackTrace = stackTrace != null ? Arrays.copyOf(stackTrace, stackTrace.length) : null;
+        this.subjectClassName = relatedObject != null ? relatedObject.getClassName() : null;
+        this.stackTrace = null;
         this.executionDuration = executionDuration;
+        this.streamOffset = streamOffset;
     }
     
-    private String buildObjectInfo(Object obj) {
-        if (obj == null) return "null";
+    /**
+     * 只保留类名的副本，不持有对象和调用栈，供长期保存的追踪使用
+     */
+    DeserializationStep detached() {
+        if (stackTrace == null && (relatedObject == null || relatedObject.getRetention() == ObjectRetention.IDENTITY)) {
+            return this;
+        }
+        return new DeserializationStep(stepNumber, timestamp, stepType, message,
+                                       RetainedObject.named(subjectClassName), executionDuration, streamOffset);
+    }
+    
+    static String subjectClassName(Object relatedObject) {
+        if (relatedObject == null) {
+            return null;
+        }
+        if (relatedObject instanceof ObjectStreamClass) {
+            return ((ObjectStreamClass) relatedObject).getName();
+        }
+        if (relatedObject instanceof Class) {
+            return ((Class<?>) relatedObject).getName();
+        }
+        return relatedObject.getClass().getName();
+    }
+    
+    private String buildObjectInfo() {
+        if (relatedObject == null) return "null";
         
         StringBuilder info = new StringBuilder();
-        info.append("Class: ").append(obj.getClass().getName());
-        info.append(", Hash: ").append(System.identityHashCode(obj));
+        info.append("Class: ").append(relatedObject.getClassName());
+        info.append(", Hash: ").append(relatedObject.getIdentityHash());
+        if (relatedObject.getRetention() == ObjectRetention.IDENTITY) {
+            return info.toString();
+        }
         info.append(", ToString: ");
         
         try {
-            String toString = obj.toString();
             // 限制toString长度避免过长输出
-            if (toString.length() > 100) {
-                info.append(toString.substring(0, 100)).append("...");
-            } else {
-                info.append(toString);
-            }
+            info.append(relatedObject.describe(100));
         } catch (Exception e) {
             info.append("<toString() failed: ").append(e.getMessage()).append(">");
         }
@@ -49,23 +113,19 @@ public class DeserializationStep implements Serializable {
         return info.toString();
     }
     
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // 对象本身不随步骤序列化，写出前先渲染对象信息
+        getRelatedObjectInfo();
+        out.defaultWriteObject();
+    }
+    
     public String getRelevantStackFrame() {
-        if (stackTrace == null || stackTrace.length < 3) return "Unknown";
-        
-        // 跳过前几个框架(getStackTrace, getCurrentStackTrace, logStep等)
-        for (int i = 3; i < stackTrace.length; i++) {
-            StackTraceElement frame = stackTrace[i];
-            String className = frame.getClassName();
-            
-            // 跳过我们自己的追踪类
-            if (!className.contains("TraceableObjectInputStream") && 
-                !className.contains("DeserializationStep")) {
-                return frame.getClassName() + "." + frame.getMethodName() + 
-                       ":" + frame.getLineNumber();
-            }
-        }
+        if (stackTrace == null || stackTrace.depth() == 0) return "Unknown";
         
-        return "Internal";
+        // 跳过Thread.getStackTrace以及我们自己的追踪类，只展开命中的那一帧
+        String frame = stackTrace.findFrame("java.lang.Thread", "TraceableObjectInputStream",
+                                            "DeserializationStep");
+        return frame != null ? frame : "Internal";
     }
     
     @Override
@@ -80,10 +140,13 @@ public class DeserializationStep implements Serializable {
         sb.append("  Timestamp: ").append(timestamp).append("\n");
         sb.append("  Message: ").append(message).append("\n");
         sb.append("  Duration: ").append(executionDuration / 1_000_000.0).append(" ms\n");
+        if (streamOffset >= 0) {
+            sb.append("  Offset: ").append(streamOffset).append("\n");
+        }
         sb.append("  Location: ").append(getRelevantStackFrame()).append("\n");
         
-        if (relatedObjectInfo != null && !"null".equals(relatedObjectInfo)) {
-            sb.append("  Object: ").append(relatedObjectInfo).append("\n");
+        if (relatedObject != null) {
+            sb.append("  Object: ").append(getRelatedObjectInfo()).append("\n");
         }
         
         return sb.toString();
@@ -97,8 +160,9 @@ public class DeserializationStep implements Serializable {
         json.append("\"stepType\":\"").append(escape(stepType)).append("\",");
         json.append("\"message\":\"").append(escape(message)).append("\",");
         json.append("\"executionDuration\":").append(executionDuration).append(",");
+        json.append("\"streamOffset\":").append(streamOffset).append(",");
         json.append("\"location\":\"").append(escape(getRelevantStackFrame())).append("\",");
-        json.append("\"objectInfo\":\"").append(escape(relatedObjectInfo)).append("\"");
+        json.append("\"objectInfo\":\"").append(escape(getRelatedObjectInfo())).append("\"");
         json.append("}");
         return json.toString();
     }
@@ -113,10 +177,28 @@ public class DeserializationStep implements Serializable {
     public long getTimestamp() { return timestamp; }
     public String getStepType() { return stepType; }
     public String getMessage() { return message; }
-    public Object getRelatedObject() { return relatedObject; }
-    public String getRelatedObjectInfo() { return relatedObjectInfo; }
-    public StackTraceElement[] getStackTrace() { return stackTrace; }
+    /**
+     * 按保留策略返回相关对象，IDENTITY策略或弱引用已被回收时返回null
+     */
+    public Object getRelatedObject() { return relatedObject != null ? relatedObject.get() : null; }
+    public RetainedObject getRetainedObject() { return relatedObject; }
+    public String getRelatedClassName() { return relatedObject != null ? relatedObject.getClassName() : null; }
+    /**
+     * 步骤涉及的类名，类描述符和Class对象返回其描述的类，与统计中使用的类名一致
+     */
+    public String getSubjectClassName() { return subjectClassName; }
+    public String getRelatedObjectInfo() {
+        String info = relatedObjectInfo;
+        if (info == null) {
+            info = buildObjectInfo();
+            relatedObjectInfo = info;
+        }
+        return info;
+    }
+    public StackTraceElement[] getStackTrace() { return stackTrace != null ? stackTrace.toStackTraceElements() : null; }
+    public CapturedStack getCapturedStack() { return stackTrace; }
     public long getExecutionDuration() { return executionDuration; }
+    public long getStreamOffset() { return streamOffset; }
     
     public boolean isWarning() {
         return stepType.equals("DANGEROUS_CLASS") || message.contains("WARNING");
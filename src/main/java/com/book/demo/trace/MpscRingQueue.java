@@ -0,0 +1,64 @@
+package com.book.demo.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁多生产者单消费者队列
+ * 生产者通过CAS抢占槽位，消费者独占head，队列满时offer直接返回false
+ */
+final class MpscRingQueue<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // 只由消费者线程写入
+    private volatile long head;
+
+    MpscRingQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    boolean offer(E element) {
+        long capacity = mask + 1L;
+        while (true) {
+            long currentTail = tail.get();
+            if (currentTail - head >= capacity) {
+                return false;
+            }
+            if (tail.compareAndSet(currentTail, currentTail + 1)) {
+                buffer.lazySet((int) (currentTail & mask), element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 仅允许消费者线程调用；槽位已被抢占但尚未写入时返回null
+     */
+    E poll() {
+        long currentHead = head;
+        int index = (int) (currentHead & mask);
+        E element = buffer.get(index);
+        if (element == null) {
+            return null;
+        }
+        buffer.lazySet(index, null);
+        head = currentHead + 1;
+        return element;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,48 @@
+package com.book.demo.trace;
+
+/**
+ * 追踪步骤对相关对象的保留策略
+ */
+public enum ObjectRetention {
+
+    /** 强引用，步骤存活期间对象不会被回收 */
+    STRONG,
+
+    /** 弱引用，对象可被回收，回收后只保留类名和identityHashCode */
+    WEAK,
+
+    /** 只记录类名和identityHashCode，不引用对象、不调用toString() */
+    IDENTITY;
+
+    /**
+     * 系统属性名，用于在启动时指定全局默认策略
+     */
+    public static final String SYSTEM_PROPERTY = "com.book.demo.trace.retention";
+
+    private static volatile ObjectRetention defaultRetention = parse(System.getProperty(SYSTEM_PROPERTY), STRONG);
+
+    public static ObjectRetention getDefault() {
+        return defaultRetention;
+    }
+
+    /**
+     * 设置全局默认策略，仅影响之后记录的步骤
+     */
+    public static void setDefault(ObjectRetention retention) {
+        defaultRetention = retention != null ? retention : STRONG;
+    }
+
+    /**
+     * 解析策略名称，无法识别时返回默认值
+     */
+    public static ObjectRetention parse(String name, ObjectRetention defaultRetention) {
+        if (name == null || name.trim().isEmpty()) {
+            return defaultRetention;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultRetention;
+        }
+    }
+}
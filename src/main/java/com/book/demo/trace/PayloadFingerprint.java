@@ -0,0 +1,221 @@
+package com.book.demo.trace;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+
+/**
+ * 载荷字节的128位指纹
+ * of使用MurmurHash3 x64 128位变体，结果跨进程稳定，可以持久化，但不带密钥，攻击者可以构造碰撞；
+ * keyed使用SipHash-2-4 128位输出和进程启动时随机生成的密钥，不知道密钥就无法构造碰撞，
+ * 命中后会跳过扫描的判定缓存只接受keyed指纹
+ */
+public final class PayloadFingerprint {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final long KEY0;
+    private static final long KEY1;
+
+    static {
+        SecureRandom random = new SecureRandom();
+        KEY0 = random.nextLong();
+        KEY1 = random.nextLong();
+    }
+
+    private final long high;
+    private final long low;
+    private final int length;
+    private final boolean keyed;
+
+    private PayloadFingerprint(long high, long low, int length, boolean keyed) {
+        this.high = high;
+        this.low = low;
+        this.length = length;
+        this.keyed = keyed;
+    }
+
+    public static PayloadFingerprint of(byte[] data) {
+        return of(data, 0, data.length);
+    }
+
+    @SuppressWarnings("fallthrough")
+    public static PayloadFingerprint of(byte[] data, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        long h1 = 0;
+        long h2 = 0;
+
+        int blocks = length / 16;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = buffer.getLong();
+            long k2 = buffer.getLong();
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // 不足16字节的尾部
+        long k1 = 0;
+        long k2 = 0;
+        int tail = offset + blocks * 16;
+        switch (length & 15) {
+            case 15: k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+            case 14: k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+            case 13: k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+            case 12: k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+            case 11: k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+            case 10: k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+            case 9:
+                k2 ^= data[tail + 8] & 0xff;
+                h2 ^= mixK2(k2);
+            case 8: k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+            case 7: k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+            case 6: k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+            case 5: k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+            case 4: k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+            case 3: k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+            case 2: k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= data[tail] & 0xff;
+                h1 ^= mixK1(k1);
+            default:
+                break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new PayloadFingerprint(h1, h2, length, false);
+    }
+
+    /**
+     * 使用进程内随机密钥的指纹，只在本进程内有意义，不能持久化
+     */
+    public static PayloadFingerprint keyed(byte[] data) {
+        return keyed(data, 0, data.length);
+    }
+
+    public static PayloadFingerprint keyed(byte[] data, int offset, int length) {
+        return sipHash(data, offset, length, KEY0, KEY1);
+    }
+
+    /**
+     * SipHash-2-4，128位输出，密钥按小端序取自两个long
+     */
+    static PayloadFingerprint sipHash(byte[] data, int offset, int length, long k0, long k1) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        long[] v = {
+            k0 ^ 0x736f6d6570736575L,
+            k1 ^ 0x646f72616e646f6dL ^ 0xee,
+            k0 ^ 0x6c7967656e657261L,
+            k1 ^ 0x7465646279746573L
+        };
+
+        int blocks = length / 8;
+        for (int i = 0; i < blocks; i++) {
+            long m = buffer.getLong();
+            v[3] ^= m;
+            sipRounds(v, 2);
+            v[0] ^= m;
+        }
+
+        // 最后一块：剩余字节加上长度的低8位
+        long b = (long) length << 56;
+        int tail = offset + blocks * 8;
+        for (int i = (length & 7) - 1; i >= 0; i--) {
+            b |= (long) (data[tail + i] & 0xff) << (8 * i);
+        }
+        v[3] ^= b;
+        sipRounds(v, 2);
+        v[0] ^= b;
+
+        v[2] ^= 0xee;
+        sipRounds(v, 4);
+        long first = v[0] ^ v[1] ^ v[2] ^ v[3];
+        v[1] ^= 0xdd;
+        sipRounds(v, 4);
+        long second = v[0] ^ v[1] ^ v[2] ^ v[3];
+        return new PayloadFingerprint(first, second, length, true);
+    }
+
+    private static void sipRounds(long[] v, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            v[0] += v[1];
+            v[1] = Long.rotateLeft(v[1], 13);
+            v[1] ^= v[0];
+            v[0] = Long.rotateLeft(v[0], 32);
+            v[2] += v[3];
+            v[3] = Long.rotateLeft(v[3], 16);
+            v[3] ^= v[2];
+            v[0] += v[3];
+            v[3] = Long.rotateLeft(v[3], 21);
+            v[3] ^= v[0];
+            v[2] += v[1];
+            v[1] = Long.rotateLeft(v[1], 17);
+            v[1] ^= v[2];
+            v[2] = Long.rotateLeft(v[2], 32);
+        }
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    // Getters
+    public long getHigh() { return high; }
+    public long getLow() { return low; }
+    public int getLength() { return length; }
+    public boolean isKeyed() { return keyed; }
+
+    public String toHex() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PayloadFingerprint)) return false;
+        PayloadFingerprint other = (PayloadFingerprint) o;
+        return high == other.high && low == other.low && length == other.length && keyed == other.keyed;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (high ^ (high >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toHex() + "/" + length;
+    }
+}
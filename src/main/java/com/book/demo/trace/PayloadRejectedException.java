@@ -0,0 +1,26 @@
+package com.book.demo.trace;
+
+import java.io.InvalidClassException;
+
+/**
+ * 载荷在反序列化前被字节级扫描器拒绝
+ */
+public class PayloadRejectedException extends InvalidClassException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ScanResult scanResult;
+
+    public PayloadRejectedException(ScanResult scanResult) {
+        super("payload rejected [" + scanResult.getRejectRule() + "]: " + scanResult.getRejectReason());
+        this.scanResult = scanResult;
+    }
+
+    public String getRejectRule() {
+        return scanResult != null ? scanResult.getRejectRule() : null;
+    }
+
+    public ScanResult getScanResult() {
+        return scanResult;
+    }
+}
@@ -0,0 +1,217 @@
+package com.book.demo.trace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 载荷大小归因
+ * 作为字节级扫描器的监听器，按类和字段累计在流中占用的字节数，找出撑大会话和请求载荷的类型；
+ * 类的总字节数包含嵌套内容，自身字节数扣除了嵌套的对象、数组和枚举，可以跨多次扫描累计
+ */
+public class PayloadSizeProfile implements StreamScanListener {
+
+    // 最多记录的类/字段数量，超出部分合并计入OTHER
+    public static final int MAX_ENTRIES = 512;
+    public static final String OTHER = "<other>";
+    // 字段名为null时记录的是writeObject/writeExternal写入的自定义数据
+    public static final String CUSTOM_DATA = "<custom>";
+
+    private final Map<String, Usage> classUsage = new ConcurrentHashMap<>();
+    private final Map<String, Usage> fieldUsage = new ConcurrentHashMap<>();
+    private final LongAdder rootBytes = new LongAdder();
+    private final LongAdder rootCount = new LongAdder();
+
+    // 每个扫描线程按深度累计已结束子内容的字节数，用于计算自身字节数
+    private final ThreadLocal<long[]> childBytes = ThreadLocal.withInitial(() -> new long[16]);
+
+    /**
+     * 按类或字段汇总的字节数
+     */
+    public static class Usage {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalBytes = new LongAdder();
+        private final LongAdder selfBytes = new LongAdder();
+        private final AtomicLong maxBytes = new AtomicLong();
+
+        Usage(String name) {
+            this.name = name;
+        }
+
+        void add(long bytes, long self) {
+            count.increment();
+            totalBytes.add(bytes);
+            selfBytes.add(self);
+            long currentMax = maxBytes.get();
+            while (bytes > currentMax && !maxBytes.compareAndSet(currentMax, bytes)) {
+                currentMax = maxBytes.get();
+            }
+        }
+
+        // Getters
+        public String getName() { return name; }
+        public long getCount() { return count.sum(); }
+        public long getTotalBytes() { return totalBytes.sum(); }
+        public long getSelfBytes() { return selfBytes.sum(); }
+        public long getMaxBytes() { return maxBytes.get(); }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d次, 共 %d 字节, 自身 %d 字节, 最大 %d 字节",
+                                 name, getCount(), getTotalBytes(), getSelfBytes(), getMaxBytes());
+        }
+    }
+
+    /**
+     * 扫描一段载荷并返回其大小归因，不做任何限制和类检查
+     */
+    public static PayloadSizeProfile of(byte[] data) {
+        PayloadSizeProfile profile = new PayloadSizeProfile();
+        new SerializationStreamScanner(DeserializationLimits.unlimited(), null, profile).scan(data);
+        return profile;
+    }
+
+    @Override
+    public void onObject(ScannedClassDescriptor descriptor, int depth) {
+        startContent(depth);
+    }
+
+    @Override
+    public void onArray(ScannedClassDescriptor descriptor, int length, int depth) {
+        startContent(depth);
+    }
+
+    @Override
+    public void onEnum(ScannedClassDescriptor descriptor, int depth) {
+        startContent(depth);
+    }
+
+    private void startContent(int depth) {
+        long[] children = childBytes(depth + 1);
+        children[depth + 1] = 0;
+    }
+
+    @Override
+    public void onContentEnd(ScannedClassDescriptor descriptor, long bytes, int depth) {
+        long[] children = childBytes(depth + 1);
+        long self = Math.max(0, bytes - children[depth + 1]);
+        children[depth + 1] = 0;
+        children[depth] += bytes;
+        usage(classUsage, descriptor.getName()).add(bytes, self);
+        if (depth <= 1) {
+            rootBytes.add(bytes);
+            rootCount.increment();
+        }
+    }
+
+    @Override
+    public void onFieldValue(ScannedClassDescriptor owner, ScannedClassDescriptor.FieldDescriptor field,
+                             long bytes, int depth) {
+        String fieldName = field != null ? field.getName() : CUSTOM_DATA;
+        usage(fieldUsage, owner.getName() + "." + fieldName).add(bytes, bytes);
+    }
+
+    private long[] childBytes(int depth) {
+        long[] children = childBytes.get();
+        if (depth >= children.length) {
+            long[] grown = new long[Math.max(depth + 1, children.length * 2)];
+            System.arraycopy(children, 0, grown, 0, children.length);
+            childBytes.set(grown);
+            children = grown;
+        }
+        return children;
+    }
+
+    private static Usage usage(Map<String, Usage> usages, String name) {
+        Usage usage = usages.get(name);
+        if (usage == null) {
+            String key = usages.size() >= MAX_ENTRIES ? OTHER : name;
+            usage = usages.computeIfAbsent(key, Usage::new);
+        }
+        return usage;
+    }
+
+    public Usage getClassUsage(String className) {
+        return classUsage.get(className);
+    }
+
+    public Usage getFieldUsage(String className, String fieldName) {
+        return fieldUsage.get(className + "." + (fieldName != null ? fieldName : CUSTOM_DATA));
+    }
+
+    /**
+     * 按自身字节数从高到低排序的类
+     */
+    public List<Usage> getClassUsages() {
+        List<Usage> usages = new ArrayList<>(classUsage.values());
+        usages.sort(Comparator.comparingLong(Usage::getSelfBytes).reversed());
+        return usages;
+    }
+
+    /**
+     * 按字节数从高到低排序的字段
+     */
+    public List<Usage> getFieldUsages() {
+        List<Usage> usages = new ArrayList<>(fieldUsage.values());
+        usages.sort(Comparator.comparingLong(Usage::getTotalBytes).reversed());
+        return usages;
+    }
+
+    /**
+     * 顶层对象占用的字节总数（不含流头）
+     */
+    public long getRootBytes() {
+        return rootBytes.sum();
+    }
+
+    public long getRootCount() {
+        return rootCount.sum();
+    }
+
+    public void reset() {
+        classUsage.clear();
+        fieldUsage.clear();
+        rootBytes.reset();
+        rootCount.reset();
+    }
+
+    public void printReport(TraceSink sink, int limit) {
+        sink.publish("=== Payload Size by Class (self bytes) ===");
+        getClassUsages().stream().limit(limit).forEach(u -> sink.publish("  " + u));
+        sink.publish("=== Payload Size by Field ===");
+        getFieldUsages().stream().limit(limit).forEach(u -> sink.publish("  " + u));
+    }
+
+    public String toJsonString() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"rootCount\":").append(getRootCount()).append(",");
+        json.append("\"rootBytes\":").append(getRootBytes()).append(",");
+        json.append("\"classes\":");
+        appendUsages(json, getClassUsages());
+        json.append(",\"fields\":");
+        appendUsages(json, getFieldUsages());
+        json.append("}");
+        return json.toString();
+    }
+
+    private static void appendUsages(StringBuilder json, List<Usage> usages) {
+        json.append("[");
+        boolean first = true;
+        for (Usage u : usages) {
+            if (!first) json.append(",");
+            json.append("{\"name\":\"").append(u.getName().replace("\"", "\\\"")).append("\",")
+                .append("\"count\":").append(u.getCount()).append(",")
+                .append("\"totalBytes\":").append(u.getTotalBytes()).append(",")
+                .append("\"selfBytes\":").append(u.getSelfBytes()).append(",")
+                .append("\"maxBytes\":").append(u.getMaxBytes()).append("}");
+            first = false;
+        }
+        json.append("]");
+    }
+}
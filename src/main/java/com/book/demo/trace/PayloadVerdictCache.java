@@ -0,0 +1,262 @@
+package com.book.demo.trace;
+
+import com.book.demo.rules.CompiledRuleSet;
+import com.book.demo.rules.SecurityRuleEngine;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 载荷判定缓存
+ * 以载荷字节的带密钥128位指纹（PayloadFingerprint.keyed）为键，缓存扫描判定以及首次追踪得到的根对象类型和统计摘要，
+ * 相同的会话快照、缓存请求对象重复到达时跳过扫描；命中即跳过扫描，因此不接受可被构造碰撞的无密钥指纹；
+ * 按访问顺序LRU淘汰并设置存活时间，危险类规则热加载后旧判定自动失效
+ */
+public class PayloadVerdictCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final LinkedHashMap<PayloadFingerprint, CachedVerdict> entries;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    /**
+     * 缓存的判定，创建后不可变
+     */
+    public static final class CachedVerdict {
+        private final PayloadFingerprint fingerprint;
+        private final ScanResult scanResult;
+        private final String rootClass;
+        private final String statisticsSummary;
+        private final List<String> dangerousClasses;
+        private final long createdNanos;
+        private final CompiledRuleSet rules;
+
+        CachedVerdict(PayloadFingerprint fingerprint, ScanResult scanResult, String rootClass,
+                      String statisticsSummary, List<String> dangerousClasses, long createdNanos,
+                      CompiledRuleSet rules) {
+            this.fingerprint = fingerprint;
+            this.scanResult = scanResult;
+            this.rootClass = rootClass;
+            this.statisticsSummary = statisticsSummary;
+            this.dangerousClasses = dangerousClasses;
+            this.createdNanos = createdNanos;
+            this.rules = rules;
+        }
+
+        /**
+         * 是否已有追踪结果（根对象类型和统计摘要），仅扫描过的载荷返回false
+         */
+        public boolean isTraced() {
+            return statisticsSummary != null;
+        }
+
+        public boolean isAccepted() {
+            return scanResult == null || scanResult.isAccepted();
+        }
+
+        // Getters
+        public PayloadFingerprint getFingerprint() { return fingerprint; }
+        public ScanResult getScanResult() { return scanResult; }
+        public String getRootClass() { return rootClass; }
+        public String getStatisticsSummary() { return statisticsSummary; }
+        public List<String> getDangerousClasses() { return dangerousClasses; }
+    }
+
+    public PayloadVerdictCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    public PayloadVerdictCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    /**
+     * @param clock 纳秒时钟，测试时可替换
+     */
+    public PayloadVerdictCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries必须大于0: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl != null ? ttl.toNanos() : Long.MAX_VALUE;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 查找判定，过期或规则已变化的条目视为未命中并移除
+     */
+    public CachedVerdict get(PayloadFingerprint fingerprint) {
+        requireKeyed(fingerprint);
+        synchronized (entries) {
+            CachedVerdict verdict = entries.get(fingerprint);
+            if (verdict != null && !isLive(verdict, clock.getAsLong())) {
+                entries.remove(fingerprint);
+                expirationCount.increment();
+                verdict = null;
+            }
+            if (verdict == null) {
+                missCount.increment();
+            } else {
+                hitCount.increment();
+            }
+            return verdict;
+        }
+    }
+
+    /**
+     * 查找仍然有效的判定，不计入命中/未命中计数
+     */
+    public CachedVerdict peek(PayloadFingerprint fingerprint) {
+        requireKeyed(fingerprint);
+        synchronized (entries) {
+            CachedVerdict verdict = entries.get(fingerprint);
+            return verdict != null && isLive(verdict, clock.getAsLong()) ? verdict : null;
+        }
+    }
+
+    public CachedVerdict get(byte[] data) {
+        return get(PayloadFingerprint.keyed(data));
+    }
+
+    private static void requireKeyed(PayloadFingerprint fingerprint) {
+        if (!fingerprint.isKeyed()) {
+            throw new IllegalArgumentException("判定缓存只接受PayloadFingerprint.keyed生成的指纹");
+        }
+    }
+
+    private boolean isLive(CachedVerdict verdict, long now) {
+        return now - verdict.createdNanos < ttlNanos && verdict.rules == currentRules();
+    }
+
+    private static CompiledRuleSet currentRules() {
+        return SecurityRuleEngine.getDefault().getRuleSet(SecurityRuleEngine.DESERIALIZATION);
+    }
+
+    /**
+     * 缓存扫描判定
+     */
+    public CachedVerdict putScan(PayloadFingerprint fingerprint, ScanResult scanResult) {
+        return put(new CachedVerdict(fingerprint, scanResult, null, null, scanResult.getDangerousClasses(),
+                                     clock.getAsLong(), currentRules()));
+    }
+
+    /**
+     * 补充追踪结果，保留已缓存的扫描判定
+     */
+    public CachedVerdict putTrace(PayloadFingerprint fingerprint, String rootClass, DeserializationStatistics statistics) {
+        ScanResult scanResult;
+        synchronized (entries) {
+            CachedVerdict existing = entries.get(fingerprint);
+            scanResult = existing != null ? existing.scanResult : null;
+        }
+        return put(new CachedVerdict(fingerprint, scanResult, rootClass, statistics.toJsonSummary(),
+                                     statistics.getDangerousClasses(), clock.getAsLong(), currentRules()));
+    }
+
+    private CachedVerdict put(CachedVerdict verdict) {
+        requireKeyed(verdict.fingerprint);
+        synchronized (entries) {
+            entries.put(verdict.fingerprint, verdict);
+            if (entries.size() > maxEntries) {
+                evictExpired();
+            }
+            Iterator<CachedVerdict> it = entries.values().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictionCount.increment();
+            }
+        }
+        return verdict;
+    }
+
+    private void evictExpired() {
+        long now = clock.getAsLong();
+        Iterator<CachedVerdict> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (!isLive(it.next(), now)) {
+                it.remove();
+                expirationCount.increment();
+            }
+        }
+    }
+
+    public void invalidate(PayloadFingerprint fingerprint) {
+        synchronized (entries) {
+            entries.remove(fingerprint);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * 因容量上限被LRU淘汰的条目数
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 因存活时间到期或规则变化被移除的条目数
+     */
+    public long getExpirationCount() {
+        return expirationCount.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total > 0 ? (double) hits / total : 0.0;
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("hits", getHitCount());
+        counters.put("misses", getMissCount());
+        counters.put("evictions", getEvictionCount());
+        counters.put("expirations", getExpirationCount());
+        counters.put("size", (long) size());
+        return counters;
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadVerdictCache[max=" + maxEntries + "] " + getCounters();
+    }
+}
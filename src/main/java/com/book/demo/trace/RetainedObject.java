@@ -0,0 +1,93 @@
+package com.book.demo.trace;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+
+/**
+ * 按保留策略持有的相关对象
+ * 类名和identityHashCode在创建时记录，对象本身按策略强引用、弱引用或不引用；序列化时只写出类名和哈希
+ */
+public final class RetainedObject implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+    private final String simpleClassName;
+    private final int identityHash;
+    private final ObjectRetention retention;
+    private final transient Object strongRef;
+    private final transient WeakReference<Object> weakRef;
+
+    private RetainedObject(Object obj, ObjectRetention retention) {
+        Class<?> type = obj.getClass();
+        this.className = type.getName();
+        this.simpleClassName = type.getSimpleName();
+        this.identityHash = System.identityHashCode(obj);
+        this.retention = retention;
+        this.strongRef = retention == ObjectRetention.STRONG ? obj : null;
+        this.weakRef = retention == ObjectRetention.WEAK ? new WeakReference<>(obj) : null;
+    }
+
+    private RetainedObject(String className) {
+        this.className = className;
+        int sep = Math.max(className.lastIndexOf('.'), className.lastIndexOf('$'));
+        this.simpleClassName = className.substring(sep + 1);
+        this.identityHash = 0;
+        this.retention = ObjectRetention.IDENTITY;
+        this.strongRef = null;
+        this.weakRef = null;
+    }
+
+    /**
+     * obj为null时返回null
+     */
+    public static RetainedObject of(Object obj, ObjectRetention retention) {
+        return obj != null ? new RetainedObject(obj, retention != null ? retention : ObjectRetention.getDefault()) : null;
+    }
+
+    /**
+     * 只有类名的占位，用于从持久化的追踪日志重建步骤；className为null时返回null
+     */
+    static RetainedObject named(String className) {
+        return className != null ? new RetainedObject(className) : null;
+    }
+
+    /**
+     * 返回对象本身；IDENTITY策略、弱引用已被回收或经过序列化后返回null
+     */
+    public Object get() {
+        if (strongRef != null) {
+            return strongRef;
+        }
+        return weakRef != null ? weakRef.get() : null;
+    }
+
+    /**
+     * 对象原本可用但已不可访问（被回收或经过序列化）
+     */
+    public boolean isReleased() {
+        return retention != ObjectRetention.IDENTITY && get() == null;
+    }
+
+    /**
+     * 调用对象的toString()并截断，对象不可用时返回占位说明
+     */
+    public String describe(int maxLength) {
+        Object obj = get();
+        if (obj == null) {
+            return retention == ObjectRetention.IDENTITY ? "<not retained>" : "<released>";
+        }
+        String toString = String.valueOf(obj);
+        return toString.length() > maxLength ? toString.substring(0, maxLength) + "..." : toString;
+    }
+
+    // Getters
+    public String getClassName() { return className; }
+    public String getSimpleClassName() { return simpleClassName; }
+    public int getIdentityHash() { return identityHash; }
+    public ObjectRetention getRetention() { return retention; }
+
+    @Override
+    public String toString() {
+        return className + "@" + Integer.toHexString(identityHash);
+    }
+}
@@ -0,0 +1,131 @@
+package com.book.demo.trace;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 字节级扫描结果
+ */
+public class ScanResult {
+
+    public static final String RULE_MALFORMED = "malformed";
+    public static final String RULE_UNSUPPORTED = "unsupported";
+    public static final String RULE_CLASS = "class";
+    public static final String RULE_MAX_DEPTH = "maxdepth";
+    public static final String RULE_MAX_REFS = "maxrefs";
+    public static final String RULE_MAX_ARRAY = "maxarray";
+    public static final String RULE_MAX_BYTES = "maxbytes";
+
+    private boolean accepted = true;
+    private String rejectRule;
+    private String rejectReason;
+
+    private long bytesScanned;
+    private int maxDepth;
+    private long handleCount;
+    private long classDescriptorCount;
+    private long objectCount;
+    private long arrayCount;
+    private long referenceCount;
+    private long blockDataBytes;
+    private long largestArrayLength;
+    private final Set<String> classNames = new LinkedHashSet<>();
+    private final List<String> dangerousClasses = new ArrayList<>();
+
+    void reject(String rule, String reason) {
+        if (accepted) {
+            this.accepted = false;
+            this.rejectRule = rule;
+            this.rejectReason = reason;
+        }
+    }
+
+    void setBytesScanned(long bytesScanned) { this.bytesScanned = bytesScanned; }
+
+    void recordDepth(int depth) {
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    void recordHandle() { handleCount++; }
+    void recordClassDescriptor(String className) {
+        classDescriptorCount++;
+        classNames.add(className);
+    }
+    void recordObject() { objectCount++; }
+    void recordArray(long length) {
+        arrayCount++;
+        if (length > largestArrayLength) {
+            largestArrayLength = length;
+        }
+    }
+    void recordReference() { referenceCount++; }
+    void recordBlockData(long length) { blockDataBytes += length; }
+    void recordDangerousClass(String className) { dangerousClasses.add(className); }
+
+    public boolean isAccepted() { return accepted; }
+    public boolean isRejected() { return !accepted; }
+    public String getRejectRule() { return rejectRule; }
+    public String getRejectReason() { return rejectReason; }
+    public long getBytesScanned() { return bytesScanned; }
+    public int getMaxDepth() { return maxDepth; }
+    public long getHandleCount() { return handleCount; }
+    public long getClassDescriptorCount() { return classDescriptorCount; }
+    public long getObjectCount() { return objectCount; }
+    public long getArrayCount() { return arrayCount; }
+    public long getReferenceCount() { return referenceCount; }
+    public long getBlockDataBytes() { return blockDataBytes; }
+    public long getLargestArrayLength() { return largestArrayLength; }
+    public Set<String> getClassNames() { return new LinkedHashSet<>(classNames); }
+    public List<String> getDangerousClasses() { return new ArrayList<>(dangerousClasses); }
+
+    @Override
+    public String toString() {
+        return (accepted ? "ACCEPTED" : "REJECTED[" + rejectRule + "] " + rejectReason) +
+               " (bytes=" + bytesScanned + ", depth=" + maxDepth + ", handles=" + handleCount +
+               ", classes=" + classNames.size() + ")";
+    }
+
+    public String toJsonString() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"accepted\":").append(accepted).append(",");
+        if (!accepted) {
+            json.append("\"rejectRule\":\"").append(escape(rejectRule)).append("\",");
+            json.append("\"rejectReason\":\"").append(escape(rejectReason)).append("\",");
+        }
+        json.append("\"bytesScanned\":").append(bytesScanned).append(",");
+        json.append("\"maxDepth\":").append(maxDepth).append(",");
+        json.append("\"handleCount\":").append(handleCount).append(",");
+        json.append("\"classDescriptorCount\":").append(classDescriptorCount).append(",");
+        json.append("\"objectCount\":").append(objectCount).append(",");
+        json.append("\"arrayCount\":").append(arrayCount).append(",");
+        json.append("\"largestArrayLength\":").append(largestArrayLength).append(",");
+        json.append("\"classNames\":[");
+        boolean first = true;
+        for (String className : classNames) {
+            if (!first) json.append(",");
+            json.append("\"").append(escape(className)).append("\"");
+            first = false;
+        }
+        json.append("],");
+        json.append("\"dangerousClasses\":[");
+        first = true;
+        for (String className : dangerousClasses) {
+            if (!first) json.append(",");
+            json.append("\"").append(escape(className)).append("\"");
+            first = false;
+        }
+        json.append("]");
+        json.append("}");
+        return json.toString();
+    }
+
+    private String escape(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
@@ -0,0 +1,137 @@
+package com.book.demo.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 从字节流中解析出的类描述符，不会加载对应的类
+ */
+public class ScannedClassDescriptor {
+
+    static final int SC_WRITE_METHOD = 0x01;
+    static final int SC_SERIALIZABLE = 0x02;
+    static final int SC_EXTERNALIZABLE = 0x04;
+    static final int SC_BLOCK_DATA = 0x08;
+    static final int SC_ENUM = 0x10;
+
+    private final String name;
+    private final long serialVersionUID;
+    private final int flags;
+    private final List<FieldDescriptor> fields;
+    private final List<String> proxyInterfaces;
+    private final int handle;
+    private ScannedClassDescriptor superDescriptor;
+
+    /**
+     * 字段描述
+     */
+    public static class FieldDescriptor {
+        private final char typeCode;
+        private final String name;
+        private final String className;
+
+        public FieldDescriptor(char typeCode, String name, String className) {
+            this.typeCode = typeCode;
+            this.name = name;
+            this.className = className;
+        }
+
+        public boolean isPrimitive() {
+            return typeCode != 'L' && typeCode != '[';
+        }
+
+        /**
+         * 基本类型在流中占用的字节数，对象类型返回0
+         */
+        public int getPrimitiveSize() {
+            return primitiveSize(typeCode);
+        }
+
+        static int primitiveSize(char typeCode) {
+            switch (typeCode) {
+                case 'B':
+                case 'Z':
+                    return 1;
+                case 'C':
+                case 'S':
+                    return 2;
+                case 'I':
+                case 'F':
+                    return 4;
+                case 'J':
+                case 'D':
+                    return 8;
+                default:
+                    return 0;
+            }
+        }
+
+        public char getTypeCode() { return typeCode; }
+        public String getName() { return name; }
+        public String getClassName() { return className; }
+
+        @Override
+        public String toString() {
+            return typeCode + " " + name + (className != null ? " " + className : "");
+        }
+    }
+
+    ScannedClassDescriptor(String name, long serialVersionUID, int flags, List<FieldDescriptor> fields,
+                           List<String> proxyInterfaces, int handle) {
+        this.name = name;
+        this.serialVersionUID = serialVersionUID;
+        this.flags = flags;
+        this.fields = fields;
+        this.proxyInterfaces = proxyInterfaces;
+        this.handle = handle;
+    }
+
+    void setSuperDescriptor(ScannedClassDescriptor superDescriptor) {
+        this.superDescriptor = superDescriptor;
+    }
+
+    public boolean isProxy() { return proxyInterfaces != null; }
+    public boolean isSerializable() { return (flags & SC_SERIALIZABLE) != 0; }
+    public boolean isExternalizable() { return (flags & SC_EXTERNALIZABLE) != 0; }
+    public boolean hasWriteMethod() { return (flags & SC_WRITE_METHOD) != 0; }
+    public boolean hasBlockData() { return (flags & SC_BLOCK_DATA) != 0; }
+    public boolean isEnum() { return (flags & SC_ENUM) != 0; }
+    public boolean isArray() { return name != null && name.startsWith("["); }
+
+    /**
+     * 数组描述符的元素类型码，如 [I 返回 I，[Ljava.lang.String; 返回 L
+     */
+    public char getArrayElementType() {
+        return isArray() && name.length() > 1 ? name.charAt(1) : 0;
+    }
+
+    /**
+     * 按从最顶层父类到当前类的顺序返回继承链，即流中类数据的顺序
+     */
+    public List<ScannedClassDescriptor> getHierarchy() {
+        List<ScannedClassDescriptor> hierarchy = new ArrayList<>();
+        for (ScannedClassDescriptor d = this; d != null; d = d.superDescriptor) {
+            hierarchy.add(d);
+        }
+        Collections.reverse(hierarchy);
+        return hierarchy;
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public long getSerialVersionUID() { return serialVersionUID; }
+    public int getFlags() { return flags; }
+    public List<FieldDescriptor> getFields() { return fields; }
+    public List<String> getProxyInterfaces() { return proxyInterfaces; }
+    public int getHandle() { return handle; }
+    public ScannedClassDescriptor getSuperDescriptor() { return superDescriptor; }
+
+    @Override
+    public String toString() {
+        if (isProxy()) {
+            return "Proxy" + proxyInterfaces;
+        }
+        return name + " (suid=" + serialVersionUID + ", fields=" + fields.size() + ")";
+    }
+}
@@ -0,0 +1,169 @@
+package com.book.demo.trace;
+
+import com.book.demo.rules.CompiledRuleSet;
+import com.book.demo.rules.SecurityRuleEngine;
+
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按类缓存的序列化元数据
+ * 由本类的类加载器（或其子加载器）定义的类通过ClassValue与Class绑定，随类加载器一起回收；
+ * JDK和容器共享的类由父加载器定义，存活时间比本类长，把本类的值挂在这些类上会让Web应用的类加载器
+ * 在重新部署后无法回收，因此这些类的元数据保存在本类自己的静态表中，其他类加载器的类不缓存
+ */
+public final class SerialClassProfile {
+
+    private static final ClassLoader OWN_LOADER = SerialClassProfile.class.getClassLoader();
+
+    private static final ClassValue<SerialClassProfile> PROFILES = new ClassValue<SerialClassProfile>() {
+        @Override
+        protected SerialClassProfile computeValue(Class<?> type) {
+            return new SerialClassProfile(type);
+        }
+    };
+
+    // 父加载器链上的类，随本类一起回收
+    private static final Map<Class<?>, SerialClassProfile> SHARED_PROFILES = new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+    private final boolean serializable;
+    private final boolean externalizable;
+    private final boolean hasReadObject;
+    private final boolean hasReadObjectNoData;
+    private final boolean hasReadResolve;
+    private final boolean hasWriteObject;
+    private final boolean hasWriteReplace;
+    private final boolean builtin;
+    private final List<Field> fields;
+    private final boolean fieldsAccessible;
+
+    // 危险判定随规则热加载失效，记录判定时使用的规则集
+    private volatile CompiledRuleSet dangerRules;
+    private volatile boolean dangerous;
+
+    private SerialClassProfile(Class<?> type) {
+        this.type = type;
+        this.serializable = Serializable.class.isAssignableFrom(type);
+        this.externalizable = Externalizable.class.isAssignableFrom(type);
+        this.hasReadObject = findDeclared(type, "readObject", ObjectInputStream.class) != null;
+        this.hasReadObjectNoData = findDeclared(type, "readObjectNoData") != null;
+        this.hasReadResolve = findInherited(type, "readResolve");
+        this.hasWriteObject = findDeclared(type, "writeObject", ObjectOutputStream.class) != null;
+        this.hasWriteReplace = findInherited(type, "writeReplace");
+
+        String packageName = type.getPackage() != null ? type.getPackage().getName() : "";
+        this.builtin = packageName.startsWith("java.") || packageName.startsWith("javax.");
+
+        Field[] declared;
+        boolean accessible = true;
+        try {
+            declared = type.getDeclaredFields();
+            for (Field field : declared) {
+                if (!field.trySetAccessible()) {
+                    accessible = false;
+                }
+            }
+        } catch (SecurityException e) {
+            declared = new Field[0];
+            accessible = false;
+        }
+        this.fields = Collections.unmodifiableList(Arrays.asList(declared));
+        this.fieldsAccessible = accessible;
+    }
+
+    public static SerialClassProfile of(Class<?> type) {
+        ClassLoader loader = type.getClassLoader();
+        if (OWN_LOADER == null || isSameOrDescendant(loader, OWN_LOADER)) {
+            return PROFILES.get(type);
+        }
+        if (isSameOrDescendant(OWN_LOADER, loader)) {
+            return SHARED_PROFILES.computeIfAbsent(type, SerialClassProfile::new);
+        }
+        // 无关的类加载器（如其他Web应用）的类不缓存，避免互相持有
+        return new SerialClassProfile(type);
+    }
+
+    /**
+     * ancestor为null表示引导类加载器，是所有加载器的祖先
+     */
+    private static boolean isSameOrDescendant(ClassLoader loader, ClassLoader ancestor) {
+        if (ancestor == null) {
+            return true;
+        }
+        for (ClassLoader l = loader; l != null; l = l.getParent()) {
+            if (l == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Method findDeclared(Class<?> type, String name, Class<?>... parameterTypes) {
+        for (Method method : type.getDeclaredMethods()) {
+            if (method.getName().equals(name) && !Modifier.isStatic(method.getModifiers())
+                    && Arrays.equals(method.getParameterTypes(), parameterTypes)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * readResolve/writeReplace可以继承，沿父类链查找无参实例方法
+     */
+    private static boolean findInherited(Class<?> type, String name) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            Method method = findDeclared(c, name);
+            if (method != null) {
+                return c == type || !Modifier.isPrivate(method.getModifiers());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否命中反序列化危险类规则，数组按元素类判断
+     */
+    public boolean isDangerous() {
+        CompiledRuleSet rules = SecurityRuleEngine.getDefault().getRuleSet(SecurityRuleEngine.DESERIALIZATION);
+        if (rules != dangerRules) {
+            Class<?> element = type;
+            while (element.isArray()) {
+                element = element.getComponentType();
+            }
+            dangerous = !element.isPrimitive() && rules.matches(element.getName());
+            dangerRules = rules;
+        }
+        return dangerous;
+    }
+
+    // Getters
+    public Class<?> getType() { return type; }
+    public boolean isSerializable() { return serializable; }
+    public boolean isExternalizable() { return externalizable; }
+    public boolean hasReadObject() { return hasReadObject; }
+    public boolean hasReadObjectNoData() { return hasReadObjectNoData; }
+    public boolean hasReadResolve() { return hasReadResolve; }
+    public boolean hasWriteObject() { return hasWriteObject; }
+    public boolean hasWriteReplace() { return hasWriteReplace; }
+    public boolean isBuiltin() { return builtin; }
+    public List<Field> getFields() { return fields; }
+    public boolean isFieldsAccessible() { return fieldsAccessible; }
+
+    @Override
+    public String toString() {
+        return type.getName() + " (readObject=" + hasReadObject + ", readResolve=" + hasReadResolve +
+               ", writeReplace=" + hasWriteReplace + ", builtin=" + builtin + ")";
+    }
+}
@@ -0,0 +1,622 @@
+package com.book.demo.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Java序列化协议的字节级扫描器
+ * 在不加载任何类、不创建任何对象的情况下线性解析流，提取类描述符、字段布局、数组长度和嵌套深度，
+ * 可放在TraceableObjectInputStream之前，按危险类判定和资源限制提前拒绝载荷
+ */
+public class SerializationStreamScanner {
+
+    private static final int STREAM_MAGIC = 0xACED;
+    private static final int STREAM_VERSION = 5;
+    private static final int BASE_WIRE_HANDLE = 0x7E0000;
+
+    private static final byte TC_NULL = 0x70;
+    private static final byte TC_REFERENCE = 0x71;
+    private static final byte TC_CLASSDESC = 0x72;
+    private static final byte TC_OBJECT = 0x73;
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_ARRAY = 0x75;
+    private static final byte TC_CLASS = 0x76;
+    private static final byte TC_BLOCKDATA = 0x77;
+    private static final byte TC_ENDBLOCKDATA = 0x78;
+    private static final byte TC_RESET = 0x79;
+    private static final byte TC_BLOCKDATALONG = 0x7A;
+    private static final byte TC_EXCEPTION = 0x7B;
+    private static final byte TC_LONGSTRING = 0x7C;
+    private static final byte TC_PROXYCLASSDESC = 0x7D;
+    private static final byte TC_ENUM = 0x7E;
+
+    // 扫描器递归解析嵌套内容，未配置深度上限时也不超过该深度，避免栈溢出
+    static final int MAX_NESTING_DEPTH = 1000;
+
+    // 超过该长度的字符串不解码，只跳过
+    private static final int MAX_DECODED_STRING_LENGTH = 1024;
+
+    // 句柄表中非类描述符、非字符串内容的占位值
+    private static final Object CONTENT_MARKER = new Object();
+
+    private static final StreamScanListener NO_OP_LISTENER = new StreamScanListener() {
+    };
+
+    private final DeserializationLimits limits;
+    private final Predicate<String> classRejector;
+    private final StreamScanListener listener;
+
+    public SerializationStreamScanner() {
+        this(DeserializationLimits.defaults());
+    }
+
+    public SerializationStreamScanner(DeserializationLimits limits) {
+        this(limits, TraceableObjectInputStream::isDangerousClassName, null);
+    }
+
+    /**
+     * @param classRejector 返回true的类名会让扫描以RULE_CLASS拒绝，传入null表示不做类检查
+     * @param listener 可选的扫描事件回调
+     */
+    public SerializationStreamScanner(DeserializationLimits limits, Predicate<String> classRejector,
+                                      StreamScanListener listener) {
+        this.limits = limits != null ? limits : DeserializationLimits.unlimited();
+        this.classRejector = classRejector;
+        this.listener = listener != null ? listener : NO_OP_LISTENER;
+    }
+
+    public ScanResult scan(byte[] data) {
+        return scan(ByteBuffer.wrap(data));
+    }
+
+    public ScanResult scan(ByteBuffer buffer) {
+        return new Scan(new BufferSource(buffer.duplicate())).execute();
+    }
+
+    public ScanResult scan(InputStream in) {
+        return new Scan(new StreamSource(in)).execute();
+    }
+
+    public DeserializationLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * 数组类名转换为元素类名，基本类型数组和格式错误的数组类名返回null
+     */
+    static String elementClassName(String className) {
+        int dims = arrayDimensions(className);
+        if (dims == 0) {
+            return className;
+        }
+        if (dims < className.length() - 2 && className.charAt(dims) == 'L' && className.endsWith(";")) {
+            return className.substring(dims + 1, className.length() - 1);
+        }
+        return null;
+    }
+
+    /**
+     * 数组类名是否为合法的描述符：若干个[之后是基本类型字符或L类名;
+     */
+    static boolean isValidArrayName(String className) {
+        int dims = arrayDimensions(className);
+        if (dims == 0 || dims >= className.length()) {
+            return false;
+        }
+        if (dims == className.length() - 1) {
+            return "ZBCSIJFD".indexOf(className.charAt(dims)) >= 0;
+        }
+        return elementClassName(className) != null;
+    }
+
+    private static int arrayDimensions(String className) {
+        int dims = 0;
+        while (dims < className.length() && className.charAt(dims) == '[') {
+            dims++;
+        }
+        return dims;
+    }
+
+    /**
+     * 终止扫描的内部信号，不采集调用栈
+     */
+    private static final class Abort extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 单次扫描的状态
+     */
+    private final class Scan {
+        private final Source source;
+        private final ScanResult result = new ScanResult();
+        private final List<Object> handles = new ArrayList<>();
+
+        Scan(Source source) {
+            this.source = source;
+        }
+
+        ScanResult execute() {
+            try {
+                if (source.readUnsignedShort() != STREAM_MAGIC || source.readUnsignedShort() != STREAM_VERSION) {
+                    reject(ScanResult.RULE_MALFORMED, "invalid stream header");
+                }
+                while (!source.atEnd()) {
+                    readContent(source.readByte(), 1);
+                }
+            } catch (Abort ignored) {
+                // 拒绝原因已记录在result中
+            } catch (EOFException | BufferUnderflowException e) {
+                result.reject(ScanResult.RULE_MALFORMED, "unexpected end of stream");
+            } catch (IOException e) {
+                result.reject(ScanResult.RULE_MALFORMED, e.getMessage());
+            }
+            result.setBytesScanned(source.position());
+            return result;
+        }
+
+        private void reject(String rule, String reason) {
+            result.reject(rule, reason);
+            throw new Abort();
+        }
+
+        private void checkBytes(long additional) {
+            long total = source.position() + additional;
+            if (limits.exceedsBytes(total)) {
+                reject(ScanResult.RULE_MAX_BYTES, "stream exceeds " + limits.getMaxBytes() + " bytes");
+            }
+        }
+
+        private int newHandle(Object value) {
+            handles.add(value);
+            result.recordHandle();
+            // 与JDK的totalObjectRefs一致按累计数检查，TC_RESET清空句柄表不重置引用预算
+            if (limits.exceedsReferences(result.getHandleCount())) {
+                reject(ScanResult.RULE_MAX_REFS, "more than " + limits.getMaxReferences() + " references");
+            }
+            return handles.size() - 1;
+        }
+
+        private void checkClass(String className) {
+            if (className.startsWith("[") && !isValidArrayName(className)) {
+                reject(ScanResult.RULE_MALFORMED, "invalid array class name: " + className);
+            }
+            String candidate = elementClassName(className);
+            if (candidate != null && classRejector != null && classRejector.test(candidate)) {
+                result.recordDangerousClass(className);
+                reject(ScanResult.RULE_CLASS, "dangerous class " + className);
+            }
+        }
+
+        private Object readContent(byte tc, int depth) throws IOException {
+            result.recordDepth(depth);
+            if (limits.exceedsDepth(depth)) {
+                reject(ScanResult.RULE_MAX_DEPTH, "depth " + depth + " exceeds " + limits.getMaxDepth());
+            }
+            if (depth > MAX_NESTING_DEPTH) {
+                reject(ScanResult.RULE_MAX_DEPTH, "depth " + depth + " exceeds " + MAX_NESTING_DEPTH);
+            }
+            checkBytes(0);
+
+            switch (tc) {
+                case TC_NULL:
+                    return null;
+                case TC_REFERENCE:
+                    return readReference(depth);
+                case TC_CLASSDESC:
+                    return readClassDescriptor(depth);
+                case TC_PROXYCLASSDESC:
+                    return readProxyClassDescriptor(depth);
+                case TC_OBJECT:
+                    readObject(depth);
+                    return CONTENT_MARKER;
+                case TC_STRING:
+                    return readString(source.readUnsignedShort());
+                case TC_LONGSTRING:
+                    return readString(source.readLong());
+                case TC_ARRAY:
+                    readArray(depth);
+                    return CONTENT_MARKER;
+                case TC_CLASS:
+                    readClassDescriptorContent(depth + 1);
+                    newHandle(CONTENT_MARKER);
+                    return CONTENT_MARKER;
+                case TC_ENUM:
+                    readEnum(depth);
+                    return CONTENT_MARKER;
+                case TC_BLOCKDATA:
+                    skipBlockData(source.readUnsignedByte(), depth);
+                    return CONTENT_MARKER;
+                case TC_BLOCKDATALONG:
+                    skipBlockData(source.readInt(), depth);
+                    return CONTENT_MARKER;
+                case TC_RESET:
+                    handles.clear();
+                    return null;
+                case TC_EXCEPTION:
+                    handles.clear();
+                    readContent(source.readByte(), depth + 1);
+                    handles.clear();
+                    return CONTENT_MARKER;
+                default:
+                    reject(ScanResult.RULE_MALFORMED, String.format("invalid type code: %02X", tc));
+                    return null;
+            }
+        }
+
+        private Object readReference(int depth) throws IOException {
+            int handle = source.readInt() - BASE_WIRE_HANDLE;
+            if (handle < 0 || handle >= handles.size()) {
+                reject(ScanResult.RULE_MALFORMED, "invalid handle: " + handle);
+            }
+            result.recordReference();
+            listener.onReference(handle, depth);
+            return handles.get(handle);
+        }
+
+        private ScannedClassDescriptor readClassDescriptorContent(int depth) throws IOException {
+            Object desc = readContent(source.readByte(), depth);
+            if (desc != null && !(desc instanceof ScannedClassDescriptor)) {
+                reject(ScanResult.RULE_MALFORMED, "expected class descriptor");
+            }
+            return (ScannedClassDescriptor) desc;
+        }
+
+        private ScannedClassDescriptor readClassDescriptor(int depth) throws IOException {
+            String name = source.readUTF();
+            long suid = source.readLong();
+            int handle = newHandle(null);
+            int flags = source.readUnsignedByte();
+            int fieldCount = source.readShort();
+            if (fieldCount < 0) {
+                reject(ScanResult.RULE_MALFORMED, "invalid field count for " + name);
+            }
+
+            List<ScannedClassDescriptor.FieldDescriptor> fields = new ArrayList<>(fieldCount);
+            for (int i = 0; i < fieldCount; i++) {
+                char typeCode = (char) source.readUnsignedByte();
+                String fieldName = source.readUTF();
+                String fieldClassName = null;
+                if (typeCode == 'L' || typeCode == '[') {
+                    Object typeName = readContent(source.readByte(), depth + 1);
+                    if (!(typeName instanceof String)) {
+                        reject(ScanResult.RULE_MALFORMED, "invalid type of field " + name + "." + fieldName);
+                    }
+                    fieldClassName = (String) typeName;
+                } else if (ScannedClassDescriptor.FieldDescriptor.primitiveSize(typeCode) == 0) {
+                    reject(ScanResult.RULE_MALFORMED, "invalid type code of field " + name + "." + fieldName);
+                }
+                fields.add(new ScannedClassDescriptor.FieldDescriptor(typeCode, fieldName, fieldClassName));
+            }
+
+            ScannedClassDescriptor descriptor = new ScannedClassDescriptor(name, suid, flags, fields, null, handle);
+            handles.set(handle, descriptor);
+            result.recordClassDescriptor(name);
+            checkClass(name);
+            listener.onClassDescriptor(descriptor, depth);
+
+            readAnnotation(depth);
+            setSuperDescriptor(descriptor, readClassDescriptorContent(depth + 1));
+            return descriptor;
+        }
+
+        private ScannedClassDescriptor readProxyClassDescriptor(int depth) throws IOException {
+            int handle = newHandle(null);
+            int interfaceCount = source.readInt();
+            if (interfaceCount < 0 || interfaceCount > 65535) {
+                reject(ScanResult.RULE_MALFORMED, "invalid proxy interface count: " + interfaceCount);
+            }
+
+            List<String> interfaces = new ArrayList<>(interfaceCount);
+            for (int i = 0; i < interfaceCount; i++) {
+                String interfaceName = source.readUTF();
+                interfaces.add(interfaceName);
+                result.recordClassDescriptor(interfaceName);
+                checkClass(interfaceName);
+            }
+
+            ScannedClassDescriptor descriptor = new ScannedClassDescriptor(
+                null, 0L, ScannedClassDescriptor.SC_SERIALIZABLE, new ArrayList<>(), interfaces, handle);
+            handles.set(handle, descriptor);
+            listener.onClassDescriptor(descriptor, depth);
+
+            readAnnotation(depth);
+            setSuperDescriptor(descriptor, readClassDescriptorContent(depth + 1));
+            return descriptor;
+        }
+
+        /**
+         * 句柄在读取父类描述符之前就已分配，父类描述符可以引用描述符自身或其子类，形成环形继承链
+         */
+        private void setSuperDescriptor(ScannedClassDescriptor descriptor, ScannedClassDescriptor superDescriptor) {
+            for (ScannedClassDescriptor d = superDescriptor; d != null; d = d.getSuperDescriptor()) {
+                if (d == descriptor) {
+                    reject(ScanResult.RULE_MALFORMED, "cyclic class hierarchy at handle " + descriptor.getHandle());
+                }
+            }
+            descriptor.setSuperDescriptor(superDescriptor);
+        }
+
+        private void readAnnotation(int depth) throws IOException {
+            byte tc;
+            while ((tc = source.readByte()) != TC_ENDBLOCKDATA) {
+                readContent(tc, depth + 1);
+            }
+        }
+
+        private void readObject(int depth) throws IOException {
+            long start = source.position() - 1;
+            ScannedClassDescriptor descriptor = readClassDescriptorContent(depth + 1);
+            if (descriptor == null) {
+                reject(ScanResult.RULE_MALFORMED, "object without class descriptor");
+            }
+            newHandle(CONTENT_MARKER);
+            result.recordObject();
+            listener.onObject(descriptor, depth);
+
+            for (ScannedClassDescriptor level : descriptor.getHierarchy()) {
+                if (level.isProxy()) {
+                    continue;
+                }
+                if (level.isExternalizable()) {
+                    if (!level.hasBlockData()) {
+                        reject(ScanResult.RULE_UNSUPPORTED,
+                               "externalizable data without block mode: " + level.getName());
+                    }
+                    readCustomData(level, depth);
+                } else if (level.isSerializable()) {
+                    readFieldValues(level, depth);
+                    if (level.hasWriteMethod()) {
+                        readCustomData(level, depth);
+                    }
+                }
+            }
+            listener.onContentEnd(descriptor, source.position() - start, depth);
+        }
+
+        private void readCustomData(ScannedClassDescriptor level, int depth) throws IOException {
+            long start = source.position();
+            readAnnotation(depth);
+            listener.onFieldValue(level, null, source.position() - start, depth);
+        }
+
+        private void readFieldValues(ScannedClassDescriptor descriptor, int depth) throws IOException {
+            for (ScannedClassDescriptor.FieldDescriptor field : descriptor.getFields()) {
+                long start = source.position();
+                if (field.isPrimitive()) {
+                    source.skip(field.getPrimitiveSize());
+                } else {
+                    readContent(source.readByte(), depth + 1);
+                }
+                listener.onFieldValue(descriptor, field, source.position() - start, depth);
+            }
+        }
+
+        private void readArray(int depth) throws IOException {
+            long start = source.position() - 1;
+            ScannedClassDescriptor descriptor = readClassDescriptorContent(depth + 1);
+            if (descriptor == null || !descriptor.isArray()) {
+                reject(ScanResult.RULE_MALFORMED, "array without array class descriptor");
+            }
+            newHandle(CONTENT_MARKER);
+            int length = source.readInt();
+            if (length < 0) {
+                reject(ScanResult.RULE_MALFORMED, "negative array length");
+            }
+            result.recordArray(length);
+            if (limits.exceedsArrayLength(length)) {
+                reject(ScanResult.RULE_MAX_ARRAY, "array length " + length + " exceeds " + limits.getMaxArrayLength());
+            }
+            listener.onArray(descriptor, length, depth);
+
+            char elementType = descriptor.getArrayElementType();
+            int elementSize = ScannedClassDescriptor.FieldDescriptor.primitiveSize(elementType);
+            if (elementSize > 0) {
+                long bytes = (long) length * elementSize;
+                checkBytes(bytes);
+                source.skip(bytes);
+            } else if (elementType == 'L' || elementType == '[') {
+                for (int i = 0; i < length; i++) {
+                    readContent(source.readByte(), depth + 1);
+                }
+            } else {
+                reject(ScanResult.RULE_MALFORMED, "invalid array class " + descriptor.getName());
+            }
+            listener.onContentEnd(descriptor, source.position() - start, depth);
+        }
+
+        private void readEnum(int depth) throws IOException {
+            long start = source.position() - 1;
+            ScannedClassDescriptor descriptor = readClassDescriptorContent(depth + 1);
+            if (descriptor == null) {
+                reject(ScanResult.RULE_MALFORMED, "enum without class descriptor");
+            }
+            newHandle(CONTENT_MARKER);
+            listener.onEnum(descriptor, depth);
+            Object constant = readContent(source.readByte(), depth + 1);
+            if (!(constant instanceof String)) {
+                reject(ScanResult.RULE_MALFORMED, "invalid enum constant of " + descriptor.getName());
+            }
+            listener.onContentEnd(descriptor, source.position() - start, depth);
+        }
+
+        private Object readString(long length) throws IOException {
+            if (length < 0) {
+                reject(ScanResult.RULE_MALFORMED, "negative string length");
+            }
+            checkBytes(length);
+            Object value;
+            if (length <= MAX_DECODED_STRING_LENGTH) {
+                value = decodeModifiedUtf8(source.readBytes((int) length));
+            } else {
+                source.skip(length);
+                value = CONTENT_MARKER;
+            }
+            newHandle(value);
+            return value;
+        }
+
+        private void skipBlockData(long length, int depth) throws IOException {
+            if (length < 0) {
+                reject(ScanResult.RULE_MALFORMED, "negative block data length");
+            }
+            checkBytes(length);
+            source.skip(length);
+            result.recordBlockData(length);
+            listener.onBlockData(length, depth);
+        }
+    }
+
+    static String decodeModifiedUtf8(byte[] bytes) throws IOException {
+        boolean ascii = true;
+        for (byte b : bytes) {
+            if (b < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        char[] chars = new char[bytes.length];
+        int count = 0;
+        int i = 0;
+        while (i < bytes.length) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+                i++;
+            } else if ((b & 0xE0) == 0xC0 && i + 1 < bytes.length) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[i + 1] & 0x3F));
+                i += 2;
+            } else if ((b & 0xF0) == 0xE0 && i + 2 < bytes.length) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F));
+                i += 3;
+            } else {
+                throw new IOException("malformed modified UTF-8");
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * 扫描输入源
+     */
+    private interface Source {
+        byte readByte() throws IOException;
+        int readUnsignedByte() throws IOException;
+        int readShort() throws IOException;
+        int readUnsignedShort() throws IOException;
+        int readInt() throws IOException;
+        long readLong() throws IOException;
+        byte[] readBytes(int length) throws IOException;
+        void skip(long length) throws IOException;
+        long position();
+        boolean atEnd() throws IOException;
+
+        default String readUTF() throws IOException {
+            return decodeModifiedUtf8(readBytes(readUnsignedShort()));
+        }
+    }
+
+    private static final class BufferSource implements Source {
+        private final ByteBuffer buffer;
+        private final int start;
+
+        BufferSource(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.start = buffer.position();
+        }
+
+        @Override public byte readByte() { return buffer.get(); }
+        @Override public int readUnsignedByte() { return buffer.get() & 0xFF; }
+        @Override public int readShort() { return buffer.getShort(); }
+        @Override public int readUnsignedShort() { return buffer.getShort() & 0xFFFF; }
+        @Override public int readInt() { return buffer.getInt(); }
+        @Override public long readLong() { return buffer.getLong(); }
+
+        @Override
+        public byte[] readBytes(int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        @Override
+        public void skip(long length) throws EOFException {
+            if (length > buffer.remaining()) {
+                throw new EOFException();
+            }
+            buffer.position(buffer.position() + (int) length);
+        }
+
+        @Override public long position() { return buffer.position() - start; }
+        @Override public boolean atEnd() { return !buffer.hasRemaining(); }
+    }
+
+    private static final class StreamSource implements Source {
+        private final BufferedInputStream buffered;
+        private final DataInputStream in;
+        private long position;
+
+        StreamSource(InputStream in) {
+            this.buffered = in instanceof BufferedInputStream ? (BufferedInputStream) in : new BufferedInputStream(in);
+            this.in = new DataInputStream(buffered);
+        }
+
+        @Override public byte readByte() throws IOException { position += 1; return in.readByte(); }
+        @Override public int readUnsignedByte() throws IOException { position += 1; return in.readUnsignedByte(); }
+        @Override public int readShort() throws IOException { position += 2; return in.readShort(); }
+        @Override public int readUnsignedShort() throws IOException { position += 2; return in.readUnsignedShort(); }
+        @Override public int readInt() throws IOException { position += 4; return in.readInt(); }
+        @Override public long readLong() throws IOException { position += 8; return in.readLong(); }
+
+        @Override
+        public byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            position += length;
+            return bytes;
+        }
+
+        @Override
+        public void skip(long length) throws IOException {
+            long remaining = length;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException();
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            position += length;
+        }
+
+        @Override public long position() { return position; }
+
+        @Override
+        public boolean atEnd() throws IOException {
+            buffered.mark(1);
+            int next = buffered.read();
+            buffered.reset();
+            return next < 0;
+        }
+    }
+}
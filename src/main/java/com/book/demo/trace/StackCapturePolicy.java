@@ -0,0 +1,91 @@
+package com.book.demo.trace;
+
+/**
+ * 调用栈采集策略
+ * NONE 不采集；TOP_FRAMES 通过StackWalker只采集最顶部的N帧；FULL 采集完整调用栈
+ */
+public final class StackCapturePolicy {
+
+    public enum Mode {
+        NONE,
+        TOP_FRAMES,
+        FULL
+    }
+
+    /**
+     * 系统属性名，取值 none / full / 帧数(如 16)
+     */
+    public static final String SYSTEM_PROPERTY = "com.book.demo.trace.stack";
+
+    private static final StackCapturePolicy NONE = new StackCapturePolicy(Mode.NONE, 0);
+    private static final StackCapturePolicy FULL = new StackCapturePolicy(Mode.FULL, 0);
+
+    private static volatile StackCapturePolicy defaultPolicy = parse(System.getProperty(SYSTEM_PROPERTY), FULL);
+
+    private final Mode mode;
+    private final int maxDepth;
+
+    private StackCapturePolicy(Mode mode, int maxDepth) {
+        this.mode = mode;
+        this.maxDepth = maxDepth;
+    }
+
+    public static StackCapturePolicy none() {
+        return NONE;
+    }
+
+    public static StackCapturePolicy full() {
+        return FULL;
+    }
+
+    public static StackCapturePolicy topFrames(int maxDepth) {
+        if (maxDepth <= 0) {
+            throw new IllegalArgumentException("maxDepth必须大于0: " + maxDepth);
+        }
+        return new StackCapturePolicy(Mode.TOP_FRAMES, maxDepth);
+    }
+
+    /**
+     * 解析策略字符串，无法识别时返回默认值
+     */
+    public static StackCapturePolicy parse(String value, StackCapturePolicy defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        String normalized = value.trim().toLowerCase();
+        if ("none".equals(normalized)) {
+            return NONE;
+        }
+        if ("full".equals(normalized)) {
+            return FULL;
+        }
+        try {
+            return topFrames(Integer.parseInt(normalized));
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    public static StackCapturePolicy getDefault() {
+        return defaultPolicy;
+    }
+
+    /**
+     * 设置全局默认采集策略，供各追踪器在未单独指定时使用
+     */
+    public static void setDefault(StackCapturePolicy policy) {
+        defaultPolicy = policy != null ? policy : FULL;
+    }
+
+    public Mode getMode() { return mode; }
+    public int getMaxDepth() { return maxDepth; }
+
+    public boolean isEnabled() {
+        return mode != Mode.NONE;
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.TOP_FRAMES ? "TOP_FRAMES(" + maxDepth + ")" : mode.name();
+    }
+}
@@ -0,0 +1,135 @@
+package com.book.demo.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 追踪存储中的一次顶层readObject追踪，创建后不可变
+ * 步骤以只含类名的副本保存，存储不持有反序列化出的对象和调用栈
+ */
+public final class StoredTrace {
+
+    private final long id;
+    private final String callSite;
+    private final long startMillis;
+    private final long endMillis;
+    private final String rootClass;
+    private final boolean failed;
+    private final List<DeserializationStep> steps;
+    private final Set<String> classNames;
+    private final Set<String> stepTypes;
+    private final Set<String> dangerousClasses;
+
+    StoredTrace(long id, String callSite, String rootClass, boolean failed, List<DeserializationStep> steps) {
+        this.id = id;
+        this.callSite = callSite;
+        this.rootClass = rootClass;
+        this.failed = failed;
+        List<DeserializationStep> detached = new ArrayList<>(steps.size());
+        for (DeserializationStep step : steps) {
+            detached.add(step.detached());
+        }
+        this.steps = Collections.unmodifiableList(detached);
+        Set<String> classes = new LinkedHashSet<>();
+        Set<String> types = new LinkedHashSet<>();
+        Set<String> dangerous = new LinkedHashSet<>();
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (DeserializationStep step : detached) {
+            types.add(step.getStepType());
+            String className = step.getSubjectClassName();
+            if (className != null) {
+                classes.add(className);
+                if (step.isWarning()) {
+                    dangerous.add(className);
+                }
+            }
+            start = Math.min(start, step.getTimestamp());
+            end = Math.max(end, step.getTimestamp());
+        }
+        long now = System.currentTimeMillis();
+        this.startMillis = steps.isEmpty() ? now : start;
+        this.endMillis = steps.isEmpty() ? now : end;
+        this.classNames = Collections.unmodifiableSet(classes);
+        this.stepTypes = Collections.unmodifiableSet(types);
+        this.dangerousClasses = Collections.unmodifiableSet(dangerous);
+    }
+
+    /**
+     * 是否有涉及该类的指定类型步骤，stepType为null时匹配任意类型
+     */
+    public boolean hasStep(String stepType, String className) {
+        for (DeserializationStep step : steps) {
+            if ((stepType == null || stepType.equals(step.getStepType())) &&
+                className.equals(step.getSubjectClassName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Getters
+    public long getId() { return id; }
+    public String getCallSite() { return callSite; }
+    public long getStartMillis() { return startMillis; }
+    public long getEndMillis() { return endMillis; }
+    public String getRootClass() { return rootClass; }
+    public boolean isFailed() { return failed; }
+    public List<DeserializationStep> getSteps() { return steps; }
+    public Set<String> getClassNames() { return classNames; }
+    public Set<String> getStepTypes() { return stepTypes; }
+    public Set<String> getDangerousClasses() { return dangerousClasses; }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %s %s%s (%d steps, %d classes)", id, callSite, rootClass,
+                             failed ? " FAILED" : "", steps.size(), classNames.size());
+    }
+
+    /**
+     * @param includeSteps 是否包含完整步骤，列表查询时只返回摘要
+     */
+    public String toJsonString(boolean includeSteps) {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"id\":").append(id).append(",");
+        json.append("\"callSite\":\"").append(escape(callSite)).append("\",");
+        json.append("\"startMillis\":").append(startMillis).append(",");
+        json.append("\"endMillis\":").append(endMillis).append(",");
+        json.append("\"rootClass\":\"").append(escape(rootClass)).append("\",");
+        json.append("\"failed\":").append(failed).append(",");
+        json.append("\"stepCount\":").append(steps.size()).append(",");
+        appendSet(json, "classes", classNames);
+        json.append(",");
+        appendSet(json, "dangerousClasses", dangerousClasses);
+        if (includeSteps) {
+            json.append(",\"steps\":[");
+            for (int i = 0; i < steps.size(); i++) {
+                if (i > 0) json.append(",");
+                json.append(steps.get(i).toJsonString());
+            }
+            json.append("]");
+        }
+        json.append("}");
+        return json.toString();
+    }
+
+    private static void appendSet(StringBuilder json, String name, Set<String> values) {
+        json.append("\"").append(name).append("\":[");
+        boolean first = true;
+        for (String value : values) {
+            if (!first) json.append(",");
+            json.append("\"").append(escape(value)).append("\"");
+            first = false;
+        }
+        json.append("]");
+    }
+
+    private static String escape(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
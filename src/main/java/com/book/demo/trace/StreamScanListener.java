@@ -0,0 +1,39 @@
+package com.book.demo.trace;
+
+/**
+ * 字节级扫描事件回调
+ * depth为当前内容在对象图中的嵌套深度，顶层对象为1
+ */
+public interface StreamScanListener {
+
+    default void onClassDescriptor(ScannedClassDescriptor descriptor, int depth) {
+    }
+
+    default void onObject(ScannedClassDescriptor descriptor, int depth) {
+    }
+
+    default void onArray(ScannedClassDescriptor descriptor, int length, int depth) {
+    }
+
+    default void onEnum(ScannedClassDescriptor descriptor, int depth) {
+    }
+
+    default void onBlockData(long length, int depth) {
+    }
+
+    default void onReference(int handle, int depth) {
+    }
+
+    /**
+     * 对象、数组或枚举读取完毕，bytes为其在流中占用的字节数（含首次出现的类描述符和嵌套内容）
+     */
+    default void onContentEnd(ScannedClassDescriptor descriptor, long bytes, int depth) {
+    }
+
+    /**
+     * 一个字段值读取完毕；field为null表示owner的writeObject/writeExternal写入的自定义数据
+     */
+    default void onFieldValue(ScannedClassDescriptor owner, ScannedClassDescriptor.FieldDescriptor field,
+                              long bytes, int depth) {
+    }
+}
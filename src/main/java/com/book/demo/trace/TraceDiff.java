@@ -0,0 +1,579 @@
+package com.book.demo.trace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 两次反序列化追踪的对比
+ * 按（步骤类型，涉及的类）对齐两个步骤序列，报告新增/消失的类、嵌套路径变化以及每个类的耗时和字节数变化；
+ * 用于对比已知正常的载荷与可疑载荷，或对比前后两个版本的序列化性能
+ */
+public class TraceDiff {
+
+    // 编辑距离超过该值时不再逐步对齐，中间不同的部分整体视为删除加新增
+    public static final int MAX_ALIGNMENT_EDITS = 2048;
+
+    /**
+     * 对齐结果中单个位置的变化
+     */
+    public enum Change {
+        MATCHED,
+        /** 只出现在对比对象中 */
+        ADDED,
+        /** 只出现在基准中 */
+        REMOVED
+    }
+
+    /**
+     * 对齐后的一对步骤，新增时baseline为null，删除时candidate为null
+     */
+    public static final class AlignedStep {
+        private final Change change;
+        private final DeserializationStep baseline;
+        private final DeserializationStep candidate;
+
+        AlignedStep(Change change, DeserializationStep baseline, DeserializationStep candidate) {
+            this.change = change;
+            this.baseline = baseline;
+            this.candidate = candidate;
+        }
+
+        // Getters
+        public Change getChange() { return change; }
+        public DeserializationStep getBaseline() { return baseline; }
+        public DeserializationStep getCandidate() { return candidate; }
+
+        @Override
+        public String toString() {
+            DeserializationStep step = candidate != null ? candidate : baseline;
+            String mark = change == Change.ADDED ? "+ " : change == Change.REMOVED ? "- " : "  ";
+            return mark + step.getStepType() + (step.getSubjectClassName() != null ? " " + step.getSubjectClassName() : "");
+        }
+    }
+
+    /**
+     * 单个类在两次追踪中的对象数、耗时和字节数
+     */
+    public static final class ClassDelta {
+        private final String className;
+        private long baselineCount;
+        private long candidateCount;
+        private long baselineNanos;
+        private long candidateNanos;
+        private long baselineBytes;
+        private long candidateBytes;
+
+        ClassDelta(String className) {
+            this.className = className;
+        }
+
+        public long getCountDelta() { return candidateCount - baselineCount; }
+        public long getNanosDelta() { return candidateNanos - baselineNanos; }
+        public long getBytesDelta() { return candidateBytes - baselineBytes; }
+
+        // Getters
+        public String getClassName() { return className; }
+        public long getBaselineCount() { return baselineCount; }
+        public long getCandidateCount() { return candidateCount; }
+        public long getBaselineNanos() { return baselineNanos; }
+        public long getCandidateNanos() { return candidateNanos; }
+        public long getBaselineBytes() { return baselineBytes; }
+        public long getCandidateBytes() { return candidateBytes; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: count %d -> %d, time %.3f -> %.3f ms (%+.3f), bytes %d -> %d (%+d)",
+                                 className, baselineCount, candidateCount, baselineNanos / 1_000_000.0,
+                                 candidateNanos / 1_000_000.0, getNanosDelta() / 1_000_000.0,
+                                 baselineBytes, candidateBytes, getBytesDelta());
+        }
+    }
+
+    /**
+     * 单次追踪的按类汇总和嵌套路径
+     */
+    private static final class Profile {
+        final Map<String, long[]> classes = new LinkedHashMap<>();
+        final Set<String> paths = new LinkedHashSet<>();
+        final Set<String> dangerousClasses = new LinkedHashSet<>();
+
+        long[] usage(String className) {
+            return classes.computeIfAbsent(className, c -> new long[3]);
+        }
+    }
+
+    private final List<AlignedStep> alignment;
+    private final boolean aligned;
+    private final Map<String, ClassDelta> classDeltas = new LinkedHashMap<>();
+    private final List<String> addedClasses = new ArrayList<>();
+    private final List<String> removedClasses = new ArrayList<>();
+    private final List<String> addedPaths = new ArrayList<>();
+    private final List<String> removedPaths = new ArrayList<>();
+    private final List<String> addedDangerousClasses = new ArrayList<>();
+    private int addedSteps;
+    private int removedSteps;
+
+    private TraceDiff(List<DeserializationStep> baseline, DeserializationCallTree baselineTree,
+                      List<DeserializationStep> candidate, DeserializationCallTree candidateTree) {
+        int[] a = keys(baseline);
+        int[] b = keys(candidate);
+        List<AlignedStep> result = new ArrayList<>(Math.max(baseline.size(), candidate.size()));
+        this.aligned = align(a, b, baseline, candidate, result);
+        this.alignment = result;
+        for (AlignedStep step : result) {
+            if (step.change == Change.ADDED) {
+                addedSteps++;
+            } else if (step.change == Change.REMOVED) {
+                removedSteps++;
+            }
+        }
+
+        Profile base = profile(baseline, baselineTree);
+        Profile cand = profile(candidate, candidateTree);
+        for (Map.Entry<String, long[]> entry : base.classes.entrySet()) {
+            ClassDelta delta = classDeltas.computeIfAbsent(entry.getKey(), ClassDelta::new);
+            delta.baselineCount = entry.getValue()[0];
+            delta.baselineNanos = entry.getValue()[1];
+            delta.baselineBytes = entry.getValue()[2];
+            if (!cand.classes.containsKey(entry.getKey())) {
+                removedClasses.add(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, long[]> entry : cand.classes.entrySet()) {
+            ClassDelta delta = classDeltas.computeIfAbsent(entry.getKey(), ClassDelta::new);
+            delta.candidateCount = entry.getValue()[0];
+            delta.candidateNanos = entry.getValue()[1];
+            delta.candidateBytes = entry.getValue()[2];
+            if (!base.classes.containsKey(entry.getKey())) {
+                addedClasses.add(entry.getKey());
+            }
+        }
+        for (String path : cand.paths) {
+            if (!base.paths.contains(path)) {
+                addedPaths.add(path);
+            }
+        }
+        for (String path : base.paths) {
+            if (!cand.paths.contains(path)) {
+                removedPaths.add(path);
+            }
+        }
+        for (String className : cand.dangerousClasses) {
+            if (!base.dangerousClasses.contains(className)) {
+                addedDangerousClasses.add(className);
+            }
+        }
+    }
+
+    public static TraceDiff compare(List<DeserializationStep> baseline, List<DeserializationStep> candidate) {
+        return new TraceDiff(baseline, null, candidate, null);
+    }
+
+    /**
+     * 对比两个追踪流；两个流都开启了调用树时，耗时、字节数和嵌套路径取自调用树
+     */
+    public static TraceDiff compare(TraceableObjectInputStream baseline, TraceableObjectInputStream candidate) {
+        DeserializationCallTree baselineTree = baseline.getCallTree();
+        DeserializationCallTree candidateTree = candidate.getCallTree();
+        boolean trees = baselineTree != null && candidateTree != null;
+        return new TraceDiff(baseline.getExecutionTrace(), trees ? baselineTree : null,
+                             candidate.getExecutionTrace(), trees ? candidateTree : null);
+    }
+
+    /**
+     * 对比二进制追踪日志中的两个流，两个流可以来自同一个日志
+     */
+    public static TraceDiff compare(BinaryTraceReader baseline, int baselineStream,
+                                    BinaryTraceReader candidate, int candidateStream) throws IOException {
+        return compare(baseline.readSteps(baselineStream), candidate.readSteps(candidateStream));
+    }
+
+    /**
+     * 把（步骤类型，类名）映射为整数，便于对齐时比较
+     */
+    private static int[] keys(List<DeserializationStep> steps) {
+        int[] keys = new int[steps.size()];
+        for (int i = 0; i < keys.length; i++) {
+            DeserializationStep step = steps.get(i);
+            keys[i] = Objects.hash(step.getStepType(), step.getSubjectClassName());
+        }
+        return keys;
+    }
+
+    private static boolean same(int[] a, int[] b, int i, int j,
+                                List<DeserializationStep> baseline, List<DeserializationStep> candidate) {
+        if (a[i] != b[j]) {
+            return false;
+        }
+        DeserializationStep x = baseline.get(i);
+        DeserializationStep y = candidate.get(j);
+        return x.getStepType().equals(y.getStepType()) &&
+               Objects.equals(x.getSubjectClassName(), y.getSubjectClassName());
+    }
+
+    /**
+     * 先去掉相同的前后缀，中间部分用Myers差分算法求最短编辑脚本
+     *
+     * @return 编辑距离超过上限、退化为整体替换时返回false
+     */
+    private static boolean align(int[] a, int[] b, List<DeserializationStep> baseline,
+                                 List<DeserializationStep> candidate, List<AlignedStep> out) {
+        int start = 0;
+        while (start < a.length && start < b.length && same(a, b, start, start, baseline, candidate)) {
+            out.add(new AlignedStep(Change.MATCHED, baseline.get(start), candidate.get(start)));
+            start++;
+        }
+        int endA = a.length;
+        int endB = b.length;
+        while (endA > start && endB > start && same(a, b, endA - 1, endB - 1, baseline, candidate)) {
+            endA--;
+            endB--;
+        }
+
+        boolean exact = myers(a, b, start, endA, start, endB, baseline, candidate, out);
+        if (!exact) {
+            for (int i = start; i < endA; i++) {
+                out.add(new AlignedStep(Change.REMOVED, baseline.get(i), null));
+            }
+            for (int j = start; j < endB; j++) {
+                out.add(new AlignedStep(Change.ADDED, null, candidate.get(j)));
+            }
+        }
+        for (int i = endA, j = endB; i < a.length; i++, j++) {
+            out.add(new AlignedStep(Change.MATCHED, baseline.get(i), candidate.get(j)));
+        }
+        return exact;
+    }
+
+    private static boolean myers(int[] a, int[] b, int fromA, int toA, int fromB, int toB,
+                                 List<DeserializationStep> baseline, List<DeserializationStep> candidate,
+                                 List<AlignedStep> out) {
+        int n = toA - fromA;
+        int m = toB - fromB;
+        int maxD = Math.min(n + m, MAX_ALIGNMENT_EDITS);
+        int offset = maxD + 1;
+        int[] v = new int[2 * maxD + 3];
+        // trace[d]保存第d轮开始前k∈[-d, d]上的最远x
+        List<int[]> trace = new ArrayList<>();
+        int found = -1;
+        for (int d = 0; d <= maxD && found < 0; d++) {
+            int[] snapshot = new int[2 * d + 1];
+            System.arraycopy(v, offset - d, snapshot, 0, snapshot.length);
+            trace.add(snapshot);
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                    ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && same(a, b, fromA + x, fromB + y, baseline, candidate)) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    found = d;
+                    break;
+                }
+            }
+        }
+        if (found < 0) {
+            return false;
+        }
+
+        List<AlignedStep> reversed = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = found; d >= 0; d--) {
+            int[] snapshot = trace.get(d);
+            int k = x - y;
+            int prevK;
+            if (d == 0) {
+                prevK = 0;
+            } else if (k == -d || (k != d && at(snapshot, d, k - 1) < at(snapshot, d, k + 1))) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = d == 0 ? 0 : at(snapshot, d, prevK);
+            int prevY = prevX - prevK;
+            int diagX = d == 0 ? 0 : (prevK == k + 1 ? prevX : prevX + 1);
+            while (x > diagX && y > diagX - k) {
+                x--;
+                y--;
+                reversed.add(new AlignedStep(Change.MATCHED, baseline.get(fromA + x), candidate.get(fromB + y)));
+            }
+            if (d > 0) {
+                if (prevK == k + 1) {
+                    reversed.add(new AlignedStep(Change.ADDED, null, candidate.get(fromB + prevY)));
+                } else {
+                    reversed.add(new AlignedStep(Change.REMOVED, baseline.get(fromA + prevX), null));
+                }
+                x = prevX;
+                y = prevY;
+            }
+        }
+        for (int i = reversed.size() - 1; i >= 0; i--) {
+            out.add(reversed.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * 读取第d轮开始前对角线k上的最远x
+     */
+    private static int at(int[] snapshot, int d, int k) {
+        return snapshot[k + d];
+    }
+
+    private static Profile profile(List<DeserializationStep> steps, DeserializationCallTree tree) {
+        Profile profile = new Profile();
+        for (DeserializationStep step : steps) {
+            if (step.isWarning() && step.getSubjectClassName() != null) {
+                profile.dangerousClasses.add(step.getSubjectClassName());
+            }
+        }
+        if (tree != null) {
+            for (DeserializationCallTree.Timing timing : tree.getClassTimings()) {
+                long[] usage = profile.usage(timing.getName());
+                usage[0] = timing.getCount();
+                usage[1] = timing.getSelfNanos();
+                usage[2] = timing.getSelfBytes();
+            }
+            for (DeserializationCallTree.Timing timing : tree.getPathTimings()) {
+                profile.paths.add(timing.getName());
+            }
+            return profile;
+        }
+
+        // 没有调用树时：对象数取RESOLVE_OBJECT次数，耗时取步骤耗时之和，
+        // 字节数按相邻步骤的流偏移增量归属到后一个步骤涉及的类；
+        // 嵌套路径取每个类描述符首次读取时外层尚未完成的类描述符，未开启resolveObject时外层只在读取结束时清空
+        List<String> open = new ArrayList<>();
+        long lastOffset = -1;
+        for (DeserializationStep step : steps) {
+            String className = step.getSubjectClassName();
+            long offset = step.getStreamOffset();
+            if (className != null) {
+                long[] usage = profile.usage(className);
+                usage[1] += step.getExecutionDuration();
+                if (offset >= 0 && lastOffset >= 0 && offset > lastOffset) {
+                    usage[2] += offset - lastOffset;
+                }
+            }
+            if (offset >= 0) {
+                lastOffset = offset;
+            }
+            switch (step.getStepType()) {
+                case "READ_CLASS_DESC":
+                    open.add(className);
+                    profile.paths.add(path(open));
+                    break;
+                case "RESOLVE_OBJECT":
+                    profile.usage(className)[0]++;
+                    int index = open.lastIndexOf(className);
+                    if (index >= 0) {
+                        open.subList(index, open.size()).clear();
+                    }
+                    break;
+                case "READ_COMPLETE":
+                case "READ_ERROR":
+                    open.clear();
+                    break;
+                default:
+                    break;
+            }
+        }
+        return profile;
+    }
+
+    private static String path(List<String> classNames) {
+        StringBuilder path = new StringBuilder();
+        for (String className : classNames) {
+            if (path.length() > 0) {
+                path.append(" > ");
+            }
+            path.append(simpleName(className));
+        }
+        return path.toString();
+    }
+
+    /**
+     * 与调用树路径一致的简单类名，数组显示为X[]
+     */
+    private static String simpleName(String className) {
+        if (className == null) {
+            return "?";
+        }
+        int dims = 0;
+        while (dims < className.length() && className.charAt(dims) == '[') {
+            dims++;
+        }
+        String name = className.substring(dims);
+        if (dims > 0) {
+            name = name.startsWith("L") && name.endsWith(";") ? name.substring(1, name.length() - 1) : name;
+        }
+        int dot = name.lastIndexOf('.');
+        StringBuilder simple = new StringBuilder(dot >= 0 ? name.substring(dot + 1) : name);
+        for (int i = 0; i < dims; i++) {
+            simple.append("[]");
+        }
+        return simple.toString();
+    }
+
+    /**
+     * 两次追踪的步骤序列是否完全一致（不比较耗时和字节数）
+     */
+    public boolean isIdentical() {
+        return addedSteps == 0 && removedSteps == 0;
+    }
+
+    /**
+     * 是否逐步对齐；编辑距离超过MAX_ALIGNMENT_EDITS时中间部分整体视为删除加新增
+     */
+    public boolean isAligned() {
+        return aligned;
+    }
+
+    public List<AlignedStep> getAlignment() {
+        return alignment;
+    }
+
+    public int getAddedSteps() {
+        return addedSteps;
+    }
+
+    public int getRemovedSteps() {
+        return removedSteps;
+    }
+
+    public List<String> getAddedClasses() {
+        return addedClasses;
+    }
+
+    public List<String> getRemovedClasses() {
+        return removedClasses;
+    }
+
+    /**
+     * 只在对比对象中出现的危险类，通常意味着注入了gadget
+     */
+    public List<String> getAddedDangerousClasses() {
+        return addedDangerousClasses;
+    }
+
+    public List<String> getAddedPaths() {
+        return addedPaths;
+    }
+
+    public List<String> getRemovedPaths() {
+        return removedPaths;
+    }
+
+    /**
+     * 同时出现在两次追踪中、且嵌套路径发生变化的类（按简单类名）
+     */
+    public Set<String> getRenestedClasses() {
+        Set<String> added = new TreeSet<>();
+        for (String path : addedPaths) {
+            added.add(leaf(path));
+        }
+        Set<String> renested = new TreeSet<>();
+        for (String path : removedPaths) {
+            if (added.contains(leaf(path))) {
+                renested.add(leaf(path));
+            }
+        }
+        return renested;
+    }
+
+    private static String leaf(String path) {
+        int sep = path.lastIndexOf(" > ");
+        return sep >= 0 ? path.substring(sep + 3) : path;
+    }
+
+    /**
+     * 按耗时变化绝对值从高到低排序的类变化，耗时相同时按字节数变化排序
+     */
+    public List<ClassDelta> getClassDeltas() {
+        List<ClassDelta> deltas = new ArrayList<>(classDeltas.values());
+        deltas.sort(Comparator.comparingLong((ClassDelta d) -> Math.abs(d.getNanosDelta()))
+                              .thenComparingLong(d -> Math.abs(d.getBytesDelta())).reversed());
+        return deltas;
+    }
+
+    public ClassDelta getClassDelta(String className) {
+        return classDeltas.get(className);
+    }
+
+    public void printReport(TraceSink sink, int limit) {
+        sink.publish("=== Trace Diff ===");
+        sink.publish("Steps: " + alignment.size() + " aligned, +" + addedSteps + " / -" + removedSteps +
+                     (aligned ? "" : " (alignment truncated)"));
+        if (!addedDangerousClasses.isEmpty()) {
+            sink.publish("New dangerous classes: " + addedDangerousClasses);
+        }
+        if (!addedClasses.isEmpty()) {
+            sink.publish("Added classes: " + addedClasses);
+        }
+        if (!removedClasses.isEmpty()) {
+            sink.publish("Removed classes: " + removedClasses);
+        }
+        addedPaths.stream().limit(limit).forEach(p -> sink.publish("  + " + p));
+        removedPaths.stream().limit(limit).forEach(p -> sink.publish("  - " + p));
+        sink.publish("Class deltas:");
+        getClassDeltas().stream().limit(limit).forEach(d -> sink.publish("  " + d));
+    }
+
+    public String toJsonString() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"aligned\":").append(aligned).append(",");
+        json.append("\"addedSteps\":").append(addedSteps).append(",");
+        json.append("\"removedSteps\":").append(removedSteps).append(",");
+        appendList(json, "addedClasses", addedClasses);
+        json.append(",");
+        appendList(json, "removedClasses", removedClasses);
+        json.append(",");
+        appendList(json, "addedDangerousClasses", addedDangerousClasses);
+        json.append(",");
+        appendList(json, "addedPaths", addedPaths);
+        json.append(",");
+        appendList(json, "removedPaths", removedPaths);
+        json.append(",\"classDeltas\":[");
+        List<ClassDelta> deltas = getClassDeltas();
+        for (int i = 0; i < deltas.size(); i++) {
+            ClassDelta d = deltas.get(i);
+            if (i > 0) json.append(",");
+            json.append("{\"className\":\"").append(escape(d.getClassName())).append("\",");
+            json.append("\"baselineCount\":").append(d.getBaselineCount()).append(",");
+            json.append("\"candidateCount\":").append(d.getCandidateCount()).append(",");
+            json.append("\"baselineNanos\":").append(d.getBaselineNanos()).append(",");
+            json.append("\"candidateNanos\":").append(d.getCandidateNanos()).append(",");
+            json.append("\"baselineBytes\":").append(d.getBaselineBytes()).append(",");
+            json.append("\"candidateBytes\":").append(d.getCandidateBytes()).append("}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static void appendList(StringBuilder json, String name, List<String> values) {
+        json.append("\"").append(name).append("\":[");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) json.append(",");
+            json.append("\"").append(escape(values.get(i))).append("\"");
+        }
+        json.append("]");
+    }
+
+    private static String escape(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
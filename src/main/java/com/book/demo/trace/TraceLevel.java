@@ -0,0 +1,55 @@
+package com.book.demo.trace;
+
+/**
+ * 反序列化追踪级别
+ * 级别越高记录的信息越多，开销也越大
+ */
+public enum TraceLevel {
+
+    /** 完全关闭追踪，仅保留原生ObjectInputStream行为 */
+    OFF,
+
+    /** 仅累加计数器，不创建步骤对象、不采集调用栈 */
+    COUNTERS,
+
+    /** 记录步骤对象用于统计，但不采集调用栈、不输出控制台 */
+    SUMMARY,
+
+    /** 完整追踪：步骤、调用栈以及详细输出 */
+    FULL;
+
+    /**
+     * 系统属性名，用于在启动时指定全局默认级别
+     */
+    public static final String SYSTEM_PROPERTY = "com.book.demo.trace.level";
+
+    public boolean isAtLeast(TraceLevel other) {
+        return ordinal() >= other.ordinal();
+    }
+
+    public boolean countsEvents() {
+        return this != OFF;
+    }
+
+    public boolean recordsSteps() {
+        return isAtLeast(SUMMARY);
+    }
+
+    public boolean capturesStackTrace() {
+        return this == FULL;
+    }
+
+    /**
+     * 解析级别名称，无法识别时返回默认值
+     */
+    public static TraceLevel parse(String name, TraceLevel defaultLevel) {
+        if (name == null || name.trim().isEmpty()) {
+            return defaultLevel;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultLevel;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.book.demo.trace;
+
+/**
+ * 全局追踪输出入口
+ * 默认使用异步控制台输出，可替换为文件或内存输出
+ */
+public final class TraceOutput {
+
+    private static volatile TraceSink sink;
+
+    private TraceOutput() {
+    }
+
+    public static TraceSink getSink() {
+        TraceSink current = sink;
+        if (current == null) {
+            synchronized (TraceOutput.class) {
+                current = sink;
+                if (current == null) {
+                    AsyncTraceSink console = AsyncTraceSink.console();
+                    // JVM退出前把队列中剩余的记录写出
+                    Runtime.getRuntime().addShutdownHook(new Thread(console::close, "trace-sink-shutdown"));
+                    sink = current = console;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 替换全局输出，返回原来的输出以便调用方关闭或恢复
+     */
+    public static TraceSink setSink(TraceSink newSink) {
+        synchronized (TraceOutput.class) {
+            TraceSink previous = sink;
+            sink = newSink;
+            return previous;
+        }
+    }
+
+    /**
+     * 非阻塞地输出一行追踪信息
+     */
+    public static void println(String line) {
+        getSink().publish(line);
+    }
+}
@@ -0,0 +1,177 @@
+package com.book.demo.trace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 固定容量的追踪环形缓冲区
+ * 步骤记录以原始类型数组编码（步骤类型ID、时间戳、类ID、耗时），容量满后覆盖最旧记录，
+ * 因此追踪器自身的内存占用只与容量有关，与流的大小无关；
+ * 附带的步骤对象应只持有类名和身份（IDENTITY），持有对象和调用栈的步骤只在FULL级别写入
+ */
+public final class TraceRingBuffer {
+
+    public static final int NO_CLASS = -1;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // 类名表上限，超出后新类名统一记为NO_CLASS
+    private static final int MAX_INTERNED_NAMES = 4096;
+
+    private final int capacity;
+    private final int[] stepNumbers;
+    private final int[] typeIds;
+    private final long[] timestamps;
+    private final int[] classIds;
+    private final long[] durations;
+    private final long[] offsets;
+    private final DeserializationStep[] details;
+
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    private int head;
+    private int size;
+    private long totalRecorded;
+    private long overwrittenCount;
+    private long nameOverflowCount;
+
+    /**
+     * 遍历原始记录，避免为每条记录创建对象
+     */
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(int stepNumber, String stepType, long timestamp, String className, long duration);
+    }
+
+    /**
+     * 遍历原始记录及其流偏移量
+     */
+    @FunctionalInterface
+    public interface OffsetRecordVisitor {
+        void visit(int stepNumber, String stepType, long timestamp, String className, long duration, long offset);
+    }
+
+    public TraceRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity必须大于0: " + capacity);
+        }
+        this.capacity = capacity;
+        this.stepNumbers = new int[capacity];
+        this.typeIds = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.classIds = new int[capacity];
+        this.durations = new long[capacity];
+        this.offsets = new long[capacity];
+        this.details = new DeserializationStep[capacity];
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @param detail 可选的步骤对象，随记录一起被覆盖
+     */
+    public void add(int stepNumber, String stepType, long timestamp, String className,
+                    long duration, DeserializationStep detail) {
+        add(stepNumber, stepType, timestamp, className, duration, detail != null ? detail.getStreamOffset() : -1L, detail);
+    }
+
+    /**
+     * 只追加原始记录，不附带步骤对象
+     *
+     * @param offset 记录时的流偏移量，未知时为-1
+     */
+    public void add(int stepNumber, String stepType, long timestamp, String className, long duration, long offset) {
+        add(stepNumber, stepType, timestamp, className, duration, offset, null);
+    }
+
+    private void add(int stepNumber, String stepType, long timestamp, String className,
+                     long duration, long offset, DeserializationStep detail) {
+        int slot = (head + size) % capacity;
+        if (size == capacity) {
+            slot = head;
+            head = (head + 1) % capacity;
+            overwrittenCount++;
+        } else {
+            size++;
+        }
+
+        stepNumbers[slot] = stepNumber;
+        typeIds[slot] = intern(stepType);
+        timestamps[slot] = timestamp;
+        classIds[slot] = intern(className);
+        durations[slot] = duration;
+        offsets[slot] = offset;
+        details[slot] = detail;
+        totalRecorded++;
+    }
+
+    private int intern(String name) {
+        if (name == null) {
+            return NO_CLASS;
+        }
+        Integer id = nameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (names.size() >= MAX_INTERNED_NAMES) {
+            nameOverflowCount++;
+            return NO_CLASS;
+        }
+        int newId = names.size();
+        names.add(name);
+        nameIds.put(name, newId);
+        return newId;
+    }
+
+    private String nameOf(int id) {
+        return id == NO_CLASS ? null : names.get(id);
+    }
+
+    /**
+     * 按从旧到新的顺序遍历保留的记录
+     */
+    public void forEach(RecordVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) % capacity;
+            visitor.visit(stepNumbers[slot], nameOf(typeIds[slot]), timestamps[slot],
+                          nameOf(classIds[slot]), durations[slot]);
+        }
+    }
+
+    public void forEachRecord(OffsetRecordVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) % capacity;
+            visitor.visit(stepNumbers[slot], nameOf(typeIds[slot]), timestamps[slot],
+                          nameOf(classIds[slot]), durations[slot], offsets[slot]);
+        }
+    }
+
+    /**
+     * 获取保留的完整步骤对象（未附带步骤对象的记录会被跳过）
+     */
+    public List<DeserializationStep> getRetainedSteps() {
+        List<DeserializationStep> steps = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            DeserializationStep step = details[(head + i) % capacity];
+            if (step != null) {
+                steps.add(step);
+            }
+        }
+        return steps;
+    }
+
+    public void clear() {
+        Arrays.fill(details, null);
+        head = 0;
+        size = 0;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+    public long getTotalRecorded() { return totalRecorded; }
+    public long getOverwrittenCount() { return overwrittenCount; }
+    public long getNameOverflowCount() { return nameOverflowCount; }
+}
@@ -0,0 +1,25 @@
+package com.book.demo.trace;
+
+/**
+ * 追踪输出目的地
+ * 实现必须保证publish不阻塞调用线程，避免追踪输出拖慢反序列化线程
+ */
+public interface TraceSink {
+
+    /**
+     * 提交一条追踪记录
+     *
+     * @return 记录被丢弃时返回false
+     */
+    boolean publish(String record);
+
+    /**
+     * 等待已提交的记录写出
+     */
+    void flush();
+
+    /**
+     * 写出剩余记录并释放资源
+     */
+    void close();
+}
@@ -0,0 +1,331 @@
+package com.book.demo.trace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 有界的内存追踪存储
+ * 保留最近的追踪，并维护类名、步骤类型、（步骤类型，类名）和分钟时间桶到追踪编号的倒排索引，
+ * 查询只访问命中索引的追踪；超过容量时淘汰最旧的追踪并同步清理索引
+ */
+public class TraceStore {
+
+    // 系统属性：开启后每个追踪流在每次顶层readObject结束时把追踪写入默认存储
+    public static final String AUTO_PUBLISH_PROPERTY = "com.book.demo.trace.store.autoPublish";
+    public static final String CAPACITY_PROPERTY = "com.book.demo.trace.store.capacity";
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final long BUCKET_MILLIS = 60_000;
+
+    private static volatile TraceStore defaultStore;
+    private static volatile boolean autoPublish = Boolean.getBoolean(AUTO_PUBLISH_PROPERTY);
+
+    private final int capacity;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Deque<StoredTrace> traces = new ArrayDeque<>();
+    private final Map<Long, StoredTrace> byId = new HashMap<>();
+    private final Map<String, Set<Long>> classIndex = new HashMap<>();
+    private final Map<String, Set<Long>> stepTypeIndex = new HashMap<>();
+    private final Map<String, Set<Long>> stepClassIndex = new HashMap<>();
+    private final NavigableMap<Long, Set<Long>> timeIndex = new TreeMap<>();
+
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder queryCount = new LongAdder();
+
+    public TraceStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TraceStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity必须大于0: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public static TraceStore getDefault() {
+        TraceStore store = defaultStore;
+        if (store == null) {
+            synchronized (TraceStore.class) {
+                store = defaultStore;
+                if (store == null) {
+                    store = new TraceStore(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+                    defaultStore = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    public static boolean isAutoPublish() {
+        return autoPublish;
+    }
+
+    /**
+     * 之后创建的追踪流是否自动写入默认存储
+     */
+    public static void setAutoPublish(boolean enabled) {
+        autoPublish = enabled;
+    }
+
+    /**
+     * 保存一次追踪并建立索引
+     */
+    public StoredTrace publish(String callSite, String rootClass, boolean failed, List<DeserializationStep> steps) {
+        StoredTrace trace = new StoredTrace(nextId.getAndIncrement(), callSite, rootClass, failed, steps);
+        lock.writeLock().lock();
+        try {
+            traces.addLast(trace);
+            byId.put(trace.getId(), trace);
+            for (String className : trace.getClassNames()) {
+                index(classIndex, className, trace.getId());
+            }
+            for (String stepType : trace.getStepTypes()) {
+                index(stepTypeIndex, stepType, trace.getId());
+            }
+            for (DeserializationStep step : trace.getSteps()) {
+                if (step.getSubjectClassName() != null) {
+                    index(stepClassIndex, stepClassKey(step.getStepType(), step.getSubjectClassName()), trace.getId());
+                }
+            }
+            index(timeIndex, bucket(trace.getStartMillis()), trace.getId());
+            while (traces.size() > capacity) {
+                evict(traces.removeFirst());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        publishedCount.increment();
+        return trace;
+    }
+
+    private void evict(StoredTrace trace) {
+        byId.remove(trace.getId());
+        for (String className : trace.getClassNames()) {
+            unindex(classIndex, className, trace.getId());
+        }
+        for (String stepType : trace.getStepTypes()) {
+            unindex(stepTypeIndex, stepType, trace.getId());
+        }
+        for (DeserializationStep step : trace.getSteps()) {
+            if (step.getSubjectClassName() != null) {
+                unindex(stepClassIndex, stepClassKey(step.getStepType(), step.getSubjectClassName()), trace.getId());
+            }
+        }
+        unindex(timeIndex, bucket(trace.getStartMillis()), trace.getId());
+        evictedCount.increment();
+    }
+
+    private static <K> void index(Map<K, Set<Long>> index, K key, long id) {
+        index.computeIfAbsent(key, k -> new HashSet<>()).add(id);
+    }
+
+    private static <K> void unindex(Map<K, Set<Long>> index, K key, long id) {
+        Set<Long> ids = index.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static String stepClassKey(String stepType, String className) {
+        return stepType + ' ' + className;
+    }
+
+    private static long bucket(long millis) {
+        return millis / BUCKET_MILLIS;
+    }
+
+    public StoredTrace get(long id) {
+        lock.readLock().lock();
+        try {
+            return byId.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按条件查询追踪，结果从新到旧排列
+     *
+     * @param className 全限定类名或简单类名，null表示不限
+     * @param stepType 步骤类型，与className同时给出时要求同一步骤同时满足，null表示不限
+     * @param fromMillis 起始时间（含），0表示不限
+     * @param toMillis 结束时间（不含），0表示不限
+     * @param limit 最多返回的条数
+     */
+    public List<StoredTrace> query(String className, String stepType, long fromMillis, long toMillis, int limit) {
+        queryCount.increment();
+        lock.readLock().lock();
+        try {
+            List<Set<Long>> filters = new ArrayList<>();
+            if (className != null) {
+                List<String> classes = matchingClasses(className);
+                List<Set<Long>> matches = new ArrayList<>();
+                for (String name : classes) {
+                    Set<Long> ids = stepType != null
+                        ? stepClassIndex.get(stepClassKey(stepType, name))
+                        : classIndex.get(name);
+                    if (ids != null) {
+                        matches.add(ids);
+                    }
+                }
+                filters.add(union(matches));
+            } else if (stepType != null) {
+                filters.add(stepTypeIndex.getOrDefault(stepType, Set.of()));
+            }
+            if (fromMillis > 0 || toMillis > 0) {
+                long fromBucket = fromMillis > 0 ? bucket(fromMillis) : Long.MIN_VALUE;
+                long toBucket = toMillis > 0 ? bucket(toMillis - 1) : Long.MAX_VALUE;
+                if (fromBucket > toBucket) {
+                    // 空时间范围，subMap不接受起点大于终点
+                    return new ArrayList<>();
+                }
+                filters.add(union(timeIndex.subMap(fromBucket, true, toBucket, true).values()));
+            }
+
+            List<StoredTrace> result = new ArrayList<>();
+            if (filters.isEmpty()) {
+                for (java.util.Iterator<StoredTrace> it = traces.descendingIterator();
+                     it.hasNext() && result.size() < limit; ) {
+                    result.add(it.next());
+                }
+                return result;
+            }
+            // 从最小的候选集开始，逐个检查其余条件
+            filters.sort((a, b) -> Integer.compare(a.size(), b.size()));
+            List<Long> candidates = new ArrayList<>();
+            for (Long id : filters.get(0)) {
+                boolean matched = true;
+                for (int i = 1; i < filters.size() && matched; i++) {
+                    matched = filters.get(i).contains(id);
+                }
+                if (matched) {
+                    candidates.add(id);
+                }
+            }
+            candidates.sort((a, b) -> Long.compare(b, a));
+            for (Long id : candidates) {
+                StoredTrace trace = byId.get(id);
+                // 时间桶按分钟划分，边界上的追踪再按精确时间过滤
+                if ((fromMillis > 0 && trace.getStartMillis() < fromMillis) ||
+                    (toMillis > 0 && trace.getStartMillis() >= toMillis)) {
+                    continue;
+                }
+                result.add(trace);
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 全限定名精确匹配，否则按简单类名匹配（内部类取$之后的部分）
+     */
+    private List<String> matchingClasses(String className) {
+        if (classIndex.containsKey(className)) {
+            return List.of(className);
+        }
+        List<String> matches = new ArrayList<>();
+        for (String name : classIndex.keySet()) {
+            int sep = Math.max(name.lastIndexOf('.'), name.lastIndexOf('$'));
+            if (name.substring(sep + 1).equals(className)) {
+                matches.add(name);
+            }
+        }
+        return matches;
+    }
+
+    private static Set<Long> union(Collection<Set<Long>> sets) {
+        if (sets.size() == 1) {
+            return sets.iterator().next();
+        }
+        Set<Long> union = new HashSet<>();
+        for (Set<Long> set : sets) {
+            union.addAll(set);
+        }
+        return union;
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            traces.clear();
+            byId.clear();
+            classIndex.clear();
+            stepTypeIndex.clear();
+            stepClassIndex.clear();
+            timeIndex.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return traces.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    public long getQueryCount() {
+        return queryCount.sum();
+    }
+
+    public String toJsonString() {
+        lock.readLock().lock();
+        try {
+            StringBuilder json = new StringBuilder();
+            json.append("{");
+            json.append("\"size\":").append(traces.size()).append(",");
+            json.append("\"capacity\":").append(capacity).append(",");
+            json.append("\"published\":").append(getPublishedCount()).append(",");
+            json.append("\"evicted\":").append(getEvictedCount()).append(",");
+            json.append("\"queries\":").append(getQueryCount()).append(",");
+            json.append("\"indexedClasses\":").append(classIndex.size()).append(",");
+            json.append("\"indexedStepTypes\":").append(stepTypeIndex.size()).append(",");
+            json.append("\"timeBuckets\":").append(timeIndex.size());
+            json.append("}");
+            return json.toString();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TraceStore[" + size() + "/" + capacity + "] published=" + getPublishedCount() +
+               ", evicted=" + getEvictedCount();
+    }
+}
@@ -1,23 +1,82 @@
 package com.book.demo.trace;
 
+import com.book.demo.rules.SecurityRuleEngine;
+
 import java.io.*;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class TraceableObjectInputStream extends ObjectInputStream {
     
-    private final List<DeserializationStep> executionTrace;
+    // 全局默认追踪级别，可通过系统属性或setDefaultTraceLevel调整
+    private static volatile TraceLevel defaultTraceLevel =
+        TraceLevel.parse(System.getProperty(TraceLevel.SYSTEM_PROPERTY), TraceLevel.FULL);
+    
+    // 每个流保留的最大步骤数，可通过系统属性 com.book.demo.trace.capacity 调整
+    public static final String CAPACITY_PROPERTY = "com.book.demo.trace.capacity";
+    private static volatile int defaultTraceCapacity = capacityProperty();
+    
+    // 教育模式最多保留的日志条数
+    private static final int EDUCATION_LOG_CAPACITY = 256;
+    
+    // 统计读取字节数，用于全局指标
+    private final CountingInputStream countingInput;
+    
+    // 全局指标中的调用位置标签，为null时不计入全局指标
+    private String callSite;
+    
+    // 随步骤记录增量累加的统计，首次记录步骤或查询时才分配
+    private DeserializationStatistics statistics;
+    
+    // 首次记录步骤时才按容量一次性分配，OFF/COUNTERS级别不占用缓冲区内存
+    private TraceRingBuffer executionTrace;
+    private final int traceCapacity;
     private final AtomicInteger stepCounter;
     private final boolean enableVerboseTrace;
-    private final StringBuilder traceBuffer;
+    private TraceLevel traceLevel;
+    private StackCapturePolicy stackCapturePolicy;
+    private ObjectRetention objectRetention;
+    // 为null时使用TraceOutput的全局输出
+    private TraceSink traceSink;
+    // 为null时不写二进制追踪日志
+    private BinaryTraceLog binaryTraceLog;
+    private int binaryStreamId;
+    // 为null时不写追踪存储；每次顶层readObject结束时写入之后记录的步骤
+    private TraceStore traceStore;
+    private int publishedStepNumber = -1;
+    
+    // 通过openScanned创建时的字节级扫描结果
+    private ScanResult scanResult;
+    
+    // 通过带判定缓存的openScanned创建时，首次读取完成后把追踪结果写回缓存
+    private PayloadVerdictCache verdictCache;
+    private PayloadFingerprint fingerprint;
+    private PayloadVerdictCache.CachedVerdict cachedVerdict;
+    
+    // 流上只能设置一次过滤器，过滤器和调用树计时共用这个包装
+    private StreamFilter streamFilter;
+    private DeserializationCallTree callTree;
+    
+    // 尾部采样：未被头部采样的流把步骤先写入小容量预缓冲，命中危险类或过滤器拒绝时提升为完整追踪
+    private DeserializationSampler sampler;
+    private TraceRingBuffer preBuffer;
+    private String promotionReason;
+    
+    // 计数器：COUNTERS及以上级别始终累加，只在当前反序列化线程中访问
+    private long classDescriptorCount;
+    private long resolvedClassCount;
+    private long resolvedObjectCount;
+    private long dangerousClassCount;
+    private long readObjectCount;
     
     // 教育模式相关字段
     private final boolean educationMode;
-    private final List<String> educationalSteps;
-    private final StringBuilder educationLog;
+    private final Deque<String> educationalSteps;
+    private long educationalStepCount;
     
     public TraceableObjectInputStream(InputStream in) throws IOException {
         this(in, true, false);
@@ -28,32 +87,137 @@ public class TraceableObjectInputStream extends ObjectInputStream {
     }
     
     public TraceableObjectInputStream(InputStream in, boolean enableVerbose, boolean educationMode) throws IOException {
+        this(in, enableVerbose, educationMode, defaultTraceLevel);
+    }
+    
+    public TraceableObjectInputStream(InputStream in, TraceLevel traceLevel) throws IOException {
+        this(in, true, false, traceLevel);
+    }
+    
+    public TraceableObjectInputStream(InputStream in, boolean enableVerbose, boolean educationMode,
+                                      TraceLevel traceLevel) throws IOException {
+        this(new CountingInputStream(in), enableVerbose, educationMode, traceLevel);
+    }
+    
+    private TraceableObjectInputStream(CountingInputStream in, boolean enableVerbose, boolean educationMode,
+                                       TraceLevel traceLevel) throws IOException {
         super(in);
-        this.executionTrace = new ArrayList<>();
+        this.countingInput = in;
+        this.traceCapacity = defaultTraceCapacity;
         this.stepCounter = new AtomicInteger(0);
         this.enableVerboseTrace = enableVerbose;
-        this.traceBuffer = new StringBuilder();
+        this.traceLevel = traceLevel != null ? traceLevel : defaultTraceLevel;
+        this.stackCapturePolicy = StackCapturePolicy.getDefault();
+        this.objectRetention = ObjectRetention.getDefault();
+        this.traceStore = TraceStore.isAutoPublish() ? TraceStore.getDefault() : null;
         this.educationMode = educationMode;
-        this.educationalSteps = new ArrayList<>();
-        this.educationLog = new StringBuilder();
+        this.educationalSteps = new ArrayDeque<>();
         
         if (educationMode) {
             logEducationalStep("🎓 [教育模式] TraceableObjectInputStream 已启动教育追踪模式");
             logEducationalStep("📚 [目标] 帮助开发者深度理解Java反序列化过程");
         }
         
-        logStep("TraceableObjectInputStream initialized", "INIT", null, getCurrentStackTrace());
+        if (this.traceLevel.recordsSteps()) {
+            logStep("TraceableObjectInputStream initialized", "INIT", null, getCurrentStackTrace());
+        }
+    }
+    
+    /**
+     * 先用字节级扫描器检查载荷，通过后才创建流，扫描拒绝时抛出PayloadRejectedException
+     */
+    public static TraceableObjectInputStream openScanned(byte[] data, SerializationStreamScanner scanner,
+                                                         TraceLevel traceLevel) throws IOException {
+        return openScanned(data, scanner, traceLevel, null);
+    }
+    
+    /**
+     * 先查判定缓存，命中时直接使用缓存的扫描判定，未命中时扫描并写入缓存；
+     * 缓存应只与同一配置的扫描器搭配使用
+     */
+    public static TraceableObjectInputStream openScanned(byte[] data, SerializationStreamScanner scanner,
+                                                         TraceLevel traceLevel, PayloadVerdictCache cache)
+            throws IOException {
+        PayloadFingerprint fingerprint = null;
+        PayloadVerdictCache.CachedVerdict cached = null;
+        ScanResult result = null;
+        if (cache != null) {
+            fingerprint = PayloadFingerprint.keyed(data);
+            cached = cache.get(fingerprint);
+            if (cached != null) {
+                result = cached.getScanResult();
+            }
+        }
+        if (result == null) {
+            result = scanner.scan(data);
+            if (cache != null) {
+                cached = cache.putScan(fingerprint, result);
+            }
+        }
+        if (result.isRejected()) {
+            DeserializationMetrics.recordRejection(DeserializationMetrics.CALL_SITE_DIRECT,
+                result.getDangerousClasses().isEmpty() ? null : result.getDangerousClasses().get(0),
+                result.getRejectRule());
+            throw new PayloadRejectedException(result);
+        }
+        TraceableObjectInputStream stream =
+            new TraceableObjectInputStream(new ByteArrayInputStream(data), true, false, traceLevel);
+        stream.scanResult = result;
+        stream.verdictCache = cache;
+        stream.fingerprint = fingerprint;
+        stream.cachedVerdict = cached;
+        return stream;
+    }
+    
+    /**
+     * 读取整个输入流后扫描，最多读取扫描器字节上限加1个字节
+     */
+    public static TraceableObjectInputStream openScanned(InputStream in, SerializationStreamScanner scanner,
+                                                         TraceLevel traceLevel) throws IOException {
+        long maxBytes = scanner.getLimits().getMaxBytes();
+        byte[] data = maxBytes > 0 && maxBytes < Integer.MAX_VALUE - 8
+            ? in.readNBytes((int) maxBytes + 1)
+            : in.readAllBytes();
+        return openScanned(data, scanner, traceLevel);
     }
     
     public Object readObjectWithTrace() throws IOException, ClassNotFoundException {
+        if (!traceLevel.countsEvents()) {
+            return super.readObject();
+        }
+        
+        if (!traceLevel.recordsSteps() && preBuffer == null) {
+            readObjectCount++;
+            // COUNTERS级别只累加字段；全局指标、调用树和判定缓存需要显式开启
+            if (callSite == null && callTree == null && verdictCache == null) {
+                return super.readObject();
+            }
+            long startTime = System.nanoTime();
+            long startBytes = countingInput.getCount();
+            Object result = super.readObject();
+            finishCallTree();
+            recordMetrics(result, startBytes, System.nanoTime() - startTime);
+            cacheTrace(result);
+            return result;
+        }
+        
         long startTime = System.nanoTime();
+        long startBytes = countingInput.getCount();
         int currentStep = stepCounter.incrementAndGet();
+        readObjectCount++;
         
         logStep("Starting readObject()", "READ_START", null, getCurrentStackTrace());
         
+        // 尾部采样期间由过滤器回调触发提升，包括JVM级工厂合并、不经过流上包装的过滤器
+        boolean listening = preBuffer != null;
+        DeserializationFilter.RejectionListener previousListener = listening
+            ? DeserializationFilter.setRejectionListener((rule, serialClass) -> promote("FILTER_REJECTED"))
+            : null;
         try {
             Object result = super.readObject();
+            finishCallTree();
             long duration = System.nanoTime() - startTime;
+            recordMetrics(result, startBytes, duration);
             
             logStep("Completed readObject()", "READ_COMPLETE", result, getCurrentStackTrace(), duration);
             
@@ -63,30 +227,60 @@ public class TraceableObjectInputStream extends ObjectInputStream {
                        "CUSTOM_READ_OBJECT", result, getCurrentStackTrace());
             }
             
+            cacheTrace(result);
+            publishTrace(result, false);
             return result;
         } catch (Exception e) {
             logStep("Exception in readObject(): " + e.getMessage(), "READ_ERROR", null, getCurrentStackTrace());
+            publishTrace(null, true);
             throw e;
+        } finally {
+            if (listening) {
+                DeserializationFilter.setRejectionListener(previousListener);
+            }
         }
     }
     
     @Override
     protected Object resolveObject(Object obj) throws IOException {
-        logStep("Resolving object: " + (obj != null ? obj.getClass().getName() : "null"), 
-               "RESOLVE_OBJECT", obj, getCurrentStackTrace());
+        if (callTree != null) {
+            callTree.onResolve(obj, System.nanoTime(), countingInput.getCount());
+        }
+        if (traceLevel.countsEvents()) {
+            resolvedObjectCount++;
+            if (traceLevel.recordsSteps()) {
+                logStep("Resolving object: " + (obj != null ? obj.getClass().getName() : "null"), 
+                       "RESOLVE_OBJECT", obj, getCurrentStackTrace());
+            } else if (preBuffer != null) {
+                preRecord("RESOLVE_OBJECT", obj != null ? obj.getClass().getName() : null, 0);
+            }
+        }
         return super.resolveObject(obj);
     }
     
     @Override
     protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-        logStep("Resolving class: " + desc.getName(), "RESOLVE_CLASS", desc, getCurrentStackTrace());
+        if (!traceLevel.countsEvents()) {
+            return super.resolveClass(desc);
+        }
+        
+        resolvedClassCount++;
+        if (traceLevel.recordsSteps()) {
+            logStep("Resolving class: " + desc.getName(), "RESOLVE_CLASS", desc, getCurrentStackTrace());
+        } else if (preBuffer != null) {
+            preRecord("RESOLVE_CLASS", desc.getName(), 0);
+        }
         
         Class<?> clazz = super.resolveClass(desc);
         
         // 检查是否是潜在危险类
         if (isDangerousClass(clazz)) {
-            logStep("WARNING: Dangerous class detected: " + clazz.getName(), 
-                   "DANGEROUS_CLASS", clazz, getCurrentStackTrace());
+            dangerousClassCount++;
+            promote("DANGEROUS_CLASS");
+            if (traceLevel.recordsSteps()) {
+                logStep("WARNING: Dangerous class detected: " + clazz.getName(), 
+                       "DANGEROUS_CLASS", clazz, getCurrentStackTrace());
+            }
         }
         
         return clazz;
@@ -95,16 +289,97 @@ public class TraceableObjectInputStream extends ObjectInputStream {
     @Override
     protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
         ObjectStreamClass desc = super.readClassDescriptor();
-        logStep("Reading class descriptor: " + desc.getName(), "READ_CLASS_DESC", desc, getCurrentStackTrace());
+        if (traceLevel.countsEvents()) {
+            classDescriptorCount++;
+            if (traceLevel.recordsSteps()) {
+                logStep("Reading class descriptor: " + desc.getName(), "READ_CLASS_DESC", desc, getCurrentStackTrace());
+            } else if (preBuffer != null) {
+                preRecord("READ_CLASS_DESC", desc.getName(), 0);
+            }
+        }
         return desc;
     }
     
-    private void logStep(String message, String type, Object relatedObject, StackTraceElement[] stackTrace) {
+    /**
+     * 首个顶层对象读取完成后把根对象类型和统计摘要写回判定缓存
+     */
+    private void cacheTrace(Object result) {
+        if (verdictCache != null && (cachedVerdict == null || !cachedVerdict.isTraced())) {
+            cachedVerdict = verdictCache.putTrace(fingerprint, result != null ? result.getClass().getName() : null,
+                                                  statistics());
+        }
+    }
+    
+    /**
+     * 把上次写入之后记录的步骤作为一次追踪写入追踪存储
+     */
+    private void publishTrace(Object result, boolean failed) {
+        if (traceStore == null || executionTrace == null) {
+            return;
+        }
+        List<DeserializationStep> steps = new ArrayList<>();
+        for (DeserializationStep step : executionTrace.getRetainedSteps()) {
+            if (step.getStepNumber() > publishedStepNumber) {
+                steps.add(step);
+            }
+        }
+        publishedStepNumber = stepCounter.get();
+        traceStore.publish(getCallSite(), result != null ? result.getClass().getName() : null, failed, steps);
+    }
+    
+    /**
+     * 通过带判定缓存的openScanned创建时返回打开流时查到或写入的判定，否则返回null
+     */
+    public PayloadVerdictCache.CachedVerdict getCachedVerdict() {
+        return cachedVerdict;
+    }
+    
+    private void recordMetrics(Object result, long startBytes, long duration) {
+        if (callSite == null) {
+            return;
+        }
+        DeserializationMetrics.record(callSite, result != null ? result.getClass().getName() : null,
+                                      countingInput.getCount() - startBytes, duration);
+    }
+    
+    private void logStep(String message, String type, Object relatedObject, CapturedStack stackTrace) {
         logStep(message, type, relatedObject, stackTrace, 0);
     }
     
+    /**
+     * 预缓冲只记录步骤类型、类名和流偏移量，不创建步骤对象、不采集调用栈、不计入统计，提升时再补建步骤
+     */
+    private void preRecord(String type, String className, long duration) {
+        preBuffer.add(stepCounter.get(), type, System.currentTimeMillis(), className, duration, countingInput.getCount());
+    }
+    
+    /**
+     * 按步骤类型还原预缓冲记录的消息，与直接记录时的消息一致（读取异常的消息不保留）
+     */
+    private static String preBufferedMessage(String type, String className) {
+        switch (type) {
+            case "READ_START": return "Starting readObject()";
+            case "READ_COMPLETE": return "Completed readObject()";
+            case "READ_ERROR": return "Exception in readObject()";
+            case "CUSTOM_READ_OBJECT": return "Object has custom readObject method: " + className;
+            case "RESOLVE_OBJECT": return "Resolving object: " + (className != null ? className : "null");
+            case "RESOLVE_CLASS": return "Resolving class: " + className;
+            case "DANGEROUS_CLASS": return "WARNING: Dangerous class detected: " + className;
+            case "READ_CLASS_DESC": return "Reading class descriptor: " + className;
+            default: return className != null ? type + ": " + className : type;
+        }
+    }
+    
     private void logStep(String message, String type, Object relatedObject, 
-                        StackTraceElement[] stackTrace, long duration) {
+                        CapturedStack stackTrace, long duration) {
+        if (!traceLevel.recordsSteps()) {
+            if (preBuffer != null) {
+                preRecord(type, DeserializationStep.subjectClassName(relatedObject), duration);
+            }
+            return;
+        }
+        
+        // 环形缓冲区按容量保留步骤，只有FULL级别按保留策略持有对象，其余级别只记录类名和身份
         DeserializationStep step = new DeserializationStep(
             stepCounter.get(),
             System.currentTimeMillis(),
@@ -112,88 +387,85 @@ public class TraceableObjectInputStream extends ObjectInputStream {
             message,
             relatedObject,
             stackTrace,
-            duration
+            duration,
+            traceLevel == TraceLevel.FULL ? objectRetention : ObjectRetention.IDENTITY,
+            countingInput.getCount()
         );
         
-        executionTrace.add(step);
+        String className = step.getSubjectClassName();
+        if (executionTrace == null) {
+            executionTrace = new TraceRingBuffer(traceCapacity);
+        }
+        executionTrace.add(step.getStepNumber(), type, step.getTimestamp(), className, duration, step);
+        statistics().record(type, className, duration, step.isWarning(), step.isError(), message);
+        if (binaryTraceLog != null) {
+            binaryTraceLog.append(binaryStreamId, step, className);
+        }
         
-        if (enableVerboseTrace) {
-            traceBuffer.append(step.toString()).append("\n");
-            System.out.println("[TRACE-" + step.getStepNumber() + "] " + step.getMessage());
+        if (enableVerboseTrace && traceLevel == TraceLevel.FULL) {
+            TraceSink sink = sink();
+            sink.publish("[TRACE-" + step.getStepNumber() + "] " + step.getMessage());
             
             // 打印相关对象信息
             if (relatedObject != null) {
-                System.out.println("  └─ Object: " + relatedObject.getClass().getName() + 
-                                 " @ " + System.identityHashCode(relatedObject));
+                sink.publish("  └─ Object: " + relatedObject.getClass().getName() + 
+                             " @ " + System.identityHashCode(relatedObject));
                 
                 // 如果是自定义类，尝试显示字段信息
                 if (!isJavaBuiltinClass(relatedObject.getClass())) {
-                    printObjectFields(relatedObject);
+                    printObjectFields(relatedObject, sink);
                 }
             }
         }
     }
     
+    private TraceSink sink() {
+        return traceSink != null ? traceSink : TraceOutput.getSink();
+    }
+    
     private boolean hasCustomReadObject(Class<?> clazz) {
-        try {
-            Method readObject = clazz.getDeclaredMethod("readObject", ObjectInputStream.class);
-            return readObject != null;
-        } catch (NoSuchMethodException e) {
-            return false;
-        }
+        return SerialClassProfile.of(clazz).hasReadObject();
     }
     
     private boolean isDangerousClass(Class<?> clazz) {
-        String className = clazz.getName();
-        
-        // 已知的危险类列表
-        String[] dangerousClasses = {
-            "org.apache.commons.collections.Transformer",
-            "org.apache.commons.collections.functors.InvokerTransformer",
-            "org.apache.commons.collections.functors.ChainedTransformer",
-            "org.apache.commons.collections.functors.ConstantTransformer",
-            "org.apache.commons.collections.map.LazyMap",
-            "java.util.PriorityQueue",
-            "java.lang.Runtime",
-            "java.lang.ProcessBuilder"
-        };
-        
-        for (String dangerous : dangerousClasses) {
-            if (className.contains(dangerous)) {
-                return true;
-            }
-        }
-        
-        return false;
+        return SerialClassProfile.of(clazz).isDangerous();
+    }
+    
+    /**
+     * 按类名判断是否为已知危险类，数组按元素类判断，字节级扫描器在不加载类的情况下复用该规则
+     */
+    public static boolean isDangerousClassName(String className) {
+        String element = className.startsWith("[")
+            ? SerializationStreamScanner.elementClassName(className) : className;
+        return element != null && SecurityRuleEngine.getDefault().matches(
+            SecurityRuleEngine.DESERIALIZATION, element);
     }
     
     private boolean isJavaBuiltinClass(Class<?> clazz) {
-        String packageName = clazz.getPackage() != null ? clazz.getPackage().getName() : "";
-        return packageName.startsWith("java.") || packageName.startsWith("javax.");
+        return SerialClassProfile.of(clazz).isBuiltin();
     }
     
-    private void printObjectFields(Object obj) {
+    private void printObjectFields(Object obj, TraceSink sink) {
         try {
-            Class<?> clazz = obj.getClass();
-            Field[] fields = clazz.getDeclaredFields();
-            
-            for (Field field : fields) {
-                field.setAccessible(true);
+            for (Field field : SerialClassProfile.of(obj.getClass()).getFields()) {
                 try {
                     Object value = field.get(obj);
-                    System.out.println("    ├─ " + field.getName() + " = " + 
-                                     (value != null ? value.toString() : "null"));
+                    sink.publish("    ├─ " + field.getName() + " = " + 
+                                 (value != null ? value.toString() : "null"));
                 } catch (IllegalAccessException e) {
-                    System.out.println("    ├─ " + field.getName() + " = <inaccessible>");
+                    sink.publish("    ├─ " + field.getName() + " = <inaccessible>");
                 }
             }
         } catch (Exception e) {
-            System.out.println("    └─ Unable to access fields: " + e.getMessage());
+            sink.publish("    └─ Unable to access fields: " + e.getMessage());
         }
     }
     
-    private StackTraceElement[] getCurrentStackTrace() {
-        return Thread.currentThread().getStackTrace();
+    private CapturedStack getCurrentStackTrace() {
+        if (!traceLevel.capturesStackTrace()) {
+            return null;
+        }
+        return CapturedStack.capture(stackCapturePolicy, TraceableObjectInputStream.class);
     }
     
     /**
@@ -201,9 +473,12 @@ public class TraceableObjectInputStream extends ObjectInputStream {
      */
     private void logEducationalStep(String step) {
         if (educationMode) {
-            educationalSteps.add(step);
-            educationLog.append(step).append("\n");
-            System.out.println(step);
+            if (educationalSteps.size() >= EDUCATION_LOG_CAPACITY) {
+                educationalSteps.pollFirst();
+            }
+            educationalSteps.addLast(step);
+            educationalStepCount++;
+            sink().publish(step);
         }
     }
     
@@ -217,7 +492,11 @@ public class TraceableObjectInputStream extends ObjectInputStream {
         }
         
         long startTime = System.nanoTime();
+        long startBytes = countingInput.getCount();
         int currentStep = stepCounter.incrementAndGet();
+        if (traceLevel.countsEvents()) {
+            readObjectCount++;
+        }
         
         logStep("Starting educational readObject()", "EDUCATIONAL_READ_START", null, getCurrentStackTrace());
         
@@ -228,7 +507,11 @@ public class TraceableObjectInputStream extends ObjectInputStream {
         
         try {
             Object result = super.readObject();
+            finishCallTree();
             long duration = System.nanoTime() - startTime;
+            if (traceLevel.countsEvents()) {
+                recordMetrics(result, startBytes, duration);
+            }
             
             if (educationMode) {
                 logEducationalStep("✅ [步骤4] 对象实例创建成功: " + 
@@ -256,7 +539,7 @@ public class TraceableObjectInputStream extends ObjectInputStream {
                     }
                 }
                 
-                logEducationalStep("🎓 [教育总结] 反序列化过程完成，共执行 " + educationalSteps.size() + " 个教育步骤");
+                logEducationalStep("🎓 [教育总结] 反序列化过程完成，共执行 " + educationalStepCount + " 个教育步骤");
             }
             
             logStep("Completed educational readObject()", "EDUCATIONAL_READ_COMPLETE", result, getCurrentStackTrace(), duration);
@@ -289,7 +572,11 @@ public class TraceableObjectInputStream extends ObjectInputStream {
      * 获取教育日志
      */
     public String getEducationLog() {
-        return educationLog.toString();
+        StringBuilder log = new StringBuilder();
+        for (String step : educationalSteps) {
+            log.append(step).append("\n");
+        }
+        return log.toString();
     }
     
     /**
@@ -301,22 +588,355 @@ public class TraceableObjectInputStream extends ObjectInputStream {
     
     // 公共方法用于获取执行追踪
     public List<DeserializationStep> getExecutionTrace() {
-        return new ArrayList<>(executionTrace);
+        return executionTrace != null ? executionTrace.getRetainedSteps() : new ArrayList<>();
+    }
+    
+    /**
+     * 获取底层的原始记录缓冲区，尚未记录任何步骤时返回null
+     */
+    public TraceRingBuffer getTraceBuffer() {
+        return executionTrace;
+    }
+    
+    /**
+     * 因超出容量被覆盖的步骤数
+     */
+    public long getDroppedStepCount() {
+        return executionTrace != null ? executionTrace.getOverwrittenCount() : 0;
     }
     
     public String getTraceAsString() {
-        return traceBuffer.toString();
+        if (!enableVerboseTrace || executionTrace == null) {
+            return "";
+        }
+        
+        StringBuilder trace = new StringBuilder();
+        if (executionTrace.getOverwrittenCount() > 0) {
+            trace.append("... ").append(executionTrace.getOverwrittenCount())
+                 .append(" earlier steps dropped\n");
+        }
+        for (DeserializationStep step : executionTrace.getRetainedSteps()) {
+            trace.append(step.toString()).append("\n");
+        }
+        return trace.toString();
     }
     
     public void printFullTrace() {
         System.out.println("=== Deserialization Execution Trace ===");
-        for (DeserializationStep step : executionTrace) {
+        if (getDroppedStepCount() > 0) {
+            System.out.println("(" + getDroppedStepCount() + " earlier steps dropped)");
+        }
+        for (DeserializationStep step : getExecutionTrace()) {
             System.out.println(step.toDetailedString());
         }
         System.out.println("=== End of Trace ===");
     }
     
+    /**
+     * 增量统计，覆盖流创建以来的全部步骤，包括已被环形缓冲区覆盖的步骤
+     */
     public DeserializationStatistics getStatistics() {
-        return new DeserializationStatistics(executionTrace);
+        return statistics();
     }
+    
+    private DeserializationStatistics statistics() {
+        if (statistics == null) {
+            statistics = new DeserializationStatistics();
+        }
+        return statistics;
+    }
+    
+    // 追踪级别与计数器
+    public TraceLevel getTraceLevel() {
+        return traceLevel;
+    }
+    
+    /**
+     * 调整当前流的追踪级别，对之后读取的数据生效
+     */
+    public void setTraceLevel(TraceLevel traceLevel) {
+        this.traceLevel = traceLevel != null ? traceLevel : defaultTraceLevel;
+    }
+    
+    public StackCapturePolicy getStackCapturePolicy() {
+        return stackCapturePolicy;
+    }
+    
+    /**
+     * 设置FULL级别下的调用栈采集策略
+     */
+    public void setStackCapturePolicy(StackCapturePolicy stackCapturePolicy) {
+        this.stackCapturePolicy = stackCapturePolicy != null ? stackCapturePolicy : StackCapturePolicy.getDefault();
+    }
+    
+    public ObjectRetention getObjectRetention() {
+        return objectRetention;
+    }
+    
+    /**
+     * 设置步骤对相关对象的保留策略，大对象图建议使用WEAK或IDENTITY避免被追踪记录长期持有
+     */
+    public void setObjectRetention(ObjectRetention objectRetention) {
+        this.objectRetention = objectRetention != null ? objectRetention : ObjectRetention.getDefault();
+    }
+    
+    public String getCallSite() {
+        return callSite != null ? callSite : DeserializationMetrics.CALL_SITE_DIRECT;
+    }
+    
+    /**
+     * 设置全局指标中的调用位置标签，如 DeserializationMetrics.CALL_SITE_SERVLET；
+     * 设置后才把每次readObject的次数、字节数和耗时计入全局指标，传入null关闭
+     */
+    public void setCallSite(String callSite) {
+        this.callSite = callSite;
+    }
+    
+    /**
+     * 流创建以来从底层输入读取的字节数
+     */
+    public long getBytesRead() {
+        return countingInput.getCount();
+    }
+    
+    public TraceSink getTraceSink() {
+        return sink();
+    }
+    
+    /**
+     * 为当前流指定输出目的地，传入null恢复使用全局输出
+     */
+    public void setTraceSink(TraceSink traceSink) {
+        this.traceSink = traceSink;
+    }
+    
+    public TraceStore getTraceStore() {
+        return traceStore;
+    }
+    
+    /**
+     * 指定追踪存储，每次顶层readObject结束时写入一次追踪；传入null停止写入
+     */
+    public void setTraceStore(TraceStore traceStore) {
+        this.traceStore = traceStore;
+    }
+    
+    public BinaryTraceLog getBinaryTraceLog() {
+        return binaryTraceLog;
+    }
+    
+    /**
+     * 把记录的步骤同时追加到二进制追踪日志，已保留的步骤先补写；流在日志中分配独立的编号，传入null停止写入
+     */
+    public void setBinaryTraceLog(BinaryTraceLog binaryTraceLog) {
+        this.binaryTraceLog = binaryTraceLog;
+        if (binaryTraceLog != null) {
+            this.binaryStreamId = binaryTraceLog.newStreamId();
+            if (executionTrace != null) {
+                for (DeserializationStep step : executionTrace.getRetainedSteps()) {
+                    binaryTraceLog.append(binaryStreamId, step, step.getSubjectClassName());
+                }
+            }
+        }
+    }
+    
+    /**
+     * 当前流在二进制追踪日志中的编号
+     */
+    public int getBinaryStreamId() {
+        return binaryStreamId;
+    }
+    
+    /**
+     * 读取容量属性，非正数或无法解析时使用默认容量
+     */
+    private static int capacityProperty() {
+        Integer capacity = Integer.getInteger(CAPACITY_PROPERTY);
+        if (capacity == null) {
+            return TraceRingBuffer.DEFAULT_CAPACITY;
+        }
+        if (capacity <= 0) {
+            System.err.println("[TRACE] " + CAPACITY_PROPERTY + "必须大于0，使用默认值 " +
+                               TraceRingBuffer.DEFAULT_CAPACITY + ": " + capacity);
+            return TraceRingBuffer.DEFAULT_CAPACITY;
+        }
+        return capacity;
+    }
+    
+    public static int getDefaultTraceCapacity() {
+        return defaultTraceCapacity;
+    }
+    
+    /**
+     * 设置之后创建的流保留的最大步骤数
+     */
+    public static void setDefaultTraceCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity必须大于0: " + capacity);
+        }
+        defaultTraceCapacity = capacity;
+    }
+    
+    public static TraceLevel getDefaultTraceLevel() {
+        return defaultTraceLevel;
+    }
+    
+    /**
+     * 设置全局默认追踪级别，仅影响之后创建的流
+     */
+    public static void setDefaultTraceLevel(TraceLevel traceLevel) {
+        defaultTraceLevel = traceLevel != null ? traceLevel : TraceLevel.FULL;
+    }
+    
+    /**
+     * 由采样器开启尾部采样，必须在读取对象之前调用
+     */
+    void startTailCapture(DeserializationSampler sampler, int capacity) {
+        this.sampler = sampler;
+        this.preBuffer = new TraceRingBuffer(capacity);
+        // 流上的包装过滤器在拒绝时触发提升；流上已直接设置过滤器时由DeserializationFilter的拒绝回调触发
+        try {
+            installStreamFilter();
+        } catch (IllegalStateException e) {
+            // 保留已设置的过滤器
+        }
+    }
+    
+    /**
+     * 把尾部采样中的流提升为完整追踪，预缓冲中的步骤补记到追踪记录和统计中
+     */
+    private void promote(String reason) {
+        TraceRingBuffer pending = preBuffer;
+        if (pending == null) {
+            return;
+        }
+        preBuffer = null;
+        promotionReason = reason;
+        traceLevel = sampler.getPromotedLevel();
+        if (executionTrace == null) {
+            executionTrace = new TraceRingBuffer(traceCapacity);
+        }
+        pending.forEachRecord((stepNumber, type, timestamp, className, duration, offset) -> {
+            DeserializationStep step = new DeserializationStep(stepNumber, timestamp, type,
+                preBufferedMessage(type, className), RetainedObject.named(className), duration, offset);
+            executionTrace.add(stepNumber, type, timestamp, className, duration, step);
+            statistics().record(step);
+            if (binaryTraceLog != null) {
+                binaryTraceLog.append(binaryStreamId, step, className);
+            }
+        });
+        sampler.onPromoted(reason);
+        logStep("Trace promoted to " + traceLevel + " (" + reason + "), " + pending.size() +
+                " pre-buffered steps restored", "PROMOTED", null, getCurrentStackTrace());
+    }
+    
+    /**
+     * 尾部采样是否已被提升为完整追踪
+     */
+    public boolean isPromoted() {
+        return promotionReason != null;
+    }
+    
+    /**
+     * 提升原因（DANGEROUS_CLASS或FILTER_REJECTED），未提升时返回null
+     */
+    public String getPromotionReason() {
+        return promotionReason;
+    }
+    
+    /**
+     * 挂载JEP 290反序列化过滤器，必须在读取对象之前调用；
+     * 被拒绝时readObject抛出InvalidClassException，拒绝次数记录在过滤器中
+     */
+    public void applyFilter(DeserializationFilter filter) {
+        StreamFilter wrapper = installStreamFilter();
+        // JVM级工厂已挂载同一个过滤器时不再重复检查
+        if (!(ObjectInputFilter.Config.getSerialFilterFactory() instanceof DeserializationFilter.Factory factory)
+                || factory.getFilter() != filter) {
+            wrapper.delegate = filter;
+        }
+        if (traceLevel.recordsSteps()) {
+            logStep("Deserialization filter applied: " + filter.getLimits(), "FILTER", null, getCurrentStackTrace());
+        }
+    }
+    
+    /**
+     * 开启嵌套调用树计时，必须在读取对象之前调用，且不能与DeserializationFilter.attach混用（改用applyFilter）；
+     * 每次顶层readObject完成后结果累计到返回的调用树中
+     */
+    public DeserializationCallTree enableCallTree() {
+        if (callTree == null) {
+            installStreamFilter();
+            enableResolveObject(true);
+            callTree = new DeserializationCallTree();
+        }
+        return callTree;
+    }
+    
+    /**
+     * 未开启调用树计时时返回null
+     */
+    public DeserializationCallTree getCallTree() {
+        return callTree;
+    }
+    
+    private void finishCallTree() {
+        if (callTree != null) {
+            callTree.finish(System.nanoTime(), countingInput.getCount());
+        }
+    }
+    
+    private StreamFilter installStreamFilter() {
+        if (streamFilter == null) {
+            StreamFilter filter = new StreamFilter();
+            // 未安装JVM级工厂时setObjectInputFilter会替换jdk.serialFilter，保留下来一并判定
+            if (!(ObjectInputFilter.Config.getSerialFilterFactory() instanceof DeserializationFilter.Factory)) {
+                filter.previous = getObjectInputFilter();
+            }
+            setObjectInputFilter(filter);
+            streamFilter = filter;
+        }
+        return streamFilter;
+    }
+    
+    /**
+     * 流上的过滤器：先把回调交给调用树计时，再交给挂载的过滤器和流上原有的过滤器判定，
+     * 合并规则与ObjectInputFilter.merge一致：任一拒绝即拒绝，任一允许即允许
+     */
+    private final class StreamFilter implements ObjectInputFilter {
+        ObjectInputFilter delegate;
+        ObjectInputFilter previous;
+        
+        @Override
+        public Status checkInput(FilterInfo info) {
+            if (callTree != null) {
+                callTree.onFilterCheck(info.depth(), info.serialClass(), info.arrayLength(),
+                                      System.nanoTime(), countingInput.getCount());
+            }
+            Status status = delegate != null ? delegate.checkInput(info) : Status.UNDECIDED;
+            if (status != Status.REJECTED && previous != null) {
+                Status previousStatus = previous.checkInput(info);
+                if (previousStatus == Status.REJECTED || status == Status.UNDECIDED) {
+                    status = previousStatus;
+                }
+            }
+            if (status == Status.REJECTED) {
+                promote("FILTER_REJECTED");
+            }
+            return status;
+        }
+    }
+    
+    /**
+     * 通过openScanned创建时返回扫描结果，否则返回null
+     */
+    public ScanResult getScanResult() {
+        return scanResult;
+    }
+    
+    public long getClassDescriptorCount() { return classDescriptorCount; }
+    public long getResolvedClassCount() { return resolvedClassCount; }
+    public long getResolvedObjectCount() { return resolvedObjectCount; }
+    public long getDangerousClassCount() { return dangerousClassCount; }
+    public long getReadObjectCount() { return readObjectCount; }
 }
\ No newline at end of file
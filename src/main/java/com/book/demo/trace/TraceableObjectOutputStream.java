@@ -0,0 +1,376 @@
+package com.book.demo.trace;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 序列化一侧的追踪流
+ * 与TraceableObjectInputStream共用步骤模型、统计和追踪级别，按类统计写出的对象数、耗时、字节数、
+ * 写出的类描述符以及writeObject/writeReplace钩子的调用次数；
+ * ObjectOutputStream没有"对象写完"的回调，耗时和字节数按写出顺序归属：一个对象开始写出到下一个对象
+ * 开始写出之间的部分属于前者，嵌套对象写完后父对象剩余的引用句柄和自定义数据计入最后写出的子对象
+ */
+public class TraceableObjectOutputStream extends ObjectOutputStream {
+
+    /**
+     * 单个类的写出统计
+     */
+    public static class ClassWriteStats {
+        private final String className;
+        private long count;
+        private long selfNanos;
+        private long selfBytes;
+        private long descriptors;
+        private long writeObjectCalls;
+        private long writeReplaceCalls;
+
+        ClassWriteStats(String className) {
+            this.className = className;
+        }
+
+        // Getters
+        public String getClassName() { return className; }
+        public long getCount() { return count; }
+        public long getSelfNanos() { return selfNanos; }
+        public long getSelfBytes() { return selfBytes; }
+        public long getDescriptors() { return descriptors; }
+        public long getWriteObjectCalls() { return writeObjectCalls; }
+        public long getWriteReplaceCalls() { return writeReplaceCalls; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: count=%d, self=%.3f ms, bytes=%d, writeObject=%d, writeReplace=%d",
+                                 className, count, selfNanos / 1_000_000.0, selfBytes,
+                                 writeObjectCalls, writeReplaceCalls);
+        }
+    }
+
+    private final CountingOutputStream countingOutput;
+    private final TraceLevel traceLevel;
+    private final AtomicInteger stepCounter = new AtomicInteger(0);
+    private final DeserializationStatistics statistics = new DeserializationStatistics();
+    private final Map<String, ClassWriteStats> classStats = new HashMap<>();
+    private TraceRingBuffer executionTrace;
+    private ObjectRetention objectRetention;
+
+    // 当前正在写出的对象，用于按写出顺序归属耗时和字节数
+    private ClassWriteStats current;
+    private long currentStartNanos;
+    private long currentStartBytes;
+
+    private long writeObjectCount;
+    private long objectCount;
+    private long descriptorCount;
+    private long writeObjectHookCount;
+    private long writeReplaceHookCount;
+    private long totalWriteNanos;
+
+    public TraceableObjectOutputStream(OutputStream out) throws IOException {
+        this(out, TraceableObjectInputStream.getDefaultTraceLevel());
+    }
+
+    public TraceableObjectOutputStream(OutputStream out, TraceLevel traceLevel) throws IOException {
+        this(out, traceLevel, false);
+    }
+
+    /**
+     * @param keepCopy 保留写出内容的副本，用于统计回引用命中率；副本与输出等长，只建议在分析时开启
+     */
+    public TraceableObjectOutputStream(OutputStream out, TraceLevel traceLevel, boolean keepCopy) throws IOException {
+        this(new CountingOutputStream(out, keepCopy), traceLevel);
+    }
+
+    private TraceableObjectOutputStream(CountingOutputStream out, TraceLevel traceLevel) throws IOException {
+        super(out);
+        this.countingOutput = out;
+        this.traceLevel = traceLevel != null ? traceLevel : TraceableObjectInputStream.getDefaultTraceLevel();
+        this.objectRetention = ObjectRetention.getDefault();
+        if (this.traceLevel.countsEvents()) {
+            enableReplaceObject(true);
+        }
+        if (this.traceLevel.recordsSteps()) {
+            logStep("TraceableObjectOutputStream initialized", "INIT", null, 0);
+        }
+    }
+
+    public void writeObjectWithTrace(Object obj) throws IOException {
+        if (!traceLevel.countsEvents()) {
+            writeObject(obj);
+            return;
+        }
+
+        drain();
+        long startTime = System.nanoTime();
+        stepCounter.incrementAndGet();
+        writeObjectCount++;
+        if (traceLevel.recordsSteps()) {
+            logStep("Starting writeObject()", "WRITE_START", null, 0);
+            if (obj != null && SerialClassProfile.of(obj.getClass()).hasWriteReplace()) {
+                logStep("Object has writeReplace method: " + obj.getClass().getName(), "WRITE_REPLACE", obj, 0);
+            }
+        }
+
+        try {
+            writeObject(obj);
+            drain();
+            long now = System.nanoTime();
+            closeCurrent(now);
+            long duration = now - startTime;
+            totalWriteNanos += duration;
+            if (traceLevel.recordsSteps()) {
+                logStep("Completed writeObject()", "WRITE_COMPLETE", obj, duration);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeCurrent(System.nanoTime());
+            if (traceLevel.recordsSteps()) {
+                logStep("Exception in writeObject(): " + e.getMessage(), "WRITE_ERROR", null, 0);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 每个首次写出的对象（writeReplace之后）都会经过这里，回引用和null不会
+     */
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+        if (!traceLevel.countsEvents()) {
+            return obj;
+        }
+        // 把缓冲区中的内容写到底层流，使字节计数落在对象边界上
+        drain();
+        long now = System.nanoTime();
+        closeCurrent(now);
+
+        Class<?> type = obj.getClass();
+        ClassWriteStats stats = stats(type.getName());
+        stats.count++;
+        objectCount++;
+        current = stats;
+        currentStartNanos = now;
+        currentStartBytes = countingOutput.getCount();
+
+        int writeObjectHooks = writeObjectHooks(type);
+        stats.writeObjectCalls += writeObjectHooks;
+        writeObjectHookCount += writeObjectHooks;
+        // writeReplace返回其他类型时这里只能看到替换后的对象；返回同类对象时仍能看到原类型
+        boolean writeReplace = SerialClassProfile.of(type).hasWriteReplace();
+        if (writeReplace) {
+            stats.writeReplaceCalls++;
+            writeReplaceHookCount++;
+        }
+
+        if (traceLevel.recordsSteps()) {
+            logStep("Writing object: " + type.getName(), "WRITE_OBJECT", obj, 0);
+            if (writeObjectHooks > 0) {
+                logStep("Object has custom writeObject method: " + type.getName(), "CUSTOM_WRITE_OBJECT", obj, 0);
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * 写出一个新的类描述符时调用
+     */
+    @Override
+    protected void annotateClass(Class<?> cl) throws IOException {
+        onDescriptor(cl);
+    }
+
+    @Override
+    protected void annotateProxyClass(Class<?> cl) throws IOException {
+        onDescriptor(cl);
+    }
+
+    private void onDescriptor(Class<?> cl) {
+        if (!traceLevel.countsEvents()) {
+            return;
+        }
+        descriptorCount++;
+        stats(cl.getName()).descriptors++;
+        if (traceLevel.recordsSteps()) {
+            logStep("Writing class descriptor: " + cl.getName(), "WRITE_CLASS_DESC", cl, 0);
+        }
+    }
+
+    /**
+     * 对象会触发的writeObject/writeExternal调用次数：可序列化的类层次中每个声明了writeObject的类各一次
+     */
+    private static int writeObjectHooks(Class<?> type) {
+        if (SerialClassProfile.of(type).isExternalizable()) {
+            return 1;
+        }
+        int hooks = 0;
+        for (Class<?> c = type; c != null && Serializable.class.isAssignableFrom(c); c = c.getSuperclass()) {
+            if (SerialClassProfile.of(c).hasWriteObject()) {
+                hooks++;
+            }
+        }
+        return hooks;
+    }
+
+    private void closeCurrent(long now) {
+        if (current != null) {
+            current.selfNanos += now - currentStartNanos;
+            current.selfBytes += countingOutput.getCount() - currentStartBytes;
+            current = null;
+        }
+    }
+
+    private ClassWriteStats stats(String className) {
+        ClassWriteStats stats = classStats.get(className);
+        if (stats == null) {
+            String key = classStats.size() >= DeserializationStatistics.MAX_TRACKED_CLASSES
+                ? DeserializationStatistics.OTHER_CLASSES : className;
+            stats = classStats.computeIfAbsent(key, ClassWriteStats::new);
+        }
+        return stats;
+    }
+
+    private void logStep(String message, String type, Object relatedObject, long duration) {
+        DeserializationStep step = new DeserializationStep(stepCounter.get(), System.currentTimeMillis(), type,
+            message, relatedObject, (CapturedStack) null, duration, objectRetention, countingOutput.getCount());
+        if (executionTrace == null) {
+            executionTrace = new TraceRingBuffer(TraceableObjectInputStream.getDefaultTraceCapacity());
+        }
+        executionTrace.add(step.getStepNumber(), type, step.getTimestamp(), step.getSubjectClassName(), duration, step);
+        statistics.record(type, step.getSubjectClassName(), duration, step.isWarning(), step.isError(), message);
+    }
+
+    /**
+     * 回引用（TC_REFERENCE指向已写出的对象）次数，未保留写出副本时返回-1；
+     * 类描述符的回引用不计入
+     */
+    public long getBackReferenceCount() {
+        byte[] copy = countingOutput.getCopy();
+        if (copy == null) {
+            return -1;
+        }
+        Set<Integer> descriptorHandles = new HashSet<>();
+        long[] references = {0};
+        new SerializationStreamScanner(DeserializationLimits.unlimited(), null, new StreamScanListener() {
+            @Override
+            public void onClassDescriptor(ScannedClassDescriptor descriptor, int depth) {
+                descriptorHandles.add(descriptor.getHandle());
+            }
+
+            @Override
+            public void onReference(int handle, int depth) {
+                if (!descriptorHandles.contains(handle)) {
+                    references[0]++;
+                }
+            }
+        }).scan(copy);
+        return references[0];
+    }
+
+    /**
+     * 对象引用中命中回引用的比例：回引用 / (回引用 + 新写出的对象)，未保留写出副本时返回-1
+     */
+    public double getBackReferenceHitRate() {
+        long references = getBackReferenceCount();
+        if (references < 0) {
+            return -1;
+        }
+        long total = references + objectCount;
+        return total > 0 ? (double) references / total : 0.0;
+    }
+
+    /**
+     * 按自身字节数从高到低排序的类统计
+     */
+    public List<ClassWriteStats> getClassStats() {
+        List<ClassWriteStats> stats = new ArrayList<>(classStats.values());
+        stats.sort(Comparator.comparingLong(ClassWriteStats::getSelfBytes).reversed());
+        return stats;
+    }
+
+    public ClassWriteStats getClassStats(String className) {
+        return classStats.get(className);
+    }
+
+    public List<DeserializationStep> getExecutionTrace() {
+        return executionTrace != null ? executionTrace.getRetainedSteps() : new ArrayList<>();
+    }
+
+    public DeserializationStatistics getStatistics() {
+        return statistics;
+    }
+
+    public TraceLevel getTraceLevel() {
+        return traceLevel;
+    }
+
+    public ObjectRetention getObjectRetention() {
+        return objectRetention;
+    }
+
+    public void setObjectRetention(ObjectRetention objectRetention) {
+        this.objectRetention = objectRetention != null ? objectRetention : ObjectRetention.getDefault();
+    }
+
+    /**
+     * 流创建以来写到底层输出的字节数，包括流头
+     */
+    public long getBytesWritten() {
+        return countingOutput.getCount();
+    }
+
+    public long getWriteObjectCount() { return writeObjectCount; }
+    public long getObjectCount() { return objectCount; }
+    public long getDescriptorCount() { return descriptorCount; }
+    public long getWriteObjectHookCount() { return writeObjectHookCount; }
+    public long getWriteReplaceHookCount() { return writeReplaceHookCount; }
+    public long getTotalWriteNanos() { return totalWriteNanos; }
+
+    public void printReport(TraceSink sink, int limit) {
+        sink.publish("=== Serialization Profile ===");
+        sink.publish("Bytes: " + getBytesWritten() + ", objects: " + objectCount + ", descriptors: " +
+                     descriptorCount + ", writeObject hooks: " + writeObjectHookCount + ", writeReplace hooks: " +
+                     writeReplaceHookCount);
+        long references = getBackReferenceCount();
+        if (references >= 0) {
+            sink.publish(String.format("Back references: %d (hit rate %.1f%%)", references,
+                                       getBackReferenceHitRate() * 100));
+        }
+        getClassStats().stream().limit(limit).forEach(s -> sink.publish("  " + s));
+    }
+
+    public String toJsonString() {
+        StringBuilder json = new StringBuilder();
+        json.append("{");
+        json.append("\"bytesWritten\":").append(getBytesWritten()).append(",");
+        json.append("\"writeObjectCount\":").append(writeObjectCount).append(",");
+        json.append("\"objectCount\":").append(objectCount).append(",");
+        json.append("\"descriptorCount\":").append(descriptorCount).append(",");
+        json.append("\"writeObjectHooks\":").append(writeObjectHookCount).append(",");
+        json.append("\"writeReplaceHooks\":").append(writeReplaceHookCount).append(",");
+        json.append("\"backReferences\":").append(getBackReferenceCount()).append(",");
+        json.append("\"totalWriteNanos\":").append(totalWriteNanos).append(",");
+        json.append("\"classes\":[");
+        List<ClassWriteStats> stats = getClassStats();
+        for (int i = 0; i < stats.size(); i++) {
+            ClassWriteStats s = stats.get(i);
+            if (i > 0) json.append(",");
+            json.append("{\"className\":\"").append(s.getClassName().replace("\"", "\\\"")).append("\",");
+            json.append("\"count\":").append(s.getCount()).append(",");
+            json.append("\"selfNanos\":").append(s.getSelfNanos()).append(",");
+            json.append("\"selfBytes\":").append(s.getSelfBytes()).append(",");
+            json.append("\"descriptors\":").append(s.getDescriptors()).append(",");
+            json.append("\"writeObjectCalls\":").append(s.getWriteObjectCalls()).append(",");
+            json.append("\"writeReplaceCalls\":").append(s.getWriteReplaceCalls()).append("}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,456 @@
+package com.book.demo.test;
+
+import com.book.demo.memshell.ComponentBaseline;
+import com.book.demo.memshell.MemoryShell;
+import com.book.demo.memshell.MemoryShellDetector;
+import com.book.demo.memshell.MemoryShellDetector.DetectionResult;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServlet;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardServer;
+import org.apache.catalina.core.StandardService;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 内存马检测器测试
+ */
+public class MemoryShellDetectorTest {
+
+    public static class ProbeFilter implements Filter {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) {
+        }
+    }
+
+    public static class ProbeServlet extends HttpServlet {
+    }
+
+    public static class ProbeListener implements jakarta.servlet.ServletRequestListener {
+    }
+
+    private StandardContext context;
+
+    private static StandardContext newContext() {
+        StandardEngine engine = new StandardEngine();
+        engine.setName("Catalina");
+        StandardHost host = new StandardHost();
+        host.setName("localhost");
+        engine.addChild(host);
+        StandardContext context = new StandardContext();
+        context.setName("/probe");
+        context.setPath("/probe");
+        host.addChild(context);
+        return context;
+    }
+
+    private static DetectionResult awaitResult(Predicate<DetectionResult> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (DetectionResult result : MemoryShellDetector.getDetectionCache().values()) {
+                if (condition.test(result)) {
+                    return result;
+                }
+            }
+            Thread.sleep(20);
+        }
+        return null;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (context != null) {
+            MemoryShellDetector.unwatchContext(context);
+            MemoryShellDetector.discardBaseline(context);
+            // 销毁的Engine不再参与完整扫描
+            context.getParent().getParent().destroy();
+        }
+        MemoryShellDetector.clearCache();
+    }
+
+    @Test
+    @DisplayName("测试容器事件触发的增量检测")
+    public void testContainerEventDetection() throws Exception {
+        MemoryShellDetector.clearCache();
+        context = newContext();
+        assertTrue(MemoryShellDetector.watchContext(context));
+        assertFalse(MemoryShellDetector.watchContext(null));
+
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName("probeFilter");
+        filterDef.setFilterClass(ProbeFilter.class.getName());
+        filterDef.setFilter(new ProbeFilter());
+        context.addFilterDef(filterDef);
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName("probeFilter");
+        filterMap.addURLPattern("/*");
+        context.addFilterMapBefore(filterMap);
+
+        DetectionResult filter = awaitResult(r -> "probeFilter".equals(r.getComponentName()));
+        assertNotNull(filter, "Filter定义和映射变化后应立即分析");
+        assertEquals(MemoryShell.Type.FILTER, filter.getType());
+        assertEquals(ProbeFilter.class.getName(), filter.getClassName());
+        assertEquals("ContainerEvent", filter.getMetadata().get("source"));
+
+        Wrapper wrapper = context.createWrapper();
+        wrapper.setName("probeServlet");
+        wrapper.setServletClass(ProbeServlet.class.getName());
+        wrapper.setServlet(new ProbeServlet());
+        context.addChild(wrapper);
+        context.addServletMappingDecoded("/probe/*", "probeServlet");
+        assertNotNull(awaitResult(r -> r.getType() == MemoryShell.Type.SERVLET &&
+                                       "probeServlet".equals(r.getComponentName())));
+
+        // addApplicationEventListener不触发容器事件，由监听器数组比较发现
+        context.addApplicationEventListener(new ProbeListener());
+        DetectionResult listener = awaitResult(r -> r.getType() == MemoryShell.Type.LISTENER);
+        assertNotNull(listener, "新增的监听器应被发现");
+        assertEquals(ProbeListener.class.getName(), listener.getClassName());
+
+        long filterResults = MemoryShellDetector.getDetectionCache().values().stream()
+            .filter(r -> "probeFilter".equals(r.getComponentName())).count();
+        assertEquals(1, filterResults, "同一组件的多次事件合并为一次分析");
+        context.removeFilterDef(filterDef);
+        assertTrue(MemoryShellDetector.getDetectionCache().values().stream()
+                       .noneMatch(r -> "probeFilter".equals(r.getComponentName())), "移除的组件不再保留检测结果");
+
+        assertEquals(1, MemoryShellDetector.getStatistics().get("watchedContexts"));
+        assertTrue((Long) MemoryShellDetector.getStatistics().get("incrementalAnalyses") >= 3);
+    }
+
+    @Test
+    @DisplayName("测试Filter实例晚于容器事件创建时重试增量分析")
+    public void testDeferredFilterInstance() throws Exception {
+        MemoryShellDetector.clearCache();
+        context = newContext();
+        MemoryShellDetector.watchContext(context);
+
+        // 事件发生时只有类名，实例稍后才写入，之后不再有容器事件
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName("lateFilter");
+        filterDef.setFilterClass(ProbeFilter.class.getName());
+        context.addFilterDef(filterDef);
+        Thread.sleep(250);
+        assertNull(MemoryShellDetector.getDetectionCache().values().stream()
+                       .filter(r -> "lateFilter".equals(r.getComponentName())).findFirst().orElse(null));
+        filterDef.setFilter(new ProbeFilter());
+
+        DetectionResult filter = awaitResult(r -> "lateFilter".equals(r.getComponentName()));
+        assertNotNull(filter, "实例出现后重试的分析应发现该Filter");
+        assertEquals(ProbeFilter.class.getName(), filter.getClassName());
+        assertEquals("ContainerEvent", filter.getMetadata().get("source"));
+    }
+
+    @Test
+    @DisplayName("测试检测缓存按组件标识去重并跳过未变化的组件")
+    public void testStableComponentIdentity() throws Exception {
+        MemoryShellDetector.clearCache();
+        context = newContext();
+        MemoryShellDetector.watchContext(context);
+        Wrapper wrapper = context.createWrapper();
+        wrapper.setName("stableServlet");
+        wrapper.setServlet(new ProbeServlet());
+        context.addChild(wrapper);
+        assertNotNull(awaitResult(r -> "stableServlet".equals(r.getComponentName())));
+
+        long skippedBefore = (Long) MemoryShellDetector.getStatistics().get("unchangedSkipped");
+        for (int i = 0; i < 3; i++) {
+            MemoryShellDetector.performFullScan();
+        }
+        String id = MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.SERVLET, "stableServlet");
+        DetectionResult result = MemoryShellDetector.getDetectionCache().get(id);
+        assertNotNull(result, "缓存以稳定的组件标识为键");
+        assertEquals(1, result.getVersion());
+        assertEquals(1, MemoryShellDetector.getDetectionCache().size(), "重复扫描不增加缓存条目");
+        assertTrue((Long) MemoryShellDetector.getStatistics().get("unchangedSkipped") >= skippedBefore + 3);
+
+        wrapper.setServlet(new ProbeServlet());
+        MemoryShellDetector.performFullScan();
+        DetectionResult changed = MemoryShellDetector.getDetectionCache().get(id);
+        assertEquals(2, changed.getVersion(), "组件实例替换后重新分析");
+        assertEquals(result.getFirstSeenTime(), changed.getFirstSeenTime());
+        assertNotEquals(result.getFingerprint(), changed.getFingerprint());
+
+        context.removeChild(wrapper);
+        assertFalse(MemoryShellDetector.getDetectionCache().containsKey(id));
+    }
+
+    @Test
+    @DisplayName("测试完整扫描通过缓存的访问器读取Filter和Listener")
+    public void testTomcatInternalsAccess() throws Exception {
+        MemoryShellDetector.clearCache();
+        context = newContext();
+        context.setInstanceManager(new org.apache.tomcat.SimpleInstanceManager());
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName("configuredFilter");
+        filterDef.setFilter(new ProbeFilter());
+        // 模拟注入：只写入filterConfigs，不触发容器事件
+        java.lang.reflect.Constructor<?> constructor = org.apache.catalina.core.ApplicationFilterConfig.class
+            .getDeclaredConstructor(org.apache.catalina.Context.class, FilterDef.class);
+        constructor.setAccessible(true);
+        java.lang.reflect.Field field = StandardContext.class.getDeclaredField("filterConfigs");
+        field.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        java.util.Map<String, Object> filterConfigs = (java.util.Map<String, Object>) field.get(context);
+        filterConfigs.put("configuredFilter", constructor.newInstance(context, filterDef));
+        context.addApplicationEventListener(new ProbeListener());
+
+        MemoryShellDetector.watchContext(context);
+        MemoryShellDetector.performFullScan();
+        java.util.Map<String, DetectionResult> cache = MemoryShellDetector.getDetectionCache();
+        DetectionResult filter = cache.get(MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.FILTER,
+                                                                            "configuredFilter"));
+        assertNotNull(filter, "完整扫描读取filterConfigs中的Filter");
+        assertEquals(ProbeFilter.class.getName(), filter.getClassName());
+        assertNotNull(cache.get(MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.LISTENER,
+                                                                 "EventListener_" + ProbeListener.class.getName() + "#0")),
+                      "完整扫描读取事件监听器");
+
+        @SuppressWarnings("unchecked")
+        java.util.Map<String, String> access =
+            (java.util.Map<String, String>) MemoryShellDetector.getStatistics().get("tomcatAccess");
+        assertEquals("VarHandle", access.get("filterConfigs"));
+        assertEquals("VarHandle", access.get("filterInstance"));
+    }
+
+    @Test
+    @DisplayName("测试完整扫描覆盖Server下所有Engine、Host和Context")
+    public void testEngineWideScan() throws Exception {
+        MemoryShellDetector.clearCache();
+        StandardServer server = new StandardServer();
+        StandardEngine[] engines = new StandardEngine[2];
+        for (int i = 0; i < engines.length; i++) {
+            StandardService service = new StandardService();
+            service.setName("service" + i);
+            engines[i] = new StandardEngine();
+            engines[i].setName("engine" + i);
+            service.setContainer(engines[i]);
+            server.addService(service);
+        }
+        StandardContext[] contexts = new StandardContext[3];
+        String[] hosts = {"a.example", "b.example", "c.example"};
+        for (int i = 0; i < contexts.length; i++) {
+            StandardHost host = new StandardHost();
+            host.setName(hosts[i]);
+            engines[i == 2 ? 1 : 0].addChild(host);
+            // 不同Host下的同名Context
+            contexts[i] = new StandardContext();
+            contexts[i].setName("/app");
+            contexts[i].setPath("/app");
+            host.addChild(contexts[i]);
+            Wrapper wrapper = contexts[i].createWrapper();
+            wrapper.setName("appServlet");
+            wrapper.setServlet(new ProbeServlet());
+            contexts[i].addChild(wrapper);
+        }
+
+        try {
+            // 只监听一个Context，其余通过Server发现
+            context = contexts[0];
+            MemoryShellDetector.watchContext(context);
+            MemoryShellDetector.performFullScan();
+            for (String host : hosts) {
+                assertNotNull(MemoryShellDetector.getDetectionCache().get(
+                    MemoryShellDetector.componentId(host + "/app", MemoryShell.Type.SERVLET, "appServlet")),
+                    "应扫描到 " + host);
+            }
+            List<MemoryShellDetector.DetectionRecord> history = MemoryShellDetector.getDetectionHistory();
+            MemoryShellDetector.DetectionRecord record = history.get(history.size() - 1);
+            assertEquals(3, record.getContextCount());
+            assertTrue(record.getIncompleteContexts().isEmpty());
+            assertEquals(2, MemoryShellDetector.getStatistics().get("knownEngines"));
+
+            System.setProperty(MemoryShellDetector.CONTEXT_BUDGET_PROPERTY, "0");
+            MemoryShellDetector.performFullScan();
+            history = MemoryShellDetector.getDetectionHistory();
+            assertEquals(3, history.get(history.size() - 1).getIncompleteContexts().size(), "超出预算的Context被标记");
+            assertEquals(3, MemoryShellDetector.getDetectionCache().size(), "未扫描完整的Context保留之前的结果");
+
+            System.clearProperty(MemoryShellDetector.CONTEXT_BUDGET_PROPERTY);
+            assertEquals(true, MemoryShellDetector.getStatistics().get("scanPoolActive"));
+            MemoryShellDetector.stopRealTimeDetection();
+            assertEquals(false, MemoryShellDetector.getStatistics().get("scanPoolActive"), "停止实时检测时关闭并行扫描线程池");
+            MemoryShellDetector.performFullScan();
+            history = MemoryShellDetector.getDetectionHistory();
+            assertTrue(history.get(history.size() - 1).getIncompleteContexts().isEmpty(), "之后的扫描重新创建线程池");
+        } finally {
+            System.clearProperty(MemoryShellDetector.CONTEXT_BUDGET_PROPERTY);
+            engines[1].destroy();
+        }
+    }
+
+    @Test
+    @DisplayName("测试组件基线区分启动时的组件和启动后新增或修改的组件")
+    public void testComponentBaseline() throws Exception {
+        MemoryShellDetector.clearCache();
+        context = newContext();
+        Wrapper startup = context.createWrapper();
+        startup.setName("startupServlet");
+        startup.setServletClass(ProbeServlet.class.getName());
+        context.addChild(startup);
+        context.addServletMappingDecoded("/app/*", "startupServlet");
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName("startupFilter");
+        filterDef.setFilterClass(ProbeFilter.class.getName());
+        context.addFilterDef(filterDef);
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName("startupFilter");
+        filterMap.addURLPattern("/*");
+        context.addFilterMap(filterMap);
+        context.addApplicationEventListener(new ProbeListener());
+
+        ComponentBaseline baseline = MemoryShellDetector.captureBaseline(context);
+        assertEquals(3, baseline.size());
+        assertTrue(baseline.diff(context).isEmpty());
+
+        // 启动后Servlet才实例化，类名与声明一致，不算修改
+        startup.setServlet(new ProbeServlet());
+        Wrapper added = context.createWrapper();
+        added.setName("addedServlet");
+        added.setServlet(new ProbeServlet());
+        context.addChild(added);
+        MemoryShellDetector.watchContext(context);
+        MemoryShellDetector.performFullScan();
+
+        java.util.Map<String, DetectionResult> cache = MemoryShellDetector.getDetectionCache();
+        DetectionResult unchanged = cache.get(MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.SERVLET,
+                                                                               "startupServlet"));
+        assertFalse(unchanged.isSuspicious());
+        assertEquals("UNCHANGED", unchanged.getMetadata().get("baseline"));
+        String listenerId = MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.LISTENER,
+                                                            "EventListener_" + ProbeListener.class.getName() + "#0");
+        assertEquals("UNCHANGED", cache.get(listenerId).getMetadata().get("baseline"));
+        DetectionResult runtime = cache.get(MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.SERVLET,
+                                                                             "addedServlet"));
+        assertEquals("ADDED", runtime.getMetadata().get("baseline"));
+        assertTrue(runtime.isSuspicious());
+        assertTrue(runtime.getSuspiciousFeatures().contains("运行时动态添加"));
+
+        // 在启动时的监听器之前插入其他监听器，启动时监听器的标识和基线状态不变
+        Object[] listeners = context.getApplicationEventListeners();
+        Object injected = new jakarta.servlet.ServletRequestAttributeListener() {};
+        context.setApplicationEventListeners(new Object[] {injected, listeners[0]});
+        MemoryShellDetector.performFullScan();
+        cache = MemoryShellDetector.getDetectionCache();
+        assertEquals("UNCHANGED", cache.get(listenerId).getMetadata().get("baseline"));
+        assertEquals("ADDED", cache.get(MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.LISTENER,
+            "EventListener_" + injected.getClass().getName() + "#0")).getMetadata().get("baseline"));
+
+        // 给启动时的Servlet追加映射
+        context.addServletMappingDecoded("/shell", "startupServlet");
+        assertEquals(ComponentBaseline.Status.MUTATED,
+                     baseline.diff(context).get("servlet|startupServlet"));
+        MemoryShellDetector.performFullScan();
+        DetectionResult mutated = MemoryShellDetector.getDetectionCache().get(
+            MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.SERVLET, "startupServlet"));
+        assertTrue(mutated.getSuspiciousFeatures().contains("启动后被修改"));
+
+        context.removeFilterDef(filterDef);
+        assertEquals(ComponentBaseline.Status.REMOVED, baseline.diff(context).get("filter|startupFilter"));
+
+        Path dir = Files.createTempDirectory("baseline");
+        try {
+            Path file = dir.resolve("probe.baseline");
+            baseline.save(file);
+            ComponentBaseline loaded = ComponentBaseline.load(file);
+            assertEquals(baseline.getContextKey(), loaded.getContextKey());
+            assertEquals(baseline.getCapturedAt(), loaded.getCapturedAt());
+            assertEquals(baseline.getEntries().keySet(), loaded.getEntries().keySet());
+            assertEquals(ProbeServlet.class.getName(),
+                         loaded.getEntries().get("servlet|startupServlet").getClassName());
+            String hash = loaded.getEntries().get("servlet|startupServlet").getHash();
+            assertEquals(baseline.getEntries().get("servlet|startupServlet").getHash(), hash);
+            assertTrue(hash.matches("[0-9a-f]{64}"), "基线哈希应为SHA-256");
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+                files.sorted(java.util.Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        assertEquals(1, MemoryShellDetector.getStatistics().get("baselineContexts"));
+    }
+
+    @Test
+    @DisplayName("测试基线识别被替换为其他类加载器中同名类的Filter")
+    public void testBaselineClassLoaderSwap() throws Exception {
+        MemoryShellDetector.clearCache();
+        context = newContext();
+        context.setInstanceManager(new org.apache.tomcat.SimpleInstanceManager());
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName("startupFilter");
+        filterDef.setFilter(new ProbeFilter());
+        context.addFilterDef(filterDef);
+        java.lang.reflect.Constructor<?> constructor = org.apache.catalina.core.ApplicationFilterConfig.class
+            .getDeclaredConstructor(org.apache.catalina.Context.class, FilterDef.class);
+        constructor.setAccessible(true);
+        java.lang.reflect.Field configsField = StandardContext.class.getDeclaredField("filterConfigs");
+        configsField.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        java.util.Map<String, Object> filterConfigs = (java.util.Map<String, Object>) configsField.get(context);
+        Object filterConfig = constructor.newInstance(context, filterDef);
+        filterConfigs.put("startupFilter", filterConfig);
+
+        ComponentBaseline baseline = MemoryShellDetector.captureBaseline(context);
+        assertTrue(baseline.diff(context).isEmpty());
+        Path dir = Files.createTempDirectory("baseline");
+        Path file = dir.resolve("probe.baseline");
+        baseline.save(file);
+
+        // 用另一个类加载器定义同名的Filter类，替换FilterConfig中的实例
+        String name = ProbeFilter.class.getName();
+        byte[] bytes;
+        try (java.io.InputStream in = ProbeFilter.class.getResourceAsStream("/" + name.replace('.', '/') + ".class")) {
+            bytes = in.readAllBytes();
+        }
+        ClassLoader isolated = new ClassLoader(MemoryShellDetectorTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                if (!className.equals(name)) {
+                    return super.loadClass(className, resolve);
+                }
+                synchronized (getClassLoadingLock(className)) {
+                    Class<?> loaded = findLoadedClass(className);
+                    return loaded != null ? loaded : defineClass(className, bytes, 0, bytes.length);
+                }
+            }
+        };
+        Filter swapped = (Filter) isolated.loadClass(name).getDeclaredConstructor().newInstance();
+        assertEquals(name, swapped.getClass().getName());
+        java.lang.reflect.Field filterField = org.apache.catalina.core.ApplicationFilterConfig.class.getDeclaredField("filter");
+        filterField.setAccessible(true);
+        filterField.set(filterConfig, swapped);
+
+        try {
+            assertEquals(ComponentBaseline.Status.MUTATED, baseline.diff(context).get("filter|startupFilter"),
+                         "类名相同但类加载器不同");
+            assertEquals(ComponentBaseline.Status.MUTATED,
+                         ComponentBaseline.load(file).diff(context).get("filter|startupFilter"),
+                         "持久化的基线按类加载器类型和代码来源比较");
+            MemoryShellDetector.watchContext(context);
+            MemoryShellDetector.performFullScan();
+            DetectionResult result = MemoryShellDetector.getDetectionCache().get(
+                MemoryShellDetector.componentId("localhost/probe", MemoryShell.Type.FILTER, "startupFilter"));
+            assertEquals("MUTATED", result.getMetadata().get("baseline"));
+            assertTrue(result.getSuspiciousFeatures().contains("启动后被修改"));
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+                files.sorted(java.util.Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,1167 @@
+package com.book.demo.test;
+
+import com.book.demo.components.SessionData;
+import com.book.demo.rules.CompiledRuleSet;
+import com.book.demo.rules.SecurityRuleEngine;
+import com.book.demo.trace.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.DisplayName;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 反序列化追踪流测试
+ */
+public class TraceableObjectInputStreamTest {
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(obj);
+        }
+        return baos.toByteArray();
+    }
+
+    private static SessionData createSessionData() {
+        SessionData sessionData = new SessionData();
+        sessionData.setSessionId("SESS_TEST");
+        sessionData.setUserId("tester");
+        sessionData.setLoginTime(System.currentTimeMillis());
+        sessionData.addAttribute("role", "user");
+        return sessionData;
+    }
+
+    @Test
+    @DisplayName("测试OFF级别不记录任何追踪信息")
+    public void testOffLevel() throws Exception {
+        byte[] data = serialize(createSessionData());
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(data), TraceLevel.OFF)) {
+            SessionData result = (SessionData) tois.readObjectWithTrace();
+
+            assertEquals("SESS_TEST", result.getSessionId());
+            assertTrue(tois.getExecutionTrace().isEmpty(), "OFF级别不应记录步骤");
+            assertEquals(0, tois.getClassDescriptorCount(), "OFF级别不应累加计数器");
+        }
+    }
+
+    @Test
+    @DisplayName("测试COUNTERS级别只累加计数器")
+    public void testCountersLevel() throws Exception {
+        List<String> payload = new ArrayList<>();
+        payload.add("a");
+        byte[] data = serialize(payload);
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(data), TraceLevel.COUNTERS)) {
+            tois.readObjectWithTrace();
+
+            assertTrue(tois.getExecutionTrace().isEmpty(), "COUNTERS级别不应记录步骤");
+            assertEquals(1, tois.getClassDescriptorCount());
+            assertEquals(1, tois.getResolvedClassCount());
+            assertEquals(1, tois.getReadObjectCount());
+        }
+    }
+
+    @Test
+    @DisplayName("测试SUMMARY级别记录步骤但不采集调用栈")
+    public void testSummaryLevel() throws Exception {
+        byte[] data = serialize(createSessionData());
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(data), TraceLevel.SUMMARY)) {
+            tois.readObjectWithTrace();
+
+            List<DeserializationStep> steps = tois.getExecutionTrace();
+            assertFalse(steps.isEmpty(), "SUMMARY级别应记录步骤");
+            for (DeserializationStep step : steps) {
+                assertNull(step.getStackTrace(), "SUMMARY级别不应采集调用栈");
+                assertNull(step.getRelatedObject(), "SUMMARY级别的缓冲区不持有对象");
+            }
+            assertTrue(tois.getStatistics().getTotalSteps() > 0);
+        }
+    }
+
+    @Test
+    @DisplayName("测试全局默认追踪级别")
+    public void testDefaultTraceLevel() throws Exception {
+        TraceLevel previous = TraceableObjectInputStream.getDefaultTraceLevel();
+        try {
+            TraceableObjectInputStream.setDefaultTraceLevel(TraceLevel.COUNTERS);
+            byte[] data = serialize(createSessionData());
+
+            try (TraceableObjectInputStream tois = new TraceableObjectInputStream(new ByteArrayInputStream(data))) {
+                assertEquals(TraceLevel.COUNTERS, tois.getTraceLevel());
+                tois.readObjectWithTrace();
+                assertTrue(tois.getExecutionTrace().isEmpty());
+            }
+        } finally {
+            TraceableObjectInputStream.setDefaultTraceLevel(previous);
+        }
+    }
+
+    @Test
+    @DisplayName("测试限制深度的调用栈采集与延迟展开")
+    public void testTopFramesStackCapture() throws Exception {
+        byte[] data = serialize(createSessionData());
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(data), false, false, TraceLevel.FULL)) {
+            tois.setStackCapturePolicy(StackCapturePolicy.topFrames(4));
+            tois.readObjectWithTrace();
+
+            for (DeserializationStep step : tois.getExecutionTrace()) {
+                if ("INIT".equals(step.getStepType())) {
+                    continue; // 构造时使用全局默认策略
+                }
+                CapturedStack stack = step.getCapturedStack();
+                assertNotNull(stack, "FULL级别应采集调用栈");
+                assertTrue(stack.depth() <= 4, "调用栈深度不应超过策略限制");
+                assertFalse(stack.getClassName(0).startsWith(TraceableObjectInputStream.class.getName()),
+                            "应跳过追踪流自身的栈帧");
+                assertEquals(stack.depth(), step.getStackTrace().length);
+                assertNotEquals("Unknown", step.getRelevantStackFrame());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("测试NONE采集策略")
+    public void testNoneStackCapture() throws Exception {
+        byte[] data = serialize(createSessionData());
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(data), false, false, TraceLevel.FULL)) {
+            tois.setStackCapturePolicy(StackCapturePolicy.none());
+            tois.readObjectWithTrace();
+
+            assertFalse(tois.getExecutionTrace().isEmpty());
+            for (DeserializationStep step : tois.getExecutionTrace()) {
+                if ("INIT".equals(step.getStepType())) {
+                    continue;
+                }
+                assertNull(step.getCapturedStack());
+                assertEquals("Unknown", step.getRelevantStackFrame());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("测试环形缓冲区限制追踪内存")
+    public void testBoundedTraceBuffer() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            for (int i = 0; i < 20; i++) {
+                oos.writeObject("payload-" + i);
+            }
+        }
+
+        int previous = TraceableObjectInputStream.getDefaultTraceCapacity();
+        try {
+            TraceableObjectInputStream.setDefaultTraceCapacity(8);
+            try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                    new ByteArrayInputStream(baos.toByteArray()), false, false, TraceLevel.SUMMARY)) {
+                for (int i = 0; i < 20; i++) {
+                    assertEquals("payload-" + i, tois.readObjectWithTrace());
+                }
+
+                List<DeserializationStep> steps = tois.getExecutionTrace();
+                assertEquals(8, steps.size(), "只保留容量内的步骤");
+                assertTrue(tois.getDroppedStepCount() > 0, "超出容量的步骤应被计数");
+                assertEquals(tois.getTraceBuffer().getTotalRecorded(),
+                             steps.size() + tois.getDroppedStepCount());
+                assertEquals("READ_COMPLETE", steps.get(steps.size() - 1).getStepType(), "应保留最新的步骤");
+            }
+        } finally {
+            TraceableObjectInputStream.setDefaultTraceCapacity(previous);
+        }
+    }
+
+    @Test
+    @DisplayName("测试异步追踪输出")
+    public void testAsyncTraceSink() throws Exception {
+        byte[] data = serialize(createSessionData());
+        AsyncTraceSink sink = AsyncTraceSink.inMemory(1000);
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(data), true, false, TraceLevel.FULL)) {
+            tois.setTraceSink(sink);
+            tois.readObjectWithTrace();
+        }
+        sink.flush();
+
+        List<String> records = ((AsyncTraceSink.InMemoryWriter) sink.getWriter()).getRecords();
+        assertTrue(records.stream().anyMatch(r -> r.contains("Completed readObject()")), "应输出追踪记录");
+        assertEquals(sink.getPublishedCount(), sink.getProcessedCount());
+        assertEquals(0, sink.getDroppedCount());
+        sink.close();
+    }
+
+    @Test
+    @DisplayName("测试异步输出队列满时丢弃并计数")
+    public void testAsyncTraceSinkDropsWhenFull() throws Exception {
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        AsyncTraceSink sink = new AsyncTraceSink(batch -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 4, 1, "trace-sink-test");
+
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sink.publish("record-" + i)) {
+                accepted++;
+            }
+        }
+        release.countDown();
+        sink.close();
+
+        assertTrue(sink.getDroppedCount() > 0, "队列满时应丢弃记录");
+        assertEquals(100, accepted + sink.getDroppedCount());
+    }
+
+    @Test
+    @DisplayName("测试字节级扫描器接受正常载荷并提取类名")
+    public void testStreamScannerAcceptsSessionData() throws Exception {
+        byte[] data = serialize(createSessionData());
+
+        ScanResult result = new SerializationStreamScanner().scan(data);
+
+        assertTrue(result.isAccepted(), "正常载荷应通过扫描: " + result);
+        assertTrue(result.getClassNames().contains(SessionData.class.getName()));
+        assertEquals(data.length, result.getBytesScanned());
+
+        try (TraceableObjectInputStream tois = TraceableObjectInputStream.openScanned(
+                data, new SerializationStreamScanner(), TraceLevel.COUNTERS)) {
+            assertNotNull(tois.readObjectWithTrace());
+            assertNotNull(tois.getScanResult());
+        }
+    }
+
+    @Test
+    @DisplayName("测试字节级扫描器按资源限制拒绝载荷")
+    public void testStreamScannerLimits() throws Exception {
+        List<Object> nested = new ArrayList<>();
+        List<Object> current = nested;
+        for (int i = 0; i < 20; i++) {
+            List<Object> child = new ArrayList<>();
+            current.add(child);
+            current = child;
+        }
+        ScanResult depthResult = new SerializationStreamScanner(
+            new DeserializationLimits(10, 0, 0, 0)).scan(serialize(nested));
+        assertTrue(depthResult.isRejected());
+        assertEquals(ScanResult.RULE_MAX_DEPTH, depthResult.getRejectRule());
+
+        ScanResult arrayResult = new SerializationStreamScanner(
+            new DeserializationLimits(0, 0, 100, 0)).scan(serialize(new int[1000]));
+        assertTrue(arrayResult.isRejected());
+        assertEquals(ScanResult.RULE_MAX_ARRAY, arrayResult.getRejectRule());
+
+        PayloadRejectedException e = assertThrows(PayloadRejectedException.class,
+            () -> TraceableObjectInputStream.openScanned(serialize(new int[1000]),
+                new SerializationStreamScanner(new DeserializationLimits(0, 0, 100, 0)), TraceLevel.OFF));
+        assertEquals(ScanResult.RULE_MAX_ARRAY, e.getRejectRule());
+    }
+
+    @Test
+    @DisplayName("测试字节级扫描器识别危险类和非法流头")
+    public void testStreamScannerRejectsDangerousAndMalformed() throws Exception {
+        java.util.PriorityQueue<String> queue = new java.util.PriorityQueue<>();
+        queue.add("a");
+
+        ScanResult dangerous = new SerializationStreamScanner().scan(serialize(queue));
+        assertEquals(ScanResult.RULE_CLASS, dangerous.getRejectRule());
+        assertTrue(dangerous.getDangerousClasses().contains("java.util.PriorityQueue"));
+
+        ScanResult malformed = new SerializationStreamScanner().scan(new byte[]{0x01, 0x02, 0x03, 0x04});
+        assertEquals(ScanResult.RULE_MALFORMED, malformed.getRejectRule());
+
+        byte[] data = serialize(createSessionData());
+        ScanResult truncated = new SerializationStreamScanner().scan(java.util.Arrays.copyOf(data, data.length / 2));
+        assertEquals(ScanResult.RULE_MALFORMED, truncated.getRejectRule());
+    }
+
+    @Test
+    @DisplayName("测试字节级扫描器拒绝环形继承链和过深嵌套")
+    public void testStreamScannerRejectsCyclesAndDeepNesting() throws Exception {
+        // 类描述符A的父类描述符是指向A自身句柄的TC_REFERENCE
+        byte[] cyclic = {
+            (byte) 0xAC, (byte) 0xED, 0x00, 0x05, 0x73, 0x72, 0x00, 0x01, 'A',
+            0, 0, 0, 0, 0, 0, 0, 1, 0x02, 0x00, 0x00, 0x78, 0x71, 0x00, 0x7E, 0x00, 0x00
+        };
+        ScanResult cycle = new SerializationStreamScanner(DeserializationLimits.unlimited(), null, null).scan(cyclic);
+        assertEquals(ScanResult.RULE_MALFORMED, cycle.getRejectRule());
+        assertTrue(cycle.getRejectReason().contains("cyclic"));
+
+        // 未配置深度上限时，嵌套的Object[]在固定深度处拒绝而不是栈溢出
+        ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(nested);
+        out.writeShort(0xACED);
+        out.writeShort(5);
+        out.writeByte(0x75);
+        out.writeByte(0x72);
+        out.writeUTF("[Ljava.lang.Object;");
+        out.writeLong(1L);
+        out.writeByte(0x02);
+        out.writeShort(0);
+        out.writeByte(0x78);
+        out.writeByte(0x70);
+        out.writeInt(1);
+        for (int i = 0; i < 100_000; i++) {
+            out.writeByte(0x75);
+            out.writeByte(0x71);
+            out.writeInt(0x7E0000);
+            out.writeInt(1);
+        }
+        out.writeByte(0x70);
+        ScanResult deep = new SerializationStreamScanner(DeserializationLimits.unlimited(), null, null)
+            .scan(nested.toByteArray());
+        assertEquals(ScanResult.RULE_MAX_DEPTH, deep.getRejectRule());
+
+        // 只由[组成的类名按格式错误拒绝，不抛出StringIndexOutOfBoundsException
+        byte[] bracket = {
+            (byte) 0xAC, (byte) 0xED, 0x00, 0x05, 0x72, 0x00, 0x01, '[',
+            0, 0, 0, 0, 0, 0, 0, 1, 0x02, 0x00, 0x00, 0x78, 0x70
+        };
+        ScanResult malformed = new SerializationStreamScanner(DeserializationLimits.unlimited(), null, null)
+            .scan(bracket);
+        assertEquals(ScanResult.RULE_MALFORMED, malformed.getRejectRule());
+        assertFalse(TraceableObjectInputStream.isDangerousClassName("["));
+        assertFalse(TraceableObjectInputStream.isDangerousClassName("[L;"));
+
+        // TC_RESET清空句柄表但不重置引用预算
+        ByteArrayOutputStream resets = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(resets)) {
+            for (int i = 0; i < 10; i++) {
+                oos.writeObject("value-" + i);
+                oos.reset();
+            }
+        }
+        ScanResult refs = new SerializationStreamScanner(new DeserializationLimits(100, 5, 1000, 1 << 20), null, null)
+            .scan(resets.toByteArray());
+        assertEquals(ScanResult.RULE_MAX_REFS, refs.getRejectRule());
+    }
+
+    @Test
+    @DisplayName("测试编译后的危险类规则匹配与热加载")
+    public void testSecurityRuleEngine() throws Exception {
+        assertTrue(TraceableObjectInputStream.isDangerousClassName("java.lang.Runtime"));
+        assertTrue(TraceableObjectInputStream.isDangerousClassName("[Ljava.lang.ProcessBuilder;"));
+        assertTrue(TraceableObjectInputStream.isDangerousClassName(
+            "org.apache.commons.collections.functors.InstantiateTransformer"));
+        assertTrue(TraceableObjectInputStream.isDangerousClassName(
+            "shaded.org.apache.commons.collections.map.LazyMap"));
+        assertFalse(TraceableObjectInputStream.isDangerousClassName("java.lang.RuntimeException"));
+        assertFalse(TraceableObjectInputStream.isDangerousClassName("[I"));
+
+        java.util.Map<String, CompiledRuleSet> sets = SecurityRuleEngine.parse(
+            "[names]\nignore-case = true\nexact = a.B\nprefix = x.y.\ncontains = Shell\ncontains = hell0\n");
+        CompiledRuleSet names = sets.get("names");
+        assertEquals("a.b", names.firstMatch("A.b"));
+        assertTrue(names.matches("X.Y.anything"));
+        assertTrue(names.matches("com.evil.MyWebSHELLFilter"));
+        assertFalse(names.matches("a.Bc"));
+        assertFalse(names.matches("x.z.Other"));
+
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("rules", ".conf");
+        try {
+            java.nio.file.Files.writeString(file, "[deserialization]\nexact = com.example.Foo\n");
+            SecurityRuleEngine engine = new SecurityRuleEngine(file);
+            assertTrue(engine.matches(SecurityRuleEngine.DESERIALIZATION, "com.example.Foo"));
+
+            java.nio.file.Files.writeString(file, "[deserialization]\nprefix = com.example.\n");
+            java.nio.file.Files.setLastModifiedTime(file,
+                java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+            assertTrue(engine.reloadIfModified());
+            assertTrue(engine.matches(SecurityRuleEngine.DESERIALIZATION, "com.example.Bar"));
+
+            java.nio.file.Files.writeString(file, "broken line\n");
+            java.nio.file.Files.setLastModifiedTime(file,
+                java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 20_000));
+            assertFalse(engine.reloadIfModified(), "解析失败时应保留旧规则");
+            assertTrue(engine.matches(SecurityRuleEngine.DESERIALIZATION, "com.example.Bar"));
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("测试按类缓存的序列化元数据")
+    public void testSerialClassProfile() {
+        SerialClassProfile profile = SerialClassProfile.of(java.util.ArrayList.class);
+        assertSame(profile, SerialClassProfile.of(java.util.ArrayList.class), "同一类型应只计算一次");
+        assertTrue(profile.hasReadObject());
+        assertTrue(profile.isBuiltin());
+        assertFalse(profile.isDangerous());
+
+        assertTrue(SerialClassProfile.of(java.util.PriorityQueue.class).isDangerous());
+        assertTrue(SerialClassProfile.of(java.util.PriorityQueue[].class).isDangerous());
+        assertTrue(SerialClassProfile.of(java.util.EnumSet.class).hasWriteReplace());
+
+        SerialClassProfile session = SerialClassProfile.of(SessionData.class);
+        assertFalse(session.isBuiltin());
+        assertTrue(session.isSerializable());
+        assertTrue(session.isFieldsAccessible());
+        assertFalse(session.getFields().isEmpty());
+
+        // 与本类加载器无关的加载器定义的类不缓存，避免互相持有
+        java.net.URL location = SessionData.class.getProtectionDomain().getCodeSource().getLocation();
+        try (java.net.URLClassLoader isolated = new java.net.URLClassLoader(new java.net.URL[]{location}, null)) {
+            Class<?> foreign = isolated.loadClass(SessionData.class.getName());
+            assertNotSame(SessionData.class, foreign);
+            assertNotSame(SerialClassProfile.of(foreign), SerialClassProfile.of(foreign));
+            assertTrue(SerialClassProfile.of(foreign).isSerializable());
+        } catch (IOException | ClassNotFoundException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    @DisplayName("测试JEP 290过滤器按规则拒绝并计数")
+    public void testDeserializationFilter() throws Exception {
+        DeserializationFilter filter = new DeserializationFilter(new DeserializationLimits(10, 0, 100, 0));
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(serialize(createSessionData())), TraceLevel.COUNTERS)) {
+            tois.applyFilter(filter);
+            assertNotNull(tois.readObjectWithTrace(), "正常载荷应通过过滤器");
+        }
+        assertEquals(0, filter.getTotalRejectCount());
+
+        try (ObjectInputStream ois = filter.attach(
+                new ObjectInputStream(new ByteArrayInputStream(serialize(new int[1000]))))) {
+            assertThrows(InvalidClassException.class, ois::readObject);
+        }
+        assertEquals(1, filter.getRejectCount(ScanResult.RULE_MAX_ARRAY));
+
+        java.util.PriorityQueue<String> queue = new java.util.PriorityQueue<>();
+        queue.add("a");
+        try (ObjectInputStream ois = filter.attach(
+                new ObjectInputStream(new ByteArrayInputStream(serialize(queue))))) {
+            assertThrows(InvalidClassException.class, ois::readObject);
+        }
+        assertEquals(1, filter.getRejectCount(ScanResult.RULE_CLASS));
+
+        List<Object> nested = new ArrayList<>();
+        List<Object> current = nested;
+        for (int i = 0; i < 20; i++) {
+            List<Object> child = new ArrayList<>();
+            current.add(child);
+            current = child;
+        }
+        try (ObjectInputStream ois = filter.attach(
+                new ObjectInputStream(new ByteArrayInputStream(serialize(nested))))) {
+            assertThrows(InvalidClassException.class, ois::readObject);
+        }
+        assertEquals(1, filter.getRejectCount(ScanResult.RULE_MAX_DEPTH));
+        assertEquals(3, filter.getTotalRejectCount());
+    }
+
+    /**
+     * 只被静态过滤器拒绝的探针类
+     */
+    static class StaticFilterProbe implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * 设置只拒绝探针类的jdk.serialFilter，对其他测试没有影响；静态过滤器只能设置一次
+     */
+    private static void installStaticProbeFilter() {
+        synchronized (ObjectInputFilter.Config.class) {
+            if (ObjectInputFilter.Config.getSerialFilter() == null) {
+                ObjectInputFilter.Config.setSerialFilter(
+                    ObjectInputFilter.Config.createFilter("!" + StaticFilterProbe.class.getName()));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("测试挂载过滤器时保留jdk.serialFilter静态过滤器")
+    public void testFilterKeepsStaticSerialFilter() throws Exception {
+        installStaticProbeFilter();
+        byte[] probe = serialize(new StaticFilterProbe());
+
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(probe))) {
+            assertThrows(InvalidClassException.class, ois::readObject, "静态过滤器应拒绝探针类");
+        }
+        try (ObjectInputStream ois = DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_DIRECT)
+                .attach(new ObjectInputStream(new ByteArrayInputStream(probe)))) {
+            assertThrows(InvalidClassException.class, ois::readObject, "挂载过滤器后静态过滤器仍应生效");
+        }
+        assertThrows(InvalidClassException.class,
+            () -> DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_DIRECT).deserialize(probe));
+        assertEquals("SESS_TEST", ((SessionData) DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_DIRECT)
+            .deserialize(serialize(createSessionData()))).getSessionId());
+
+        // 调用树和applyFilter安装的流过滤器同样保留静态过滤器
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(probe), TraceLevel.COUNTERS)) {
+            tois.enableCallTree();
+            assertThrows(InvalidClassException.class, tois::readObjectWithTrace, "开启调用树后静态过滤器仍应生效");
+        }
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(probe), TraceLevel.COUNTERS)) {
+            tois.applyFilter(new DeserializationFilter());
+            assertThrows(InvalidClassException.class, tois::readObjectWithTrace, "applyFilter后静态过滤器仍应生效");
+        }
+    }
+
+    @Test
+    @DisplayName("测试增量统计与延迟直方图")
+    public void testIncrementalStatistics() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_000, histogram.getP50(), 500_000 / 16.0);
+        assertEquals(990_000, histogram.getP99(), 990_000 / 16.0);
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500.0, histogram.getMean(), 0.001);
+
+        TraceableObjectInputStream.setDefaultTraceCapacity(2);
+        try {
+            try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                    new ByteArrayInputStream(serialize(createSessionData())), false, false, TraceLevel.SUMMARY)) {
+                tois.readObjectWithTrace();
+
+                DeserializationStatistics stats = tois.getStatistics();
+                assertTrue(stats.getTotalSteps() > tois.getExecutionTrace().size(), "统计应覆盖已被覆盖的步骤");
+                assertEquals(1, stats.getStepTypeLatency("READ_COMPLETE").getCount());
+                assertTrue(stats.getInvolvedClasses().contains(SessionData.class.getName()));
+                DeserializationStatistics.ClassLatency classLatency = stats.getClassLatency(SessionData.class.getName());
+                assertTrue(classLatency.getCount() > 0 && classLatency.getMax() <= classLatency.getSum());
+                assertTrue(stats.getSteps().isEmpty(), "增量统计不保留步骤");
+            }
+        } finally {
+            TraceableObjectInputStream.setDefaultTraceCapacity(TraceRingBuffer.DEFAULT_CAPACITY);
+        }
+    }
+
+    @Test
+    @DisplayName("测试全局反序列化指标与Prometheus导出")
+    public void testDeserializationMetrics() throws Exception {
+        DeserializationMetrics.reset();
+        byte[] data = serialize(createSessionData());
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(data), TraceLevel.COUNTERS)) {
+            tois.readObjectWithTrace();
+            assertEquals(1, tois.getReadObjectCount());
+        }
+        assertNull(DeserializationMetrics.getSeries(DeserializationMetrics.CALL_SITE_DIRECT, SessionData.class.getName()),
+                   "未设置调用位置的流不计入全局指标");
+
+        for (int i = 0; i < 3; i++) {
+            try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                    new ByteArrayInputStream(data), TraceLevel.COUNTERS)) {
+                tois.setCallSite(DeserializationMetrics.CALL_SITE_SERVLET);
+                tois.readObjectWithTrace();
+            }
+        }
+
+        DeserializationMetrics.Series series = DeserializationMetrics.getSeries(
+            DeserializationMetrics.CALL_SITE_SERVLET, SessionData.class.getName());
+        assertNotNull(series);
+        assertEquals(3, series.getCount());
+        assertTrue(series.getBytes() > 0 && series.getBytes() <= 3L * data.length);
+
+        DeserializationFilter filter = DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_FILTER);
+        assertSame(filter, DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_FILTER));
+        java.util.PriorityQueue<String> queue = new java.util.PriorityQueue<>();
+        queue.add("a");
+        try (ObjectInputStream ois = filter.attach(new ObjectInputStream(new ByteArrayInputStream(serialize(queue))))) {
+            assertThrows(InvalidClassException.class, ois::readObject);
+        }
+        assertEquals(1, DeserializationMetrics.getRejectionCount(
+            DeserializationMetrics.CALL_SITE_FILTER, ScanResult.RULE_CLASS));
+
+        // 过滤器的deserialize同样计入全局指标
+        filter.deserialize(data);
+        DeserializationMetrics.Series filterSeries = DeserializationMetrics.getSeries(
+            DeserializationMetrics.CALL_SITE_FILTER, SessionData.class.getName());
+        assertNotNull(filterSeries);
+        assertEquals(1, filterSeries.getCount());
+        assertEquals(data.length, filterSeries.getBytes());
+
+        // 未知调用位置合并到other，避免调用位置基数失控
+        DeserializationMetrics.record("site-" + System.nanoTime(), SessionData.class.getName(), 10, 1000);
+        assertNotNull(DeserializationMetrics.getSeries(DeserializationMetrics.CALL_SITE_OTHER, SessionData.class.getName()));
+        assertSame(DeserializationFilter.forCallSite(DeserializationMetrics.CALL_SITE_OTHER),
+                   DeserializationFilter.forCallSite("unknown-site"));
+
+        String text = DeserializationMetrics.toPrometheusText();
+        assertTrue(text.contains("deserialization_objects_total{site=\"servlet\",class=\"" +
+                                 SessionData.class.getName() + "\"} 3"));
+        assertTrue(text.contains("deserialization_rejections_total{site=\"filter\",rule=\"class\"} 1"));
+        assertTrue(text.contains("deserialization_duration_seconds_count{site=\"servlet\"} 3"));
+    }
+
+    @Test
+    @DisplayName("测试相关对象保留策略与延迟渲染")
+    public void testObjectRetention() throws Exception {
+        int[] toStringCalls = {0};
+        Object target = new Object() {
+            @Override
+            public String toString() {
+                toStringCalls[0]++;
+                return "target";
+            }
+        };
+
+        DeserializationStep strong = new DeserializationStep(1, 0L, "TEST", "strong", target,
+            (CapturedStack) null, 0L, ObjectRetention.STRONG);
+        assertEquals(0, toStringCalls[0], "记录步骤时不应调用toString()");
+        assertSame(target, strong.getRelatedObject());
+        assertTrue(strong.getRelatedObjectInfo().endsWith("ToString: target"));
+        strong.getRelatedObjectInfo();
+        assertEquals(1, toStringCalls[0], "对象信息只渲染一次");
+
+        DeserializationStep identity = new DeserializationStep(2, 0L, "TEST", "identity", target,
+            (CapturedStack) null, 0L, ObjectRetention.IDENTITY);
+        assertNull(identity.getRelatedObject());
+        assertEquals(target.getClass().getName(), identity.getRelatedClassName());
+        assertFalse(identity.getRelatedObjectInfo().contains("ToString"));
+        assertEquals(1, toStringCalls[0]);
+
+        DeserializationStep weak = new DeserializationStep(3, 0L, "TEST", "weak", new byte[1 << 20],
+            (CapturedStack) null, 0L, ObjectRetention.WEAK);
+        for (int i = 0; i < 10 && weak.getRelatedObject() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals("[B", weak.getRelatedClassName());
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(serialize(createSessionData())), false, false, TraceLevel.SUMMARY)) {
+            tois.setObjectRetention(ObjectRetention.IDENTITY);
+            tois.readObjectWithTrace();
+            for (DeserializationStep step : tois.getExecutionTrace()) {
+                assertNull(step.getRelatedObject(), "IDENTITY策略下步骤不应持有对象");
+            }
+            assertTrue(tois.getStatistics().getInvolvedClasses().contains(SessionData.class.getName()));
+        }
+    }
+
+    static class SlowLeaf implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String name = "leaf";
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            long end = System.nanoTime() + 2_000_000L;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    static class TreeRoot implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private SlowLeaf first = new SlowLeaf();
+        private SlowLeaf[] more = {new SlowLeaf(), new SlowLeaf()};
+        private String label = "root";
+    }
+
+    @Test
+    @DisplayName("测试嵌套调用树的包含时间与自身时间")
+    public void testDeserializationCallTree() throws Exception {
+        DeserializationFilter filter = new DeserializationFilter();
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(serialize(new TreeRoot())), TraceLevel.COUNTERS)) {
+            DeserializationCallTree tree = tois.enableCallTree();
+            tois.applyFilter(filter);
+            assertTrue(tois.readObjectWithTrace() instanceof TreeRoot);
+
+            assertSame(tree, tois.getCallTree());
+            assertEquals(1, tree.getRootCount());
+            assertTrue(filter.getCheckCount() > 0, "过滤器仍然生效");
+
+            DeserializationCallTree.Timing leaf = tree.getClassTiming(SlowLeaf.class.getName());
+            assertNotNull(leaf);
+            assertEquals(3, leaf.getCount());
+            assertTrue(leaf.getSelfNanos() >= 6_000_000L, "自定义readObject的耗时计入SlowLeaf自身时间");
+
+            DeserializationCallTree.Timing root = tree.getClassTiming(TreeRoot.class.getName());
+            assertNotNull(root);
+            assertEquals(1, root.getCount());
+            assertTrue(root.getInclusiveNanos() >= leaf.getInclusiveNanos());
+            assertTrue(root.getSelfNanos() < root.getInclusiveNanos());
+
+            List<String> paths = new ArrayList<>();
+            tree.getPathTimings().forEach(t -> paths.add(t.getName()));
+            assertTrue(paths.contains("TraceableObjectInputStreamTest$TreeRoot > TraceableObjectInputStreamTest$SlowLeaf"), paths.toString());
+            assertTrue(paths.contains("TraceableObjectInputStreamTest$TreeRoot > TraceableObjectInputStreamTest$SlowLeaf[] > TraceableObjectInputStreamTest$SlowLeaf"), paths.toString());
+            assertEquals(4, paths.size(), paths.toString());
+            assertTrue(tree.toJsonString().contains("\"roots\":1"));
+        }
+    }
+
+    @Test
+    @DisplayName("测试步骤偏移量与按类/字段的载荷大小归因")
+    public void testPayloadSizeAttribution() throws Exception {
+        SessionData sessionData = createSessionData();
+        sessionData.addAttribute("blob", "x".repeat(2000));
+        byte[] data = serialize(sessionData);
+
+        PayloadSizeProfile profile = PayloadSizeProfile.of(data);
+        assertEquals(1, profile.getRootCount());
+        assertEquals(data.length - 4, profile.getRootBytes(), "顶层对象字节数等于流长度减去流头");
+
+        PayloadSizeProfile.Usage session = profile.getClassUsage(SessionData.class.getName());
+        assertNotNull(session);
+        assertEquals(data.length - 4, session.getTotalBytes());
+        assertTrue(session.getSelfBytes() < session.getTotalBytes());
+        PayloadSizeProfile.Usage attributes = profile.getFieldUsage(SessionData.class.getName(), "attributes");
+        assertNotNull(attributes);
+        assertTrue(attributes.getTotalBytes() > 2000, "大属性计入attributes字段");
+        assertEquals(8, profile.getFieldUsage(SessionData.class.getName(), "loginTime").getTotalBytes());
+        assertEquals(SessionData.class.getName() + ".attributes", profile.getFieldUsages().get(0).getName());
+        assertNotNull(profile.getFieldUsage("java.util.HashMap", null), "HashMap的writeObject数据单独归因");
+        assertTrue(profile.toJsonString().contains("\"rootCount\":1"));
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(data), false, false, TraceLevel.FULL)) {
+            DeserializationCallTree tree = tois.enableCallTree();
+            tois.readObjectWithTrace();
+
+            long previous = -1;
+            for (DeserializationStep step : tois.getExecutionTrace()) {
+                assertTrue(step.getStreamOffset() >= previous, "步骤偏移量单调递增");
+                previous = step.getStreamOffset();
+            }
+            assertEquals(data.length, previous);
+
+            DeserializationCallTree.Timing sessionTiming = tree.getClassTiming(SessionData.class.getName());
+            assertTrue(sessionTiming.getInclusiveBytes() > 2000);
+            assertTrue(sessionTiming.getSelfBytes() < sessionTiming.getInclusiveBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("测试头部采样与危险类/过滤器拒绝触发的尾部提升")
+    public void testDeserializationSampler() throws Exception {
+        DeserializationSampler sampler = new DeserializationSampler(2, 8);
+        byte[] session = serialize(createSessionData());
+        java.util.PriorityQueue<String> queue = new java.util.PriorityQueue<>();
+        queue.add("a");
+        byte[] dangerous = serialize(queue);
+
+        try (TraceableObjectInputStream sampled = sampler.open(new ByteArrayInputStream(session))) {
+            assertEquals(TraceLevel.FULL, sampled.getTraceLevel());
+            sampled.readObjectWithTrace();
+            assertFalse(sampled.getExecutionTrace().isEmpty());
+            assertFalse(sampled.isPromoted());
+        }
+        try (TraceableObjectInputStream unsampled = sampler.open(new ByteArrayInputStream(session))) {
+            assertEquals(TraceLevel.COUNTERS, unsampled.getTraceLevel());
+            unsampled.readObjectWithTrace();
+            assertTrue(unsampled.getExecutionTrace().isEmpty(), "未采中且无异常的流不保留步骤");
+            assertEquals(0, unsampled.getStatistics().getTotalSteps());
+            assertFalse(unsampled.isPromoted());
+        }
+        sampler.open(new ByteArrayInputStream(session)).close();
+        try (TraceableObjectInputStream promoted = sampler.open(new ByteArrayInputStream(dangerous))) {
+            assertEquals(TraceLevel.COUNTERS, promoted.getTraceLevel());
+            promoted.readObjectWithTrace();
+            assertTrue(promoted.isPromoted());
+            assertEquals("DANGEROUS_CLASS", promoted.getPromotionReason());
+            assertEquals(TraceLevel.FULL, promoted.getTraceLevel());
+
+            List<String> types = new ArrayList<>();
+            promoted.getExecutionTrace().forEach(step -> types.add(step.getStepType()));
+            assertEquals("READ_START", types.get(0), "预缓冲中提升前的步骤被追溯保留");
+            assertTrue(types.contains("DANGEROUS_CLASS"));
+            assertTrue(types.contains("PROMOTED"));
+            assertTrue(types.contains("READ_COMPLETE"));
+            assertTrue(promoted.getStatistics().getDangerousClasses().contains("java.util.PriorityQueue"));
+        }
+
+        sampler.setSampleRate(0);
+        DeserializationFilter filter = new DeserializationFilter(DeserializationLimits.unlimited(),
+            name -> name.equals(SessionData.class.getName()));
+        try (TraceableObjectInputStream rejected = sampler.open(new ByteArrayInputStream(session))) {
+            rejected.applyFilter(filter);
+            assertThrows(InvalidClassException.class, rejected::readObjectWithTrace);
+            assertEquals("FILTER_REJECTED", rejected.getPromotionReason());
+            assertTrue(rejected.getExecutionTrace().stream().anyMatch(s -> s.getStepType().equals("READ_ERROR")));
+        }
+
+        assertEquals(2, sampler.getSampledCount());
+        assertEquals(3, sampler.getUnsampledCount());
+        assertEquals(2, sampler.getPromotedCount());
+        assertEquals(1L, sampler.getPromotionCounts().get("FILTER_REJECTED"));
+
+        // 流上已直接设置过滤器时由过滤器的拒绝回调触发提升，预缓冲记录在提升时补建为只含类名的步骤
+        try (TraceableObjectInputStream attached = filter.attach(
+                new TraceableObjectInputStream(new ByteArrayInputStream(session), TraceLevel.COUNTERS))) {
+            sampler.apply(attached);
+            assertThrows(InvalidClassException.class, attached::readObjectWithTrace);
+            assertEquals("FILTER_REJECTED", attached.getPromotionReason());
+            List<DeserializationStep> steps = attached.getExecutionTrace();
+            assertEquals("READ_START", steps.get(0).getStepType());
+            assertTrue(steps.stream().anyMatch(s -> s.getStepType().equals("READ_CLASS_DESC")
+                && SessionData.class.getName().equals(s.getSubjectClassName())
+                && s.getStackTrace() == null && s.getRelatedObject() == null));
+        }
+        assertEquals(2L, sampler.getPromotionCounts().get("FILTER_REJECTED"));
+
+        // 未采中流的尾部捕获过滤器保留jdk.serialFilter，静态过滤器拒绝同样触发提升
+        installStaticProbeFilter();
+        try (TraceableObjectInputStream probed = sampler.open(
+                new ByteArrayInputStream(serialize(new StaticFilterProbe())))) {
+            assertEquals(TraceLevel.COUNTERS, probed.getTraceLevel());
+            assertThrows(InvalidClassException.class, probed::readObjectWithTrace, "未采中的流仍应经过静态过滤器");
+            assertEquals("FILTER_REJECTED", probed.getPromotionReason());
+        }
+        assertEquals(3L, sampler.getPromotionCounts().get("FILTER_REJECTED"));
+    }
+
+    @Test
+    @DisplayName("测试并发批量分析的判定与统计合并")
+    public void testBatchDeserializationAnalysis() throws Exception {
+        byte[] session = serialize(createSessionData());
+        java.util.PriorityQueue<String> queue = new java.util.PriorityQueue<>();
+        queue.add("a");
+        byte[] dangerous = serialize(queue);
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            payloads.add(i % 10 == 3 ? dangerous : session);
+        }
+        payloads.add(new byte[] {1, 2, 3});
+
+        com.book.demo.jvm.BatchAnalysisResult result =
+            new com.book.demo.jvm.JVMExecutionVisualizer().visualizeDeserializationBatch(payloads);
+        assertEquals(41, result.getTotalCount());
+        assertEquals(36, result.getCount(com.book.demo.jvm.BatchAnalysisResult.Verdict.SAFE));
+        assertEquals(5, result.getCount(com.book.demo.jvm.BatchAnalysisResult.Verdict.REJECTED));
+        assertEquals(4L, result.getRejectRules().get(ScanResult.RULE_CLASS));
+        assertEquals(1L, result.getRejectRules().get(ScanResult.RULE_MALFORMED));
+        assertEquals(36L, result.getRootClasses().get(SessionData.class.getName()));
+        assertEquals("payload-3", result.getVerdicts(com.book.demo.jvm.BatchAnalysisResult.Verdict.REJECTED).get(0).getId());
+        assertEquals(36, result.getStatistics().getStepTypeCount().get("READ_COMPLETE"), "各载荷的统计被合并");
+        assertEquals(40, result.getVerdicts().get(40).getIndex());
+
+        com.book.demo.jvm.BatchDeserializationAnalyzer analyzer = new com.book.demo.jvm.BatchDeserializationAnalyzer();
+        analyzer.setMode(com.book.demo.jvm.BatchDeserializationAnalyzer.Mode.FORK_JOIN);
+        analyzer.setConcurrency(2);
+        String ndjson = "{\"id\":\"a\",\"payload\":\"" + java.util.Base64.getEncoder().encodeToString(session) + "\"}\n" +
+                        "\n" +
+                        "{\"payload\":\"" + java.util.Base64.getEncoder().encodeToString(dangerous) + "\"}\n" +
+                        "{\"id\":\"broken\",\"payload\":\"***\"}\n" +
+                        "not json\n";
+        com.book.demo.jvm.BatchAnalysisResult ndjsonResult =
+            analyzer.analyzeNdjson(new ByteArrayInputStream(ndjson.getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+        List<com.book.demo.jvm.BatchAnalysisResult.PayloadVerdict> verdicts = ndjsonResult.getVerdicts();
+        assertEquals(4, verdicts.size());
+        assertEquals("a", verdicts.get(0).getId());
+        assertEquals(com.book.demo.jvm.BatchAnalysisResult.Verdict.SAFE, verdicts.get(0).getVerdict());
+        assertEquals("line-3", verdicts.get(1).getId());
+        assertEquals(com.book.demo.jvm.BatchAnalysisResult.Verdict.REJECTED, verdicts.get(1).getVerdict());
+        assertEquals(com.book.demo.jvm.BatchAnalysisResult.Verdict.ERROR, verdicts.get(2).getVerdict());
+        assertEquals(com.book.demo.jvm.BatchAnalysisResult.Verdict.ERROR, verdicts.get(3).getVerdict());
+        assertTrue(ndjsonResult.toJsonString().contains("\"ERROR\":2"));
+    }
+
+    @Test
+    @DisplayName("测试载荷判定缓存的命中、LRU淘汰与过期")
+    public void testPayloadVerdictCache() throws Exception {
+        byte[] session = serialize(createSessionData());
+        assertEquals("e34bbc7bbc071b6c7a433ca9c49a9347",
+            PayloadFingerprint.of("The quick brown fox jumps over the lazy dog".getBytes("UTF-8")).toHex());
+        assertEquals(PayloadFingerprint.of(session), PayloadFingerprint.of(session.clone()));
+        assertEquals(PayloadFingerprint.keyed(session), PayloadFingerprint.keyed(session.clone()));
+        assertNotEquals(PayloadFingerprint.of(session), PayloadFingerprint.keyed(session));
+        assertThrows(IllegalArgumentException.class, () -> new PayloadVerdictCache().get(PayloadFingerprint.of(session)),
+            "命中会跳过扫描，缓存不接受可被构造碰撞的无密钥指纹");
+
+        PayloadVerdictCache cache = new PayloadVerdictCache();
+        SerializationStreamScanner scanner = new SerializationStreamScanner();
+        for (int i = 0; i < 2; i++) {
+            try (TraceableObjectInputStream tois =
+                     TraceableObjectInputStream.openScanned(session, scanner, TraceLevel.SUMMARY, cache)) {
+                assertNotNull(tois.readObjectWithTrace());
+                assertTrue(tois.getCachedVerdict().isTraced());
+                assertEquals(SessionData.class.getName(), tois.getCachedVerdict().getRootClass());
+            }
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        java.util.PriorityQueue<String> queue = new java.util.PriorityQueue<>();
+        queue.add("a");
+        byte[] dangerous = serialize(queue);
+        assertThrows(PayloadRejectedException.class,
+            () -> TraceableObjectInputStream.openScanned(dangerous, scanner, TraceLevel.SUMMARY, cache));
+        PayloadRejectedException cached = assertThrows(PayloadRejectedException.class,
+            () -> TraceableObjectInputStream.openScanned(dangerous, scanner, TraceLevel.SUMMARY, cache));
+        assertEquals(ScanResult.RULE_CLASS, cached.getRejectRule());
+        assertEquals(2, cache.getHitCount());
+
+        long[] now = {0};
+        PayloadVerdictCache small = new PayloadVerdictCache(2, java.time.Duration.ofSeconds(1), () -> now[0]);
+        byte[][] payloads = {{1}, {2}, {3}};
+        for (byte[] payload : payloads) {
+            small.putScan(PayloadFingerprint.keyed(payload), scanner.scan(payload));
+        }
+        assertEquals(2, small.size());
+        assertEquals(1, small.getEvictionCount());
+        assertNull(small.get(payloads[0]), "最久未访问的条目被淘汰");
+        assertNotNull(small.get(payloads[2]));
+        now[0] = 2_000_000_000L;
+        assertNull(small.get(payloads[2]), "超过存活时间的条目视为未命中");
+        assertEquals(1, small.getExpirationCount());
+
+        com.book.demo.jvm.BatchDeserializationAnalyzer analyzer = new com.book.demo.jvm.BatchDeserializationAnalyzer();
+        PayloadVerdictCache batchCache = new PayloadVerdictCache();
+        analyzer.setVerdictCache(batchCache);
+        analyzer.setConcurrency(1);
+        com.book.demo.jvm.BatchAnalysisResult result =
+            analyzer.analyze(java.util.Arrays.asList(session, dangerous, session, dangerous));
+        assertEquals(2, result.getCount(com.book.demo.jvm.BatchAnalysisResult.Verdict.SAFE));
+        assertEquals(2, result.getCount(com.book.demo.jvm.BatchAnalysisResult.Verdict.REJECTED));
+        assertEquals("cached", result.getVerdicts().get(2).getMessage());
+        assertEquals(SessionData.class.getName(), result.getVerdicts().get(2).getRootClass());
+        assertEquals(2, batchCache.getHitCount());
+    }
+
+    @Test
+    @DisplayName("测试二进制追踪日志的并发写入与离线回放")
+    public void testBinaryTraceLog() throws Exception {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("trace", ".dtrc");
+        java.nio.file.Files.delete(file);
+        byte[] session = serialize(createSessionData());
+        List<DeserializationStatistics> originals = new ArrayList<>();
+        try (BinaryTraceLog log = new BinaryTraceLog(file, 1 << 20, 1024)) {
+            for (int i = 0; i < 3; i++) {
+                try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                        new ByteArrayInputStream(session), false, false, TraceLevel.SUMMARY)) {
+                    tois.setBinaryTraceLog(log);
+                    assertEquals(i, tois.getBinaryStreamId());
+                    tois.readObjectWithTrace();
+                    originals.add(tois.getStatistics());
+                }
+            }
+            assertEquals(0, log.getDroppedCount());
+        }
+
+        try (BinaryTraceReader reader = BinaryTraceReader.open(file)) {
+            assertEquals(java.util.Set.of(0, 1, 2), reader.getStreamIds());
+            DeserializationStatistics replayed = reader.replayStatistics(1);
+            assertEquals(originals.get(1).getTotalSteps(), replayed.getTotalSteps());
+            assertEquals(originals.get(1).getStepTypeCount(), replayed.getStepTypeCount());
+            assertEquals(originals.get(1).getTotalDuration(), replayed.getTotalDuration());
+            assertTrue(replayed.getInvolvedClasses().contains(SessionData.class.getName()));
+            assertEquals(3 * originals.get(0).getTotalSteps(), reader.getStepCount());
+
+            List<BinaryTraceReader.Entry> completes =
+                reader.query(e -> e.getStep().getStepType().equals("READ_COMPLETE"));
+            assertEquals(3, completes.size());
+            assertEquals(SessionData.class.getName(), completes.get(0).getClassName());
+            assertEquals(session.length, completes.get(0).getStep().getStreamOffset());
+        }
+
+        // 重新打开时接着追加，流编号和字符串表延续
+        try (BinaryTraceLog log = new BinaryTraceLog(file, 1 << 20, 1024);
+             TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                 new ByteArrayInputStream(session), false, false, TraceLevel.SUMMARY)) {
+            int strings = log.getStringCount();
+            tois.setBinaryTraceLog(log);
+            assertEquals(3, tois.getBinaryStreamId());
+            tois.readObjectWithTrace();
+            assertEquals(strings, log.getStringCount());
+        }
+        com.book.demo.jvm.DeserializationVisualization visualization =
+            new com.book.demo.jvm.JVMExecutionVisualizer().visualizeTraceLog(file, 3);
+        assertEquals(originals.get(0).getTotalSteps(), visualization.getDeserializationSteps().size());
+
+        // 容量不足时丢弃而不是抛出异常
+        java.nio.file.Path small = java.nio.file.Files.createTempFile("trace-small", ".dtrc");
+        java.nio.file.Files.delete(small);
+        try (BinaryTraceLog log = new BinaryTraceLog(small, 256, 1024);
+             TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                 new ByteArrayInputStream(session), false, false, TraceLevel.SUMMARY)) {
+            tois.setBinaryTraceLog(log);
+            tois.readObjectWithTrace();
+            assertTrue(log.getDroppedCount() > 0);
+        }
+        try (BinaryTraceReader reader = BinaryTraceReader.open(small)) {
+            assertTrue(reader.getStepCount() > 0);
+        }
+        java.nio.file.Files.deleteIfExists(file);
+        java.nio.file.Files.deleteIfExists(small);
+    }
+
+    @Test
+    @DisplayName("测试两次反序列化追踪的对齐与差异报告")
+    public void testTraceDiff() throws Exception {
+        SessionData sessionData = createSessionData();
+        java.util.PriorityQueue<String> queue = new java.util.PriorityQueue<>();
+        queue.add("a");
+        byte[] baselineData = serialize(new Object[] {sessionData});
+        byte[] candidateData = serialize(new Object[] {sessionData, queue});
+
+        try (TraceableObjectInputStream baseline = new TraceableObjectInputStream(
+                 new ByteArrayInputStream(baselineData), false, false, TraceLevel.SUMMARY);
+             TraceableObjectInputStream same = new TraceableObjectInputStream(
+                 new ByteArrayInputStream(baselineData), false, false, TraceLevel.SUMMARY);
+             TraceableObjectInputStream candidate = new TraceableObjectInputStream(
+                 new ByteArrayInputStream(candidateData), false, false, TraceLevel.SUMMARY)) {
+            // 调用树同时开启resolveObject回调，三个流记录的步骤类型一致
+            baseline.enableCallTree();
+            same.enableCallTree();
+            candidate.enableCallTree();
+            baseline.readObjectWithTrace();
+            same.readObjectWithTrace();
+            candidate.readObjectWithTrace();
+
+            TraceDiff identical = TraceDiff.compare(baseline.getExecutionTrace(), same.getExecutionTrace());
+            assertTrue(identical.isIdentical());
+            assertTrue(identical.getAddedClasses().isEmpty());
+            assertTrue(identical.getAddedPaths().isEmpty());
+
+            TraceDiff stepDiff = TraceDiff.compare(baseline.getExecutionTrace(), candidate.getExecutionTrace());
+            assertTrue(stepDiff.isAligned());
+            assertEquals(0, stepDiff.getRemovedSteps(), "基准的每个步骤都能在对比对象中对齐");
+            assertTrue(stepDiff.getAddedSteps() > 0);
+            assertEquals(baseline.getExecutionTrace().size() + stepDiff.getAddedSteps(), stepDiff.getAlignment().size());
+            assertTrue(stepDiff.getAlignment().stream().filter(a -> a.getChange() == TraceDiff.Change.ADDED)
+                .allMatch(a -> a.getCandidate() != null && a.getBaseline() == null));
+            assertTrue(stepDiff.getAddedClasses().contains("java.util.PriorityQueue"));
+            assertEquals(List.of("java.util.PriorityQueue"), stepDiff.getAddedDangerousClasses());
+            assertTrue(stepDiff.getAddedPaths().contains("Object[] > PriorityQueue"), stepDiff.getAddedPaths().toString());
+            assertTrue(stepDiff.getClassDelta("java.util.PriorityQueue").getBytesDelta() > 0);
+
+            TraceDiff treeDiff = TraceDiff.compare(baseline, candidate);
+            assertTrue(treeDiff.getAddedPaths().contains("Object[] > PriorityQueue"), treeDiff.getAddedPaths().toString());
+            TraceDiff.ClassDelta queueDelta = treeDiff.getClassDelta("java.util.PriorityQueue");
+            assertEquals(0, queueDelta.getBaselineCount());
+            assertEquals(1, queueDelta.getCandidateCount());
+            assertTrue(queueDelta.getCandidateBytes() > 0);
+
+            TraceDiff reverse = TraceDiff.compare(candidate.getExecutionTrace(), baseline.getExecutionTrace());
+            assertEquals(stepDiff.getAddedSteps(), reverse.getRemovedSteps());
+            assertTrue(reverse.getRemovedClasses().contains("java.util.PriorityQueue"));
+            assertTrue(reverse.toJsonString().contains("\"removedClasses\":[\"java.util.PriorityQueue\""));
+        }
+    }
+
+    @Test
+    @DisplayName("测试追踪存储的倒排索引查询与容量淘汰")
+    public void testTraceStore() throws Exception {
+        TraceStore store = new TraceStore(3);
+        java.util.PriorityQueue<String> queue = new java.util.PriorityQueue<>();
+        queue.add("a");
+        byte[] session = serialize(createSessionData());
+        byte[] gadget = serialize(new Object[] {queue});
+
+        ByteArrayOutputStream twoObjects = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(twoObjects)) {
+            oos.writeObject(createSessionData());
+            oos.writeObject("second");
+        }
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(twoObjects.toByteArray()), false, false, TraceLevel.SUMMARY)) {
+            tois.setTraceStore(store);
+            tois.readObjectWithTrace();
+            tois.readObjectWithTrace();
+        }
+        assertEquals(2, store.size(), "每次顶层readObject写入一次追踪");
+        StoredTrace first = store.get(1);
+        StoredTrace second = store.get(2);
+        assertEquals(SessionData.class.getName(), first.getRootClass());
+        assertEquals("java.lang.String", second.getRootClass());
+        assertFalse(second.getClassNames().contains(SessionData.class.getName()), "第二次追踪不重复包含之前的步骤");
+
+        for (byte[] data : new byte[][] {gadget, session}) {
+            try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                    new ByteArrayInputStream(data), false, false, TraceLevel.SUMMARY)) {
+                tois.setTraceStore(store);
+                tois.readObjectWithTrace();
+            }
+        }
+        assertEquals(3, store.size());
+        assertEquals(1, store.getEvictedCount());
+        assertNull(store.get(1), "最旧的追踪被淘汰");
+
+        List<StoredTrace> resolved = store.query("PriorityQueue", "RESOLVE_CLASS", 0, 0, 10);
+        assertEquals(1, resolved.size());
+        assertEquals(3, resolved.get(0).getId());
+        assertTrue(resolved.get(0).getDangerousClasses().contains("java.util.PriorityQueue"));
+        assertTrue(store.query("java.util.PriorityQueue", "READ_COMPLETE", 0, 0, 10).isEmpty(),
+                   "类名和步骤类型须由同一步骤满足");
+
+        List<StoredTrace> sessions = store.query(SessionData.class.getName(), null, 0, 0, 10);
+        assertEquals(List.of(4L), sessions.stream().map(StoredTrace::getId).toList(), "被淘汰追踪的索引已清理");
+        assertEquals(3, store.query(null, "READ_COMPLETE", 0, 0, 10).size());
+        long now = System.currentTimeMillis();
+        assertEquals(3, store.query(null, null, now - 3_600_000, 0, 10).size());
+        assertTrue(store.query(null, null, now + 3_600_000, 0, 10).isEmpty());
+        assertTrue(store.query(null, null, now + 3_600_000, now - 3_600_000, 10).isEmpty(), "起点晚于终点时返回空结果");
+        assertEquals(4, store.query(null, null, 0, 0, 1).get(0).getId(), "结果从新到旧排列");
+        assertTrue(store.get(3).toJsonString(true).contains("\"steps\":["));
+
+        TraceStore fullStore = new TraceStore(1);
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(session), false, false, TraceLevel.FULL)) {
+            tois.setTraceStore(fullStore);
+            tois.readObjectWithTrace();
+            assertTrue(tois.getExecutionTrace().stream().anyMatch(s -> s.getRelatedObject() != null));
+        }
+        StoredTrace full = fullStore.query(null, null, 0, 0, 1).get(0);
+        assertTrue(full.hasStep("READ_COMPLETE", SessionData.class.getName()));
+        for (DeserializationStep step : full.getSteps()) {
+            assertNull(step.getRelatedObject(), "存储的步骤不持有反序列化出的对象");
+            assertNull(step.getStackTrace(), "存储的步骤不持有调用栈");
+        }
+    }
+
+    @Test
+    @DisplayName("测试序列化追踪流的按类统计与回引用统计")
+    public void testTraceableObjectOutputStream() throws Exception {
+        SessionData shared = createSessionData();
+        ArrayList<Object> list = new ArrayList<>();
+        list.add(shared);
+        list.add(shared);
+        list.add("tail");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TraceableObjectOutputStream toos = new TraceableObjectOutputStream(baos, TraceLevel.FULL, true);
+        toos.writeObjectWithTrace(list);
+        toos.flush();
+
+        assertEquals(baos.size(), toos.getBytesWritten(), "字节计数与实际输出一致");
+        assertEquals(1, toos.getWriteObjectCount());
+        TraceableObjectOutputStream.ClassWriteStats sessionStats = toos.getClassStats(SessionData.class.getName());
+        assertNotNull(sessionStats);
+        assertEquals(1, sessionStats.getCount(), "同一对象第二次写出为回引用");
+        assertEquals(1, sessionStats.getDescriptors());
+        assertTrue(sessionStats.getSelfBytes() > 0);
+        assertEquals(1, toos.getClassStats("java.util.ArrayList").getWriteObjectCalls(), "ArrayList声明了writeObject");
+        assertTrue(toos.getWriteObjectHookCount() >= 2, "ArrayList和HashMap各一次");
+        assertTrue(toos.getBackReferenceCount() >= 1, "重复的SessionData写为回引用");
+        assertTrue(toos.getBackReferenceHitRate() > 0);
+
+        long selfBytes = toos.getClassStats().stream()
+            .mapToLong(TraceableObjectOutputStream.ClassWriteStats::getSelfBytes).sum();
+        assertTrue(selfBytes < toos.getBytesWritten(), "流头和顶层前缀不归属任何对象");
+        assertTrue(toos.getExecutionTrace().stream().anyMatch(s -> "WRITE_COMPLETE".equals(s.getStepType())));
+        assertTrue(toos.getExecutionTrace().stream().anyMatch(s -> "WRITE_CLASS_DESC".equals(s.getStepType())));
+        assertTrue(toos.toJsonString().contains("\"className\":\"" + SessionData.class.getName() + "\""));
+
+        try (TraceableObjectInputStream tois = new TraceableObjectInputStream(
+                new ByteArrayInputStream(baos.toByteArray()), false, false, TraceLevel.OFF)) {
+            List<?> copy = (List<?>) tois.readObjectWithTrace();
+            assertSame(copy.get(0), copy.get(1), "写出内容可以正常反序列化");
+        }
+    }
+}